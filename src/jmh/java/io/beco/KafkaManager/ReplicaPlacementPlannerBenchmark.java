@@ -0,0 +1,107 @@
+/**
+ * @file ReplicaPlacementPlannerBenchmark.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/12/18 9:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * ReplicaPlacementPlannerBenchmark measures {@link ReplicaPlacementPlanner#planTarget} on hundreds of brokers
+ * starting from the layouts that make it work hardest:
+ * <ul>
+ *     <li>hot: every replica on a tenth of the brokers, evened out over all of them.</li>
+ *     <li>expanded: half the brokers just added and empty, evened out over all of them.</li>
+ *     <li>rfChange: an even RF 1 layout going to RF 3, only the added replicas move.</li>
+ * </ul>
+ *
+ * Run with ./gradlew jmh -PjmhInclude=ReplicaPlacementPlannerBenchmark.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ReplicaPlacementPlannerBenchmark
+{
+    private static final int PARTITIONS_PER_TOPIC = 100;
+
+    @Param( { "100", "500" } )
+    public int brokers;
+
+    @Param( { "10000", "100000" } )
+    public int partitions;
+
+    @Param( { "hot", "expanded", "rfChange" } )
+    public String layout;
+
+    private TopicPartitionAssignment current;
+
+    private ReplicaPlacementPlanner planner;
+
+    private int targetReplicationFactor;
+
+    @Setup
+    public void setup()
+    {
+        final Random random = new Random( 42 );
+
+        // The brokers the current layout uses, and the replication factor it has.
+        final int used;
+        final int replicationFactor;
+        switch( this.layout )
+        {
+            case "hot":
+                used              = this.brokers / 10;
+                replicationFactor = 3;
+                break;
+            case "expanded":
+                used              = this.brokers / 2;
+                replicationFactor = 3;
+                break;
+            case "rfChange":
+                used              = this.brokers;
+                replicationFactor = 1;
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown layout " + this.layout );
+        }
+
+        this.current = new TopicPartitionAssignment();
+        for( int i = 0; i < this.partitions; ++i )
+        {
+            final String topic = "topic-" + ( i / PARTITIONS_PER_TOPIC );
+            final int    first = random.nextInt( used );
+            for( int r = 0; r < replicationFactor; ++r )
+            {
+                this.current.add( topic, i % PARTITIONS_PER_TOPIC, ( first + r ) % used );
+            }
+        }
+
+        final List< Integer > all = IntStream.range( 0, this.brokers ).boxed().collect( Collectors.toList() );
+        this.planner = new ReplicaPlacementPlanner( all );
+        this.planner.setBalanceReplicas( !"rfChange".equals( this.layout ) );
+        this.targetReplicationFactor = "rfChange".equals( this.layout ) ? 3 : ReplicaPlacementPlanner.KEEP_REPLICATION_FACTOR;
+    }
+
+    @Benchmark
+    public TopicPartitionAssignment planTarget()
+    {
+        return this.planner.planTarget( this.current, this.targetReplicationFactor );
+    }
+}
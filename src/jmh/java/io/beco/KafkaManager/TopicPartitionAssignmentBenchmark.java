@@ -0,0 +1,151 @@
+/**
+ * @file TopicPartitionAssignmentBenchmark.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/26/18 10:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TopicPartitionAssignmentBenchmark measures the assignment model and the plan JSON
+ * at cluster sizes from 1k to 100k partitions.
+ *
+ * Run with ./gradlew jmh, the gc profiler adds the allocation rate (gc.alloc.rate.norm is bytes per op).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TopicPartitionAssignmentBenchmark
+{
+    private static final int PARTITIONS_PER_TOPIC = 50;
+
+    private static final int BROKERS = 12;
+
+    /**
+     * Fraction of the partitions the requested layout moves.
+     */
+    private static final double CHANGED = 0.1;
+
+    @Param( { "1000", "10000", "100000" } )
+    public int partitions;
+
+    @Param( { "1", "3", "5" } )
+    public int replicationFactor;
+
+    private String[] topics;
+
+    private int[][] currentReplicas;
+
+    private TopicPartitionAssignment current;
+
+    private TopicPartitionAssignment requested;
+
+    private TopicPartitionAssignment plan;
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Setup
+    public void setup()
+    {
+        final Random random = new Random( 42 );
+
+        this.topics          = new String[ this.partitions ];
+        this.currentReplicas = new int[ this.partitions ][];
+        for( int i = 0; i < this.partitions; ++i )
+        {
+            this.topics[ i ]          = "topic-" + ( i / PARTITIONS_PER_TOPIC );
+            this.currentReplicas[ i ] = replicas( i, 0 );
+        }
+
+        this.current   = build( this.currentReplicas );
+        this.requested = new TopicPartitionAssignment();
+        for( int i = 0; i < this.partitions; ++i )
+        {
+            // Shift a tenth of the partitions one broker along.
+            final int[] replicas = random.nextDouble() < CHANGED ? replicas( i, 1 ) : this.currentReplicas[ i ];
+            addAll( this.requested, i, replicas );
+        }
+        this.plan = TopicPartitionAssignment.findAssignmentChanges( this.requested, this.current );
+    }
+
+    @Benchmark
+    public TopicPartitionAssignment add()
+    {
+        return build( this.currentReplicas );
+    }
+
+    @Benchmark
+    public List< TopicPartitionAssignment.TopicPartReplSet > generateTopicAssignments()
+    {
+        return this.current.generateTopicAssignments();
+    }
+
+    @Benchmark
+    public TopicPartitionAssignment findAssignmentChanges()
+    {
+        return TopicPartitionAssignment.findAssignmentChanges( this.requested, this.current );
+    }
+
+    /**
+     * The whole layout, what a bulk plan or an export writes.
+     */
+    @Benchmark
+    public String writeAssignment() throws JsonProcessingException
+    {
+        return this.om.writeValueAsString( this.current );
+    }
+
+    /**
+     * Only the changes, what a wave writes to ZooKeeper.
+     */
+    @Benchmark
+    public String writePlan() throws JsonProcessingException
+    {
+        return this.om.writeValueAsString( this.plan );
+    }
+
+    private int[] replicas( final int partition, final int shift )
+    {
+        final int[] replicas = new int[ this.replicationFactor ];
+        for( int r = 0; r < this.replicationFactor; ++r )
+        {
+            replicas[ r ] = ( partition + r + shift ) % BROKERS;
+        }
+        return replicas;
+    }
+
+    private TopicPartitionAssignment build( final int[][] layout )
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int i = 0; i < layout.length; ++i )
+        {
+            addAll( tpa, i, layout[ i ] );
+        }
+        return tpa;
+    }
+
+    private void addAll( final TopicPartitionAssignment tpa, final int i, final int[] replicas )
+    {
+        for( int brokerId : replicas )
+        {
+            tpa.add( this.topics[ i ], i % PARTITIONS_PER_TOPIC, brokerId );
+        }
+    }
+}
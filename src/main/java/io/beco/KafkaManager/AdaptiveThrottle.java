@@ -0,0 +1,130 @@
+/**
+ * @file AdaptiveThrottle.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/19/18 10:15 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * AdaptiveThrottle decides the next replication throttle from what the cluster is doing,
+ * additive increase / multiplicative decrease.
+ *
+ * <ul>
+ *     <li>If the brokers look unhealthy - partitions outside the reassignment are under replicated,
+ *         or admin requests have slowed down - the throttle is cut by the decrease factor.</li>
+ *     <li>If replication is running close to the throttle, the throttle is what holds it back,
+ *         so it is raised by the increase step.</li>
+ *     <li>Otherwise the brokers can't use what they already have and the throttle is left alone.</li>
+ * </ul>
+ *
+ * The throttle always stays between the floor and the ceiling.
+ */
+@Getter
+@ToString
+public class AdaptiveThrottle
+{
+    public enum Decision
+    {
+        INCREASE,
+        DECREASE,
+        HOLD
+    }
+
+    /**
+     * Replication counts as limited by the throttle once it reaches this fraction of it.
+     */
+    static final double SATURATION = 0.8;
+
+    private final long minBytesPerSec;
+
+    private final long maxBytesPerSec;
+
+    private final long increaseBytesPerSec;
+
+    private final double decreaseFactor;
+
+    private final long maxLatencyMs;
+
+    private final int maxUnderReplicated;
+
+    public AdaptiveThrottle( final long minBytesPerSec,
+                             final long maxBytesPerSec,
+                             final long increaseBytesPerSec,
+                             final double decreaseFactor,
+                             final long maxLatencyMs,
+                             final int maxUnderReplicated )
+    {
+        if( minBytesPerSec <= 0 || maxBytesPerSec < minBytesPerSec )
+        {
+            throw new IllegalArgumentException( "Throttle bounds must satisfy 0 < min <= max." );
+        }
+        if( decreaseFactor <= 0 || decreaseFactor >= 1 )
+        {
+            throw new IllegalArgumentException( "Decrease factor must be between 0 and 1." );
+        }
+        this.minBytesPerSec      = minBytesPerSec;
+        this.maxBytesPerSec      = maxBytesPerSec;
+        this.increaseBytesPerSec = increaseBytesPerSec;
+        this.decreaseFactor      = decreaseFactor;
+        this.maxLatencyMs        = maxLatencyMs;
+        this.maxUnderReplicated  = maxUnderReplicated;
+    }
+
+    /**
+     * @param observedBytesPerSec replication rate of the reassignment.
+     * @param underReplicated     under replicated partitions that are not part of the reassignment.
+     * @param latencyMs           round trip of an admin request to the cluster.
+     */
+    public Decision decide( final long currentBytesPerSec,
+                            final long observedBytesPerSec,
+                            final int underReplicated,
+                            final long latencyMs )
+    {
+        if( underReplicated > this.maxUnderReplicated || latencyMs > this.maxLatencyMs )
+        {
+            return Decision.DECREASE;
+        }
+        if( observedBytesPerSec >= SATURATION * currentBytesPerSec )
+        {
+            return Decision.INCREASE;
+        }
+        return Decision.HOLD;
+    }
+
+    /**
+     * @return the throttle to apply after the decision, within the bounds.
+     */
+    public long apply( final Decision decision, final long currentBytesPerSec )
+    {
+        final long next;
+        switch( decision )
+        {
+            case INCREASE:
+                next = currentBytesPerSec + this.increaseBytesPerSec;
+                break;
+            case DECREASE:
+                next = (long)( currentBytesPerSec * this.decreaseFactor );
+                break;
+            case HOLD:
+            default:
+                next = currentBytesPerSec;
+                break;
+        }
+        return clamp( next );
+    }
+
+    public long clamp( final long bytesPerSec )
+    {
+        return Math.max( this.minBytesPerSec, Math.min( this.maxBytesPerSec, bytesPerSec ) );
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * @file AdminFutures.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/7/18 4:45 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.common.KafkaFuture;
+
+import java.util.concurrent.*;
+
+/**
+ * AdminFutures bridges {@link KafkaFuture}s from the AdminClient into {@link CompletableFuture}s
+ * that carry a deadline, so callers can chain on them instead of parking a thread in get().
+ *
+ * The 1.0 KafkaFuture only exposes a success callback (thenApply), so success is propagated
+ * immediately and failures/deadlines are picked up by a single shared checker thread.
+ */
+public final class AdminFutures
+{
+    private static final long CHECK_INTERVAL_MS = 50;
+
+    private static final ScheduledExecutorService CHECKER
+        = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "admin-future-deadlines" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+    private AdminFutures()
+    {
+    }
+
+    /**
+     * @param future     the AdminClient future.
+     * @param deadlineMs how long the caller is willing to wait.
+     * @param what       name of the call, used in the timeout message.
+     * @return a CompletableFuture that completes with the value, the failure, or a {@link TimeoutException}.
+     */
+    public static < T > CompletableFuture< T > toCompletable( final KafkaFuture< T > future,
+                                                              final long deadlineMs,
+                                                              final String what )
+    {
+        final CompletableFuture< T > cf = new CompletableFuture<>();
+
+        future.thenApply( new KafkaFuture.Function< T, Void >()
+        {
+            @Override
+            public Void apply( T value )
+            {
+                cf.complete( value );
+                return null;
+            }
+        } );
+
+        if( !cf.isDone() )
+        {
+            final long deadline = System.currentTimeMillis() + deadlineMs;
+            final ScheduledFuture< ? > check = CHECKER.scheduleWithFixedDelay( () -> {
+                if( future.isCompletedExceptionally() )
+                {
+                    cf.completeExceptionally( failureOf( future ) );
+                }
+                else if( System.currentTimeMillis() > deadline )
+                {
+                    cf.completeExceptionally(
+                        new TimeoutException( what + " did not complete within " + deadlineMs + " ms." ) );
+                }
+            }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS );
+            cf.whenComplete( ( v, t ) -> check.cancel( false ) );
+        }
+
+        return cf;
+    }
+
+    /**
+     * Puts a deadline on an arbitrary future, e.g. a composition of several admin calls.
+     */
+    public static < T > CompletableFuture< T > withDeadline( final CompletableFuture< T > future,
+                                                             final long deadlineMs,
+                                                             final String what )
+    {
+        if( !future.isDone() )
+        {
+            final ScheduledFuture< ? > timer = CHECKER.schedule(
+                () -> future.completeExceptionally(
+                    new TimeoutException( what + " did not complete within " + deadlineMs + " ms." ) ),
+                deadlineMs, TimeUnit.MILLISECONDS );
+            future.whenComplete( ( v, t ) -> timer.cancel( false ) );
+        }
+        return future;
+    }
+
+    /**
+     * Strips the CompletionException/ExecutionException wrappers the futures add.
+     */
+    public static Throwable unwrap( Throwable t )
+    {
+        while( ( t instanceof CompletionException || t instanceof ExecutionException ) && t.getCause() != null )
+        {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    private static Throwable failureOf( final KafkaFuture< ? > future )
+    {
+        try
+        {
+            future.getNow( null );
+            return new IllegalStateException( "Future failed without a cause." );
+        }
+        catch( ExecutionException ee )
+        {
+            return ee.getCause() == null ? ee : ee.getCause();
+        }
+        catch( Exception e )
+        {
+            return e;
+        }
+    }
+}
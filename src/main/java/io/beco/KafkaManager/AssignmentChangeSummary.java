@@ -0,0 +1,141 @@
+/**
+ * @file AssignmentChangeSummary.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/9/18 11:02 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.*;
+
+/**
+ * AssignmentChangeSummary counts, per broker, how many replicas a plan adds to and removes from it.
+ *
+ * An added replica is a full copy of the partition that the broker has to fetch,
+ * so this is the first thing to look at when judging the impact of a plan.
+ * Given the {@link ReplicaSizes}, the bytes each broker has to copy are counted too.
+ */
+@Getter
+@ToString
+public class AssignmentChangeSummary
+{
+    private int partitionsChanged = 0;
+
+    /**
+     * broker id -> number of replicas the broker gains.
+     */
+    private final SortedMap< Integer, Integer > replicasAdded = new TreeMap<>();
+
+    /**
+     * broker id -> number of replicas the broker loses.
+     */
+    private final SortedMap< Integer, Integer > replicasRemoved = new TreeMap<>();
+
+    /**
+     * broker id -> bytes the broker has to copy for the replicas it gains.
+     */
+    private final SortedMap< Integer, Long > bytesAdded = new TreeMap<>();
+
+    /**
+     * broker id -> bytes the broker frees by deleting the replicas it loses.
+     */
+    private final SortedMap< Integer, Long > bytesRemoved = new TreeMap<>();
+
+    /**
+     * False when the summary was made without replica sizes and the byte counts are all 0.
+     */
+    private boolean bytesKnown = false;
+
+    /**
+     * @param plan    the changes, as produced by {@link TopicPartitionAssignment#findAssignmentChanges}.
+     * @param current the assignment as it is on the cluster now.
+     */
+    public static AssignmentChangeSummary of( final TopicPartitionAssignment plan,
+                                              final TopicPartitionAssignment current )
+    {
+        return of( plan, current, ReplicaSizes.EMPTY );
+    }
+
+    /**
+     * @param plan    the changes, as produced by {@link TopicPartitionAssignment#findAssignmentChanges}.
+     * @param current the assignment as it is on the cluster now.
+     * @param sizes   the replica sizes now, {@link ReplicaSizes#EMPTY} to count replicas only.
+     */
+    public static AssignmentChangeSummary of( final TopicPartitionAssignment plan,
+                                              final TopicPartitionAssignment current,
+                                              final ReplicaSizes sizes )
+    {
+        final AssignmentChangeSummary summary = new AssignmentChangeSummary();
+        summary.bytesKnown = sizes != ReplicaSizes.EMPTY;
+
+        plan.forEach( ( topic, partition, replicas ) -> {
+            final int[] before = current.getReplicas( topic, partition );
+            summary.partitionsChanged++;
+            for( int brokerId : replicas )
+            {
+                if( !TopicPartitionAssignment.hasReplica( before, brokerId ) )
+                {
+                    summary.replicasAdded.merge( brokerId, 1, Integer::sum );
+                    summary.bytesAdded.merge( brokerId, sizes.partitionSize( topic, partition ), Long::sum );
+                }
+            }
+            if( before != null )
+            {
+                for( int brokerId : before )
+                {
+                    if( !TopicPartitionAssignment.hasReplica( replicas, brokerId ) )
+                    {
+                        summary.replicasRemoved.merge( brokerId, 1, Integer::sum );
+                        summary.bytesRemoved.merge( brokerId,
+                                                    Math.max( 0L, sizes.replicaSize( topic, partition, brokerId ) ),
+                                                    Long::sum );
+                    }
+                }
+            }
+        } );
+
+        return summary;
+    }
+
+    /**
+     * @return every broker that gains or loses a replica.
+     */
+    public SortedSet< Integer > getBrokerIds()
+    {
+        final SortedSet< Integer > ids = new TreeSet<>( this.replicasAdded.keySet() );
+        ids.addAll( this.replicasRemoved.keySet() );
+        return ids;
+    }
+
+    public int getTotalReplicasAdded()
+    {
+        return this.replicasAdded.values().stream().mapToInt( Integer::intValue ).sum();
+    }
+
+    public long getTotalBytesAdded()
+    {
+        return this.bytesAdded.values().stream().mapToLong( Long::longValue ).sum();
+    }
+
+    /**
+     * @return what the plan does to the broker's disk usage, bytes added less bytes freed.
+     */
+    public long getNetBytes( final int brokerId )
+    {
+        return this.bytesAdded.getOrDefault( brokerId, 0L ) - this.bytesRemoved.getOrDefault( brokerId, 0L );
+    }
+
+    public int getTotalReplicasRemoved()
+    {
+        return this.replicasRemoved.values().stream().mapToInt( Integer::intValue ).sum();
+    }
+}
@@ -0,0 +1,411 @@
+/**
+ * @file AssignmentHistory.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/29/18 2:20 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * AssignmentHistory saves the assignment of a job's topics before and after every job, so any earlier
+ * layout can be looked at, compared or restored.
+ *
+ * Each assignment is its own gzipped file of varints, a few bytes per partition; the index of what was
+ * taken when, for which topics, is an append-only file of JSON lines held in memory. Assignments are
+ * only read when asked for, and the last few read are kept decoded since browsing tends to go back and
+ * forth between neighbours. The oldest snapshots are deleted past max-snapshots.
+ * A blank directory turns the history off.
+ */
+@Component
+@Slf4j
+public class AssignmentHistory
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String INDEX_FILE = "index.jsonl";
+
+    private static final int DECODED_CACHE_SIZE = 8;
+
+    private final Path directory;
+
+    private final int maxSnapshots;
+
+    /**
+     * Not the application's mapper, that one is set to indent and an entry has to stay on one line.
+     */
+    private final ObjectMapper om = new ObjectMapper();
+
+    /**
+     * Oldest first.
+     */
+    private final Deque< AssignmentSnapshot > index = new ArrayDeque<>();
+
+    /**
+     * Never handed out, callers get a copy.
+     */
+    private final Map< Long, TopicPartitionAssignment > decoded = new DecodedCache();
+
+    private long lastId = 0;
+
+    @Autowired
+    public AssignmentHistory( @Value( "${kafka-manager.history.directory:kafka-manager-history}" ) final String directory,
+                              @Value( "${kafka-manager.history.max-snapshots:1000}" ) final int maxSnapshots )
+    {
+        this.directory    = directory == null || directory.trim().isEmpty() ? null : Paths.get( directory.trim() );
+        this.maxSnapshots = maxSnapshots;
+    }
+
+    @PostConstruct
+    public synchronized void load()
+    {
+        if( this.directory == null )
+        {
+            return;
+        }
+
+        final Path indexFile = this.directory.resolve( INDEX_FILE );
+        if( !Files.exists( indexFile ) )
+        {
+            return;
+        }
+        try( BufferedReader reader = Files.newBufferedReader( indexFile, StandardCharsets.UTF_8 ) )
+        {
+            String line;
+            while( ( line = reader.readLine() ) != null )
+            {
+                try
+                {
+                    final AssignmentSnapshot snapshot = this.om.readValue( line, AssignmentSnapshot.class );
+                    if( Files.exists( snapshotFile( snapshot.getId() ) ) )
+                    {
+                        this.index.addLast( snapshot );
+                        this.lastId = Math.max( this.lastId, snapshot.getId() );
+                    }
+                }
+                catch( IOException ioe )
+                {
+                    // Most likely the last line, cut short by a crash.
+                    log.warn( "Skipping unreadable history entry: {}", ioe.getMessage() );
+                }
+            }
+        }
+        catch( IOException ioe )
+        {
+            throw new UncheckedIOException( "Could not read the assignment history in " + this.directory, ioe );
+        }
+        log.info( "Loaded {} assignment snapshots from {}.", this.index.size(), this.directory );
+    }
+
+    public boolean isEnabled()
+    {
+        return this.directory != null;
+    }
+
+    /**
+     * Saves the assignment.
+     *
+     * @return what was saved, null if the history is off.
+     */
+    public synchronized AssignmentSnapshot record( final AssignmentSnapshot.Kind kind,
+                                                   final String jobId,
+                                                   final String description,
+                                                   final TopicPartitionAssignment assignment )
+    {
+        if( this.directory == null )
+        {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+        this.lastId = Math.max( this.lastId + 1, now );
+        final AssignmentSnapshot snapshot = new AssignmentSnapshot( this.lastId,
+                                                                    now,
+                                                                    kind,
+                                                                    jobId,
+                                                                    description,
+                                                                    new TreeSet<>( assignment.getTopics() ),
+                                                                    assignment.getPartitionCount() );
+        try
+        {
+            Files.createDirectories( this.directory );
+            try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                new GZIPOutputStream( Files.newOutputStream( snapshotFile( snapshot.getId() ) ) ) ) ) )
+            {
+                write( assignment, out );
+            }
+            // The assignment first, an index entry never points at a missing file.
+            try( Writer writer = Files.newBufferedWriter( this.directory.resolve( INDEX_FILE ),
+                                                          StandardCharsets.UTF_8,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.APPEND ) )
+            {
+                writer.write( this.om.writeValueAsString( snapshot ) );
+                writer.write( '\n' );
+            }
+        }
+        catch( IOException ioe )
+        {
+            throw new UncheckedIOException( "Could not save an assignment snapshot in " + this.directory, ioe );
+        }
+
+        this.index.addLast( snapshot );
+        log.info( "Saved {} assignment snapshot {}: {} partitions of {} topics.",
+                  kind, snapshot.getId(), snapshot.getPartitionCount(), snapshot.getTopics().size() );
+
+        if( this.index.size() > this.maxSnapshots )
+        {
+            trim();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops the oldest snapshots and rewrites the index without them.
+     */
+    private void trim()
+    {
+        final Path indexFile = this.directory.resolve( INDEX_FILE );
+        final Path tmp       = this.directory.resolve( INDEX_FILE + ".tmp" );
+        try
+        {
+            final List< AssignmentSnapshot > dropped = new ArrayList<>();
+            while( this.index.size() > this.maxSnapshots )
+            {
+                dropped.add( this.index.removeFirst() );
+            }
+            try( Writer writer = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) )
+            {
+                for( AssignmentSnapshot snapshot : this.index )
+                {
+                    writer.write( this.om.writeValueAsString( snapshot ) );
+                    writer.write( '\n' );
+                }
+            }
+            Files.move( tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            for( AssignmentSnapshot snapshot : dropped )
+            {
+                this.decoded.remove( snapshot.getId() );
+                Files.deleteIfExists( snapshotFile( snapshot.getId() ) );
+            }
+        }
+        catch( IOException ioe )
+        {
+            log.warn( "Could not trim the assignment history in {}.", this.directory, ioe );
+        }
+    }
+
+    /**
+     * @param topic   only snapshots that include the topic, all if null.
+     * @param sinceMs only snapshots taken at or after, 0 for no bound.
+     * @param untilMs only snapshots taken at or before, 0 for no bound.
+     * @return the matching snapshots, newest first.
+     */
+    public synchronized List< AssignmentSnapshot > list( final String topic, final long sinceMs, final long untilMs )
+    {
+        final List< AssignmentSnapshot > matching = new ArrayList<>();
+        final Iterator< AssignmentSnapshot > newestFirst = this.index.descendingIterator();
+        while( newestFirst.hasNext() )
+        {
+            final AssignmentSnapshot snapshot = newestFirst.next();
+            if( untilMs > 0 && snapshot.getTakenAtMs() > untilMs )
+            {
+                continue;
+            }
+            if( snapshot.getTakenAtMs() < sinceMs )
+            {
+                break;
+            }
+            if( topic == null || snapshot.getTopics().contains( topic ) )
+            {
+                matching.add( snapshot );
+            }
+        }
+        return matching;
+    }
+
+    public synchronized Optional< AssignmentSnapshot > get( final long id )
+    {
+        return this.index.stream().filter( s -> s.getId() == id ).findFirst();
+    }
+
+    /**
+     * @return a copy of the saved assignment the caller may change, empty if there is no such snapshot.
+     */
+    public Optional< TopicPartitionAssignment > getAssignment( final long id )
+    {
+        synchronized( this )
+        {
+            final TopicPartitionAssignment cached = this.decoded.get( id );
+            if( cached != null || !get( id ).isPresent() )
+            {
+                return Optional.ofNullable( cached ).map( AssignmentHistory::copyOf );
+            }
+        }
+
+        final TopicPartitionAssignment assignment;
+        try( DataInputStream in = new DataInputStream( new BufferedInputStream(
+            new GZIPInputStream( Files.newInputStream( snapshotFile( id ) ) ) ) ) )
+        {
+            assignment = read( in );
+        }
+        catch( IOException ioe )
+        {
+            throw new UncheckedIOException( "Could not read assignment snapshot " + id, ioe );
+        }
+
+        synchronized( this )
+        {
+            this.decoded.put( id, assignment );
+        }
+        return Optional.of( copyOf( assignment ) );
+    }
+
+    private static TopicPartitionAssignment copyOf( final TopicPartitionAssignment assignment )
+    {
+        final TopicPartitionAssignment copy = new TopicPartitionAssignment();
+        assignment.forEach( copy::add );
+        return copy;
+    }
+
+    /**
+     * @param snapshot an earlier assignment.
+     * @param current  the assignment now.
+     * @return the moves that put every partition that still exists back the way it was in the snapshot.
+     */
+    public static TopicPartitionAssignment rollbackPlan( final TopicPartitionAssignment snapshot,
+                                                         final TopicPartitionAssignment current )
+    {
+        final TopicPartitionAssignment restorable = new TopicPartitionAssignment();
+        snapshot.forEach( ( topic, partition, replicas ) -> {
+            if( current.contains( topic, partition ) )
+            {
+                restorable.add( topic, partition, replicas );
+            }
+        } );
+        return TopicPartitionAssignment.findAssignmentChanges( restorable, current );
+    }
+
+    private Path snapshotFile( final long id )
+    {
+        return this.directory.resolve( id + ".bin.gz" );
+    }
+
+    /**
+     * Format: version, topic count, then per topic its name, partition count and per partition
+     * the id, replica count and replicas; every int a varint.
+     */
+    static void write( final TopicPartitionAssignment assignment, final DataOutputStream out ) throws IOException
+    {
+        writeVarInt( out, FORMAT_VERSION );
+        writeVarInt( out, assignment.getTopics().size() );
+        for( String topic : assignment.getTopics() )
+        {
+            out.writeUTF( topic );
+            final int[] partitions = assignment.getPartitions( topic );
+            writeVarInt( out, partitions.length );
+            for( int partition : partitions )
+            {
+                final int[] replicas = assignment.getReplicas( topic, partition );
+                writeVarInt( out, partition );
+                writeVarInt( out, replicas.length );
+                for( int brokerId : replicas )
+                {
+                    writeVarInt( out, brokerId );
+                }
+            }
+        }
+    }
+
+    static TopicPartitionAssignment read( final DataInputStream in ) throws IOException
+    {
+        final int version = readVarInt( in );
+        if( version != FORMAT_VERSION )
+        {
+            throw new IOException( "Unsupported snapshot format " + version );
+        }
+
+        final TopicPartitionAssignment assignment = new TopicPartitionAssignment();
+        final int topics = readVarInt( in );
+        for( int t = 0; t < topics; ++t )
+        {
+            final String topic      = in.readUTF();
+            final int    partitions = readVarInt( in );
+            for( int p = 0; p < partitions; ++p )
+            {
+                final int   partition = readVarInt( in );
+                final int[] replicas  = new int[ readVarInt( in ) ];
+                for( int r = 0; r < replicas.length; ++r )
+                {
+                    replicas[ r ] = readVarInt( in );
+                }
+                assignment.add( topic, partition, replicas );
+            }
+        }
+        return assignment;
+    }
+
+    private static void writeVarInt( final DataOutputStream out, final int value ) throws IOException
+    {
+        int v = value;
+        while( ( v & ~0x7F ) != 0 )
+        {
+            out.writeByte( ( v & 0x7F ) | 0x80 );
+            v >>>= 7;
+        }
+        out.writeByte( v );
+    }
+
+    private static int readVarInt( final DataInputStream in ) throws IOException
+    {
+        int value = 0;
+        for( int shift = 0; shift < 35; shift += 7 )
+        {
+            final int b = in.readUnsignedByte();
+            value |= ( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed varint" );
+    }
+
+    /**
+     * The last few assignments read, least recently read dropped first.
+     */
+    private static final class DecodedCache extends LinkedHashMap< Long, TopicPartitionAssignment >
+    {
+        private static final long serialVersionUID = 1L;
+
+        private DecodedCache()
+        {
+            super( 16, 0.75f, true );
+        }
+
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry< Long, TopicPartitionAssignment > eldest )
+        {
+            return size() > DECODED_CACHE_SIZE;
+        }
+    }
+}
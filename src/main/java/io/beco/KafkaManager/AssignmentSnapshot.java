@@ -0,0 +1,83 @@
+/**
+ * @file AssignmentSnapshot.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/29/18 2:05 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.SortedSet;
+
+/**
+ * AssignmentSnapshot describes one assignment saved by the {@link AssignmentHistory};
+ * the assignment itself stays on disk until it is asked for.
+ */
+@Getter
+@ToString
+public class AssignmentSnapshot
+{
+    public enum Kind
+    {
+        /**
+         * Taken as a job started, the layout a rollback of the job goes back to.
+         */
+        BEFORE,
+        /**
+         * Taken as a job finished, whether it completed or failed.
+         */
+        AFTER,
+        /**
+         * Asked for by an operator.
+         */
+        MANUAL
+    }
+
+    /**
+     * Unique and increasing with time.
+     */
+    private final long id;
+
+    private final long takenAtMs;
+
+    private final Kind kind;
+
+    /**
+     * The job the snapshot was taken for, null for a manual one.
+     */
+    private final String jobId;
+
+    private final String description;
+
+    private final SortedSet< String > topics;
+
+    private final int partitionCount;
+
+    @JsonCreator
+    public AssignmentSnapshot( @JsonProperty( "id" ) final long id,
+                               @JsonProperty( "takenAtMs" ) final long takenAtMs,
+                               @JsonProperty( "kind" ) final Kind kind,
+                               @JsonProperty( "jobId" ) final String jobId,
+                               @JsonProperty( "description" ) final String description,
+                               @JsonProperty( "topics" ) final SortedSet< String > topics,
+                               @JsonProperty( "partitionCount" ) final int partitionCount )
+    {
+        this.id             = id;
+        this.takenAtMs      = takenAtMs;
+        this.kind           = kind;
+        this.jobId          = jobId;
+        this.description    = description;
+        this.topics         = topics;
+        this.partitionCount = partitionCount;
+    }
+}
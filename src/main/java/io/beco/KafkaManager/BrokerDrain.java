@@ -0,0 +1,64 @@
+/**
+ * @file BrokerDrain.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/28/18 9:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * BrokerDrain tracks a broker being emptied ahead of its retirement, until the cluster metadata
+ * shows it with no replicas and no leaderships left.
+ */
+@Getter
+@ToString
+public class BrokerDrain
+{
+    private final int brokerId;
+
+    /**
+     * The job moving the replicas off the broker.
+     */
+    private final String jobId;
+
+    private final long startedAtMs = System.currentTimeMillis();
+
+    /**
+     * Replicas still on the broker as of the last metadata refresh, -1 before the first.
+     */
+    @Setter
+    private volatile int replicas = -1;
+
+    /**
+     * Partitions the broker still leads as of the last metadata refresh, -1 before the first.
+     */
+    @Setter
+    private volatile int leaders = -1;
+
+    /**
+     * When the broker was first seen empty, 0 until then.
+     */
+    @Setter
+    private volatile long drainedAtMs = 0;
+
+    public BrokerDrain( final int brokerId, final String jobId )
+    {
+        this.brokerId = brokerId;
+        this.jobId    = jobId;
+    }
+
+    public boolean isDrained()
+    {
+        return this.drainedAtMs > 0;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * @file BrokerDrainMonitor.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/28/18 10:05 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * BrokerDrainMonitor plans the moves that empty a broker and follows each {@link BrokerDrain}
+ * on every metadata refresh until the broker holds no replicas and leads no partitions.
+ */
+@Component
+@Slf4j
+public class BrokerDrainMonitor
+{
+    private static final int MAX_DRAINS = 20;
+
+    private final ClusterMetadataCache metadataCache;
+
+    private final Deque< BrokerDrain > drains = new ConcurrentLinkedDeque<>();
+
+    @Autowired
+    public BrokerDrainMonitor( final ClusterMetadataCache metadataCache )
+    {
+        this.metadataCache = metadataCache;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        this.metadataCache.addRefreshListener( this::update );
+    }
+
+    /**
+     * Moves every replica off the broker, each to the least loaded live broker that doesn't already have the partition.
+     * Replica order is kept, so a partition the broker leads is taken over by its next replica;
+     * partitions without a replica on the broker are left as they are.
+     *
+     * Replicas on brokers that are down can't be copied now, they stay where they are, in their place in the list.
+     *
+     * @param current     the current assignment of every topic.
+     * @param brokerId    the broker to empty.
+     * @param liveBrokers the brokers of the cluster that are up, the only ones replicas are moved to.
+     * @param sizes       replica sizes, to spread the bytes as well as the replicas, or {@link ReplicaSizes#EMPTY}.
+     * @return only the partitions with a replica on the broker.
+     * @throws IllegalArgumentException if a partition has a replica on every live broker.
+     */
+    public static TopicPartitionAssignment plan( final TopicPartitionAssignment current,
+                                                 final int brokerId,
+                                                 final Collection< Integer > liveBrokers,
+                                                 final ReplicaSizes sizes )
+    {
+        final Set< Integer > targets = new TreeSet<>( liveBrokers );
+        targets.remove( brokerId );
+        Assert.notEmpty( targets, "Broker " + brokerId + " is the only live broker." );
+
+        final Set< Integer > down = current.getBrokerIds();
+        down.removeAll( targets );
+        down.remove( brokerId );
+
+        // The planner sees only the replicas on live brokers, and the one being drained.
+        final TopicPartitionAssignment reachable = new TopicPartitionAssignment();
+        current.forEach( ( topic, partition, replicas ) -> {
+            final int[] up = Arrays.stream( replicas ).filter( id -> !down.contains( id ) ).toArray();
+            if( up.length > 0 )
+            {
+                reachable.add( topic, partition, up );
+            }
+        } );
+
+        final ReplicaPlacementPlanner planner = new ReplicaPlacementPlanner( targets );
+        planner.setBalanceLeaders( false );
+        planner.setReplicaSizes( sizes );
+        final TopicPartitionAssignment moves
+            = planner.plan( reachable, ReplicaPlacementPlanner.KEEP_REPLICATION_FACTOR );
+
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        final int[] shrunk = { 0 };
+        moves.forEach( ( topic, partition, replicas ) -> {
+            if( replicas.length < reachable.getReplicas( topic, partition ).length )
+            {
+                shrunk[ 0 ]++;
+            }
+            plan.add( topic, partition, withDownReplicas( current.getReplicas( topic, partition ), replicas, down ) );
+        } );
+        Assert.isTrue( shrunk[ 0 ] == 0,
+                       shrunk[ 0 ] + " partitions have a replica on every one of the " + targets.size()
+                       + " other live brokers, lower their replication factor before draining broker " + brokerId + "." );
+        return plan;
+    }
+
+    /**
+     * @return the planned replicas with those on down brokers put back at their old positions.
+     */
+    private static int[] withDownReplicas( final int[] before, final int[] planned, final Set< Integer > down )
+    {
+        final List< Integer > replicas = new ArrayList<>();
+        Arrays.stream( planned ).forEach( replicas::add );
+        for( int i = 0; i < before.length; ++i )
+        {
+            if( down.contains( before[ i ] ) )
+            {
+                replicas.add( Math.min( i, replicas.size() ), before[ i ] );
+            }
+        }
+        return replicas.stream().mapToInt( Integer::intValue ).toArray();
+    }
+
+    /**
+     * Follows the drain of the broker by the job, replacing any earlier drain of the same broker.
+     */
+    public BrokerDrain track( final int brokerId, final ReassignmentJob job )
+    {
+        final BrokerDrain drain = new BrokerDrain( brokerId, job.getId() );
+        this.drains.removeIf( d -> d.getBrokerId() == brokerId );
+        this.drains.addFirst( drain );
+        while( this.drains.size() > MAX_DRAINS )
+        {
+            this.drains.pollLast();
+        }
+        log.info( "Draining broker {} with job {}.", brokerId, job.getId() );
+        return drain;
+    }
+
+    /**
+     * @return the drains, newest first.
+     */
+    public List< BrokerDrain > getDrains()
+    {
+        return new ArrayList<>( this.drains );
+    }
+
+    void update( final ClusterMetadataSnapshot snapshot )
+    {
+        if( this.drains.stream().allMatch( BrokerDrain::isDrained ) )
+        {
+            return;
+        }
+
+        final Map< Integer, int[] > counts = snapshot.countReplicasAndLeaders();
+        for( BrokerDrain drain : this.drains )
+        {
+            if( drain.isDrained() )
+            {
+                continue;
+            }
+            final int[] count = counts.getOrDefault( drain.getBrokerId(), new int[ 2 ] );
+            drain.setReplicas( count[ 0 ] );
+            drain.setLeaders( count[ 1 ] );
+            if( count[ 0 ] == 0 && count[ 1 ] == 0 )
+            {
+                drain.setDrainedAtMs( System.currentTimeMillis() );
+                log.info( "Broker {} is drained: no replicas, no leaderships. Safe to retire.", drain.getBrokerId() );
+            }
+        }
+    }
+}
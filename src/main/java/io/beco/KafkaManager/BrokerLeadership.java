@@ -0,0 +1,38 @@
+/**
+ * @file BrokerLeadership.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/30/18 9:40 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * BrokerLeadership is one row of the leadership view: how many partitions a broker holds, leads,
+ * and is the preferred (first) replica of.
+ *
+ * Leaders drift away from the preferred replicas as brokers restart; a preferred leader election moves
+ * them back, so the preferred count is where a broker's leader count ends up after one.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class BrokerLeadership
+{
+    private final int brokerId;
+
+    private final int replicas;
+
+    private final int leaders;
+
+    private final int preferredLeaders;
+}
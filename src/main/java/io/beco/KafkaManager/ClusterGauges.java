@@ -0,0 +1,210 @@
+/**
+ * @file ClusterGauges.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/23/18 11:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * ClusterGauges publishes what reassignments are doing to the cluster, for the Grafana dashboards:
+ * <ul>
+ *     <li>kafka.manager.reassignment.partitions.in.flight - partitions in the running wave.</li>
+ *     <li>kafka.manager.reassignment.bytes.moved / .bytes.total - the running job's progress.</li>
+ *     <li>kafka.manager.reassignment.throttle - the running job's throttle, bytes/sec, 0 if none.</li>
+ *     <li>kafka.manager.reassignment.jobs.queued - jobs waiting to run.</li>
+ *     <li>kafka.manager.broker.replicas / .leaders / .preferred.leaders - per broker, tagged with the broker id.</li>
+ *     <li>kafka.manager.partitions.under.replicated / .at.risk / .offline - across the cluster.</li>
+ *     <li>kafka.manager.broker.replicas.out.of.sync - per broker, tagged with the broker id.</li>
+ *     <li>kafka.manager.topic.partitions.under.replicated - per topic under replicated right now, tagged with the topic.</li>
+ *     <li>kafka.manager.live.subscribers - open live update streams.</li>
+ * </ul>
+ *
+ * Gauges are read at scrape time; the per broker counts are worked out once per metadata refresh, and
+ * the replication counts are kept by the {@link UnderReplicationMonitor}, whose updates add and drop the
+ * per topic gauges.
+ */
+@Component
+public class ClusterGauges
+{
+    private final MeterRegistry registry;
+
+    private final ClusterMetadataCache metadataCache;
+
+    private final ReassignmentScheduler reassignmentScheduler;
+
+    private final ReassignmentProgressTracker progressTracker;
+
+    private final UnderReplicationMonitor replicationMonitor;
+
+    private final LiveUpdateBroadcaster liveUpdates;
+
+    /**
+     * broker id to { replicas, leaders, preferred leaders }, replaced on every refresh.
+     */
+    private volatile Map< Integer, int[] > brokerCounts = Collections.emptyMap();
+
+    private final Set< Integer > registeredBrokers = ConcurrentHashMap.newKeySet();
+
+    private final Set< String > registeredTopics = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The registered topics whose gauge reports, the ones under replicated as of the monitor's last update.
+     */
+    private final Set< String > reportedTopics = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ClusterGauges( final MeterRegistry registry,
+                          final ClusterMetadataCache metadataCache,
+                          final ReassignmentScheduler reassignmentScheduler,
+                          final ReassignmentProgressTracker progressTracker,
+                          final UnderReplicationMonitor replicationMonitor,
+                          final LiveUpdateBroadcaster liveUpdates )
+    {
+        this.registry              = registry;
+        this.metadataCache         = metadataCache;
+        this.reassignmentScheduler = reassignmentScheduler;
+        this.progressTracker       = progressTracker;
+        this.replicationMonitor    = replicationMonitor;
+        this.liveUpdates           = liveUpdates;
+    }
+
+    @PostConstruct
+    public void register()
+    {
+        Gauge.builder( "kafka.manager.reassignment.partitions.in.flight", this, ClusterGauges::partitionsInFlight )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.reassignment.bytes.moved", this, g -> g.progress( ReassignmentProgress::getCopiedBytes ) )
+             .baseUnit( "bytes" )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.reassignment.bytes.total", this, g -> g.progress( ReassignmentProgress::getTotalBytes ) )
+             .baseUnit( "bytes" )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.reassignment.throttle", this, ClusterGauges::throttle )
+             .baseUnit( "bytes" )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.reassignment.jobs.queued", this, ClusterGauges::jobsQueued )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.partitions.under.replicated", this.replicationMonitor, UnderReplicationMonitor::getUnderReplicatedCount )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.partitions.at.risk", this.replicationMonitor, UnderReplicationMonitor::getAtRiskCount )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.partitions.offline", this.replicationMonitor, UnderReplicationMonitor::getOfflineCount )
+             .register( this.registry );
+        Gauge.builder( "kafka.manager.live.subscribers", this.liveUpdates, LiveUpdateBroadcaster::getSubscriberCount )
+             .register( this.registry );
+
+        this.metadataCache.addRefreshListener( this::updateBrokerCounts );
+        // The first refresh may have been published before we got here.
+        this.metadataCache.getAsync().thenAccept( this::updateBrokerCounts );
+
+        // The monitor works through a refresh on its own thread, the topics it finds under replicated are only
+        // known once it is done with it.
+        this.replicationMonitor.addUpdateListener( this::updateTopicGauges );
+        updateTopicGauges( this.replicationMonitor.getSummary() );
+    }
+
+    private double partitionsInFlight()
+    {
+        final ReassignmentJob job = this.reassignmentScheduler.getActiveJob();
+        final TopicPartitionAssignment wave = job == null ? null : job.getCurrentWavePlan();
+        return wave == null ? 0 : wave.getPartitionCount();
+    }
+
+    private double progress( final ToLongFunction< ReassignmentProgress > value )
+    {
+        final ReassignmentJob job = this.reassignmentScheduler.getActiveJob();
+        final ReassignmentProgress progress = job == null ? null : this.progressTracker.getProgress( job.getId() );
+        return progress == null ? 0 : value.applyAsLong( progress );
+    }
+
+    private double throttle()
+    {
+        final ReassignmentJob job = this.reassignmentScheduler.getActiveJob();
+        return job == null ? 0 : Math.max( 0L, job.getCurrentThrottleBytesPerSec() );
+    }
+
+    private double jobsQueued()
+    {
+        return this.reassignmentScheduler.getJobs()
+                                         .stream()
+                                         .filter( j -> j.getState() == ReassignmentJob.State.QUEUED )
+                                         .count();
+    }
+
+    private void updateBrokerCounts( final ClusterMetadataSnapshot snapshot )
+    {
+        final Map< Integer, int[] > counts = snapshot.countReplicasAndLeaders();
+        snapshot.getNodes().forEach( node -> counts.putIfAbsent( node.id(), new int[ 3 ] ) );
+        this.brokerCounts = counts;
+
+        for( Integer brokerId : counts.keySet() )
+        {
+            if( this.registeredBrokers.add( brokerId ) )
+            {
+                // A broker that leaves reads as 0 rather than disappearing.
+                Gauge.builder( "kafka.manager.broker.replicas", this, g -> g.brokerCount( brokerId, 0 ) )
+                     .tag( "broker", brokerId.toString() )
+                     .register( this.registry );
+                Gauge.builder( "kafka.manager.broker.leaders", this, g -> g.brokerCount( brokerId, 1 ) )
+                     .tag( "broker", brokerId.toString() )
+                     .register( this.registry );
+                Gauge.builder( "kafka.manager.broker.preferred.leaders", this, g -> g.brokerCount( brokerId, 2 ) )
+                     .tag( "broker", brokerId.toString() )
+                     .register( this.registry );
+                Gauge.builder( "kafka.manager.broker.replicas.out.of.sync", this.replicationMonitor, m -> m.getOutOfSyncReplicas( brokerId ) )
+                     .tag( "broker", brokerId.toString() )
+                     .register( this.registry );
+            }
+        }
+    }
+
+    /**
+     * Only topics under replicated right now report, a gauge per topic of a large cluster is too many series.
+     *
+     * Micrometer 1.0 can't take a meter out of the registry, so the gauge of a topic that has caught up, or is gone,
+     * stays registered and reads NaN until the topic falls behind again.
+     */
+    private synchronized void updateTopicGauges( final UnderReplicationMonitor.Summary summary )
+    {
+        final Set< String > topics = summary.getTopics().keySet();
+        this.reportedTopics.retainAll( topics );
+        for( String topic : topics )
+        {
+            this.reportedTopics.add( topic );
+            if( this.registeredTopics.add( topic ) )
+            {
+                Gauge.builder( "kafka.manager.topic.partitions.under.replicated", this, g -> g.topicUnderReplicated( topic ) )
+                     .tag( "topic", topic )
+                     .register( this.registry );
+            }
+        }
+    }
+
+    private double topicUnderReplicated( final String topic )
+    {
+        return this.reportedTopics.contains( topic ) ? this.replicationMonitor.getUnderReplicatedCount( topic ) : Double.NaN;
+    }
+
+    private double brokerCount( final int brokerId, final int index )
+    {
+        final int[] counts = this.brokerCounts.get( brokerId );
+        return counts == null ? 0 : counts[ index ];
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * @file ClusterMetadataCache.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/5/18 10:20 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.*;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * ClusterMetadataCache holds the most recent {@link ClusterMetadataSnapshot} and
+ * refreshes it on a background thread.
+ *
+ * All the UI handlers read from here instead of making their own describeCluster/listTopics/describeTopics
+ * round trips, so the metadata load on the controller is one fetch per refresh interval no matter
+ * how many operators have the tool open.
+ *
+ * A reader will never see data older than the staleness bound; if the background
+ * refresh has fallen behind (or the cache was invalidated) the reader refreshes in-line.
+ */
+@Component
+@Slf4j
+public class ClusterMetadataCache
+{
+    private final AdminClient adminClient;
+
+    private final KafkaManagerMetrics metrics;
+
+    private final long refreshIntervalMs;
+
+    private final long maxStalenessMs;
+
+    private final long timeoutMs;
+
+    private final int describeBatchSize;
+
+    private final ScheduledExecutorService refresher
+        = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "metadata-cache-refresh" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+    private final List< Consumer< ClusterMetadataSnapshot > > refreshListeners = new CopyOnWriteArrayList<>();
+
+    private volatile ClusterMetadataSnapshot snapshot;
+
+    private volatile boolean invalidated = false;
+
+    /**
+     * The fetch currently running, shared by every caller that needs fresh data.
+     */
+    private CompletableFuture< ClusterMetadataSnapshot > inFlight;
+
+    /**
+     * Incremented for every fetch started.
+     */
+    private long generation = 0;
+
+    @Autowired
+    public ClusterMetadataCache( final AdminClient adminClient,
+                                 final KafkaManagerMetrics metrics,
+                                 @Value( "${kafka-manager.metadata.refresh-interval-ms:30000}" ) final long refreshIntervalMs,
+                                 @Value( "${kafka-manager.metadata.max-staleness-ms:60000}" ) final long maxStalenessMs,
+                                 @Value( "${kafka-manager.metadata.timeout-ms:25000}" ) final long timeoutMs,
+                                 @Value( "${kafka-manager.metadata.describe-batch-size:500}" ) final int describeBatchSize )
+    {
+        this.adminClient       = adminClient;
+        this.metrics           = metrics;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.maxStalenessMs    = maxStalenessMs;
+        this.timeoutMs         = timeoutMs;
+        this.describeBatchSize = describeBatchSize;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        this.refresher.scheduleWithFixedDelay( this::backgroundRefresh,
+                                               0,
+                                               this.refreshIntervalMs,
+                                               TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        this.refresher.shutdownNow();
+    }
+
+    /**
+     * @return a snapshot no older than the configured staleness bound.
+     */
+    public ClusterMetadataSnapshot get() throws InterruptedException, ExecutionException
+    {
+        return getAsync().get();
+    }
+
+    /**
+     * @return a future for a snapshot no older than the configured staleness bound;
+     *         already completed unless a refresh is needed.
+     */
+    public CompletableFuture< ClusterMetadataSnapshot > getAsync()
+    {
+        final ClusterMetadataSnapshot current = this.snapshot;
+        if( isUsable( current ) )
+        {
+            return CompletableFuture.completedFuture( current );
+        }
+        return refreshAsync();
+    }
+
+    /**
+     * @return a snapshot that is guaranteed to contain the topic if the cluster has it.
+     */
+    public ClusterMetadataSnapshot getWithTopic( final String topicName )
+    throws InterruptedException, ExecutionException
+    {
+        return getWithTopicAsync( topicName ).get();
+    }
+
+    /**
+     * A topic the snapshot doesn't have is described on its own, a newly created topic shouldn't make the user
+     * wait for the next refresh, and any name in a URL shouldn't force a refresh of the whole cluster.
+     *
+     * @return the snapshot, with the topic added if the cluster has it but the snapshot doesn't.
+     */
+    public CompletableFuture< ClusterMetadataSnapshot > getWithTopicAsync( final String topicName )
+    {
+        return getAsync().thenCompose( current -> {
+            if( current.containsTopic( topicName ) )
+            {
+                return CompletableFuture.completedFuture( current );
+            }
+            return describeTopicsAsync( Collections.singleton( topicName ) ).handleAsync( ( descriptions, t ) -> {
+                final TopicDescription description = descriptions == null ? null : descriptions.get( topicName );
+                if( description == null )
+                {
+                    if( !( AdminFutures.unwrap( t ) instanceof UnknownTopicOrPartitionException ) )
+                    {
+                        log.warn( "Describing topic {} failed.", topicName, AdminFutures.unwrap( t ) );
+                    }
+                    return current;
+                }
+                return current.withTopic( description );
+            }, this.refresher );
+        } );
+    }
+
+    /**
+     * Marks the current snapshot as stale and kicks off a background refresh.
+     * Call this after anything that changes the partition layout, e.g. executeAssignment.
+     */
+    public void invalidate()
+    {
+        synchronized( this )
+        {
+            this.invalidated = true;
+            // Anything already in flight may have read the old layout.
+            this.inFlight    = null;
+        }
+        refreshAsync();
+    }
+
+    /**
+     * Describes the topics now, bypassing the snapshot, in batches of describe-batch-size.
+     * For jobs that are planned from the live layout; the snapshot is left as it is.
+     *
+     * @return the descriptions, the future fails if any of the topics is gone.
+     */
+    public CompletableFuture< Map< String, TopicDescription > > describeTopicsAsync( final Collection< String > topicNames )
+    {
+        return AdminFutures.withDeadline( describeAll( topicNames ), this.timeoutMs, "Describe topics" );
+    }
+
+    /**
+     * @param listener called with every snapshot published, in order, on the cache's refresh thread after the
+     *                 callers waiting on the fetch have been completed; a slow listener delays the next refresh.
+     */
+    public void addRefreshListener( final Consumer< ClusterMetadataSnapshot > listener )
+    {
+        this.refreshListeners.add( listener );
+    }
+
+    private boolean isUsable( final ClusterMetadataSnapshot s )
+    {
+        return s != null && !this.invalidated && s.getAgeMs() <= this.maxStalenessMs;
+    }
+
+    /**
+     * Doesn't wait for the fetch, it completes on this same thread; a tick that comes around while it is still
+     * running shares it.
+     */
+    private void backgroundRefresh()
+    {
+        refreshAsync().whenComplete( ( fresh, t ) -> {
+            if( t != null )
+            {
+                log.warn( "Background metadata refresh failed, keeping snapshot from {}.",
+                          this.snapshot == null ? "never" : this.snapshot.getFetchedAtMs(),
+                          AdminFutures.unwrap( t ) );
+            }
+        } );
+    }
+
+    /**
+     * Starts a fetch unless one is already running, in which case the caller shares it.
+     */
+    private synchronized CompletableFuture< ClusterMetadataSnapshot > refreshAsync()
+    {
+        if( this.inFlight != null )
+        {
+            return this.inFlight;
+        }
+
+        final long generation = ++this.generation;
+        final CompletableFuture< ClusterMetadataSnapshot > result = new CompletableFuture<>();
+        this.inFlight    = result;
+        // Clear the flag before the fetch, an invalidate() during the fetch must force another one.
+        this.invalidated = false;
+
+        AdminFutures.withDeadline( fetch(), this.timeoutMs, "Metadata refresh" )
+                    .whenComplete( ( fresh, t ) -> {
+                        boolean published = false;
+                        synchronized( this )
+                        {
+                            if( this.inFlight == result )
+                            {
+                                this.inFlight = null;
+                            }
+                            // Only the latest fetch may publish, an older one could predate an invalidate().
+                            if( fresh != null && generation == this.generation )
+                            {
+                                this.snapshot = fresh;
+                                published     = true;
+                            }
+                        }
+                        final boolean notify = published;
+                        // The callers' stages and the listeners run on the refresh thread, never on the admin
+                        // client's network thread; the callers go first, they don't wait for the listeners.
+                        runOnRefresher( () -> {
+                            if( t != null )
+                            {
+                                result.completeExceptionally( AdminFutures.unwrap( t ) );
+                            }
+                            else
+                            {
+                                result.complete( fresh );
+                            }
+                            if( notify )
+                            {
+                                notifyListeners( fresh );
+                            }
+                        } );
+                    } );
+
+        return result;
+    }
+
+    private void runOnRefresher( final Runnable task )
+    {
+        try
+        {
+            this.refresher.execute( task );
+        }
+        catch( RejectedExecutionException e )
+        {
+            // Stopping, still don't leave anyone waiting.
+            task.run();
+        }
+    }
+
+    private void notifyListeners( final ClusterMetadataSnapshot fresh )
+    {
+        for( Consumer< ClusterMetadataSnapshot > listener : this.refreshListeners )
+        {
+            try
+            {
+                listener.accept( fresh );
+            }
+            catch( RuntimeException e )
+            {
+                log.warn( "Metadata refresh listener failed.", e );
+            }
+        }
+    }
+
+    private CompletableFuture< ClusterMetadataSnapshot > fetch()
+    {
+        final long start = System.currentTimeMillis();
+
+        final DescribeClusterResult dcr    = this.adminClient.describeCluster();
+        final ListTopicsResult      topics = this.adminClient.listTopics();
+
+        // One describeCluster request behind all three futures, only time it once.
+        final CompletableFuture< String >                      clusterId = AdminFutures.toCompletable( dcr.clusterId(), this.timeoutMs, "describeCluster" );
+        final CompletableFuture< Node >                        ctrl      = AdminFutures.toCompletable( dcr.controller(), this.timeoutMs, "describeCluster" );
+        final CompletableFuture< Collection< Node > >          nodes     = admin( dcr.nodes(), "describeCluster" );
+        final CompletableFuture< Map< String, TopicListing > > listings  = admin( topics.namesToListings(), "listTopics" );
+
+        return listings.thenCompose( l -> describeAll( l.keySet() ) )
+                       .thenCombine( CompletableFuture.allOf( clusterId, ctrl, nodes ), ( descriptions, ignored ) -> {
+                           final ClusterMetadataSnapshot fresh
+                               = new ClusterMetadataSnapshot( clusterId.join(),
+                                                              ctrl.join(),
+                                                              ClusterMetadataSnapshot.sortNodes( nodes.join() ),
+                                                              Collections.unmodifiableMap( new TreeMap<>( listings.join() ) ),
+                                                              Collections.unmodifiableMap( descriptions ),
+                                                              System.currentTimeMillis() );
+
+                           log.debug( "Refreshed metadata for {} topics on {} brokers in {} ms.",
+                                      descriptions.size(), fresh.getNodes().size(), fresh.getFetchedAtMs() - start );
+                           return fresh;
+                       } );
+    }
+
+    /**
+     * Describes the topics in batches so a cluster with thousands of topics
+     * doesn't produce one enormous metadata request.
+     */
+    private CompletableFuture< Map< String, TopicDescription > > describeAll( final Collection< String > topicNames )
+    {
+        final List< CompletableFuture< Map< String, TopicDescription > > > batches = new ArrayList<>();
+
+        final List< String > names = new ArrayList<>( topicNames );
+        for( int i = 0; i < names.size(); i += this.describeBatchSize )
+        {
+            final List< String > batch = names.subList( i, Math.min( names.size(), i + this.describeBatchSize ) );
+            batches.add( admin( this.adminClient.describeTopics( new ArrayList<>( batch ) ).all(), "describeTopics" ) );
+        }
+
+        return CompletableFuture.allOf( batches.toArray( new CompletableFuture< ? >[ 0 ] ) )
+                                .thenApply( ignored -> {
+                                    final Map< String, TopicDescription > descriptions
+                                        = new HashMap<>( topicNames.size() * 2 );
+                                    batches.forEach( batch -> descriptions.putAll( batch.join() ) );
+                                    return descriptions;
+                                } );
+    }
+
+    private < T > CompletableFuture< T > admin( final KafkaFuture< T > future, final String what )
+    {
+        return this.metrics.timeAdmin( what, AdminFutures.toCompletable( future, this.timeoutMs, what ) );
+    }
+}
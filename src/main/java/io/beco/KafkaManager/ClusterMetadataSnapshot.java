@@ -0,0 +1,192 @@
+/**
+ * @file ClusterMetadataSnapshot.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/5/18 10:12 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.admin.TopicListing;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+
+import java.util.*;
+
+/**
+ * ClusterMetadataSnapshot is an immutable, point-in-time view of the cluster
+ * as fetched by the {@link ClusterMetadataCache}.
+ *
+ * Everything in here is read only; a refresh builds a new snapshot.
+ */
+@Getter
+@AllArgsConstructor
+@ToString( exclude = "topicDescriptions" )
+public class ClusterMetadataSnapshot
+{
+    private final String clusterId;
+
+    private final Node controller;
+
+    /**
+     * Brokers sorted by id.
+     */
+    private final SortedSet< Node > nodes;
+
+    private final Map< String, TopicListing > topicListings;
+
+    private final Map< String, TopicDescription > topicDescriptions;
+
+    /**
+     * Wall clock time (ms) at which the fetch of this snapshot completed.
+     */
+    private final long fetchedAtMs;
+
+    public Set< String > getTopicNames()
+    {
+        return this.topicListings.keySet();
+    }
+
+    public TopicDescription getTopicDescription( final String topicName )
+    {
+        return this.topicDescriptions.get( topicName );
+    }
+
+    public boolean containsTopic( final String topicName )
+    {
+        return this.topicDescriptions.containsKey( topicName );
+    }
+
+    public long getAgeMs()
+    {
+        return Math.max( 0L, System.currentTimeMillis() - this.fetchedAtMs );
+    }
+
+    /**
+     * @return this snapshot with the topic added, or replaced, as of the same fetch time.
+     */
+    public ClusterMetadataSnapshot withTopic( final TopicDescription description )
+    {
+        final Map< String, TopicListing > listings = new TreeMap<>( this.topicListings );
+        listings.put( description.name(), new TopicListing( description.name(), description.isInternal() ) );
+        final Map< String, TopicDescription > descriptions = new HashMap<>( this.topicDescriptions );
+        descriptions.put( description.name(), description );
+        return new ClusterMetadataSnapshot( this.clusterId,
+                                            this.controller,
+                                            this.nodes,
+                                            Collections.unmodifiableMap( listings ),
+                                            Collections.unmodifiableMap( descriptions ),
+                                            this.fetchedAtMs );
+    }
+
+    /**
+     * @param topicNames the topics to include, unknown topics are skipped.
+     * @return the current assignment of every partition of the topics, replicas in preferred order.
+     */
+    public TopicPartitionAssignment currentAssignment( final Collection< String > topicNames )
+    {
+        final List< TopicDescription > descriptions = new ArrayList<>( topicNames.size() );
+        for( String topicName : topicNames )
+        {
+            final TopicDescription description = this.topicDescriptions.get( topicName );
+            if( description != null )
+            {
+                descriptions.add( description );
+            }
+        }
+        return assignmentOf( descriptions );
+    }
+
+    /**
+     * @return the assignment of every partition of the topics, replicas in preferred order.
+     */
+    public static TopicPartitionAssignment assignmentOf( final Collection< TopicDescription > descriptions )
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( TopicDescription description : descriptions )
+        {
+            final String topicName = description.name();
+            for( TopicPartitionInfo tpi : description.partitions() )
+            {
+                tpa.add( topicName, tpi.partition(), tpi.replicas().stream().mapToInt( Node::id ).toArray() );
+            }
+        }
+        return tpa;
+    }
+
+    /**
+     * @return broker id to { replicas, leaderships, preferred leaderships }, for every broker that has any.
+     */
+    public Map< Integer, int[] > countReplicasAndLeaders()
+    {
+        final Map< Integer, int[] > counts = new HashMap<>();
+        for( TopicDescription description : this.topicDescriptions.values() )
+        {
+            for( TopicPartitionInfo tpi : description.partitions() )
+            {
+                for( Node replica : tpi.replicas() )
+                {
+                    counts.computeIfAbsent( replica.id(), id -> new int[ 3 ] )[ 0 ]++;
+                }
+                if( tpi.leader() != null )
+                {
+                    counts.computeIfAbsent( tpi.leader().id(), id -> new int[ 3 ] )[ 1 ]++;
+                }
+                if( !tpi.replicas().isEmpty() )
+                {
+                    counts.computeIfAbsent( tpi.replicas().get( 0 ).id(), id -> new int[ 3 ] )[ 2 ]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the replicas, leaderships and preferred leaderships of every broker, sorted by broker id.
+     *         Brokers that are down but still hold replicas are included.
+     */
+    public List< BrokerLeadership > getLeadership()
+    {
+        final Map< Integer, int[] > counts = new TreeMap<>( countReplicasAndLeaders() );
+        this.nodes.forEach( node -> counts.putIfAbsent( node.id(), new int[ 3 ] ) );
+
+        final List< BrokerLeadership > leadership = new ArrayList<>( counts.size() );
+        counts.forEach( ( id, count ) -> leadership.add( new BrokerLeadership( id, count[ 0 ], count[ 1 ], count[ 2 ] ) ) );
+        return leadership;
+    }
+
+    /**
+     * @return partitions led by some other replica than their preferred one, or by none.
+     */
+    public int countNonPreferredLeaders()
+    {
+        int count = 0;
+        for( TopicDescription description : this.topicDescriptions.values() )
+        {
+            for( TopicPartitionInfo tpi : description.partitions() )
+            {
+                if( !tpi.replicas().isEmpty() && ( tpi.leader() == null || tpi.leader().id() != tpi.replicas().get( 0 ).id() ) )
+                {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public static SortedSet< Node > sortNodes( final Collection< Node > nodes )
+    {
+        final SortedSet< Node > sortedNodes = new TreeSet<>( Comparator.comparingInt( Node::id ) );
+        sortedNodes.addAll( nodes );
+        return Collections.unmodifiableSortedSet( sortedNodes );
+    }
+}
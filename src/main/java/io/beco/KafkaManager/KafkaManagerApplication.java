@@ -1,10 +1,17 @@
 package io.beco.KafkaManager;
 
+import kafka.utils.ZkUtils;
+import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkConnection;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.common.security.JaasUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.kafka.core.KafkaAdmin;
+import scala.Tuple2;
 
 @SpringBootApplication
 public class KafkaManagerApplication
@@ -13,4 +20,27 @@ public class KafkaManagerApplication
     {
 	    SpringApplication.run(KafkaManagerApplication.class, args);
 	}
+
+    /**
+     * A single AdminClient shared by the controller and the background components,
+     * so we hold one set of broker connections instead of one per user.
+     */
+    @Bean( destroyMethod = "close" )
+    public AdminClient adminClient( final KafkaAdmin kafkaAdmin )
+    {
+        return AdminClient.create( kafkaAdmin.getConfig() );
+    }
+
+    /**
+     * The ZooKeeper connection used by the Scala admin commands and the reassignment machinery.
+     */
+    @Bean( destroyMethod = "close" )
+    public ZkUtils zkUtils( @Value( "${zookeeper.url}" ) final String zkUrl )
+    {
+        final Tuple2< ZkClient, ZkConnection > zkClient
+            = ZkUtils.createZkClientAndConnection( zkUrl,
+                                                  30000,
+                                                  30000 );
+        return new ZkUtils( zkClient._1, zkClient._2, JaasUtils.isZkSecurityEnabled() );
+    }
 }
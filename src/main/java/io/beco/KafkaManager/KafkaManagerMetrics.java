@@ -0,0 +1,98 @@
+/**
+ * @file KafkaManagerMetrics.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/23/18 9:10 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * KafkaManagerMetrics times the calls this tool makes to the cluster, published through the actuator
+ * at /internal/monitor/prometheus:
+ * <ul>
+ *     <li>{@value #ADMIN_REQUESTS} - AdminClient requests, tagged with the operation, e.g. describeTopics.</li>
+ *     <li>{@value #ZOOKEEPER_COMMANDS} - the Scala admin commands run against ZooKeeper,
+ *         e.g. executeAssignment.</li>
+ * </ul>
+ * Both are also tagged with the outcome, success or failure.
+ */
+@Component
+public class KafkaManagerMetrics
+{
+    public static final String ADMIN_REQUESTS = "kafka.manager.admin.requests";
+
+    public static final String ZOOKEEPER_COMMANDS = "kafka.manager.zookeeper.commands";
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public KafkaManagerMetrics( final MeterRegistry registry )
+    {
+        this.registry = registry;
+    }
+
+    public MeterRegistry getRegistry()
+    {
+        return this.registry;
+    }
+
+    /**
+     * Records the time from now until the future completes.
+     *
+     * @return the same future.
+     */
+    public < T > CompletableFuture< T > timeAdmin( final String operation, final CompletableFuture< T > future )
+    {
+        final long start = System.nanoTime();
+        future.whenComplete( ( v, t ) -> timer( ADMIN_REQUESTS, operation, t == null ).record( System.nanoTime() - start,
+                                                                                                TimeUnit.NANOSECONDS ) );
+        return future;
+    }
+
+    public < T > T timeZooKeeper( final String command, final Supplier< T > call )
+    {
+        final long start   = System.nanoTime();
+        boolean    success = false;
+        try
+        {
+            final T result = call.get();
+            success = true;
+            return result;
+        }
+        finally
+        {
+            timer( ZOOKEEPER_COMMANDS, command, success ).record( System.nanoTime() - start, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    public void timeZooKeeper( final String command, final Runnable call )
+    {
+        timeZooKeeper( command, () -> {
+            call.run();
+            return null;
+        } );
+    }
+
+    private Timer timer( final String name, final String operation, final boolean success )
+    {
+        return Timer.builder( name )
+                    .tag( "operation", operation )
+                    .tag( "outcome", success ? "success" : "failure" )
+                    .register( this.registry );
+    }
+}
@@ -15,37 +15,32 @@ package io.beco.KafkaManager;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import kafka.admin.ReassignPartitionsCommand;
 import kafka.admin.ReassignPartitionsCommand$;
 import kafka.common.TopicAndPartition;
 import kafka.utils.ZkUtils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.I0Itec.zkclient.ZkClient;
-import org.I0Itec.zkclient.ZkConnection;
 import org.apache.kafka.clients.admin.*;
-import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.Node;
-import org.apache.kafka.common.TopicPartitionInfo;
-import org.apache.kafka.common.security.JaasUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.core.KafkaAdmin;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.util.Assert;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import scala.Option;
-import scala.Tuple2;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 /**
@@ -62,272 +57,1359 @@ public class KafkaTopicController
 
     private final ZkUtils zkUtils;
 
-    private TopicPartitionAssignment assignmentPlan;
+    private final ClusterMetadataCache metadataCache;
+
+    private final ReassignmentScheduler reassignmentScheduler;
+
+    private final ReassignmentProgressTracker progressTracker;
+
+    private final ReassignmentThrottleController throttleController;
+
+    private final BrokerDrainMonitor drainMonitor;
+
+    private final AssignmentHistory history;
+
+    private final PreferredLeaderElector leaderElector;
+
+    private final UnderReplicationMonitor replicationMonitor;
+
+    private final LiveUpdateBroadcaster liveUpdates;
+
+    private final KafkaManagerMetrics metrics;
+
+    private final long timeoutMs;
+
+    /**
+     * Bytes/sec each broker is taken to have for replication when simulating, unless told otherwise.
+     */
+    private final long simulationBandwidthBytesPerSec;
+
+    /**
+     * The Scala admin commands block on ZooKeeper, they run here instead of on request threads.
+     * Single threaded, only one reassignment may be written at a time anyway.
+     */
+    private final ExecutorService zkExecutor = Executors.newSingleThreadExecutor( r -> {
+        final Thread t = new Thread( r, "zk-admin-commands" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    /**
+     * The plan last worked out on any page, for the download, matrix, validation and simulation of a plan
+     * without a job. A page showing the plan it just worked out is handed it through its future instead,
+     * another request may have replaced this one by then.
+     */
+    private volatile PlannedAssignment lastPlanned;
+
+    /**
+     * The partitions not spread over the racks, counted once per metadata refresh instead of on every page.
+     */
+    private volatile int unspreadPartitions;
+
+    private long unspreadAsOfMs;
 
     private ObjectMapper om;
 
     @Autowired
-    public KafkaTopicController( @Value( "${zookeeper.url}" ) final String zkUrl,
-                                 final KafkaAdmin kafkaAdmin,
-                                 final ObjectMapper objectMapper )
+    public KafkaTopicController( final KafkaAdmin kafkaAdmin,
+                                 final AdminClient adminClient,
+                                 final ZkUtils zkUtils,
+                                 final ClusterMetadataCache metadataCache,
+                                 final ReassignmentScheduler reassignmentScheduler,
+                                 final ReassignmentProgressTracker progressTracker,
+                                 final ReassignmentThrottleController throttleController,
+                                 final BrokerDrainMonitor drainMonitor,
+                                 final AssignmentHistory history,
+                                 final PreferredLeaderElector leaderElector,
+                                 final UnderReplicationMonitor replicationMonitor,
+                                 final LiveUpdateBroadcaster liveUpdates,
+                                 final KafkaManagerMetrics metrics,
+                                 final ObjectMapper objectMapper,
+                                 @Value( "${kafka-manager.metadata.timeout-ms:25000}" ) final long timeoutMs,
+                                 @Value( "${kafka-manager.simulation.broker-bandwidth-mibps:100}" ) final long simulationBandwidthMiBps )
     {
-        this.adminClient       = AdminClient.create( kafkaAdmin.getConfig() );
-        this.adminClientOption = Option.apply( this.adminClient );
-        this.om                = objectMapper;
+        this.adminClient           = adminClient;
+        this.adminClientOption     = Option.apply( adminClient );
+        this.zkUtils               = zkUtils;
+        this.metadataCache         = metadataCache;
+        this.reassignmentScheduler = reassignmentScheduler;
+        this.progressTracker       = progressTracker;
+        this.throttleController    = throttleController;
+        this.drainMonitor          = drainMonitor;
+        this.history               = history;
+        this.leaderElector         = leaderElector;
+        this.replicationMonitor    = replicationMonitor;
+        this.liveUpdates           = liveUpdates;
+        this.metrics               = metrics;
+        this.om                    = objectMapper;
+        this.timeoutMs             = timeoutMs;
+        this.simulationBandwidthBytesPerSec = simulationBandwidthMiBps * 1024 * 1024;
 
         this.om.enable( SerializationFeature.INDENT_OUTPUT );
 
-        final Tuple2< ZkClient, ZkConnection > zkClient
-            = ZkUtils.createZkClientAndConnection( zkUrl,
-                                                  30000,
-                                                  30000 );
-        this.zkUtils = new ZkUtils( zkClient._1, zkClient._2, JaasUtils.isZkSecurityEnabled() );
-
         log.info( "Kafka Client Properties: {}", kafkaAdmin.getConfig() );
     }
 
+    @PostConstruct
+    public void start()
+    {
+        this.metadataCache.addRefreshListener( this::countUnspreadPartitions );
+        // The first refresh may have been published before we got here, don't count it on the fetching thread.
+        this.metadataCache.getAsync().thenAcceptAsync( this::countUnspreadPartitions );
+    }
+
+    /**
+     * A copy of the whole cluster's assignment and a pass over it, run off the request and fetching threads.
+     */
+    private synchronized void countUnspreadPartitions( final ClusterMetadataSnapshot snapshot )
+    {
+        if( snapshot.getFetchedAtMs() <= this.unspreadAsOfMs )
+        {
+            // Already counted, the listener and the first get can both deliver it.
+            return;
+        }
+        this.unspreadPartitions = snapshot.getNodes().stream().anyMatch( Node::hasRack )
+                                  ? RackSpreadPlanner.countUnspread( snapshot.currentAssignment( snapshot.getTopicNames() ),
+                                                                     snapshot.getNodes() )
+                                  : 0;
+        this.unspreadAsOfMs     = snapshot.getFetchedAtMs();
+    }
+
     @GetMapping( "/" )
-    public String index( Model m ) throws InterruptedException, ExecutionException, TimeoutException
-    {
-        final DescribeClusterResult dcr    = this.adminClient.describeCluster();
-        final ListTopicsResult      topics = this.adminClient.listTopics();
-
-        final KafkaFuture< Void > clusterInfo
-            = KafkaFuture.allOf( dcr.clusterId()
-                                    .thenApply( new KafkaFuture.Function< String, Object >()
-                                    {
-                                        @Override
-                                        public Object apply( String clusterId )
-                                        {
-                                            m.addAttribute( "clusterId", clusterId );
-                                            return clusterId;
-                                        }
-                                    } ),
-                                 dcr.controller()
-                                    .thenApply( new KafkaFuture.Function< Node, Object >()
-                                 {
-                                     @Override
-                                     public Object apply( Node node )
-                                     {
-                                         m.addAttribute( "controller", node );
-                                         return node;
-                                     }
-                                 } ),
-                                 dcr.nodes()
-                                    .thenApply( new KafkaFuture.Function< Collection<Node>, Object >()
-                                 {
-                                     @Override
-                                     public Object apply( Collection< Node > nodes )
-                                     {
-                                         m.addAttribute( "nodes", nodes );
-                                         return nodes;
-                                     }
-                                 } ),
-                                 topics.namesToListings()
-                                        .thenApply( new KafkaFuture.Function< Map<String,TopicListing>, Object >()
-                                    {
-                                        @Override
-                                        public Object apply( Map< String, TopicListing > map )
-                                        {
-                                            m.addAttribute( "topicListings", map.values() );
-                                            m.addAttribute( "topicNames", map.keySet() );
-                                            return null;
-                                        }
-                                    } )
-                                 );
-
-        clusterInfo.get( 25, TimeUnit.SECONDS );
-
-        log.debug( "Model Attributes: {}", m.asMap() );
-
-        return "index";
+    public CompletableFuture< String > index( Model m )
+    {
+        return this.metadataCache.getAsync().thenApply( snapshot -> {
+            m.addAttribute( "clusterId",     snapshot.getClusterId() );
+            m.addAttribute( "controller",    snapshot.getController() );
+            m.addAttribute( "nodes",         snapshot.getNodes() );
+            m.addAttribute( "topicListings", snapshot.getTopicListings().values() );
+            m.addAttribute( "topicNames",    snapshot.getTopicNames() );
+            m.addAttribute( "reassignmentJobs", this.reassignmentScheduler.getJobs() );
+            m.addAttribute( "reassignmentCompletions", this.reassignmentScheduler.getCompletions() );
+            m.addAttribute( "brokerDrains", this.drainMonitor.getDrains() );
+            m.addAttribute( "brokerLeadership", snapshot.getLeadership() );
+            m.addAttribute( "nonPreferredLeaders", snapshot.countNonPreferredLeaders() );
+            m.addAttribute( "leaderElections", this.leaderElector.getElections() );
+            m.addAttribute( "replication", this.replicationMonitor.getSummary() );
+            m.addAttribute( "underReplicated",
+                            this.replicationMonitor.getUnderReplicated( null, null ).stream().limit( 50 ).collect( Collectors.toList() ) );
+            m.addAttribute( "isrChanges",
+                            this.replicationMonitor.getIsrChanges().stream().limit( 20 ).collect( Collectors.toList() ) );
+            m.addAttribute( "assignmentSnapshots",
+                            this.history.list( null, 0, 0 ).stream().limit( 20 ).collect( Collectors.toList() ) );
+            m.addAttribute( "unspreadPartitions", this.unspreadPartitions );
+            if( !m.containsAttribute( "planViolations" ) )
+            {
+                final PlannedAssignment planned = this.lastPlanned;
+                m.addAttribute( "planViolations", planned == null ? Collections.emptyList() : planned.getViolations() );
+            }
+            addMetadataAge( snapshot, m );
+
+            log.debug( "Model Attributes: {}", m.asMap() );
+
+            return "index";
+        } );
     }
 
     @GetMapping( "/topic/{topicName}/describe" )
-    public String describeTopic( @PathVariable String topicName,
-                                 Model m ) throws InterruptedException, ExecutionException, TimeoutException
+    public CompletableFuture< String > describeTopic( @PathVariable String topicName,
+                                                      Model m )
     {
         log.debug( "Describing Topic: {}", topicName );
 
         m.addAttribute( "topicName", topicName );
 
-        final DescribeClusterResult dcr = this.adminClient.describeCluster();
-        final DescribeTopicsResult  dtr = this.adminClient.describeTopics( Collections.singleton( topicName ) );
+        return this.metadataCache.getWithTopicAsync( topicName ).thenApply( snapshot -> {
+            final TopicDescription description = snapshot.getTopicDescription( topicName );
+            Assert.notNull( description, "Unknown topic: " + topicName );
 
-        final KafkaFuture< Void > topicData
-            = KafkaFuture.allOf(
-            dtr.all()
-               .thenApply( new KafkaFuture.Function< Map< String, TopicDescription >, Map< String, TopicDescription > >()
-            {
-                @Override
-                public Map< String, TopicDescription > apply( Map< String, TopicDescription > topicDescriptionMap )
-                {
-                    Assert.isTrue( topicDescriptionMap.size() == 1, "Only Single Topic Supported." );
-
-                    final TopicDescription description = topicDescriptionMap.get( topicName );
-                    m.addAttribute( "topicInfo", description );
+            // The partitions themselves are loaded by the page from the matrix API.
+            m.addAttribute( "topicInfo", description );
+            m.addAttribute( "nodes", snapshot.getNodes() );
+            m.addAttribute( "reassignmentProgress", this.progressTracker.getProgress() );
+            m.addAttribute( "reassignmentThrottle", activeThrottle() );
+            addMetadataAge( snapshot, m );
 
-                    final Map< Integer, Set< Integer > > partitionsToSetOfNodeIds =
-                    description.partitions()
-                               .stream()
-                               .collect( Collectors.toMap( TopicPartitionInfo::partition,
-                                                           tpi -> tpi.replicas()
-                                                                     .stream()
-                                                                     .map( Node::id )
-                                                                     .collect( Collectors.toSet() ) ) );
-                    m.addAttribute( "partitionsToSetOfNodeIds", partitionsToSetOfNodeIds );
-                    return topicDescriptionMap;
-                }
-            } ),
-            dcr.nodes()
-               .thenApply( new KafkaFuture.Function< Collection<Node>, Object >()
-           {
-               @Override
-               public Object apply( Collection< Node > nodes )
-               {
-                   final Set< Node > sortedNodes = new TreeSet<>( Comparator.comparingInt( Node::id ) );
-                   sortedNodes.addAll( nodes );
-                   m.addAttribute( "nodes", sortedNodes );
-                   return null;
-               }
-           } )
-        );
+            log.debug( "Topic Desc: {}", m.asMap() );
 
-        topicData.get( 25, TimeUnit.SECONDS );
-
-        log.debug( "Topic Desc: {}", m.asMap() );
-
-        return "topicView";
+            return "topicView";
+        } );
     }
 
     @GetMapping( "/topic/{topicName}" )
-    public String describeTopicBase( @PathVariable String topicName,
-                                     Model m )
-    throws InterruptedException, ExecutionException, TimeoutException
+    public CompletableFuture< String > describeTopicBase( @PathVariable String topicName,
+                                                          Model m )
     {
         return this.describeTopic( topicName, m );
     }
 
     @GetMapping( "/topic/{topicName}/rebalance" )
-    public String describeTopicFromRebalance( @PathVariable String topicName,
-                                              Model m )
-    throws InterruptedException, ExecutionException, TimeoutException
+    public CompletableFuture< String > describeTopicFromRebalance( @PathVariable String topicName,
+                                                                   Model m )
     {
         return this.describeTopic( topicName, m );
     }
 
     @PostMapping( "/topic/{topicName}/rebalance" )
-    public String rebalanceTopic( @PathVariable String topicName,
-                                  @RequestBody MultiValueMap< String, String > formData,
-                                  Model m )
-    throws InterruptedException, ExecutionException, TimeoutException, JsonProcessingException
+    public CompletableFuture< String > rebalanceTopic( @PathVariable String topicName,
+                                                       @RequestBody MultiValueMap< String, String > formData,
+                                                       Model m )
     {
         log.debug( "Selected Part to Brokers: {}", formData );
 
         final String operation = formData.getFirst( "operation" );
 
-        long throttleVal = 0;
-        try
-        {
-            throttleVal = Long.parseLong( formData.getFirst( "throttle" ) );
-            throttleVal *= 1024; // we ask for input in KiBps
-        }
-        catch( NumberFormatException nfe )
-        {
-            log.error( "Invalid Number Format for throttle... using default of 0." );
-        }
-
-        final ReassignPartitionsCommand.Throttle throttle
-            = new ReassignPartitionsCommand.Throttle( throttleVal,
-                                                      ReassignPartitionsCommand$.MODULE$.NoThrottle().postUpdateAction() );
+        final long    throttle         = parseThrottle( formData );
+        final boolean adaptiveThrottle = formData.containsKey( "adaptiveThrottle" );
 
-        String assignmentPlanJson = "";
+        final CompletableFuture< PlannedAssignment > planned;
+        final CompletableFuture< String > assignmentPlanJson;
 
         switch ( operation )
         {
             case "Execute":
-                if ( zkUtils.pathExists( ZkUtils.ReassignPartitionsPath() ) )
-                {
-                    log.error("There is an existing assignment running.");
-                }
-                else
-                {
-                    final TopicPartitionAssignment requested
-                        = convertToTopicPartitionAssignment( buildAssignmentPlan( topicName, formData ) );
-                    final TopicPartitionAssignment current
-                        = this.getCurrentTopicConfiguration( topicName );
-
-                    this.assignmentPlan = TopicPartitionAssignment.findAssignmentChanges( requested, current );
-
-                    assignmentPlanJson  = om.writeValueAsString( this.assignmentPlan );
-                    log.debug( "Assignment Plan: {}", assignmentPlanJson );
-                    ReassignPartitionsCommand$.MODULE$.executeAssignment( this.zkUtils,
-                                                                          this.adminClientOption,
-                                                                          assignmentPlanJson,
-                                                                          throttle,
-                                                                          10000L );
-                }
+                final TopicPartitionAssignment requested
+                    = convertToTopicPartitionAssignment( buildAssignmentPlan( topicName, formData ) );
+
+                // The matrix only carries membership, don't let the checkbox order pick new leaders.
+                planned
+                    = this.getTopicSnapshot( topicName )
+                          .thenApplyAsync( snapshot -> {
+                              final TopicPartitionAssignment current = snapshot.currentAssignment( Collections.singleton( topicName ) );
+                              return executeAssignment( "Matrix update of " + topicName,
+                                                        TopicPartitionAssignment.keepCurrentReplicaOrder( requested, current ),
+                                                        current,
+                                                        snapshot,
+                                                        throttle,
+                                                        adaptiveThrottle );
+                          }, this.zkExecutor );
+                assignmentPlanJson = planned.thenApply( p -> toJson( p.getPlan() ) );
                 break;
             case "Verify":
             default:
-                if( this.assignmentPlan != null )
-                {
-                    assignmentPlanJson = om.writeValueAsString( this.assignmentPlan );
-                    ReassignPartitionsCommand$.MODULE$.verifyAssignment( this.zkUtils,
-                                                                         this.adminClientOption,
-                                                                         assignmentPlanJson );
-                }
-                else
+                // Shows the plan last worked out, verifies it unless a job is running.
+                final PlannedAssignment last = this.lastPlanned;
+                planned            = CompletableFuture.completedFuture( last );
+                assignmentPlanJson = CompletableFuture.supplyAsync( () -> verifyAssignment( last ), this.zkExecutor );
+                break;
+        }
+
+        return showPlan( topicName, planned, assignmentPlanJson, m );
+    }
+
+    /**
+     * A page of the topic's partition to broker matrix, see {@link PartitionMatrix} for the encoding.
+     *
+     * Written without indentation, unlike the rest of the JSON served here; pages are loaded one after
+     * another as the topic page is scrolled through.
+     *
+     * @param filter broker, underReplicated and changed narrow the partitions down.
+     * @param jobId  the job whose plan changed refers to; the plan last worked out if not given.
+     * @return the page, 404 for an unknown topic or job.
+     */
+    @GetMapping( value = "/topic/{topicName}/matrix", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< String > >
+        partitionMatrix( @PathVariable String topicName,
+                         PartitionMatrix.Filter filter,
+                         @RequestParam( required = false ) String jobId,
+                         @RequestParam( defaultValue = "0" ) int offset,
+                         @RequestParam( defaultValue = "" + PartitionMatrix.DEFAULT_LIMIT ) int limit )
+    {
+        final Optional< ReassignmentJob > job = jobId == null ? Optional.empty() : findJob( jobId );
+        if( jobId != null && !job.isPresent() )
+        {
+            return CompletableFuture.completedFuture( ResponseEntity.notFound().build() );
+        }
+        final TopicPartitionAssignment plan = job.map( ReassignmentJob::getPlan ).orElseGet( this::lastPlan );
+
+        return this.metadataCache.getWithTopicAsync( topicName ).thenApply( snapshot -> {
+            final TopicDescription description = snapshot.getTopicDescription( topicName );
+            if( description == null )
+            {
+                return ResponseEntity.notFound().build();
+            }
+            final PartitionMatrix matrix = PartitionMatrix.of( description, snapshot.getNodes(), plan, filter, offset, limit );
+            try
+            {
+                return ResponseEntity.ok( this.om.writer().without( SerializationFeature.INDENT_OUTPUT ).writeValueAsString( matrix ) );
+            }
+            catch( JsonProcessingException jpe )
+            {
+                throw new CompletionException( jpe );
+            }
+        } );
+    }
+
+    /**
+     * @param jobId the job, or the running (else most recently sampled) one if not given.
+     * @return the latest progress sample as JSON, 404 if there is none.
+     */
+    @GetMapping( value = "/reassignment/progress", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public ResponseEntity< ReassignmentProgress > reassignmentProgress( @RequestParam( required = false ) String jobId )
+    {
+        final ReassignmentProgress progress = jobId == null
+                                              ? this.progressTracker.getProgress()
+                                              : this.progressTracker.getProgress( jobId );
+
+        return progress == null ? ResponseEntity.notFound().build() : ResponseEntity.ok( progress );
+    }
+
+    /**
+     * Streams the topic's leader, replica and ISR changes, and the running job's progress over it,
+     * as Server-Sent Events; see {@link LiveUpdateBroadcaster} for the events.
+     *
+     * @return the stream, 404 for an unknown topic.
+     */
+    @GetMapping( value = "/topic/{topicName}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public CompletableFuture< ResponseEntity< SseEmitter > > topicEvents( @PathVariable String topicName )
+    {
+        return this.metadataCache.getWithTopicAsync( topicName ).thenApply( snapshot -> {
+            if( !snapshot.containsTopic( topicName ) )
+            {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok( this.liveUpdates.subscribeTopic( topicName ) );
+        } );
+    }
+
+    /**
+     * Streams the job's state and progress as Server-Sent Events, until it finishes.
+     *
+     * @param jobId the job, or the running one if not given.
+     * @return the stream, 404 if there is no such job.
+     */
+    @GetMapping( value = "/reassignment/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public ResponseEntity< SseEmitter > reassignmentEvents( @RequestParam( required = false ) String jobId )
+    {
+        final Optional< ReassignmentJob > job = jobId == null
+                                                ? Optional.ofNullable( this.reassignmentScheduler.getActiveJob() )
+                                                : findJob( jobId );
+
+        return job.map( j -> ResponseEntity.ok( this.liveUpdates.subscribeJob( j.getId() ) ) )
+                  .orElseGet( () -> ResponseEntity.notFound().build() );
+    }
+
+    /**
+     * Checks the job's plan, or the plan last worked out, against the cluster as it is now.
+     *
+     * @return the {@link PlanValidator} violations, empty if the plan can be executed; 404 if there is no such plan.
+     */
+    @GetMapping( value = "/reassignment/validation", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< List< PlanValidator.Violation > > >
+        validation( @RequestParam( required = false ) String jobId )
+    {
+        final TopicPartitionAssignment plan = jobId == null
+                                              ? lastPlan()
+                                              : findJob( jobId ).map( ReassignmentJob::getPlan ).orElse( null );
+        if( plan == null )
+        {
+            return CompletableFuture.completedFuture( ResponseEntity.notFound().build() );
+        }
+        return this.metadataCache.getAsync().thenApply( snapshot -> ResponseEntity.ok( PlanValidator.validate( plan, snapshot ) ) );
+    }
+
+    /**
+     * Checks an uploaded plan, in the format of kafka-reassign-partitions.sh, without keeping or executing it.
+     *
+     * @return the {@link PlanValidator} violations, empty if the plan can be executed.
+     */
+    @PostMapping( value    = "/reassignment/validation",
+                  consumes = MediaType.APPLICATION_JSON_VALUE,
+                  produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< List< PlanValidator.Violation > > validateUploadedPlan( @RequestBody TopicPartitionAssignment requested )
+    {
+        return this.metadataCache.getAsync().thenApply( snapshot -> PlanValidator.validate( requested, snapshot ) );
+    }
+
+    /**
+     * Estimates how long the job, or the plan last worked out, takes to run; see {@link ReassignmentSimulator}.
+     * Nothing is changed on the cluster.
+     *
+     * @param jobId           the job, the rest of its plan if it is running.
+     * @param throttle        in KiB/s; for a job its own if not given, else none.
+     * @param bandwidth       MiB/s each broker has for replication, each way.
+     * @param brokerBandwidth MiB/s of the brokers that differ, as "id=MiB/s, ...".
+     * @return the estimate, 404 if there is no such job or plan.
+     */
+    @GetMapping( value = "/reassignment/simulation", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< ReassignmentSimulation > >
+        simulation( @RequestParam( required = false ) String jobId,
+                    @RequestParam( required = false ) String throttle,
+                    @RequestParam( required = false ) String bandwidth,
+                    @RequestParam( required = false ) String brokerBandwidth,
+                    @RequestParam( defaultValue = "0" ) int maxPartitionsPerWave )
+    {
+        final Optional< ReassignmentJob > job = jobId == null ? Optional.empty() : findJob( jobId );
+        final TopicPartitionAssignment plan = job.map( ReassignmentJob::getPlan ).orElseGet( this::lastPlan );
+        if( plan == null || jobId != null && !job.isPresent() )
+        {
+            return CompletableFuture.completedFuture( ResponseEntity.notFound().build() );
+        }
+        final long throttleBytesPerSec = throttle == null && job.isPresent()
+                                         ? job.get().getThrottleBytesPerSec()
+                                         : parseThrottle( throttle );
+        final int  maxPartitions       = maxPartitionsPerWave == 0
+                                         ? job.map( ReassignmentJob::getMaxPartitionsPerWave ).orElse( 0 )
+                                         : maxPartitionsPerWave;
+
+        return simulate( plan, simulationLimits( throttleBytesPerSec, bandwidth, brokerBandwidth ), maxPartitions )
+            .thenApply( ResponseEntity::ok );
+    }
+
+    /**
+     * Estimates how long an uploaded plan, in the format of kafka-reassign-partitions.sh, takes to run;
+     * to compare plans and throttles before asking for a maintenance window.
+     *
+     * @see #simulation
+     * @return the estimate, 400 if the plan names a topic the cluster doesn't have.
+     */
+    @PostMapping( value    = "/reassignment/simulation",
+                  consumes = MediaType.APPLICATION_JSON_VALUE,
+                  produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< ReassignmentSimulation > >
+        simulateUploadedPlan( @RequestBody TopicPartitionAssignment requested,
+                              @RequestParam( required = false ) String throttle,
+                              @RequestParam( required = false ) String bandwidth,
+                              @RequestParam( required = false ) String brokerBandwidth,
+                              @RequestParam( defaultValue = "0" ) int maxPartitionsPerWave )
+    {
+        final ReassignmentSimulator.Limits limits = simulationLimits( parseThrottle( throttle ), bandwidth, brokerBandwidth );
+
+        return this.metadataCache.getAsync().thenCompose( snapshot -> {
+            if( !requested.getTopics().stream().allMatch( snapshot::containsTopic ) )
+            {
+                return CompletableFuture.completedFuture( ResponseEntity.badRequest().build() );
+            }
+            return simulate( requested, limits, maxPartitionsPerWave ).thenApply( ResponseEntity::ok );
+        } );
+    }
+
+    /**
+     * Simulates the plan against the current layout and replica sizes of its topics.
+     */
+    private CompletableFuture< ReassignmentSimulation > simulate( final TopicPartitionAssignment plan,
+                                                                  final ReassignmentSimulator.Limits limits,
+                                                                  final int maxPartitionsPerWave )
+    {
+        return this.metadataCache.getAsync().thenApplyAsync( snapshot -> {
+            final TopicPartitionAssignment current
+                = snapshot.currentAssignment( plan.getTopics()
+                                                  .stream()
+                                                  .filter( snapshot::containsTopic )
+                                                  .collect( Collectors.toList() ) );
+            final Set< Integer > brokerIds = current.getBrokerIds();
+            snapshot.getNodes().forEach( node -> brokerIds.add( node.id() ) );
+
+            return this.reassignmentScheduler.simulate( plan, current, fetchReplicaSizes( brokerIds ), limits, maxPartitionsPerWave );
+        }, this.zkExecutor );
+    }
+
+    /**
+     * @param throttle        bytes/sec, -1 for none.
+     * @param bandwidth       MiB/s of every broker, the configured bandwidth if blank.
+     * @param brokerBandwidth MiB/s of the brokers that differ, as "id=MiB/s, ...", may be blank.
+     */
+    private ReassignmentSimulator.Limits simulationLimits( final long throttle,
+                                                           final String bandwidth,
+                                                           final String brokerBandwidth )
+    {
+        final long mib = 1024 * 1024;
+        final long bandwidthBytesPerSec = bandwidth == null || bandwidth.trim().isEmpty()
+                                          ? this.simulationBandwidthBytesPerSec
+                                          : Long.parseLong( bandwidth.trim() ) * mib;
+
+        final Map< Integer, Long > perBroker = new TreeMap<>();
+        if( brokerBandwidth != null )
+        {
+            for( String entry : brokerBandwidth.split( "[,\\s]+" ) )
+            {
+                if( entry.isEmpty() )
                 {
-                    // Nothing to verify.
+                    continue;
                 }
-                break;
+                final String[] idAndValue = entry.split( "=" );
+                Assert.isTrue( idAndValue.length == 2, "Broker bandwidth must be given as id=MiB/s: " + entry );
+                perBroker.put( Integer.valueOf( idAndValue[ 0 ].trim() ), Long.parseLong( idAndValue[ 1 ].trim() ) * mib );
+            }
         }
+        return new ReassignmentSimulator.Limits( throttle, bandwidthBytesPerSec, perBroker );
+    }
 
-        m.addAttribute( "assignmentPlan", this.assignmentPlan );
-        m.addAttribute( "assignmentPlanJson", assignmentPlanJson );
+    /**
+     * Plans a replication factor change for the topic over the selected brokers,
+     * and optionally executes it.
+     */
+    @PostMapping( "/topic/{topicName}/replication" )
+    public CompletableFuture< String > changeReplicationFactor( @PathVariable String topicName,
+                                                                @RequestBody MultiValueMap< String, String > formData,
+                                                                Model m )
+    {
+        log.debug( "Replication Change Request: {}", formData );
 
-        return this.describeTopic( topicName, m );
+        final String  operation         = formData.getFirst( "operation" );
+        final int     replicationFactor = Integer.parseInt( formData.getFirst( "replicationFactor" ) );
+        final boolean balanceReplicas   = formData.containsKey( "balanceReplicas" );
+        final long    throttle         = parseThrottle( formData );
+        final boolean adaptiveThrottle = formData.containsKey( "adaptiveThrottle" );
+
+        final List< Integer > eligibleBrokers = formData.getOrDefault( "eligibleBroker", Collections.emptyList() )
+                                                        .stream()
+                                                        .map( Integer::valueOf )
+                                                        .collect( Collectors.toList() );
+
+        final CompletableFuture< PlannedAssignment > planned
+            = this.getTopicSnapshot( topicName )
+                  .thenApplyAsync( snapshot -> {
+                      final TopicPartitionAssignment current = snapshot.currentAssignment( Collections.singleton( topicName ) );
+                      final ReplicaPlacementPlanner  planner = sizedPlanner( eligibleBrokers, current );
+                      planner.setBalanceReplicas( balanceReplicas );
+                      final TopicPartitionAssignment requested = planner.planTarget( current, replicationFactor );
+
+                      final PlannedAssignment plannedAssignment
+                          = planAssignment( TopicPartitionAssignment.findAssignmentChanges( requested, current ),
+                                            current,
+                                            snapshot,
+                                            planner.getReplicaSizes() );
+                      if( "Execute".equals( operation ) )
+                      {
+                          executeAssignment( "Replication factor " + replicationFactor + " for " + topicName,
+                                             plannedAssignment,
+                                             throttle,
+                                             adaptiveThrottle,
+                                             0 );
+                      }
+                      return plannedAssignment;
+                  }, this.zkExecutor );
+
+        return showPlan( topicName, planned, planned.thenApply( p -> toJson( p.getPlan() ) ), m );
     }
 
-    private TopicPartitionAssignment getCurrentTopicConfiguration( final String topicName )
-    throws InterruptedException, ExecutionException, TimeoutException
+    /**
+     * Downloads the plan last worked out, or a job's plan, in the format of kafka-reassign-partitions.sh.
+     *
+     * Plans are written straight to the response by Jackson, a cluster wide plan never exists as one string.
+     *
+     * @param jobId a queued, running or finished job; the plan last worked out on this page if not given.
+     */
+    @GetMapping( value = "/reassignment/plan", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public ResponseEntity< TopicPartitionAssignment > downloadPlan( @RequestParam( required = false ) String jobId )
     {
-        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        if( jobId != null )
+        {
+            return findJob( jobId ).map( job -> attachment( "reassignment-plan-" + job.getId() + ".json", job.getPlan() ) )
+                                   .orElseGet( () -> ResponseEntity.notFound().build() );
+        }
+
+        final TopicPartitionAssignment plan = lastPlan();
+        return plan == null ? ResponseEntity.notFound().build() : attachment( "reassignment-plan.json", plan );
+    }
+
+    /**
+     * Downloads the current assignment of the topics, the whole cluster if none are given.
+     * Keep it before executing a plan, uploading it again rolls the plan back.
+     */
+    @GetMapping( value = "/reassignment/current", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< TopicPartitionAssignment > >
+        downloadCurrentAssignment( @RequestParam( value = "topic", required = false ) List< String > topics )
+    {
+        return this.metadataCache.getAsync().thenApply( snapshot -> {
+            final Collection< String > topicNames = topics == null || topics.isEmpty() ? snapshot.getTopicNames() : topics;
+            return attachment( "current-assignment.json", snapshot.currentAssignment( topicNames ) );
+        } );
+    }
+
+    /**
+     * Uploads a plan in the format of kafka-reassign-partitions.sh, parsed as it is read from the request.
+     *
+     * Replica order is taken as given, so a plan can move preferred leaders. Partitions that wouldn't change
+     * are dropped; what is left becomes the current plan and, with execute, is queued like a plan made here.
+     *
+     * @param throttle in KiB/s, none if not given.
+     * @return the summary of the changes; 400 and the {@link PlanValidator} violations if the plan can't be executed.
+     */
+    @PostMapping( value    = "/reassignment/plan",
+                  consumes = MediaType.APPLICATION_JSON_VALUE,
+                  produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< ? > >
+        uploadPlan( @RequestBody TopicPartitionAssignment requested,
+                    @RequestParam( defaultValue = "false" ) boolean execute,
+                    @RequestParam( required = false ) String throttle,
+                    @RequestParam( defaultValue = "false" ) boolean adaptiveThrottle )
+    {
+        final long throttleBytesPerSec = parseThrottle( throttle );
+
+        return this.metadataCache.getAsync().thenApplyAsync( snapshot -> {
+            final List< PlanValidator.Violation > violations = PlanValidator.validate( requested, snapshot );
+            if( !violations.isEmpty() )
+            {
+                log.warn( "Rejecting uploaded plan, {}", PlanValidator.describe( violations ) );
+                return ResponseEntity.badRequest().body( violations );
+            }
+
+            final TopicPartitionAssignment current = snapshot.currentAssignment( requested.getTopics() );
+            final PlannedAssignment planned
+                = execute
+                  ? executeAssignment( "Uploaded plan for " + requested.getTopics().size() + " topics",
+                                       requested,
+                                       current,
+                                       snapshot,
+                                       throttleBytesPerSec,
+                                       adaptiveThrottle )
+                  : planAssignment( TopicPartitionAssignment.findAssignmentChanges( requested, current ), current, snapshot, null );
+            return ResponseEntity.ok( planned.getChanges() );
+        }, this.zkExecutor );
+    }
+
+    /**
+     * @param topic   only snapshots that include the topic.
+     * @param sinceMs only snapshots taken at or after, epoch ms.
+     * @param untilMs only snapshots taken at or before, epoch ms.
+     * @return the saved assignment snapshots, newest first.
+     */
+    @GetMapping( value = "/history", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public List< AssignmentSnapshot > history( @RequestParam( required = false ) String topic,
+                                               @RequestParam( defaultValue = "0" ) long sinceMs,
+                                               @RequestParam( defaultValue = "0" ) long untilMs )
+    {
+        return this.history.list( topic, sinceMs, untilMs );
+    }
+
+    /**
+     * Downloads a saved assignment, in the format of kafka-reassign-partitions.sh.
+     */
+    @GetMapping( value = "/history/{id}", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public ResponseEntity< TopicPartitionAssignment > historySnapshot( @PathVariable long id )
+    {
+        return this.history.getAssignment( id )
+                           .map( assignment -> attachment( "assignment-" + id + ".json", assignment ) )
+                           .orElseGet( () -> ResponseEntity.notFound().build() );
+    }
+
+    /**
+     * @return the partitions whose replicas differ between the snapshots, as they are in the later one.
+     */
+    @GetMapping( value = "/history/diff", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public ResponseEntity< TopicPartitionAssignment > historyDiff( @RequestParam long from,
+                                                                   @RequestParam long to )
+    {
+        final Optional< TopicPartitionAssignment > before = this.history.getAssignment( from );
+        final Optional< TopicPartitionAssignment > after  = this.history.getAssignment( to );
+        if( !before.isPresent() || !after.isPresent() )
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok( TopicPartitionAssignment.findAssignmentChanges( after.get(), before.get() ) );
+    }
+
+    /**
+     * Saves the current assignment of the topics, the whole cluster if none are given.
+     */
+    @PostMapping( value = "/history", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< AssignmentSnapshot > >
+        takeSnapshot( @RequestParam( value = "topic", required = false ) List< String > topics )
+    {
+        if( !this.history.isEnabled() )
+        {
+            return CompletableFuture.completedFuture( ResponseEntity.notFound().build() );
+        }
+        return this.metadataCache.getAsync().thenApplyAsync( snapshot -> {
+            final Collection< String > topicNames = topics == null || topics.isEmpty() ? snapshot.getTopicNames() : topics;
+            return ResponseEntity.ok( this.history.record( AssignmentSnapshot.Kind.MANUAL,
+                                                           null,
+                                                           "Saved for " + topicNames.size() + " topics",
+                                                           snapshot.currentAssignment( topicNames ) ) );
+        }, this.zkExecutor );
+    }
+
+    /**
+     * Downloads the plan that puts the snapshot's partitions back the way they were.
+     */
+    @GetMapping( value = "/history/{id}/rollback", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< TopicPartitionAssignment > > downloadRollbackPlan( @PathVariable long id )
+    {
+        final Optional< TopicPartitionAssignment > saved = this.history.getAssignment( id );
+        if( !saved.isPresent() )
+        {
+            return CompletableFuture.completedFuture( ResponseEntity.notFound().build() );
+        }
+        return this.metadataCache.getAsync().thenApply( snapshot -> {
+            final TopicPartitionAssignment current = snapshot.currentAssignment( saved.get().getTopics() );
+            return attachment( "rollback-to-" + id + ".json", AssignmentHistory.rollbackPlan( saved.get(), current ) );
+        } );
+    }
 
-        final DescribeTopicsResult  dtr = this.adminClient.describeTopics( Collections.singleton( topicName ) );
+    /**
+     * Makes the rollback to the snapshot the current plan and, with execute, queues it like any other.
+     *
+     * @param throttle in KiB/s, none if not given.
+     * @return the summary of the changes, 400 if the snapshot puts replicas on brokers the cluster no longer has.
+     */
+    @PostMapping( value = "/history/{id}/rollback", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< ResponseEntity< AssignmentChangeSummary > >
+        rollback( @PathVariable long id,
+                  @RequestParam( defaultValue = "false" ) boolean execute,
+                  @RequestParam( required = false ) String throttle,
+                  @RequestParam( defaultValue = "false" ) boolean adaptiveThrottle )
+    {
+        final Optional< TopicPartitionAssignment > saved = this.history.getAssignment( id );
+        if( !saved.isPresent() )
+        {
+            return CompletableFuture.completedFuture( ResponseEntity.notFound().build() );
+        }
+        final long throttleBytesPerSec = parseThrottle( throttle );
+
+        return this.metadataCache.getAsync().thenApplyAsync( snapshot -> {
+            final TopicPartitionAssignment current = snapshot.currentAssignment( saved.get().getTopics() );
+            final TopicPartitionAssignment plan    = AssignmentHistory.rollbackPlan( saved.get(), current );
+
+            final Set< Integer > missing = plan.getBrokerIds();
+            snapshot.getNodes().forEach( node -> missing.remove( node.id() ) );
+            if( !missing.isEmpty() )
+            {
+                log.warn( "Rejecting rollback to snapshot {}, brokers {} are gone.", id, missing );
+                return ResponseEntity.badRequest().build();
+            }
+
+            final PlannedAssignment planned
+                = execute
+                  ? executeAssignment( "Rollback to snapshot " + id, plan, current, snapshot, throttleBytesPerSec, adaptiveThrottle )
+                  : planAssignment( plan, current, snapshot, null );
+            return ResponseEntity.ok( planned.getChanges() );
+        }, this.zkExecutor );
+    }
+
+    /**
+     * @return the queued, running or finished job.
+     */
+    private Optional< ReassignmentJob > findJob( final String jobId )
+    {
+        return this.reassignmentScheduler.getJobs()
+                                         .stream()
+                                         .filter( job -> job.getId().equals( jobId ) )
+                                         .findFirst();
+    }
+
+    private static ResponseEntity< TopicPartitionAssignment > attachment( final String fileName,
+                                                                          final TopicPartitionAssignment tpa )
+    {
+        return ResponseEntity.ok()
+                             .header( HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"" )
+                             .body( tpa );
+    }
+
+    /**
+     * Plans, and optionally executes, one job over many topics: the listed ones plus those matching the pattern.
+     *
+     * The topics are described afresh, in batches, and planned together so brokers are evened out
+     * across all of them. The result is a single plan and a single job, run in waves by the scheduler.
+     */
+    @PostMapping( "/cluster/rebalance" )
+    public CompletableFuture< String > rebalanceTopics( @RequestBody MultiValueMap< String, String > formData,
+                                                        Model m )
+    {
+        log.debug( "Multi Topic Rebalance Request: {}", formData );
+
+        final String  operation         = formData.getFirst( "operation" );
+        final String  rfValue           = formData.getFirst( "replicationFactor" );
+        final int     replicationFactor = rfValue == null || rfValue.trim().isEmpty()
+                                          ? ReplicaPlacementPlanner.KEEP_REPLICATION_FACTOR
+                                          : Integer.parseInt( rfValue.trim() );
+        final boolean balanceReplicas   = formData.containsKey( "balanceReplicas" );
+        final long    throttle          = parseThrottle( formData );
+        final boolean adaptiveThrottle  = formData.containsKey( "adaptiveThrottle" );
+
+        final List< Integer > eligibleBrokers = formData.getOrDefault( "eligibleBroker", Collections.emptyList() )
+                                                        .stream()
+                                                        .map( Integer::valueOf )
+                                                        .collect( Collectors.toList() );
+
+        final CompletableFuture< ClusterMetadataSnapshot > snapshot = this.metadataCache.getAsync();
+        final CompletableFuture< SortedSet< String > > topics
+            = snapshot.thenApply( s -> TopicSelection.select( s.getTopicNames(),
+                                                              formData.getFirst( "topics" ),
+                                                              formData.getFirst( "topicPattern" ) ) );
+
+        return topics.thenCompose( this.metadataCache::describeTopicsAsync )
+                     .thenApplyAsync( descriptions -> {
+                         final SortedSet< String > selected = topics.join();
+                         Assert.notEmpty( selected, "No topics selected." );
+
+                         final TopicPartitionAssignment current
+                             = ClusterMetadataSnapshot.assignmentOf( selected.stream()
+                                                                             .map( descriptions::get )
+                                                                             .collect( Collectors.toList() ) );
+
+                         final ReplicaPlacementPlanner planner = sizedPlanner( eligibleBrokers, current );
+                         planner.setBalanceReplicas( balanceReplicas );
+                         final TopicPartitionAssignment requested = planner.planTarget( current, replicationFactor );
+
+                         if( "Simulate".equals( operation ) )
+                         {
+                             m.addAttribute( "simulation",
+                                             this.reassignmentScheduler.simulate( requested,
+                                                                                  current,
+                                                                                  planner.getReplicaSizes(),
+                                                                                  simulationLimits( throttle,
+                                                                                                    formData.getFirst( "bandwidth" ),
+                                                                                                    formData.getFirst( "brokerBandwidth" ) ),
+                                                                                  0 ) );
+                         }
+                         final PlannedAssignment planned
+                             = planAssignment( TopicPartitionAssignment.findAssignmentChanges( requested, current ),
+                                               current,
+                                               snapshot.join(),
+                                               planner.getReplicaSizes() );
+                         if( "Execute".equals( operation ) )
+                         {
+                             executeAssignment( "Rebalance of " + selected.size() + " topics"
+                                                + ( replicationFactor == ReplicaPlacementPlanner.KEEP_REPLICATION_FACTOR
+                                                    ? "" : " to replication factor " + replicationFactor ),
+                                                planned,
+                                                throttle,
+                                                adaptiveThrottle,
+                                                0 );
+                         }
+                         return planned;
+                     }, this.zkExecutor )
+                     .thenCompose( planned -> {
+                         // Cluster wide plans can be huge, the page links to the download instead of inlining the JSON.
+                         m.addAttribute( "selectedTopics", topics.join() );
+                         return showPlanned( planned, m );
+                     } );
+    }
+
+    /**
+     * Plans, and optionally executes, moving every replica off a broker ahead of its retirement.
+     *
+     * All topics are described afresh; only partitions with a replica on the broker move, each to
+     * the least loaded broker without one. The job moves at most maxPartitionsPerWave at a time and the
+     * {@link BrokerDrainMonitor} reports when the broker holds no replicas and no leaderships.
+     */
+    @PostMapping( "/broker/drain" )
+    public CompletableFuture< String > drainBroker( @RequestBody MultiValueMap< String, String > formData,
+                                                    Model m )
+    {
+        log.debug( "Broker Drain Request: {}", formData );
+
+        final String  operation        = formData.getFirst( "operation" );
+        final int     brokerId         = Integer.parseInt( formData.getFirst( "brokerId" ) );
+        final String  maxPartitions    = formData.getFirst( "maxPartitionsPerWave" );
+        final int     partitionsAtOnce = maxPartitions == null || maxPartitions.trim().isEmpty()
+                                         ? 0 : Integer.parseInt( maxPartitions.trim() );
+        final long    throttle         = parseThrottle( formData );
+        final boolean adaptiveThrottle = formData.containsKey( "adaptiveThrottle" );
+
+        final CompletableFuture< ClusterMetadataSnapshot > snapshot = this.metadataCache.getAsync();
+
+        return snapshot.thenCompose( s -> this.metadataCache.describeTopicsAsync( s.getTopicNames() ) )
+                       .thenApplyAsync( descriptions -> {
+                           final TopicPartitionAssignment current = ClusterMetadataSnapshot.assignmentOf( descriptions.values() );
+                           final Set< Integer > liveBrokers = snapshot.join()
+                                                                      .getNodes()
+                                                                      .stream()
+                                                                      .map( Node::id )
+                                                                      .collect( Collectors.toCollection( TreeSet::new ) );
+                           final Set< Integer > brokerIds = current.getBrokerIds();
+                           brokerIds.addAll( liveBrokers );
+                           final ReplicaSizes sizes = fetchReplicaSizes( brokerIds );
+
+                           final TopicPartitionAssignment requested = BrokerDrainMonitor.plan( current, brokerId, liveBrokers, sizes );
+
+                           final PlannedAssignment planned
+                               = planAssignment( TopicPartitionAssignment.findAssignmentChanges( requested, current ),
+                                                 current,
+                                                 snapshot.join(),
+                                                 sizes );
+                           if( "Execute".equals( operation ) )
+                           {
+                               final ReassignmentJob job = executeAssignment( "Drain of broker " + brokerId,
+                                                                              planned,
+                                                                              throttle,
+                                                                              adaptiveThrottle,
+                                                                              partitionsAtOnce );
+                               if( job != null )
+                               {
+                                   this.drainMonitor.track( brokerId, job );
+                               }
+                           }
+                           return planned;
+                       }, this.zkExecutor )
+                       .thenCompose( planned -> {
+                           m.addAttribute( "selectedTopics", planned.getPlan().getTopics() );
+                           return showPlanned( planned, m );
+                       } );
+    }
+
+    /**
+     * Plans, and optionally executes, spreading the replicas of the selected topics, all of them if none are
+     * selected, over the racks of the cluster; see {@link RackSpreadPlanner}. Only partitions that aren't
+     * spread move, and only as many of their replicas as it takes.
+     */
+    @PostMapping( "/cluster/racks" )
+    public CompletableFuture< String > spreadOverRacks( @RequestBody MultiValueMap< String, String > formData,
+                                                        Model m )
+    {
+        log.debug( "Rack Spread Request: {}", formData );
+
+        final String  operation        = formData.getFirst( "operation" );
+        final String  maxPartitions    = formData.getFirst( "maxPartitionsPerWave" );
+        final int     partitionsAtOnce = maxPartitions == null || maxPartitions.trim().isEmpty()
+                                         ? 0 : Integer.parseInt( maxPartitions.trim() );
+        final long    throttle         = parseThrottle( formData );
+        final boolean adaptiveThrottle = formData.containsKey( "adaptiveThrottle" );
+
+        final CompletableFuture< ClusterMetadataSnapshot > snapshot = this.metadataCache.getAsync();
+        final CompletableFuture< SortedSet< String > > topics
+            = snapshot.thenApply( s -> {
+                final SortedSet< String > selected = TopicSelection.select( s.getTopicNames(),
+                                                                            formData.getFirst( "topics" ),
+                                                                            formData.getFirst( "topicPattern" ) );
+                return selected.isEmpty() ? new TreeSet<>( s.getTopicNames() ) : selected;
+            } );
+
+        return topics.thenCompose( this.metadataCache::describeTopicsAsync )
+                     .thenApplyAsync( descriptions -> {
+                         final SortedSet< String > selected = topics.join();
+                         final TopicPartitionAssignment current
+                             = ClusterMetadataSnapshot.assignmentOf( selected.stream()
+                                                                             .map( descriptions::get )
+                                                                             .filter( Objects::nonNull )
+                                                                             .collect( Collectors.toList() ) );
+
+                         final TopicPartitionAssignment requested = RackSpreadPlanner.plan( current, snapshot.join().getNodes() );
 
-        final KafkaFuture< Void > topicData
-            = KafkaFuture.allOf(
-            dtr.all()
-               .thenApply( new KafkaFuture.Function< Map< String, TopicDescription >, Map< String, TopicDescription > >()
-               {
-                   @Override
-                   public Map< String, TopicDescription > apply( Map< String, TopicDescription > topicDescriptionMap )
-                   {
-                       Assert.isTrue( topicDescriptionMap.size() == 1, "Only Single Topic Supported." );
+                         final PlannedAssignment planned
+                             = planAssignment( TopicPartitionAssignment.findAssignmentChanges( requested, current ),
+                                               current,
+                                               snapshot.join(),
+                                               null );
+                         if( "Execute".equals( operation ) )
+                         {
+                             executeAssignment( "Rack spread of " + selected.size() + " topics",
+                                                planned,
+                                                throttle,
+                                                adaptiveThrottle,
+                                                partitionsAtOnce );
+                         }
+                         return planned;
+                     }, this.zkExecutor )
+                     .thenCompose( planned -> {
+                         m.addAttribute( "selectedTopics", topics.join() );
+                         return showPlanned( planned, m );
+                     } );
+    }
 
-                       final TopicDescription description = topicDescriptionMap.get( topicName );
+    /**
+     * @return the replicas, leaderships and preferred leaderships of every broker.
+     */
+    @GetMapping( value = "/leaders", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public CompletableFuture< List< BrokerLeadership > > leadership()
+    {
+        return this.metadataCache.getAsync().thenApply( ClusterMetadataSnapshot::getLeadership );
+    }
+
+    /**
+     * @return the under replicated, at risk and offline partition counts, per topic and per broker.
+     */
+    @GetMapping( value = "/replication", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public UnderReplicationMonitor.Summary replication()
+    {
+        return this.replicationMonitor.getSummary();
+    }
 
-                       final Map< Integer, Set< Integer > > partitionsToSetOfNodeIds =
-                           description.partitions()
+    /**
+     * @param topic  only partitions of the topic.
+     * @param broker only partitions with a replica out of sync on the broker.
+     * @return the under replicated partitions, most at risk first.
+     */
+    @GetMapping( value = "/replication/partitions", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public List< UnderReplicationMonitor.UnderReplicatedPartition > underReplicatedPartitions(
+        @RequestParam( required = false ) String topic,
+        @RequestParam( required = false ) Integer broker,
+        @RequestParam( defaultValue = "500" ) int limit )
+    {
+        return this.replicationMonitor.getUnderReplicated( topic, broker )
                                       .stream()
-                                      .collect( Collectors.toMap( TopicPartitionInfo::partition,
-                                                                  tpi -> tpi.replicas()
-                                                                            .stream()
-                                                                            .map( Node::id )
-                                                                            .collect( Collectors.toSet() ) ) );
+                                      .limit( Math.max( 0, limit ) )
+                                      .collect( Collectors.toList() );
+    }
+
+    /**
+     * @return the most recent ISR shrinks and expands, newest first.
+     */
+    @GetMapping( value = "/replication/isr-changes", produces = MediaType.APPLICATION_JSON_VALUE )
+    @ResponseBody
+    public List< UnderReplicationMonitor.IsrChange > isrChanges()
+    {
+        return this.replicationMonitor.getIsrChanges();
+    }
 
-                       partitionsToSetOfNodeIds.forEach( ( partition, nodeIdSet ) -> tpa.add( topicName, partition, nodeIdSet ) );
+    /**
+     * Evens out leadership over the selected topics, all of them if none are selected.
+     *
+     * Plan works out the replica lists that make the preferred leaders even; Execute queues that reordering as a job
+     * and a batched preferred leader election to run once it completes; Elect only runs the election, to move
+     * leadership back to the preferred replicas as they are.
+     */
+    @PostMapping( "/cluster/leaders" )
+    public CompletableFuture< String > balanceLeaders( @RequestBody MultiValueMap< String, String > formData,
+                                                       Model m )
+    {
+        log.debug( "Leader Balance Request: {}", formData );
 
-                       return topicDescriptionMap;
-                   }
-               } )
-        );
+        final String operation = formData.getFirst( "operation" );
 
-        topicData.get( 25, TimeUnit.SECONDS );
+        final CompletableFuture< ClusterMetadataSnapshot > snapshot = this.metadataCache.getAsync();
+        final CompletableFuture< SortedSet< String > > topics
+            = snapshot.thenApply( s -> {
+                final SortedSet< String > selected = TopicSelection.select( s.getTopicNames(),
+                                                                            formData.getFirst( "topics" ),
+                                                                            formData.getFirst( "topicPattern" ) );
+                return selected.isEmpty() ? new TreeSet<>( s.getTopicNames() ) : selected;
+            } );
 
-        return tpa;
+        if( "Elect".equals( operation ) )
+        {
+            return topics.thenCompose( selected -> {
+                this.leaderElector.submit( "Preferred leaders of " + selected.size() + " topics", selected, null );
+                return index( m );
+            } );
+        }
+
+        return topics.thenCompose( this.metadataCache::describeTopicsAsync )
+                     .thenApplyAsync( descriptions -> {
+                         final SortedSet< String > selected = topics.join();
+                         final TopicPartitionAssignment current
+                             = ClusterMetadataSnapshot.assignmentOf( selected.stream()
+                                                                             .map( descriptions::get )
+                                                                             .filter( Objects::nonNull )
+                                                                             .collect( Collectors.toList() ) );
+                         final List< Integer > liveBrokers = snapshot.join()
+                                                                     .getNodes()
+                                                                     .stream()
+                                                                     .map( Node::id )
+                                                                     .collect( Collectors.toList() );
+
+                         // Only the order of the replicas changes, nothing is copied.
+                         final TopicPartitionAssignment requested = PreferredLeaderElector.plan( current, liveBrokers );
+
+                         final PlannedAssignment planned
+                             = planAssignment( TopicPartitionAssignment.findAssignmentChanges( requested, current ),
+                                               current,
+                                               snapshot.join(),
+                                               ReplicaSizes.EMPTY );
+                         if( "Execute".equals( operation ) )
+                         {
+                             final String description = "Leader balance of " + selected.size() + " topics";
+                             final ReassignmentJob job = executeAssignment( description, planned, -1, false, 0 );
+                             this.leaderElector.submit( description, selected, job );
+                         }
+                         else
+                         {
+                             m.addAttribute( "preferredLeadersAfterPlan",
+                                             PreferredLeaderElector.countPreferredLeaders( current, requested ) );
+                         }
+                         return planned;
+                     }, this.zkExecutor )
+                     .thenCompose( planned -> {
+                         m.addAttribute( "selectedTopics", topics.join() );
+                         return showPlanned( planned, m );
+                     } );
+    }
+
+    private CompletableFuture< String > showPlan( final String topicName,
+                                                  final CompletableFuture< PlannedAssignment > planned,
+                                                  final CompletableFuture< String > assignmentPlanJson,
+                                                  final Model m )
+    {
+        return planned.thenCombine( assignmentPlanJson, ( p, json ) -> {
+            addPlanned( p, m );
+            m.addAttribute( "assignmentPlanJson", json );
+            return p;
+        } ).thenCompose( p -> this.describeTopic( topicName, m ) );
+    }
+
+    /**
+     * Shows the plan on the cluster page.
+     */
+    private CompletableFuture< String > showPlanned( final PlannedAssignment planned, final Model m )
+    {
+        addPlanned( planned, m );
+        m.addAttribute( "planViolations", planned.getViolations() );
+        return index( m );
+    }
+
+    private static void addPlanned( final PlannedAssignment planned, final Model m )
+    {
+        m.addAttribute( "assignmentPlan", planned == null ? null : planned.getPlan() );
+        m.addAttribute( "assignmentChanges", planned == null ? null : planned.getChanges() );
+    }
+
+    /**
+     * @return the throttle from the form in bytes/sec, -1 for none.
+     */
+    private static long parseThrottle( final MultiValueMap< String, String > formData )
+    {
+        return parseThrottle( formData.getFirst( "throttle" ) );
+    }
+
+    /**
+     * @param throttle in KiBps, may be null.
+     * @return the throttle in bytes/sec, -1 for none.
+     */
+    private static long parseThrottle( final String throttle )
+    {
+        // Kafka treats any value >= 0 as a limit, 0 would stop replication altogether.
+        long throttleVal = -1;
+        if( throttle == null || throttle.trim().isEmpty() )
+        {
+            return throttleVal;
+        }
+        try
+        {
+            throttleVal = Long.parseLong( throttle.trim() );
+            throttleVal *= 1024; // we ask for input in KiBps
+        }
+        catch( NumberFormatException nfe )
+        {
+            log.error( "Invalid Number Format for throttle... not throttling." );
+        }
+
+        return throttleVal;
+    }
+
+    /**
+     * Works out the changes and hands them to the {@link ReassignmentScheduler}, which executes
+     * them in waves as soon as ZooKeeper is free.
+     *
+     * Runs on the zkExecutor.
+     *
+     * @param snapshot         the cluster the plan was made against, it is validated against it.
+     * @param adaptiveThrottle let the {@link ReassignmentThrottleController} adjust the throttle as the job runs.
+     * @return the plan, with its summary.
+     */
+    private PlannedAssignment executeAssignment( final String description,
+                                                 final TopicPartitionAssignment requested,
+                                                 final TopicPartitionAssignment current,
+                                                 final ClusterMetadataSnapshot snapshot,
+                                                 final long throttle,
+                                                 final boolean adaptiveThrottle )
+    {
+        final PlannedAssignment planned
+            = planAssignment( TopicPartitionAssignment.findAssignmentChanges( requested, current ), current, snapshot, null );
+        executeAssignment( description, planned, throttle, adaptiveThrottle, 0 );
+        return planned;
+    }
+
+    /**
+     * @param planned              from {@link #planAssignment}.
+     * @param maxPartitionsPerWave most partitions to move at once, 0 for the scheduler's default.
+     * @return the queued job, null if nothing changes.
+     */
+    private ReassignmentJob executeAssignment( final String description,
+                                               final PlannedAssignment planned,
+                                               final long throttle,
+                                               final boolean adaptiveThrottle,
+                                               final int maxPartitionsPerWave )
+    {
+        log.info( "Assignment Changes: {}", planned.getChanges() );
+
+        if( planned.getChanges().getPartitionsChanged() == 0 )
+        {
+            log.info( "Requested assignment matches the current one, nothing to execute." );
+            return null;
+        }
+
+        final List< PlanValidator.Violation > violations = planned.getViolations();
+        Assert.isTrue( violations.isEmpty(), () -> "Plan rejected, " + PlanValidator.describe( violations ) );
+
+        return this.reassignmentScheduler.submit( description,
+                                                  planned.getPlan(),
+                                                  adaptiveThrottle ? this.throttleController.startingThrottle( throttle ) : throttle,
+                                                  adaptiveThrottle,
+                                                  maxPartitionsPerWave );
+    }
+
+    /**
+     * Summarizes and validates the changes once, so pages showing the plan don't validate it again, and makes
+     * them the plan last worked out.
+     *
+     * Runs on the zkExecutor.
+     *
+     * @param snapshot the cluster the plan was made against.
+     * @param sizes    the replica sizes the plan was made with, null to fetch them for the summary.
+     */
+    private PlannedAssignment planAssignment( final TopicPartitionAssignment plan,
+                                              final TopicPartitionAssignment current,
+                                              final ClusterMetadataSnapshot snapshot,
+                                              final ReplicaSizes sizes )
+    {
+        final PlannedAssignment planned = new PlannedAssignment( plan,
+                                                                 summarize( plan, current, sizes ),
+                                                                 PlanValidator.validate( plan, snapshot ) );
+        this.lastPlanned = planned;
+        return planned;
+    }
+
+    /**
+     * @return the plan last worked out, null if none.
+     */
+    private TopicPartitionAssignment lastPlan()
+    {
+        final PlannedAssignment planned = this.lastPlanned;
+        return planned == null ? null : planned.getPlan();
+    }
+
+    /**
+     * Runs on the zkExecutor, the Scala command blocks on ZooKeeper.
+     *
+     * While a job is running only its current wave is verified, later waves haven't been submitted yet.
+     *
+     * @param planned the plan to verify when no job is running, may be null.
+     */
+    private String verifyAssignment( final PlannedAssignment planned )
+    {
+        final ReassignmentJob          job  = this.reassignmentScheduler.getActiveJob();
+        final TopicPartitionAssignment plan = job != null && job.getCurrentWavePlan() != null
+                                              ? job.getCurrentWavePlan()
+                                              : planned == null ? null : planned.getPlan();
+        if( plan == null )
+        {
+            // Nothing to verify.
+            return "";
+        }
+
+        final String assignmentPlanJson = toJson( plan );
+        this.metrics.timeZooKeeper( "verifyAssignment",
+                                    () -> ReassignPartitionsCommand$.MODULE$.verifyAssignment( this.zkUtils,
+                                                                                               this.adminClientOption,
+                                                                                               assignmentPlanJson ) );
+        return assignmentPlanJson;
+    }
+
+    /**
+     * Runs on the zkExecutor. Summarizes the plan with the replica sizes, so it shows how many bytes every broker
+     * has to copy before anyone executes it.
+     *
+     * @param sizes the replica sizes the plan was made with, null to ask the brokers holding the partitions that change.
+     */
+    private AssignmentChangeSummary summarize( final TopicPartitionAssignment plan,
+                                               final TopicPartitionAssignment current,
+                                               final ReplicaSizes sizes )
+    {
+        if( sizes != null )
+        {
+            return AssignmentChangeSummary.of( plan, current, sizes );
+        }
+
+        final Set< Integer > brokerIds = new TreeSet<>();
+        plan.forEach( ( topic, partition, replicas ) -> {
+            final int[] before = current.getReplicas( topic, partition );
+            if( before != null )
+            {
+                Arrays.stream( before ).forEach( brokerIds::add );
+            }
+        } );
+        return AssignmentChangeSummary.of( plan, current, fetchReplicaSizes( brokerIds ) );
+    }
+
+    /**
+     * Runs on the zkExecutor.
+     *
+     * @return the size of every replica on the brokers, {@link ReplicaSizes#EMPTY} if they can't tell.
+     */
+    private ReplicaSizes fetchReplicaSizes( final Collection< Integer > brokerIds )
+    {
+        if( brokerIds.isEmpty() )
+        {
+            return ReplicaSizes.EMPTY;
+        }
+
+        try
+        {
+            return this.metrics.timeAdmin( "describeLogDirs", ReplicaSizes.fetch( this.adminClient, brokerIds, this.timeoutMs ) )
+                               .get();
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new CompletionException( ie );
+        }
+        catch( ExecutionException ee )
+        {
+            log.warn( "Could not read replica sizes, planning and summaries count replicas only.", AdminFutures.unwrap( ee ) );
+            return ReplicaSizes.EMPTY;
+        }
+    }
+
+    /**
+     * Runs on the zkExecutor.
+     *
+     * @return a planner over the brokers that weighs partitions by their size, sizes are read from the brokers
+     *         that hold or could take a replica so their disk usage from other topics counts too.
+     */
+    private ReplicaPlacementPlanner sizedPlanner( final Collection< Integer > eligibleBrokers,
+                                                  final TopicPartitionAssignment current )
+    {
+        final Set< Integer > brokerIds = current.getBrokerIds();
+        brokerIds.addAll( eligibleBrokers );
+
+        final ReplicaPlacementPlanner planner = new ReplicaPlacementPlanner( eligibleBrokers );
+        planner.setReplicaSizes( fetchReplicaSizes( brokerIds ) );
+        return planner;
+    }
+
+    private String toJson( final TopicPartitionAssignment plan )
+    {
+        try
+        {
+            return om.writeValueAsString( plan );
+        }
+        catch( JsonProcessingException jpe )
+        {
+            throw new CompletionException( jpe );
+        }
+    }
+
+    private CompletableFuture< ClusterMetadataSnapshot > getTopicSnapshot( final String topicName )
+    {
+        return this.metadataCache.getWithTopicAsync( topicName ).thenApply( snapshot -> {
+            Assert.isTrue( snapshot.containsTopic( topicName ), "Unknown topic: " + topicName );
+            return snapshot;
+        } );
+    }
+
+    /**
+     * @return the throttle of the running job in bytes/sec, -1 if none.
+     */
+    private long activeThrottle()
+    {
+        final ReassignmentJob job = this.reassignmentScheduler.getActiveJob();
+        return job == null ? -1 : job.getCurrentThrottleBytesPerSec();
+    }
+
+    private static void addMetadataAge( final ClusterMetadataSnapshot snapshot, final Model m )
+    {
+        m.addAttribute( "metadataFetchedAt", new Date( snapshot.getFetchedAtMs() ) );
+        m.addAttribute( "metadataAgeSeconds", TimeUnit.MILLISECONDS.toSeconds( snapshot.getAgeMs() ) );
     }
 
     private MultiValueMap< TopicAndPartition, Integer >
@@ -368,4 +1450,19 @@ public class KafkaTopicController
         return tpa;
     }
 
+    /**
+     * A plan as one request worked it out: the changes, their summary and their {@link PlanValidator} violations
+     * against the snapshot it was planned from.
+     */
+    @Getter
+    @AllArgsConstructor
+    private static final class PlannedAssignment
+    {
+        private final TopicPartitionAssignment plan;
+
+        private final AssignmentChangeSummary changes;
+
+        private final List< PlanValidator.Violation > violations;
+    }
+
 }
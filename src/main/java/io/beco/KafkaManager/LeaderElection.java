@@ -0,0 +1,85 @@
+/**
+ * @file LeaderElection.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/30/18 10:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.*;
+
+/**
+ * LeaderElection moves leadership of a set of topics back to the preferred replicas, a batch of partitions
+ * at a time, once the job that reorders their replicas (if any) has completed.
+ */
+@Getter
+@ToString( exclude = "topics" )
+public class LeaderElection
+{
+    public enum State
+    {
+        WAITING,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString().substring( 0, 8 );
+
+    private final String description;
+
+    private final SortedSet< String > topics;
+
+    /**
+     * The job that has to complete first, null to elect straight away.
+     */
+    private final String jobId;
+
+    private final long submittedAtMs = System.currentTimeMillis();
+
+    @Setter
+    private volatile State state = State.WAITING;
+
+    /**
+     * Partitions not led by their preferred replica when the election started, -1 before.
+     */
+    @Setter
+    private volatile int partitionCount = -1;
+
+    @Setter
+    private volatile int batchCount = 0;
+
+    /**
+     * Index of the batch that is running or last ran, -1 before the first.
+     */
+    @Setter
+    private volatile int currentBatch = -1;
+
+    @Setter
+    private volatile long finishedAtMs = 0;
+
+    @Setter
+    private volatile String error;
+
+    public LeaderElection( final String description, final Collection< String > topics, final String jobId )
+    {
+        this.description = description;
+        this.topics      = Collections.unmodifiableSortedSet( new TreeSet<>( topics ) );
+        this.jobId       = jobId;
+    }
+
+    public boolean isFinished()
+    {
+        return this.state == State.COMPLETED || this.state == State.FAILED;
+    }
+}
@@ -0,0 +1,418 @@
+/**
+ * @file LiveUpdateBroadcaster.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/4/18 10:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * LiveUpdateBroadcaster pushes what changes in a topic, or in a job, to the browsers watching it,
+ * as Server-Sent Events.
+ *
+ * A single poller serves every subscriber: each poll describes the union of the watched topics in one
+ * go, works out which partitions changed since the last poll, and sends each change once per subscriber.
+ * Ten tabs on the same topic cost the cluster what one does, and nothing is polled when nobody watches.
+ *
+ * Topic streams carry "partitions" events, an array of {@link PartitionMatrix.Row}s (all of them at first,
+ * then only those whose leader, replicas or ISR changed) and "progress" events, a {@link TopicProgress}
+ * whenever the running job samples the topic's partitions. Job streams carry "job" events, a {@link JobUpdate}
+ * whenever the job moves on, and end once it finishes.
+ */
+@Component
+@Slf4j
+public class LiveUpdateBroadcaster
+{
+    /**
+     * The running job's progress over one topic's partitions.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class TopicProgress
+    {
+        private final String jobId;
+
+        private final int wave;
+
+        private final int waveCount;
+
+        private final long sampledAtMs;
+
+        private final List< ReassignmentProgress.PartitionProgress > partitions;
+    }
+
+    /**
+     * Where a job is, without its plan.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class JobUpdate
+    {
+        private final String id;
+
+        private final String description;
+
+        private final ReassignmentJob.State state;
+
+        /**
+         * 1-based, 0 before the first wave.
+         */
+        private final int wave;
+
+        private final int waveCount;
+
+        private final String error;
+
+        /**
+         * The latest progress sample, null if there is none.
+         */
+        private final Integer percentComplete;
+
+        private final Long copiedBytes;
+
+        private final Long totalBytes;
+
+        private final Long etaSeconds;
+
+        static JobUpdate of( final ReassignmentJob job, final ReassignmentProgress progress )
+        {
+            return new JobUpdate( job.getId(),
+                                  job.getDescription(),
+                                  job.getState(),
+                                  job.getCurrentWave() + 1,
+                                  job.getWaves().size(),
+                                  job.getError(),
+                                  progress == null ? null : progress.getPercentComplete(),
+                                  progress == null ? null : progress.getCopiedBytes(),
+                                  progress == null ? null : progress.getTotalBytes(),
+                                  progress == null ? null : progress.getEtaSeconds() );
+        }
+    }
+
+    /**
+     * One open stream; primed once it has been sent the full state.
+     */
+    private static final class Subscriber
+    {
+        private final SseEmitter emitter;
+
+        private volatile Runnable unsubscribe;
+
+        private volatile boolean primed;
+
+        private Subscriber( final SseEmitter emitter )
+        {
+            this.emitter = emitter;
+        }
+    }
+
+    private final ClusterMetadataCache metadataCache;
+
+    private final ReassignmentScheduler reassignmentScheduler;
+
+    private final ReassignmentProgressTracker progressTracker;
+
+    private final ObjectWriter writer;
+
+    private final long pollIntervalMs;
+
+    private final long streamTimeoutMs;
+
+    private final ScheduledExecutorService poller
+        = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "live-updates" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+    private final Map< String, Set< Subscriber > > topicSubscribers = new ConcurrentHashMap<>();
+
+    private final Map< String, Set< Subscriber > > jobSubscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Poller thread only: the partitions last sent per topic, the last progress sample sent per topic
+     * and the last update sent per job.
+     */
+    private final Map< String, Map< Integer, PartitionMatrix.Row > > lastRows = new HashMap<>();
+
+    private final Map< String, Long > lastProgress = new HashMap<>();
+
+    private final Map< String, String > lastJobUpdates = new HashMap<>();
+
+    @Autowired
+    public LiveUpdateBroadcaster( final ClusterMetadataCache metadataCache,
+                                  final ReassignmentScheduler reassignmentScheduler,
+                                  final ReassignmentProgressTracker progressTracker,
+                                  final ObjectMapper objectMapper,
+                                  @Value( "${kafka-manager.live-updates.poll-interval-ms:2000}" ) final long pollIntervalMs,
+                                  @Value( "${kafka-manager.live-updates.stream-timeout-ms:600000}" ) final long streamTimeoutMs )
+    {
+        this.metadataCache         = metadataCache;
+        this.reassignmentScheduler = reassignmentScheduler;
+        this.progressTracker       = progressTracker;
+        // Events are one line each, the shared mapper indents.
+        this.writer                = objectMapper.writer().without( SerializationFeature.INDENT_OUTPUT );
+        this.pollIntervalMs        = pollIntervalMs;
+        this.streamTimeoutMs       = streamTimeoutMs;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        this.poller.scheduleWithFixedDelay( this::poll, this.pollIntervalMs, this.pollIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        this.poller.shutdownNow();
+        this.topicSubscribers.values().forEach( subscribers -> subscribers.forEach( this::close ) );
+        this.jobSubscribers.values().forEach( subscribers -> subscribers.forEach( this::close ) );
+    }
+
+    /**
+     * @return a stream of the topic's partition and progress changes, starting with all of its partitions.
+     */
+    public SseEmitter subscribeTopic( final String topicName )
+    {
+        return subscribe( this.topicSubscribers, topicName );
+    }
+
+    /**
+     * @return a stream of the job's updates, starting with where it is now and ending once it finishes.
+     */
+    public SseEmitter subscribeJob( final String jobId )
+    {
+        return subscribe( this.jobSubscribers, jobId );
+    }
+
+    public int getSubscriberCount()
+    {
+        return this.topicSubscribers.values().stream().mapToInt( Set::size ).sum()
+               + this.jobSubscribers.values().stream().mapToInt( Set::size ).sum();
+    }
+
+    private SseEmitter subscribe( final Map< String, Set< Subscriber > > subscribers, final String key )
+    {
+        final SseEmitter emitter    = new SseEmitter( this.streamTimeoutMs );
+        final Subscriber subscriber = new Subscriber( emitter );
+        subscribers.computeIfAbsent( key, k -> ConcurrentHashMap.newKeySet() ).add( subscriber );
+
+        subscriber.unsubscribe = () -> subscribers.computeIfPresent( key, ( k, set ) -> {
+            set.remove( subscriber );
+            return set.isEmpty() ? null : set;
+        } );
+        emitter.onCompletion( subscriber.unsubscribe );
+        emitter.onTimeout( subscriber.unsubscribe );
+        // Send what is already known now rather than after the next poll.
+        this.poller.execute( () -> prime( subscribers, key, subscriber ) );
+        return emitter;
+    }
+
+    private void prime( final Map< String, Set< Subscriber > > subscribers, final String key, final Subscriber subscriber )
+    {
+        try
+        {
+            if( subscribers == this.topicSubscribers && this.lastRows.containsKey( key ) )
+            {
+                sendRows( subscriber, this.lastRows.get( key ).values() );
+            }
+            else if( subscribers == this.jobSubscribers && this.lastJobUpdates.containsKey( key ) )
+            {
+                send( subscriber, "job", this.lastJobUpdates.get( key ) );
+                subscriber.primed = true;
+            }
+        }
+        catch( Exception e )
+        {
+            log.warn( "Priming a live update stream failed.", e );
+        }
+    }
+
+    private void poll()
+    {
+        try
+        {
+            pollTopics();
+            pollJobs();
+        }
+        catch( Exception e )
+        {
+            log.warn( "Live update poll failed.", e );
+        }
+    }
+
+    private void pollTopics() throws InterruptedException, ExecutionException, JsonProcessingException
+    {
+        this.lastRows.keySet().retainAll( this.topicSubscribers.keySet() );
+        this.lastProgress.keySet().retainAll( this.topicSubscribers.keySet() );
+        if( this.topicSubscribers.isEmpty() )
+        {
+            return;
+        }
+
+        // A topic deleted since the snapshot fails this poll only, the next snapshot won't have it.
+        final ClusterMetadataSnapshot snapshot = this.metadataCache.getAsync().get();
+        final List< String > topics = new ArrayList<>();
+        this.topicSubscribers.keySet().stream().filter( snapshot::containsTopic ).forEach( topics::add );
+        if( topics.isEmpty() )
+        {
+            return;
+        }
+        final Map< String, TopicDescription > descriptions = this.metadataCache.describeTopicsAsync( topics ).get();
+
+        final ReassignmentJob      job      = this.reassignmentScheduler.getActiveJob();
+        final ReassignmentProgress progress = job == null ? null : this.progressTracker.getProgress( job.getId() );
+
+        for( TopicDescription description : descriptions.values() )
+        {
+            final String topic = description.name();
+            final Map< Integer, PartitionMatrix.Row > last    = this.lastRows.computeIfAbsent( topic, t -> new TreeMap<>() );
+            final List< PartitionMatrix.Row >          changed = changedRows( last, description );
+            final String changes = changed.isEmpty() ? null : this.writer.writeValueAsString( changed );
+
+            String progressEvent = null;
+            if( progress != null && !Objects.equals( this.lastProgress.get( topic ), progress.getSampledAtMs() ) )
+            {
+                final List< ReassignmentProgress.PartitionProgress > partitions = progress.getPartitions( topic );
+                if( !partitions.isEmpty() )
+                {
+                    this.lastProgress.put( topic, progress.getSampledAtMs() );
+                    progressEvent = this.writer.writeValueAsString( new TopicProgress( progress.getJobId(),
+                                                                                       progress.getWave(),
+                                                                                       progress.getWaveCount(),
+                                                                                       progress.getSampledAtMs(),
+                                                                                       partitions ) );
+                }
+            }
+
+            for( Subscriber subscriber : this.topicSubscribers.getOrDefault( topic, Collections.emptySet() ) )
+            {
+                if( !subscriber.primed )
+                {
+                    sendRows( subscriber, last.values() );
+                }
+                else if( changes != null )
+                {
+                    send( subscriber, "partitions", changes );
+                }
+                if( progressEvent != null )
+                {
+                    send( subscriber, "progress", progressEvent );
+                }
+            }
+        }
+    }
+
+    /**
+     * @param last the rows last sent, by partition; brought up to date.
+     * @return the partitions whose leader, replicas or ISR differ from the last rows, in order.
+     */
+    static List< PartitionMatrix.Row > changedRows( final Map< Integer, PartitionMatrix.Row > last,
+                                                    final TopicDescription description )
+    {
+        final List< PartitionMatrix.Row > changed = new ArrayList<>();
+        for( TopicPartitionInfo tpi : description.partitions() )
+        {
+            final PartitionMatrix.Row row = PartitionMatrix.Row.of( tpi, null );
+            if( !row.sameReplicasAs( last.get( tpi.partition() ) ) )
+            {
+                changed.add( row );
+                last.put( tpi.partition(), row );
+            }
+        }
+        changed.sort( Comparator.comparingInt( PartitionMatrix.Row::getPartition ) );
+        return changed;
+    }
+
+    private void pollJobs() throws JsonProcessingException
+    {
+        this.lastJobUpdates.keySet().retainAll( this.jobSubscribers.keySet() );
+        if( this.jobSubscribers.isEmpty() )
+        {
+            return;
+        }
+
+        final Map< String, ReassignmentJob > jobs = new HashMap<>();
+        this.reassignmentScheduler.getJobs().forEach( job -> jobs.put( job.getId(), job ) );
+        for( Map.Entry< String, Set< Subscriber > > entry : this.jobSubscribers.entrySet() )
+        {
+            final ReassignmentJob job = jobs.get( entry.getKey() );
+            if( job == null )
+            {
+                // Aged out of the scheduler's list, there is nothing more to say.
+                entry.getValue().forEach( this::close );
+                continue;
+            }
+
+            final String  update  = this.writer.writeValueAsString( JobUpdate.of( job, this.progressTracker.getProgress( job.getId() ) ) );
+            final boolean changed = !update.equals( this.lastJobUpdates.put( job.getId(), update ) );
+            for( Subscriber subscriber : entry.getValue() )
+            {
+                if( changed || !subscriber.primed )
+                {
+                    send( subscriber, "job", update );
+                    subscriber.primed = true;
+                }
+                if( job.isFinished() )
+                {
+                    close( subscriber );
+                }
+            }
+        }
+    }
+
+    private void sendRows( final Subscriber subscriber, final Collection< PartitionMatrix.Row > rows )
+    throws JsonProcessingException
+    {
+        send( subscriber, "partitions", this.writer.writeValueAsString( rows ) );
+        subscriber.primed = true;
+    }
+
+    private void send( final Subscriber subscriber, final String name, final String json )
+    {
+        try
+        {
+            subscriber.emitter.send( SseEmitter.event().name( name ).data( json, MediaType.APPLICATION_JSON ) );
+        }
+        catch( IOException | IllegalStateException e )
+        {
+            // The browser went away, the container fails the request.
+            log.debug( "Live update stream closed: {}", e.toString() );
+            subscriber.unsubscribe.run();
+        }
+    }
+
+    private void close( final Subscriber subscriber )
+    {
+        subscriber.unsubscribe.run();
+        subscriber.emitter.complete();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * @file PartitionMatrix.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/2/18 9:15 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+
+import java.util.*;
+
+/**
+ * PartitionMatrix is one page of the partition to broker matrix of a topic, as served to the topic page.
+ *
+ * A topic of thousands of partitions over dozens of brokers is megabytes of HTML when rendered in full,
+ * so the page asks for a page of rows at a time, filtered to the partitions of interest. Each row is
+ * a JSON array, see {@link Row}; the columns are the brokers, in {@link #getBrokers()} order.
+ */
+@Getter
+@AllArgsConstructor
+@ToString( exclude = "rows" )
+public class PartitionMatrix
+{
+    public static final int DEFAULT_LIMIT = 500;
+
+    public static final int MAX_LIMIT = 5000;
+
+    /**
+     * Which partitions to include, all of them by default. Bound from the request parameters.
+     */
+    @Data
+    public static class Filter
+    {
+        /**
+         * Only partitions with a replica on the broker.
+         */
+        private Integer broker;
+
+        /**
+         * Only partitions with fewer in-sync replicas than replicas.
+         */
+        private boolean underReplicated;
+
+        /**
+         * Only partitions the plan changes.
+         */
+        private boolean changed;
+    }
+
+    /**
+     * One partition, written as [ partition, leader, [ replicas ], [ out of sync replicas ], [ planned replicas ] ]:
+     * leader is -1 if there is none, replicas are in preferred order and planned is null unless the plan
+     * changes the partition.
+     */
+    @Getter
+    @AllArgsConstructor
+    @JsonFormat( shape = JsonFormat.Shape.ARRAY )
+    @JsonPropertyOrder( { "partition", "leader", "replicas", "outOfSync", "planned" } )
+    public static class Row
+    {
+        private final int partition;
+
+        private final int leader;
+
+        private final int[] replicas;
+
+        private final int[] outOfSync;
+
+        private final int[] planned;
+
+        static Row of( final TopicPartitionInfo tpi, final int[] planned )
+        {
+            return new Row( tpi.partition(),
+                            tpi.leader() == null ? -1 : tpi.leader().id(),
+                            tpi.replicas().stream().mapToInt( Node::id ).toArray(),
+                            tpi.replicas().stream().filter( r -> !tpi.isr().contains( r ) ).mapToInt( Node::id ).toArray(),
+                            planned );
+        }
+
+        /**
+         * @return whether the leader, replicas and out of sync replicas are the same, the plan aside.
+         */
+        boolean sameReplicasAs( final Row other )
+        {
+            return other != null
+                   && this.leader == other.leader
+                   && Arrays.equals( this.replicas, other.replicas )
+                   && Arrays.equals( this.outOfSync, other.outOfSync );
+        }
+    }
+
+    private final String topic;
+
+    /**
+     * The brokers of the cluster, and any broker that is down but still holds replicas of the topic, by id.
+     */
+    private final List< Integer > brokers;
+
+    private final int partitionCount;
+
+    /**
+     * Partitions that pass the filter, across all pages.
+     */
+    private final int matching;
+
+    private final int offset;
+
+    private final List< Row > rows;
+
+    /**
+     * @param description the topic.
+     * @param nodes       the brokers of the cluster.
+     * @param plan        the plan the changed filter and the planned replicas refer to, may be null.
+     * @param offset      matching partitions to skip.
+     * @param limit       most rows to return, capped at {@link #MAX_LIMIT}.
+     * @return the page, partitions in order of their id.
+     */
+    public static PartitionMatrix of( final TopicDescription description,
+                                      final Collection< Node > nodes,
+                                      final TopicPartitionAssignment plan,
+                                      final Filter filter,
+                                      final int offset,
+                                      final int limit )
+    {
+        final String topic = description.name();
+
+        final SortedSet< Integer > brokers = new TreeSet<>();
+        nodes.forEach( node -> brokers.add( node.id() ) );
+
+        final List< TopicPartitionInfo > partitions = new ArrayList<>( description.partitions() );
+        partitions.sort( Comparator.comparingInt( TopicPartitionInfo::partition ) );
+
+        final int        first = Math.max( 0, offset );
+        final int        last  = first + Math.max( 0, Math.min( limit, MAX_LIMIT ) );
+        final List< Row > rows = new ArrayList<>();
+        int matching = 0;
+        for( TopicPartitionInfo tpi : partitions )
+        {
+            final Row row = Row.of( tpi, plan == null ? null : plan.getReplicas( topic, tpi.partition() ) );
+            Arrays.stream( row.getReplicas() ).forEach( brokers::add );
+
+            if( filter.getBroker() != null && !TopicPartitionAssignment.hasReplica( row.getReplicas(), filter.getBroker() )
+                || filter.isUnderReplicated() && row.getOutOfSync().length == 0
+                || filter.isChanged() && row.getPlanned() == null )
+            {
+                continue;
+            }
+
+            if( matching >= first && matching < last )
+            {
+                rows.add( row );
+            }
+            matching++;
+        }
+
+        return new PartitionMatrix( topic, new ArrayList<>( brokers ), partitions.size(), matching, first, rows );
+    }
+}
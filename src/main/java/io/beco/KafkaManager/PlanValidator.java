@@ -0,0 +1,183 @@
+/**
+ * @file PlanValidator.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/6/18 9:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * PlanValidator checks a plan against the cluster before any of it is written to ZooKeeper.
+ *
+ * ReassignPartitionsCommand takes almost anything: a plan naming a broker that doesn't exist, or
+ * a partition the topic doesn't have, fails later as a Scala exception or as a reassignment that never
+ * finishes. Here every partition of the plan is checked once, in order, against the brokers, their racks
+ * and the topics' partitions, and all the problems are reported together.
+ */
+public final class PlanValidator
+{
+    private PlanValidator()
+    {
+    }
+
+    public enum Kind
+    {
+        UNKNOWN_TOPIC,
+        UNKNOWN_PARTITION,
+        EMPTY_REPLICAS,
+        UNKNOWN_BROKER,
+        DUPLICATE_REPLICA,
+        REPLICATION_FACTOR,
+        SINGLE_RACK
+    }
+
+    /**
+     * One problem with one partition, or with a whole topic.
+     */
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class Violation
+    {
+        private final Kind kind;
+
+        private final String topic;
+
+        /**
+         * -1 if the violation is about the whole topic.
+         */
+        private final int partition;
+
+        private final int[] replicas;
+
+        private final String message;
+    }
+
+    /**
+     * @param plan     the partitions to check, with their requested replicas.
+     * @param snapshot the cluster as it is now.
+     * @return the problems in plan order, empty if the plan can be executed.
+     */
+    public static List< Violation > validate( final TopicPartitionAssignment plan, final ClusterMetadataSnapshot snapshot )
+    {
+        // Nodes are sorted by id; broker ids are looked up by binary search instead of boxing every replica.
+        final int[]    brokerIds = new int[ snapshot.getNodes().size() ];
+        final String[] racks     = new String[ brokerIds.length ];
+        int i = 0;
+        for( Node node : snapshot.getNodes() )
+        {
+            brokerIds[ i ] = node.id();
+            racks[ i++ ]   = node.rack();
+        }
+        final boolean multipleRacks = Arrays.stream( racks ).filter( Objects::nonNull ).distinct().count() > 1;
+
+        final List< Violation > violations = new ArrayList<>();
+        final int[] slots = new int[ 8 ];
+        // Partitions come topic by topic, the description is looked up once per topic.
+        final String[]           lastTopic   = { null };
+        final TopicDescription[] description = { null };
+
+        plan.forEach( ( topic, partition, replicas ) -> {
+            if( !topic.equals( lastTopic[ 0 ] ) )
+            {
+                lastTopic[ 0 ]   = topic;
+                description[ 0 ] = snapshot.getTopicDescription( topic );
+                if( description[ 0 ] == null )
+                {
+                    violations.add( new Violation( Kind.UNKNOWN_TOPIC, topic, -1, null, "The topic doesn't exist." ) );
+                }
+            }
+            if( description[ 0 ] == null )
+            {
+                return;
+            }
+
+            final int partitions = description[ 0 ].partitions().size();
+            if( partition < 0 || partition >= partitions )
+            {
+                violations.add( new Violation( Kind.UNKNOWN_PARTITION, topic, partition, replicas,
+                                               "The topic has " + partitions + " partitions." ) );
+                return;
+            }
+            if( replicas.length == 0 )
+            {
+                violations.add( new Violation( Kind.EMPTY_REPLICAS, topic, partition, replicas, "No replicas." ) );
+                return;
+            }
+            if( replicas.length > brokerIds.length )
+            {
+                violations.add( new Violation( Kind.REPLICATION_FACTOR, topic, partition, replicas,
+                                               replicas.length + " replicas but only " + brokerIds.length + " live brokers." ) );
+            }
+
+            final int[] found = replicas.length <= slots.length ? slots : new int[ replicas.length ];
+            // Plans read with TopicPartitionAssignment#addVerbatim keep a repeated broker, the rest never have one.
+            boolean allKnown = true;
+            boolean distinct = true;
+            for( int r = 0; r < replicas.length; r++ )
+            {
+                found[ r ] = Arrays.binarySearch( brokerIds, replicas[ r ] );
+                if( found[ r ] < 0 )
+                {
+                    allKnown = false;
+                    violations.add( new Violation( Kind.UNKNOWN_BROKER, topic, partition, replicas,
+                                                   "Broker " + replicas[ r ] + " is not a live broker." ) );
+                }
+                for( int earlier = 0; earlier < r && distinct; earlier++ )
+                {
+                    if( replicas[ earlier ] == replicas[ r ] )
+                    {
+                        distinct = false;
+                        violations.add( new Violation( Kind.DUPLICATE_REPLICA, topic, partition, replicas,
+                                                       "Broker " + replicas[ r ] + " is listed more than once." ) );
+                    }
+                }
+            }
+
+            if( multipleRacks && allKnown && distinct && replicas.length > 1 )
+            {
+                final String rack = racks[ found[ 0 ] ];
+                boolean sameRack = rack != null;
+                for( int r = 1; r < replicas.length && sameRack; r++ )
+                {
+                    sameRack = rack.equals( racks[ found[ r ] ] );
+                }
+                if( sameRack )
+                {
+                    violations.add( new Violation( Kind.SINGLE_RACK, topic, partition, replicas,
+                                                   "Every replica is in rack " + rack + "." ) );
+                }
+            }
+        } );
+        return violations;
+    }
+
+    /**
+     * @return the first few violations on one line, for logs and error messages.
+     */
+    public static String describe( final List< Violation > violations )
+    {
+        final int shown = 5;
+        return violations.size() + " problems: "
+               + violations.stream()
+                           .limit( shown )
+                           .map( v -> v.getTopic() + ( v.getPartition() < 0 ? "" : "-" + v.getPartition() ) + " " + v.getMessage() )
+                           .collect( Collectors.joining( " " ) )
+               + ( violations.size() > shown ? " ..." : "" );
+    }
+}
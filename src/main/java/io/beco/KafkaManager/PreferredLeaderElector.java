@@ -0,0 +1,504 @@
+/**
+ * @file PreferredLeaderElector.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/30/18 10:20 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import kafka.admin.PreferredReplicaLeaderElectionCommand;
+import kafka.common.TopicAndPartition;
+import kafka.utils.ZkUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import scala.collection.JavaConverters;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * PreferredLeaderElector evens out leadership across the brokers.
+ *
+ * {@link #plan} reorders replica lists so every broker is the preferred (first) replica of an even share
+ * of partitions; executed as a reassignment it moves no data. A reordered list doesn't move leadership
+ * by itself though, so a {@link LeaderElection} then asks the controller for a preferred replica election,
+ * through {@link ZkUtils#PreferredReplicaLeaderElectionPath()}, a batch of partitions at a time: electing
+ * thousands of leaders at once stalls every producer and consumer of the cluster while they move.
+ *
+ * Elections run one at a time on the elector's thread, each after the job it waits for has completed.
+ * Unlike jobs they are kept in memory only.
+ */
+@Component
+@Slf4j
+public class PreferredLeaderElector
+{
+    private static final int MAX_ELECTIONS = 20;
+
+    private final ZkUtils zkUtils;
+
+    private final ClusterMetadataCache metadataCache;
+
+    private final ReassignmentScheduler reassignmentScheduler;
+
+    private final KafkaManagerMetrics metrics;
+
+    private final int batchSize;
+
+    private final long pollIntervalMs;
+
+    private final long timeoutMs;
+
+    private final ScheduledExecutorService executor
+        = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "leader-election" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+    private final Deque< LeaderElection > queue = new ConcurrentLinkedDeque<>();
+
+    private final Deque< LeaderElection > elections = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Elector thread only: the running election and its batches.
+     */
+    private LeaderElection active;
+
+    private List< Set< TopicAndPartition > > batches;
+
+    @Autowired
+    public PreferredLeaderElector( final ZkUtils zkUtils,
+                                   final ClusterMetadataCache metadataCache,
+                                   final ReassignmentScheduler reassignmentScheduler,
+                                   final KafkaManagerMetrics metrics,
+                                   @Value( "${kafka-manager.leader-election.batch-size:100}" ) final int batchSize,
+                                   @Value( "${kafka-manager.leader-election.poll-interval-ms:2000}" ) final long pollIntervalMs,
+                                   @Value( "${kafka-manager.metadata.timeout-ms:25000}" ) final long timeoutMs )
+    {
+        this.zkUtils               = zkUtils;
+        this.metadataCache         = metadataCache;
+        this.reassignmentScheduler = reassignmentScheduler;
+        this.metrics               = metrics;
+        this.batchSize             = batchSize;
+        this.pollIntervalMs        = pollIntervalMs;
+        this.timeoutMs             = timeoutMs;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        this.executor.scheduleWithFixedDelay( this::tick, this.pollIntervalMs, this.pollIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Reorders replica lists so the live brokers are the preferred replica of as even a share of the partitions
+     * as their replicas allow. A partition whose preferred replica is on a broker that is down gets a live one.
+     * Replica sets don't change, and a replica only moves to the front; the others keep their order.
+     *
+     * Partitions are first moved one at a time to the least loaded of their replicas, then along chains
+     * (a partition from broker a to b, one of b's to c, ...) until no broker can hand a partition on,
+     * however indirectly, to a broker with at least two fewer.
+     *
+     * @param current     the current assignment.
+     * @param liveBrokers the brokers of the cluster.
+     * @return only the partitions whose preferred replica changes.
+     */
+    public static TopicPartitionAssignment plan( final TopicPartitionAssignment current,
+                                                 final Collection< Integer > liveBrokers )
+    {
+        final Set< Integer > brokerIds = current.getBrokerIds();
+        brokerIds.addAll( liveBrokers );
+        final Map< Integer, Integer > index = new HashMap<>();
+        brokerIds.forEach( id -> index.put( id, index.size() ) );
+        final boolean[] live = new boolean[ index.size() ];
+        liveBrokers.forEach( id -> live[ index.get( id ) ] = true );
+
+        // Replicas as broker indexes, partition by partition.
+        final int n = current.getPartitionCount();
+        final String[] topics     = new String[ n ];
+        final int[]    partitions = new int[ n ];
+        final int[][]  replicas   = new int[ n ][];
+        final int[]    leader     = new int[ n ];
+        final int[]    counts     = new int[ index.size() ];
+        final int[]    p          = { 0 };
+        current.forEach( ( topic, partition, brokers ) -> {
+            topics[ p[ 0 ] ]     = topic;
+            partitions[ p[ 0 ] ] = partition;
+            replicas[ p[ 0 ] ]   = Arrays.stream( brokers ).map( index::get ).toArray();
+            leader[ p[ 0 ] ]     = -1;
+            p[ 0 ]++;
+        } );
+        for( int i = 0; i < n; i++ )
+        {
+            if( replicas[ i ].length > 0 && live[ replicas[ i ][ 0 ] ] )
+            {
+                leader[ i ] = replicas[ i ][ 0 ];
+                counts[ leader[ i ] ]++;
+            }
+        }
+        for( int i = 0; i < n; i++ )
+        {
+            if( leader[ i ] < 0 )
+            {
+                final int best = leastLoaded( replicas[ i ], live, counts );
+                if( best >= 0 )
+                {
+                    leader[ i ] = best;
+                    counts[ best ]++;
+                }
+            }
+        }
+
+        // Every move takes one off a broker with at least two more than the one it gives to, so this ends.
+        boolean moved = true;
+        while( moved )
+        {
+            moved = false;
+            for( int i = 0; i < n; i++ )
+            {
+                final int best = leastLoaded( replicas[ i ], live, counts );
+                if( leader[ i ] >= 0 && best >= 0 && counts[ best ] + 1 < counts[ leader[ i ] ] )
+                {
+                    counts[ leader[ i ] ]--;
+                    counts[ best ]++;
+                    leader[ i ] = best;
+                    moved       = true;
+                }
+            }
+        }
+        while( moveAlongChain( replicas, leader, live, counts ) )
+        {
+            // Each chain evens out its two ends.
+        }
+
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        final int[] ids = new int[ index.size() ];
+        index.forEach( ( id, i ) -> ids[ i ] = id );
+        for( int i = 0; i < n; i++ )
+        {
+            if( leader[ i ] < 0 || leader[ i ] == replicas[ i ][ 0 ] )
+            {
+                continue;
+            }
+            final int[] reordered = new int[ replicas[ i ].length ];
+            reordered[ 0 ] = ids[ leader[ i ] ];
+            int next = 1;
+            for( int replica : replicas[ i ] )
+            {
+                if( replica != leader[ i ] )
+                {
+                    reordered[ next++ ] = ids[ replica ];
+                }
+            }
+            plan.add( topics[ i ], partitions[ i ], reordered );
+        }
+        return plan;
+    }
+
+    /**
+     * @param current the current assignment.
+     * @param plan    changes to it, may be empty.
+     * @return broker id to the partitions it is the preferred replica of once the plan is executed.
+     */
+    public static SortedMap< Integer, Integer > countPreferredLeaders( final TopicPartitionAssignment current,
+                                                                       final TopicPartitionAssignment plan )
+    {
+        final SortedMap< Integer, Integer > counts = new TreeMap<>();
+        current.forEach( ( topic, partition, replicas ) -> {
+            final int[] planned = plan.getReplicas( topic, partition );
+            final int[] after   = planned == null ? replicas : planned;
+            if( after.length > 0 )
+            {
+                counts.merge( after[ 0 ], 1, Integer::sum );
+            }
+        } );
+        return counts;
+    }
+
+    /**
+     * @return the live replica with the fewest partitions to lead, -1 if none is live.
+     */
+    private static int leastLoaded( final int[] replicas, final boolean[] live, final int[] counts )
+    {
+        int best = -1;
+        for( int replica : replicas )
+        {
+            if( live[ replica ] && ( best < 0 || counts[ replica ] < counts[ best ] ) )
+            {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Searches breadth first from each broker, most loaded first, for a chain of partitions ending at a broker
+     * with at least two fewer, and shifts leadership one step along it.
+     *
+     * @return whether a chain was found.
+     */
+    private static boolean moveAlongChain( final int[][] replicas,
+                                           final int[] leader,
+                                           final boolean[] live,
+                                           final int[] counts )
+    {
+        // Partitions grouped by the broker that leads them.
+        final int[] start = new int[ counts.length + 1 ];
+        for( int l : leader )
+        {
+            if( l >= 0 )
+            {
+                start[ l + 1 ]++;
+            }
+        }
+        for( int b = 0; b < counts.length; b++ )
+        {
+            start[ b + 1 ] += start[ b ];
+        }
+        final int[] led  = new int[ start[ counts.length ] ];
+        final int[] fill = Arrays.copyOf( start, counts.length );
+        for( int i = 0; i < leader.length; i++ )
+        {
+            if( leader[ i ] >= 0 )
+            {
+                led[ fill[ leader[ i ] ]++ ] = i;
+            }
+        }
+
+        final Integer[] order = new Integer[ counts.length ];
+        Arrays.setAll( order, b -> b );
+        Arrays.sort( order, ( a, b ) -> Integer.compare( counts[ b ], counts[ a ] ) );
+
+        final int[] via   = new int[ counts.length ];
+        final int[] queue = new int[ counts.length ];
+        for( int from : order )
+        {
+            if( counts[ from ] < 2 )
+            {
+                break;
+            }
+            Arrays.fill( via, -1 );
+            int head = 0;
+            int tail = 0;
+            queue[ tail++ ] = from;
+            while( head < tail )
+            {
+                final int broker = queue[ head++ ];
+                for( int k = start[ broker ]; k < start[ broker + 1 ]; k++ )
+                {
+                    final int partition = led[ k ];
+                    for( int replica : replicas[ partition ] )
+                    {
+                        if( replica == from || !live[ replica ] || via[ replica ] >= 0 )
+                        {
+                            continue;
+                        }
+                        via[ replica ] = partition;
+                        if( counts[ replica ] + 1 < counts[ from ] )
+                        {
+                            counts[ from ]--;
+                            counts[ replica ]++;
+                            for( int to = replica; to != from; )
+                            {
+                                final int step = via[ to ];
+                                final int prev = leader[ step ];
+                                leader[ step ] = to;
+                                to             = prev;
+                            }
+                            return true;
+                        }
+                        queue[ tail++ ] = replica;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queues an election of preferred leaders for the topics.
+     *
+     * @param job the job reordering their replicas, the election waits for it to complete; null if there is none.
+     */
+    public LeaderElection submit( final String description,
+                                  final Collection< String > topics,
+                                  final ReassignmentJob job )
+    {
+        final LeaderElection election = new LeaderElection( description, topics, job == null ? null : job.getId() );
+        this.queue.add( election );
+        this.elections.addFirst( election );
+        while( this.elections.size() > MAX_ELECTIONS && this.elections.peekLast().isFinished() )
+        {
+            this.elections.pollLast();
+        }
+        log.info( "Queued leader election {} for {} topics{}.",
+                  election.getId(), topics.size(), job == null ? "" : ", after job " + job.getId() );
+
+        this.executor.execute( this::tick );
+        return election;
+    }
+
+    /**
+     * @return the elections, newest first.
+     */
+    public List< LeaderElection > getElections()
+    {
+        return new ArrayList<>( this.elections );
+    }
+
+    /**
+     * Runs on the elector thread: writes the next batch once the controller has picked up the last one.
+     */
+    private void tick()
+    {
+        try
+        {
+            if( this.zkUtils.pathExists( ZkUtils.PreferredReplicaLeaderElectionPath() ) )
+            {
+                // Our batch, or someone else's election, is still running.
+                return;
+            }
+
+            if( this.active == null )
+            {
+                final LeaderElection next = this.queue.peek();
+                if( next == null || !ready( next ) )
+                {
+                    return;
+                }
+                this.queue.poll();
+                if( next.isFinished() )
+                {
+                    // Its job failed.
+                    return;
+                }
+                this.active = next;
+                startElection( next );
+            }
+
+            final LeaderElection election = this.active;
+            final int            batch    = election.getCurrentBatch() + 1;
+            if( batch < this.batches.size() )
+            {
+                log.info( "Leader election {}: electing batch {} of {}.", election.getId(), batch + 1, this.batches.size() );
+                election.setCurrentBatch( batch );
+                this.metrics.timeZooKeeper( "preferredReplicaElection",
+                                            () -> PreferredReplicaLeaderElectionCommand.writePreferredReplicaElectionData(
+                                                this.zkUtils,
+                                                JavaConverters.asScalaSetConverter( this.batches.get( batch ) ).asScala() ) );
+            }
+            else
+            {
+                completeElection( election, LeaderElection.State.COMPLETED, null );
+            }
+        }
+        catch( Exception e )
+        {
+            log.error( "Leader election failed.", e );
+            final LeaderElection election = this.active;
+            if( election != null )
+            {
+                completeElection( election, LeaderElection.State.FAILED, String.valueOf( AdminFutures.unwrap( e ) ) );
+            }
+        }
+    }
+
+    /**
+     * @return whether the job the election waits for is out of the way; fails the election if the job failed.
+     */
+    private boolean ready( final LeaderElection election )
+    {
+        if( election.getJobId() == null )
+        {
+            return true;
+        }
+        final Optional< ReassignmentJob > job = this.reassignmentScheduler.getJobs()
+                                                                          .stream()
+                                                                          .filter( j -> j.getId().equals( election.getJobId() ) )
+                                                                          .findFirst();
+        if( job.isPresent() && !job.get().isFinished() )
+        {
+            return false;
+        }
+        if( !job.isPresent() || job.get().getState() == ReassignmentJob.State.FAILED )
+        {
+            completeElection( election, LeaderElection.State.FAILED, "Reassignment job " + election.getJobId() + " did not complete." );
+        }
+        return true;
+    }
+
+    /**
+     * Works out the partitions to elect from a fresh description of the topics. A preferred replica that is out
+     * of sync can't take over, the controller would refuse it, so those partitions are left for another time.
+     */
+    private void startElection( final LeaderElection election ) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        election.setState( LeaderElection.State.RUNNING );
+
+        final Map< String, TopicDescription > descriptions
+            = this.metadataCache.describeTopicsAsync( election.getTopics() ).get( this.timeoutMs, TimeUnit.MILLISECONDS );
+
+        final List< TopicAndPartition > partitions = new ArrayList<>();
+        int outOfSync = 0;
+        for( TopicDescription description : descriptions.values() )
+        {
+            for( TopicPartitionInfo tpi : description.partitions() )
+            {
+                if( tpi.replicas().isEmpty()
+                    || tpi.leader() != null && tpi.leader().id() == tpi.replicas().get( 0 ).id() )
+                {
+                    continue;
+                }
+                if( tpi.isr().contains( tpi.replicas().get( 0 ) ) )
+                {
+                    partitions.add( new TopicAndPartition( description.name(), tpi.partition() ) );
+                }
+                else
+                {
+                    outOfSync++;
+                }
+            }
+        }
+
+        this.batches = new ArrayList<>();
+        for( int i = 0; i < partitions.size(); i += this.batchSize )
+        {
+            this.batches.add( new HashSet<>( partitions.subList( i, Math.min( partitions.size(), i + this.batchSize ) ) ) );
+        }
+        election.setPartitionCount( partitions.size() );
+        election.setBatchCount( this.batches.size() );
+
+        log.info( "Starting leader election {}: {} partitions in {} batches, {} skipped with their preferred replica out of sync.",
+                  election.getId(), partitions.size(), this.batches.size(), outOfSync );
+    }
+
+    private void completeElection( final LeaderElection election, final LeaderElection.State state, final String error )
+    {
+        election.setState( state );
+        election.setError( error );
+        election.setFinishedAtMs( System.currentTimeMillis() );
+        log.info( "Leader election {} {}.", election.getId(), state );
+
+        this.active  = null;
+        this.batches = null;
+        this.metadataCache.invalidate();
+    }
+}
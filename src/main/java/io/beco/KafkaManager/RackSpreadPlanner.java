@@ -0,0 +1,271 @@
+/**
+ * @file RackSpreadPlanner.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/9/18 10:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.common.Node;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+/**
+ * RackSpreadPlanner moves replicas so every partition is spread over the racks of the cluster.
+ *
+ * A partition is spread when its replicas are as evenly divided over the racks as its replication factor
+ * allows: no rack holds two more than another, so with fewer replicas than racks every replica is in a rack
+ * of its own. A partition that isn't gets the fewest moves that spread it, one at a time from the rack with
+ * the most of its replicas to the rack with the fewest. The replica that moves is the one on the most loaded
+ * broker of its rack, and not the preferred leader if another will do; it goes to the least loaded broker of
+ * the other rack, into the same place in the replica list. Partitions that are already spread don't move.
+ *
+ * Partitions are visited once, and a partition that is spread is recognized from its rack counts alone,
+ * so a whole cluster is planned in one pass.
+ */
+public final class RackSpreadPlanner
+{
+    private RackSpreadPlanner()
+    {
+    }
+
+    /**
+     * The live brokers by index, in broker id order, and their racks.
+     */
+    private static final class Racks
+    {
+        private final int[] brokerIds;
+
+        private final int[] rackOf;
+
+        private final int[][] brokersOf;
+
+        private Racks( final Collection< Node > liveBrokers )
+        {
+            final List< Node > nodes = new ArrayList<>( ClusterMetadataSnapshot.sortNodes( liveBrokers ) );
+            final List< Integer > rackless = new ArrayList<>();
+            final SortedMap< String, List< Integer > > racks = new TreeMap<>();
+            this.brokerIds = new int[ nodes.size() ];
+            for( int b = 0; b < nodes.size(); b++ )
+            {
+                this.brokerIds[ b ] = nodes.get( b ).id();
+                if( nodes.get( b ).rack() == null )
+                {
+                    rackless.add( nodes.get( b ).id() );
+                }
+                else
+                {
+                    racks.computeIfAbsent( nodes.get( b ).rack(), r -> new ArrayList<>() ).add( b );
+                }
+            }
+            Assert.isTrue( rackless.isEmpty(), "Brokers " + rackless + " have no rack, set broker.rack on every broker." );
+            Assert.isTrue( racks.size() > 1, "The brokers are all in " + racks.keySet() + ", there are no racks to spread over." );
+
+            this.rackOf    = new int[ nodes.size() ];
+            this.brokersOf = new int[ racks.size() ][];
+            int r = 0;
+            for( List< Integer > brokers : racks.values() )
+            {
+                this.brokersOf[ r ] = brokers.stream().mapToInt( Integer::intValue ).toArray();
+                for( int b : this.brokersOf[ r ] )
+                {
+                    this.rackOf[ b ] = r;
+                }
+                r++;
+            }
+        }
+
+        /**
+         * @return the broker's index, -1 if it isn't live.
+         */
+        private int index( final int brokerId )
+        {
+            final int b = Arrays.binarySearch( this.brokerIds, brokerId );
+            return b < 0 ? -1 : b;
+        }
+
+        /**
+         * @param replicas broker ids, replaced by their indexes.
+         * @param counts   filled with the replicas per rack.
+         * @return false if a replica is on a broker that isn't live, its rack is unknown.
+         */
+        private boolean count( final int[] replicas, final int[] counts )
+        {
+            Arrays.fill( counts, 0 );
+            for( int i = 0; i < replicas.length; i++ )
+            {
+                replicas[ i ] = index( replicas[ i ] );
+                if( replicas[ i ] < 0 )
+                {
+                    return false;
+                }
+                counts[ this.rackOf[ replicas[ i ] ] ]++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param current     the current assignment.
+     * @param liveBrokers the brokers of the cluster, with their racks.
+     * @return only the partitions that move; partitions with a replica on a broker that is down are left alone.
+     * @throws IllegalArgumentException if a broker has no rack, or all of them are in one.
+     */
+    public static TopicPartitionAssignment plan( final TopicPartitionAssignment current,
+                                                 final Collection< Node > liveBrokers )
+    {
+        final Racks racks  = new Racks( liveBrokers );
+        final int[] counts = new int[ racks.brokersOf.length ];
+        final int[] loads  = new int[ racks.brokerIds.length ];
+        current.forEach( ( topic, partition, replicas ) -> {
+            for( int brokerId : replicas )
+            {
+                final int b = racks.index( brokerId );
+                if( b >= 0 )
+                {
+                    loads[ b ]++;
+                }
+            }
+        } );
+
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        current.forEach( ( topic, partition, replicas ) -> {
+            if( replicas.length < 2 || !racks.count( replicas, counts ) || isSpread( counts ) )
+            {
+                return;
+            }
+            boolean moved = false;
+            while( spreadOne( racks, replicas, counts, loads ) )
+            {
+                moved = true;
+            }
+            if( moved )
+            {
+                final int[] brokerIds = new int[ replicas.length ];
+                for( int i = 0; i < replicas.length; i++ )
+                {
+                    brokerIds[ i ] = racks.brokerIds[ replicas[ i ] ];
+                }
+                plan.add( topic, partition, brokerIds );
+            }
+        } );
+        return plan;
+    }
+
+    /**
+     * @return how many partitions aren't spread over the racks; 0 if the brokers aren't in racks.
+     */
+    public static int countUnspread( final TopicPartitionAssignment current, final Collection< Node > liveBrokers )
+    {
+        if( liveBrokers.stream().anyMatch( node -> node.rack() == null )
+            || liveBrokers.stream().map( Node::rack ).distinct().count() < 2 )
+        {
+            return 0;
+        }
+        final Racks racks = new Racks( liveBrokers );
+        final int[] counts = new int[ racks.brokersOf.length ];
+        final int[] unspread = { 0 };
+        current.forEach( ( topic, partition, replicas ) -> {
+            if( racks.count( replicas, counts ) && !isSpread( counts ) )
+            {
+                unspread[ 0 ]++;
+            }
+        } );
+        return unspread[ 0 ];
+    }
+
+    private static boolean isSpread( final int[] counts )
+    {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for( int count : counts )
+        {
+            min = Math.min( min, count );
+            max = Math.max( max, count );
+        }
+        return max - min <= 1;
+    }
+
+    /**
+     * Moves one replica from the rack with the most of the partition's replicas to the rack with the fewest
+     * that has a broker to take it.
+     *
+     * @param replicas broker indexes, updated.
+     * @return false if the partition is as spread as the brokers allow.
+     */
+    private static boolean spreadOne( final Racks racks, final int[] replicas, final int[] counts, final int[] loads )
+    {
+        // The rack to move to, and its least loaded broker without a replica of the partition.
+        int to = -1;
+        int target = -1;
+        for( int r = 0; r < counts.length; r++ )
+        {
+            int best = -1;
+            for( int b : racks.brokersOf[ r ] )
+            {
+                if( !TopicPartitionAssignment.hasReplica( replicas, b ) && ( best < 0 || loads[ b ] < loads[ best ] ) )
+                {
+                    best = b;
+                }
+            }
+            if( best >= 0 && ( to < 0 || counts[ r ] < counts[ to ] || counts[ r ] == counts[ to ] && loads[ best ] < loads[ target ] ) )
+            {
+                to     = r;
+                target = best;
+            }
+        }
+
+        // The rack to move from, and the replica in it to move.
+        int from = -1;
+        int slot = -1;
+        for( int r = 0; r < counts.length; r++ )
+        {
+            if( to < 0 || counts[ r ] <= counts[ to ] + 1 )
+            {
+                continue;
+            }
+            for( int i = 0; i < replicas.length; i++ )
+            {
+                if( racks.rackOf[ replicas[ i ] ] == r
+                    && ( from < 0
+                         || counts[ r ] > counts[ from ]
+                         || counts[ r ] == counts[ from ] && movesBefore( i, slot, replicas, loads ) ) )
+                {
+                    from = r;
+                    slot = i;
+                }
+            }
+        }
+        if( from < 0 )
+        {
+            return false;
+        }
+
+        loads[ replicas[ slot ] ]--;
+        loads[ target ]++;
+        counts[ from ]--;
+        counts[ to ]++;
+        replicas[ slot ] = target;
+        return true;
+    }
+
+    /**
+     * @return whether the replica at i should move before the one at other: followers before the preferred leader,
+     *         then the one on the more loaded broker.
+     */
+    private static boolean movesBefore( final int i, final int other, final int[] replicas, final int[] loads )
+    {
+        if( ( i == 0 ) != ( other == 0 ) )
+        {
+            return other == 0;
+        }
+        return loads[ replicas[ i ] ] > loads[ replicas[ other ] ];
+    }
+}
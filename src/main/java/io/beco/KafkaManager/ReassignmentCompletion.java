@@ -0,0 +1,52 @@
+/**
+ * @file ReassignmentCompletion.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/21/18 11:20 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.SortedSet;
+
+/**
+ * ReassignmentCompletion records a reassignment, ours or anyone else's,
+ * leaving ZooKeeper and the throttle clean up that followed.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class ReassignmentCompletion
+{
+    /**
+     * The job whose wave completed, null for a reassignment started outside this tool.
+     */
+    private final String jobId;
+
+    private final SortedSet< String > topics;
+
+    private final int partitionCount;
+
+    private final long startedAtMs;
+
+    private final long completedAtMs;
+
+    /**
+     * Broker and topic configs the throttle was removed from.
+     */
+    private final int throttlesCleared;
+
+    public long getDurationMs()
+    {
+        return this.completedAtMs - this.startedAtMs;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * @file ReassignmentJob.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/14/18 1:10 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.*;
+
+/**
+ * ReassignmentJob is one plan submitted for execution, tracked by the {@link ReassignmentScheduler}
+ * as it moves through its waves.
+ */
+@Getter
+@ToString( exclude = { "plan", "waves", "startingAssignment" } )
+public class ReassignmentJob
+{
+    public enum State
+    {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private final String id;
+
+    private final String description;
+
+    private final TopicPartitionAssignment plan;
+
+    /**
+     * Replication throttle in bytes/sec the job was submitted with, negative for none.
+     */
+    private final long throttleBytesPerSec;
+
+    /**
+     * If set the {@link ReassignmentThrottleController} adjusts the throttle while the job runs.
+     */
+    private final boolean adaptiveThrottle;
+
+    /**
+     * Most partitions to move at once, 0 for the scheduler's max-partitions-per-wave.
+     */
+    private final int maxPartitionsPerWave;
+
+    private final long submittedAtMs;
+
+    @Setter
+    private volatile State state = State.QUEUED;
+
+    @Setter
+    private volatile List< TopicPartitionAssignment > waves = Collections.emptyList();
+
+    /**
+     * Index of the wave that is running or last ran, -1 before the first.
+     */
+    @Setter
+    private volatile int currentWave = -1;
+
+    /**
+     * Layout of the plan's partitions when the job started, the reference for what each wave adds.
+     */
+    @Setter
+    private volatile TopicPartitionAssignment startingAssignment;
+
+    @Setter
+    private volatile long estimatedBytes = 0;
+
+    @Setter
+    private volatile long startedAtMs = 0;
+
+    @Setter
+    private volatile long finishedAtMs = 0;
+
+    @Setter
+    private volatile String error;
+
+    /**
+     * The throttle in force, bytes/sec; the submitted one unless adaptive.
+     */
+    @Setter
+    private volatile long currentThrottleBytesPerSec;
+
+    public ReassignmentJob( final String description,
+                            final TopicPartitionAssignment plan,
+                            final long throttleBytesPerSec )
+    {
+        this( description, plan, throttleBytesPerSec, false );
+    }
+
+    public ReassignmentJob( final String description,
+                            final TopicPartitionAssignment plan,
+                            final long throttleBytesPerSec,
+                            final boolean adaptiveThrottle )
+    {
+        this( description, plan, throttleBytesPerSec, adaptiveThrottle, 0 );
+    }
+
+    public ReassignmentJob( final String description,
+                            final TopicPartitionAssignment plan,
+                            final long throttleBytesPerSec,
+                            final boolean adaptiveThrottle,
+                            final int maxPartitionsPerWave )
+    {
+        this( UUID.randomUUID().toString().substring( 0, 8 ),
+              description,
+              plan,
+              throttleBytesPerSec,
+              adaptiveThrottle,
+              maxPartitionsPerWave,
+              System.currentTimeMillis() );
+    }
+
+    /**
+     * Recreates a job read back by the {@link ReassignmentJobStore}.
+     */
+    ReassignmentJob( final String id,
+                     final String description,
+                     final TopicPartitionAssignment plan,
+                     final long throttleBytesPerSec,
+                     final boolean adaptiveThrottle,
+                     final int maxPartitionsPerWave,
+                     final long submittedAtMs )
+    {
+        this.id                         = id;
+        this.submittedAtMs              = submittedAtMs;
+        this.description                = description;
+        this.plan                       = plan;
+        this.throttleBytesPerSec        = throttleBytesPerSec;
+        this.adaptiveThrottle           = adaptiveThrottle;
+        this.maxPartitionsPerWave       = maxPartitionsPerWave;
+        this.currentThrottleBytesPerSec = throttleBytesPerSec;
+    }
+
+    public int getPartitionCount()
+    {
+        return this.plan.getPartitionCount();
+    }
+
+    public TopicPartitionAssignment getCurrentWavePlan()
+    {
+        final int wave = this.currentWave;
+        return wave >= 0 && wave < this.waves.size() ? this.waves.get( wave ) : null;
+    }
+
+    /**
+     * @return the brokers the running wave copies from or to, empty between waves.
+     */
+    public Set< Integer > getCurrentWaveBrokers()
+    {
+        final TopicPartitionAssignment wave     = getCurrentWavePlan();
+        final TopicPartitionAssignment starting = this.startingAssignment;
+        final Set< Integer > brokerIds = new TreeSet<>();
+        if( wave == null || starting == null )
+        {
+            return brokerIds;
+        }
+        wave.forEach( ( topic, p, replicas ) -> {
+            Arrays.stream( replicas ).forEach( brokerIds::add );
+            final int[] before = starting.getReplicas( topic, p );
+            if( before != null )
+            {
+                Arrays.stream( before ).forEach( brokerIds::add );
+            }
+        } );
+        return brokerIds;
+    }
+
+    public boolean isFinished()
+    {
+        return this.state == State.COMPLETED || this.state == State.FAILED;
+    }
+}
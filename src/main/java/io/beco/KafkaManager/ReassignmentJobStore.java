@@ -0,0 +1,313 @@
+/**
+ * @file ReassignmentJobStore.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/29/18 9:10 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * ReassignmentJobStore keeps the {@link ReassignmentScheduler}'s jobs in an append-only file,
+ * one JSON entry per line, so queued and running jobs survive a restart of the manager.
+ *
+ * A job is written in full when it is submitted; starting and finishing only append a short entry.
+ * On startup the file is replayed and then rewritten with just the jobs still worth keeping,
+ * so it doesn't grow without bound. A blank path keeps jobs in memory only.
+ */
+@Component
+@Slf4j
+public class ReassignmentJobStore
+{
+    private final Path path;
+
+    /**
+     * Not the application's mapper, that one is set to indent and an entry has to stay on one line.
+     */
+    private final ObjectMapper om = new ObjectMapper().setSerializationInclusion( JsonInclude.Include.NON_DEFAULT );
+
+    private Writer writer;
+
+    @Autowired
+    public ReassignmentJobStore( @Value( "${kafka-manager.reassignment.job-store:kafka-manager-jobs.jsonl}" ) final String path )
+    {
+        this.path = path == null || path.trim().isEmpty() ? null : Paths.get( path.trim() );
+    }
+
+    /**
+     * One line of the file.
+     */
+    @Data
+    @NoArgsConstructor
+    static class Entry
+    {
+        enum Type
+        {
+            SUBMITTED,
+            STARTED,
+            FINISHED
+        }
+
+        private Type   type;
+        private String jobId;
+        private long   atMs;
+
+        // SUBMITTED
+        private String                   description;
+        private TopicPartitionAssignment plan;
+        private long                     throttleBytesPerSec;
+        private boolean                  adaptiveThrottle;
+        private int                      maxPartitionsPerWave;
+
+        // FINISHED
+        private ReassignmentJob.State state;
+        private String                error;
+
+        Entry( final Type type, final ReassignmentJob job, final long atMs )
+        {
+            this.type  = type;
+            this.jobId = job.getId();
+            this.atMs  = atMs;
+        }
+    }
+
+    public boolean isDurable()
+    {
+        return this.path != null;
+    }
+
+    /**
+     * Replays the file and compacts it. Jobs that were running when the manager stopped come back as
+     * {@link ReassignmentJob.State#RUNNING}; they never finished, so they have to be picked up again.
+     *
+     * @return every job kept, in the order submitted, only the most recent finished ones.
+     */
+    public synchronized List< ReassignmentJob > load()
+    {
+        if( this.path == null )
+        {
+            return Collections.emptyList();
+        }
+
+        final Map< String, ReassignmentJob > jobs = new LinkedHashMap<>();
+        if( Files.exists( this.path ) )
+        {
+            try( BufferedReader reader = Files.newBufferedReader( this.path, StandardCharsets.UTF_8 ) )
+            {
+                String line;
+                int    lineNumber = 0;
+                while( ( line = reader.readLine() ) != null )
+                {
+                    lineNumber++;
+                    if( line.trim().isEmpty() )
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        replay( this.om.readValue( line, Entry.class ), jobs );
+                    }
+                    catch( IOException | IllegalArgumentException e )
+                    {
+                        // Most likely the last line, cut short by a crash.
+                        log.warn( "Skipping unreadable entry at {}:{}: {}", this.path, lineNumber, e.getMessage() );
+                    }
+                }
+            }
+            catch( IOException ioe )
+            {
+                throw new UncheckedIOException( "Could not read the job store " + this.path, ioe );
+            }
+        }
+
+        final List< ReassignmentJob > kept = new ArrayList<>( jobs.values() );
+        final long finished = kept.stream().filter( ReassignmentJob::isFinished ).count();
+        final long[] drop = { finished - ReassignmentScheduler.MAX_FINISHED_JOBS };
+        kept.removeIf( job -> job.isFinished() && drop[ 0 ]-- > 0 );
+
+        compact( kept );
+        log.info( "Loaded {} reassignment jobs from {}.", kept.size(), this.path );
+        return kept;
+    }
+
+    private static void replay( final Entry entry, final Map< String, ReassignmentJob > jobs )
+    {
+        if( entry.getType() == Entry.Type.SUBMITTED )
+        {
+            jobs.put( entry.getJobId(), new ReassignmentJob( entry.getJobId(),
+                                                             entry.getDescription(),
+                                                             entry.getPlan(),
+                                                             entry.getThrottleBytesPerSec(),
+                                                             entry.isAdaptiveThrottle(),
+                                                             entry.getMaxPartitionsPerWave(),
+                                                             entry.getAtMs() ) );
+            return;
+        }
+
+        final ReassignmentJob job = jobs.get( entry.getJobId() );
+        if( job == null )
+        {
+            throw new IllegalArgumentException( "Unknown job " + entry.getJobId() );
+        }
+        if( entry.getType() == Entry.Type.STARTED )
+        {
+            job.setState( ReassignmentJob.State.RUNNING );
+            job.setStartedAtMs( entry.getAtMs() );
+        }
+        else
+        {
+            job.setState( entry.getState() );
+            job.setError( entry.getError() );
+            job.setFinishedAtMs( entry.getAtMs() );
+        }
+    }
+
+    /**
+     * Writes the jobs to a new file and swaps it in, then appends to that.
+     */
+    private void compact( final List< ReassignmentJob > jobs )
+    {
+        final Path tmp = this.path.resolveSibling( this.path.getFileName() + ".tmp" );
+        try
+        {
+            closeWriter();
+            try( Writer out = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) )
+            {
+                for( ReassignmentJob job : jobs )
+                {
+                    write( out, submittedEntry( job ) );
+                    if( job.getStartedAtMs() > 0 )
+                    {
+                        write( out, new Entry( Entry.Type.STARTED, job, job.getStartedAtMs() ) );
+                    }
+                    if( job.isFinished() )
+                    {
+                        write( out, finishedEntry( job ) );
+                    }
+                }
+            }
+            Files.move( tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( IOException ioe )
+        {
+            throw new UncheckedIOException( "Could not rewrite the job store " + this.path, ioe );
+        }
+    }
+
+    /**
+     * Called before the job is queued; if it can't be written the submit fails rather than the job
+     * quietly being lost on the next restart.
+     */
+    public void submitted( final ReassignmentJob job )
+    {
+        append( submittedEntry( job ) );
+    }
+
+    public void started( final ReassignmentJob job )
+    {
+        append( new Entry( Entry.Type.STARTED, job, job.getStartedAtMs() ) );
+    }
+
+    public void finished( final ReassignmentJob job )
+    {
+        append( finishedEntry( job ) );
+    }
+
+    private static Entry submittedEntry( final ReassignmentJob job )
+    {
+        final Entry entry = new Entry( Entry.Type.SUBMITTED, job, job.getSubmittedAtMs() );
+        entry.setDescription( job.getDescription() );
+        entry.setPlan( job.getPlan() );
+        entry.setThrottleBytesPerSec( job.getThrottleBytesPerSec() );
+        entry.setAdaptiveThrottle( job.isAdaptiveThrottle() );
+        entry.setMaxPartitionsPerWave( job.getMaxPartitionsPerWave() );
+        return entry;
+    }
+
+    private static Entry finishedEntry( final ReassignmentJob job )
+    {
+        final Entry entry = new Entry( Entry.Type.FINISHED, job, job.getFinishedAtMs() );
+        entry.setState( job.getState() );
+        entry.setError( job.getError() );
+        return entry;
+    }
+
+    private synchronized void append( final Entry entry )
+    {
+        if( this.path == null )
+        {
+            return;
+        }
+        try
+        {
+            if( this.writer == null )
+            {
+                this.writer = Files.newBufferedWriter( this.path,
+                                                       StandardCharsets.UTF_8,
+                                                       StandardOpenOption.CREATE,
+                                                       StandardOpenOption.APPEND );
+            }
+            write( this.writer, entry );
+            this.writer.flush();
+        }
+        catch( IOException ioe )
+        {
+            closeWriter();
+            throw new UncheckedIOException( "Could not write to the job store " + this.path, ioe );
+        }
+    }
+
+    private void write( final Writer out, final Entry entry ) throws IOException
+    {
+        try
+        {
+            out.write( this.om.writeValueAsString( entry ) );
+        }
+        catch( JsonProcessingException jpe )
+        {
+            throw new IOException( jpe );
+        }
+        out.write( '\n' );
+    }
+
+    @PreDestroy
+    public synchronized void closeWriter()
+    {
+        if( this.writer != null )
+        {
+            try
+            {
+                this.writer.close();
+            }
+            catch( IOException ioe )
+            {
+                log.warn( "Could not close the job store {}.", this.path, ioe );
+            }
+            this.writer = null;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * @file ReassignmentProgress.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/16/18 9:40 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.*;
+
+/**
+ * ReassignmentProgress is one sample of how far a {@link ReassignmentJob} has got,
+ * worked out from the replica sizes the brokers report.
+ *
+ * A replica being added has copied as many bytes as its log holds on the new broker,
+ * and is done once that matches the largest replica of the partition.
+ */
+@Getter
+@ToString( exclude = "partitions" )
+public class ReassignmentProgress
+{
+    /**
+     * Weight of the newest rate sample in the smoothed throughput.
+     */
+    static final double THROUGHPUT_SMOOTHING = 0.5;
+
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class PartitionProgress
+    {
+        private final String topic;
+
+        private final int partition;
+
+        /**
+         * Brokers receiving a new replica.
+         */
+        private final List< Integer > addedBrokers;
+
+        private final long targetBytes;
+
+        private final long copiedBytes;
+
+        public boolean isDone()
+        {
+            return this.copiedBytes >= this.targetBytes;
+        }
+    }
+
+    private final String jobId;
+
+    /**
+     * 1-based, for display.
+     */
+    private final int wave;
+
+    private final int waveCount;
+
+    private final long sampledAtMs;
+
+    private final List< PartitionProgress > partitions;
+
+    private final long waveTargetBytes;
+
+    private final long waveCopiedBytes;
+
+    /**
+     * Bytes the whole job has to copy; grows if the partitions grow while we copy them.
+     */
+    private final long totalBytes;
+
+    /**
+     * Bytes copied by the whole job, earlier waves included.
+     */
+    private final long copiedBytes;
+
+    /**
+     * Smoothed replication throughput across the job's new replicas, bytes/sec.
+     */
+    private final long throughputBytesPerSec;
+
+    /**
+     * Seconds until the job has copied everything at the current throughput, -1 if unknown.
+     */
+    private final long etaSeconds;
+
+    private ReassignmentProgress( final String jobId,
+                                  final int wave,
+                                  final int waveCount,
+                                  final long sampledAtMs,
+                                  final List< PartitionProgress > partitions,
+                                  final long waveTargetBytes,
+                                  final long waveCopiedBytes,
+                                  final long totalBytes,
+                                  final long copiedBytes,
+                                  final long throughputBytesPerSec,
+                                  final long etaSeconds )
+    {
+        this.jobId                 = jobId;
+        this.wave                  = wave;
+        this.waveCount             = waveCount;
+        this.sampledAtMs           = sampledAtMs;
+        this.partitions            = partitions;
+        this.waveTargetBytes       = waveTargetBytes;
+        this.waveCopiedBytes       = waveCopiedBytes;
+        this.totalBytes            = totalBytes;
+        this.copiedBytes           = copiedBytes;
+        this.throughputBytesPerSec = throughputBytesPerSec;
+        this.etaSeconds            = etaSeconds;
+    }
+
+    /**
+     * @param waves    finished waves of a job.
+     * @param starting the layout the job started from.
+     * @param sizes    replica sizes sampled after the waves, on the brokers they added replicas to.
+     * @return bytes the waves copied to create the replicas they added.
+     */
+    public static long copiedBytes( final List< TopicPartitionAssignment > waves,
+                                    final TopicPartitionAssignment starting,
+                                    final ReplicaSizes sizes )
+    {
+        final long[] bytes = { 0 };
+        for( TopicPartitionAssignment wave : waves )
+        {
+            wave.forEach( ( topic, partition, replicas ) -> bytes[ 0 ] += sizes.bytesToMove( topic,
+                                                                                              partition,
+                                                                                              replicas,
+                                                                                              starting.getReplicas( topic, partition ) ) );
+        }
+        return bytes[ 0 ];
+    }
+
+    /**
+     * Works out the progress of the job's current wave.
+     *
+     * @param job            the job, must have started.
+     * @param sizes          replica sizes sampled while the wave runs.
+     * @param completedBytes bytes copied by the job's earlier waves.
+     * @param previous       the job's previous sample, or null; used for the throughput.
+     */
+    public static ReassignmentProgress of( final ReassignmentJob job,
+                                           final ReplicaSizes sizes,
+                                           final long completedBytes,
+                                           final ReassignmentProgress previous )
+    {
+        final TopicPartitionAssignment wave     = job.getCurrentWavePlan();
+        final TopicPartitionAssignment starting = job.getStartingAssignment();
+
+        final List< PartitionProgress > partitions = new ArrayList<>();
+        long waveTarget = 0;
+        long waveCopied = 0;
+
+        if( wave != null && starting != null )
+        {
+            final long[] totals = { 0, 0 };
+            wave.forEach( ( topic, partition, replicas ) -> {
+                final int[] before        = starting.getReplicas( topic, partition );
+                final long  partitionSize = sizes.partitionSize( topic, partition );
+
+                final List< Integer > added = new ArrayList<>();
+                long copied = 0;
+                for( int brokerId : replicas )
+                {
+                    if( !TopicPartitionAssignment.hasReplica( before, brokerId ) )
+                    {
+                        added.add( brokerId );
+                        copied += Math.min( partitionSize,
+                                            Math.max( 0L, sizes.replicaSize( topic, partition, brokerId ) ) );
+                    }
+                }
+                final long target = added.size() * partitionSize;
+
+                partitions.add( new PartitionProgress( topic, partition, added, target, copied ) );
+                totals[ 0 ] += target;
+                totals[ 1 ] += copied;
+            } );
+            waveTarget = totals[ 0 ];
+            waveCopied = totals[ 1 ];
+        }
+
+        final long copied    = completedBytes + waveCopied;
+        // The job estimate was taken at the start, the wave's own target is more recent.
+        final long remaining = Math.max( 0L, job.getEstimatedBytes() - completedBytes - waveTarget );
+        final long total     = copied + ( waveTarget - waveCopied ) + remaining;
+
+        long throughput = 0;
+        if( previous != null && sizes.getSampledAtMs() > previous.getSampledAtMs() )
+        {
+            final double elapsedSec = ( sizes.getSampledAtMs() - previous.getSampledAtMs() ) / 1000.0;
+            final double rate       = Math.max( 0L, copied - previous.getCopiedBytes() ) / elapsedSec;
+            throughput = previous.getThroughputBytesPerSec() == 0
+                         ? (long)rate
+                         : (long)( THROUGHPUT_SMOOTHING * rate
+                                   + ( 1 - THROUGHPUT_SMOOTHING ) * previous.getThroughputBytesPerSec() );
+        }
+
+        final long eta;
+        if( copied >= total )
+        {
+            eta = 0;
+        }
+        else if( throughput > 0 )
+        {
+            eta = ( total - copied + throughput - 1 ) / throughput;
+        }
+        else
+        {
+            eta = -1;
+        }
+
+        return new ReassignmentProgress( job.getId(),
+                                         job.getCurrentWave() + 1,
+                                         job.getWaves().size(),
+                                         sizes.getSampledAtMs(),
+                                         Collections.unmodifiableList( partitions ),
+                                         waveTarget,
+                                         waveCopied,
+                                         total,
+                                         copied,
+                                         throughput,
+                                         eta );
+    }
+
+    /**
+     * @return percentage of the job's bytes copied, 0 - 100.
+     */
+    public int getPercentComplete()
+    {
+        return this.totalBytes == 0 ? 100 : (int)( 100 * this.copiedBytes / this.totalBytes );
+    }
+
+    /**
+     * @return the partitions of one topic.
+     */
+    public List< PartitionProgress > getPartitions( final String topic )
+    {
+        final List< PartitionProgress > result = new ArrayList<>();
+        for( PartitionProgress pp : this.partitions )
+        {
+            if( pp.getTopic().equals( topic ) )
+            {
+                result.add( pp );
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * @file ReassignmentProgressTracker.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/16/18 11:05 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ReassignmentProgressTracker samples replica sizes while a {@link ReassignmentJob} runs
+ * and keeps the latest {@link ReassignmentProgress} of each job.
+ *
+ * Only the brokers involved in the running wave are asked, so an idle tool costs the cluster nothing;
+ * as a wave starts, the brokers the finished waves added replicas to are asked once for what those copied.
+ */
+@Component
+@Slf4j
+public class ReassignmentProgressTracker
+{
+    private final AdminClient adminClient;
+
+    private final ReassignmentScheduler reassignmentScheduler;
+
+    private final KafkaManagerMetrics metrics;
+
+    private final long sampleIntervalMs;
+
+    private final long timeoutMs;
+
+    private final ScheduledExecutorService sampler
+        = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "reassignment-progress" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+    private final Map< String, ReassignmentProgress > latest = new ConcurrentHashMap<>();
+
+    /**
+     * Sampler thread only: the wave last sampled and the bytes of the waves before it.
+     */
+    private String trackedJobId;
+
+    private int trackedWave = -1;
+
+    private long completedBytes = 0;
+
+    @Autowired
+    public ReassignmentProgressTracker( final AdminClient adminClient,
+                                        final ReassignmentScheduler reassignmentScheduler,
+                                        final KafkaManagerMetrics metrics,
+                                        @Value( "${kafka-manager.reassignment.progress-interval-ms:5000}" ) final long sampleIntervalMs,
+                                        @Value( "${kafka-manager.metadata.timeout-ms:25000}" ) final long timeoutMs )
+    {
+        this.adminClient           = adminClient;
+        this.reassignmentScheduler = reassignmentScheduler;
+        this.metrics               = metrics;
+        this.sampleIntervalMs      = sampleIntervalMs;
+        this.timeoutMs             = timeoutMs;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        this.sampler.scheduleWithFixedDelay( this::sample, this.sampleIntervalMs, this.sampleIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        this.sampler.shutdownNow();
+    }
+
+    /**
+     * @return the latest sample of the running job, or of the most recently sampled one.
+     */
+    public ReassignmentProgress getProgress()
+    {
+        final ReassignmentJob job = this.reassignmentScheduler.getActiveJob();
+        if( job != null && this.latest.containsKey( job.getId() ) )
+        {
+            return this.latest.get( job.getId() );
+        }
+        return this.latest.values()
+                          .stream()
+                          .max( Comparator.comparingLong( ReassignmentProgress::getSampledAtMs ) )
+                          .orElse( null );
+    }
+
+    public ReassignmentProgress getProgress( final String jobId )
+    {
+        return this.latest.get( jobId );
+    }
+
+    private void sample()
+    {
+        try
+        {
+            final ReassignmentJob job = this.reassignmentScheduler.getActiveJob();
+            if( job == null || job.getCurrentWavePlan() == null || job.getStartingAssignment() == null )
+            {
+                return;
+            }
+
+            final ReassignmentProgress previous = this.latest.get( job.getId() );
+            final int wave = job.getCurrentWave();
+            if( !job.getId().equals( this.trackedJobId ) || wave != this.trackedWave )
+            {
+                // The scheduler only moves on once a wave is done, all of the earlier waves' bytes have been
+                // copied, including those of waves that came and went between two samples.
+                this.completedBytes = completedBytes( job, wave );
+                this.trackedJobId   = job.getId();
+                this.trackedWave    = wave;
+            }
+
+            final ReplicaSizes sizes
+                = this.metrics.timeAdmin( "describeLogDirs",
+                                          ReplicaSizes.fetch( this.adminClient, job.getCurrentWaveBrokers(), this.timeoutMs ) )
+                              .get();
+            final ReassignmentProgress progress = ReassignmentProgress.of( job, sizes, this.completedBytes, previous );
+            this.latest.put( job.getId(), progress );
+
+            log.debug( "Reassignment progress: {}", progress );
+
+            // Forget jobs the scheduler no longer lists.
+            final Set< String > known = new HashSet<>();
+            this.reassignmentScheduler.getJobs().forEach( j -> known.add( j.getId() ) );
+            this.latest.keySet().retainAll( known );
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch( Exception e )
+        {
+            log.warn( "Could not sample reassignment progress.", AdminFutures.unwrap( e ) );
+        }
+    }
+
+    /**
+     * Sizes the replicas the job's finished waves added, on the brokers they were added to.
+     * Once per wave, not per sample.
+     */
+    private long completedBytes( final ReassignmentJob job, final int wave ) throws InterruptedException, ExecutionException
+    {
+        if( wave <= 0 )
+        {
+            return 0;
+        }
+        final List< TopicPartitionAssignment > finished = new ArrayList<>( job.getWaves().subList( 0, wave ) );
+        final Set< Integer > brokerIds = new TreeSet<>();
+        finished.forEach( plan -> brokerIds.addAll( plan.getBrokerIds() ) );
+        final ReplicaSizes sizes
+            = this.metrics.timeAdmin( "describeLogDirs", ReplicaSizes.fetch( this.adminClient, brokerIds, this.timeoutMs ) )
+                          .get();
+        return ReassignmentProgress.copiedBytes( finished, job.getStartingAssignment(), sizes );
+    }
+}
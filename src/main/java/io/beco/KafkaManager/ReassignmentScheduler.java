@@ -0,0 +1,580 @@
+/**
+ * @file ReassignmentScheduler.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/14/18 1:45 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kafka.admin.ReassignPartitionsCommand;
+import kafka.admin.ReassignPartitionsCommand$;
+import kafka.utils.ZkUtils;
+import kafka.utils.ZkUtils$;
+import lombok.extern.slf4j.Slf4j;
+import org.I0Itec.zkclient.IZkDataListener;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.common.Node;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import scala.Option;
+import scala.collection.JavaConverters;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * ReassignmentScheduler executes plans as a sequence of waves.
+ *
+ * Kafka only allows one reassignment in ZooKeeper at a time, and moving everything at once
+ * saturates the brokers' disks and network. Submitted jobs are queued; the running job's plan is
+ * split by {@link ReassignmentWaves} and each wave is written once the previous one has left
+ * {@link ZkUtils#ReassignPartitionsPath()}, without an operator having to press "Execute" again.
+ *
+ * The reassign path is watched, so a wave that finishes is followed up straight away rather than
+ * at the next poll. Whenever a reassignment leaves ZooKeeper - ours or one started by another tool -
+ * the replication throttles are removed and a {@link ReassignmentCompletion} is recorded, so a finished
+ * reassignment never leaves the cluster throttled until someone presses "Verify".
+ *
+ * Jobs are kept in the {@link ReassignmentJobStore}, so a restart picks up where the queue left off:
+ * queued jobs stay queued, and a job that was running starts over with whatever part of its plan
+ * the cluster doesn't already match.
+ *
+ * The layout of a job's topics is saved to the {@link AssignmentHistory} as the job starts and again
+ * as it finishes, read straight from ZooKeeper then so it includes the last wave.
+ *
+ * All ZooKeeper work happens on the scheduler's single thread.
+ */
+@Component
+@Slf4j
+public class ReassignmentScheduler
+{
+    static final int MAX_FINISHED_JOBS = 50;
+
+    private static final int MAX_COMPLETIONS = 50;
+
+    private final ZkUtils zkUtils;
+
+    private final AdminClient adminClient;
+
+    private final Option< AdminClient > adminClientOption;
+
+    private final ClusterMetadataCache metadataCache;
+
+    private final KafkaManagerMetrics metrics;
+
+    private final ReassignmentJobStore jobStore;
+
+    private final AssignmentHistory history;
+
+    private final ObjectMapper om;
+
+    private final int maxPartitionsPerWave;
+
+    private final long maxBytesPerWave;
+
+    private final long pollIntervalMs;
+
+    private final long timeoutMs;
+
+    private final ScheduledExecutorService executor
+        = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "reassignment-scheduler" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+    private final Deque< ReassignmentJob > queue = new ConcurrentLinkedDeque<>();
+
+    private final Deque< ReassignmentJob > finished = new ConcurrentLinkedDeque<>();
+
+    private final Deque< ReassignmentCompletion > completions = new ConcurrentLinkedDeque<>();
+
+    private volatile ReassignmentJob active;
+
+    /**
+     * Scheduler thread only: the reassignment last seen in ZooKeeper and when it was first seen, null if none.
+     */
+    private Map< String, Set< Integer > > inFlightTopics;
+
+    private long inFlightSinceMs;
+
+    private String inFlightJobId;
+
+    private final IZkDataListener reassignmentListener = new IZkDataListener()
+    {
+        @Override
+        public void handleDataChange( final String dataPath, final Object data )
+        {
+            executor.execute( () -> {
+                // Stale if the reassignment has already gone again.
+                if( zkUtils.pathExists( ZkUtils.ReassignPartitionsPath() ) )
+                {
+                    rememberInFlight( (String)data, null );
+                }
+            } );
+        }
+
+        @Override
+        public void handleDataDeleted( final String dataPath )
+        {
+            executor.execute( ReassignmentScheduler.this::tick );
+        }
+    };
+
+    @Autowired
+    public ReassignmentScheduler( final ZkUtils zkUtils,
+                                  final AdminClient adminClient,
+                                  final ClusterMetadataCache metadataCache,
+                                  final KafkaManagerMetrics metrics,
+                                  final ReassignmentJobStore jobStore,
+                                  final AssignmentHistory history,
+                                  final ObjectMapper objectMapper,
+                                  @Value( "${kafka-manager.reassignment.max-partitions-per-wave:50}" ) final int maxPartitionsPerWave,
+                                  @Value( "${kafka-manager.reassignment.max-bytes-per-wave:107374182400}" ) final long maxBytesPerWave,
+                                  @Value( "${kafka-manager.reassignment.poll-interval-ms:10000}" ) final long pollIntervalMs,
+                                  @Value( "${kafka-manager.metadata.timeout-ms:25000}" ) final long timeoutMs )
+    {
+        this.zkUtils              = zkUtils;
+        this.adminClient          = adminClient;
+        this.adminClientOption    = Option.apply( adminClient );
+        this.metadataCache        = metadataCache;
+        this.metrics              = metrics;
+        this.jobStore             = jobStore;
+        this.history              = history;
+        this.om                   = objectMapper;
+        this.maxPartitionsPerWave = maxPartitionsPerWave;
+        this.maxBytesPerWave      = maxBytesPerWave;
+        this.pollIntervalMs       = pollIntervalMs;
+        this.timeoutMs            = timeoutMs;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        for( ReassignmentJob job : this.jobStore.load() )
+        {
+            if( job.isFinished() )
+            {
+                this.finished.addFirst( job );
+            }
+            else if( job.getState() == ReassignmentJob.State.RUNNING )
+            {
+                // Ahead of everything queued after it; its wave may still be in ZooKeeper.
+                log.info( "Resuming reassignment job {}: {}", job.getId(), job.getDescription() );
+                job.setState( ReassignmentJob.State.QUEUED );
+                this.queue.addFirst( job );
+            }
+            else
+            {
+                this.queue.add( job );
+            }
+        }
+
+        this.zkUtils.zkClient().subscribeDataChanges( ZkUtils.ReassignPartitionsPath(), this.reassignmentListener );
+        // Pick up a reassignment that was running before we started.
+        this.executor.execute( () -> {
+            final Option< String > data = this.zkUtils.readDataMaybeNull( ZkUtils.ReassignPartitionsPath() )._1();
+            if( data.isDefined() )
+            {
+                rememberInFlight( data.get(), null );
+            }
+        } );
+        this.executor.scheduleWithFixedDelay( this::tick, this.pollIntervalMs, this.pollIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        this.zkUtils.zkClient().unsubscribeDataChanges( ZkUtils.ReassignPartitionsPath(), this.reassignmentListener );
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Queues a plan for execution.
+     *
+     * @param description         shown to operators, e.g. the topic name.
+     * @param plan                the changed partitions only, see {@link TopicPartitionAssignment#findAssignmentChanges}.
+     * @param throttleBytesPerSec replication throttle, negative for none.
+     * @return the queued job.
+     */
+    public ReassignmentJob submit( final String description,
+                                   final TopicPartitionAssignment plan,
+                                   final long throttleBytesPerSec )
+    {
+        return submit( description, plan, throttleBytesPerSec, false );
+    }
+
+    /**
+     * @param adaptiveThrottle let the {@link ReassignmentThrottleController} adjust the throttle,
+     *                         starting from throttleBytesPerSec.
+     */
+    public ReassignmentJob submit( final String description,
+                                   final TopicPartitionAssignment plan,
+                                   final long throttleBytesPerSec,
+                                   final boolean adaptiveThrottle )
+    {
+        return submit( description, plan, throttleBytesPerSec, adaptiveThrottle, 0 );
+    }
+
+    /**
+     * @param maxPartitionsPerWave most partitions the job moves at once, 0 for max-partitions-per-wave.
+     */
+    public ReassignmentJob submit( final String description,
+                                   final TopicPartitionAssignment plan,
+                                   final long throttleBytesPerSec,
+                                   final boolean adaptiveThrottle,
+                                   final int maxPartitionsPerWave )
+    {
+        final ReassignmentJob job
+            = new ReassignmentJob( description, plan, throttleBytesPerSec, adaptiveThrottle, maxPartitionsPerWave );
+        this.jobStore.submitted( job );
+        this.queue.add( job );
+        log.info( "Queued reassignment job {} ({} partitions): {}", job.getId(), job.getPartitionCount(), description );
+
+        this.executor.execute( this::tick );
+        return job;
+    }
+
+    /**
+     * Estimates how long the plan would take as this scheduler runs it: in the same waves, a poll apart.
+     *
+     * @param maxPartitionsPerWave most partitions at once, 0 for max-partitions-per-wave.
+     */
+    public ReassignmentSimulation simulate( final TopicPartitionAssignment plan,
+                                            final TopicPartitionAssignment current,
+                                            final ReplicaSizes sizes,
+                                            final ReassignmentSimulator.Limits limits,
+                                            final int maxPartitionsPerWave )
+    {
+        return ReassignmentSimulator.simulate( TopicPartitionAssignment.findAssignmentChanges( plan, current ),
+                                               current,
+                                               sizes,
+                                               limits,
+                                               maxPartitionsPerWave > 0 ? maxPartitionsPerWave : this.maxPartitionsPerWave,
+                                               this.maxBytesPerWave,
+                                               this.pollIntervalMs / 1000.0 );
+    }
+
+    public ReassignmentJob getActiveJob()
+    {
+        return this.active;
+    }
+
+    /**
+     * @return the running job, the queued jobs and the most recently finished ones, in that order.
+     */
+    public List< ReassignmentJob > getJobs()
+    {
+        final List< ReassignmentJob > jobs = new ArrayList<>();
+        final ReassignmentJob current = this.active;
+        if( current != null )
+        {
+            jobs.add( current );
+        }
+        jobs.addAll( this.queue );
+        jobs.addAll( this.finished );
+        return jobs;
+    }
+
+    /**
+     * @return the most recent reassignments seen to complete, newest first.
+     */
+    public List< ReassignmentCompletion > getCompletions()
+    {
+        return new ArrayList<>( this.completions );
+    }
+
+    /**
+     * Runs on the scheduler thread, advances the active job or starts the next one.
+     */
+    private void tick()
+    {
+        try
+        {
+            if( this.zkUtils.pathExists( ZkUtils.ReassignPartitionsPath() ) )
+            {
+                // Our wave, or someone else's reassignment, is still running.
+                return;
+            }
+            if( this.inFlightTopics != null )
+            {
+                completeInFlight();
+            }
+
+            if( this.active == null )
+            {
+                this.active = this.queue.poll();
+                if( this.active == null )
+                {
+                    return;
+                }
+                startJob( this.active );
+            }
+            else
+            {
+                finishWave( this.active );
+            }
+
+            final ReassignmentJob job = this.active;
+            if( job.getCurrentWave() + 1 < job.getWaves().size() )
+            {
+                submitWave( job, job.getCurrentWave() + 1 );
+            }
+            else
+            {
+                completeJob( job, ReassignmentJob.State.COMPLETED, null );
+            }
+        }
+        catch( Exception e )
+        {
+            log.error( "Reassignment scheduler failed.", e );
+            final ReassignmentJob job = this.active;
+            if( job != null )
+            {
+                completeJob( job, ReassignmentJob.State.FAILED, String.valueOf( AdminFutures.unwrap( e ) ) );
+            }
+        }
+    }
+
+    private void startJob( final ReassignmentJob job ) throws InterruptedException, ExecutionException
+    {
+        job.setState( ReassignmentJob.State.RUNNING );
+        job.setStartedAtMs( System.currentTimeMillis() );
+
+        this.jobStore.started( job );
+
+        final ClusterMetadataSnapshot snapshot = this.metadataCache.get();
+        final TopicPartitionAssignment current
+            = snapshot.currentAssignment( job.getPlan().getTopics() );
+        final ReplicaSizes sizes = fetchSizes( snapshot );
+        // All of it for a new job; for one resumed after a restart, what its finished waves didn't already do.
+        final TopicPartitionAssignment remaining = TopicPartitionAssignment.findAssignmentChanges( job.getPlan(), current );
+
+        // Brokers may have gone, or topics been deleted, since the job was queued.
+        final List< PlanValidator.Violation > violations = PlanValidator.validate( remaining, snapshot );
+        if( !violations.isEmpty() )
+        {
+            throw new IllegalStateException( "Plan rejected, " + PlanValidator.describe( violations ) );
+        }
+
+        job.setStartingAssignment( current );
+        saveSnapshot( AssignmentSnapshot.Kind.BEFORE, job, current );
+        final int maxPartitions = job.getMaxPartitionsPerWave() > 0 ? job.getMaxPartitionsPerWave() : this.maxPartitionsPerWave;
+        job.setWaves( ReassignmentWaves.split( remaining, current, sizes, maxPartitions, this.maxBytesPerWave ) );
+
+        final long[] bytes = { 0 };
+        remaining.forEach( ( topic, partition, replicas ) -> bytes[ 0 ] += sizes.bytesToMove( topic,
+                                                                                              partition,
+                                                                                              replicas,
+                                                                                              current.getReplicas( topic, partition ) ) );
+        job.setEstimatedBytes( bytes[ 0 ] );
+
+        log.info( "Starting reassignment job {}: {} partitions, ~{} bytes, in {} waves.",
+                  job.getId(), remaining.getPartitionCount(), bytes[ 0 ], job.getWaves().size() );
+    }
+
+    private ReplicaSizes fetchSizes( final ClusterMetadataSnapshot snapshot ) throws InterruptedException
+    {
+        final List< Integer > brokerIds = snapshot.getNodes().stream().map( Node::id ).collect( Collectors.toList() );
+        try
+        {
+            return this.metrics.timeAdmin( "describeLogDirs",
+                                           ReplicaSizes.fetch( this.adminClient, brokerIds, this.timeoutMs ) ).get();
+        }
+        catch( ExecutionException ee )
+        {
+            log.warn( "Could not read replica sizes, splitting waves by partition count only.", AdminFutures.unwrap( ee ) );
+            return ReplicaSizes.EMPTY;
+        }
+    }
+
+    private void submitWave( final ReassignmentJob job, final int wave ) throws JsonProcessingException
+    {
+        final String json = this.om.writeValueAsString( job.getWaves().get( wave ) );
+
+        final ReassignPartitionsCommand.Throttle throttle
+            = new ReassignPartitionsCommand.Throttle( Math.max( -1L, job.getCurrentThrottleBytesPerSec() ),
+                                                      ReassignPartitionsCommand$.MODULE$.NoThrottle().postUpdateAction() );
+
+        log.info( "Job {}: submitting wave {} of {}.", job.getId(), wave + 1, job.getWaves().size() );
+        log.debug( "Wave Plan: {}", json );
+
+        job.setCurrentWave( wave );
+        this.metrics.timeZooKeeper( "executeAssignment",
+                                    () -> ReassignPartitionsCommand$.MODULE$.executeAssignment( this.zkUtils,
+                                                                                                this.adminClientOption,
+                                                                                                json,
+                                                                                                throttle,
+                                                                                                10000L ) );
+        rememberInFlight( json, job.getId() );
+        // The layout is changing under us, don't serve the old one.
+        this.metadataCache.invalidate();
+    }
+
+    /**
+     * The wave has left ZooKeeper; verify it, which also clears the throttle once it has completed.
+     */
+    private void finishWave( final ReassignmentJob job ) throws JsonProcessingException
+    {
+        final TopicPartitionAssignment wave = job.getCurrentWavePlan();
+        if( wave != null )
+        {
+            log.info( "Job {}: wave {} of {} finished.", job.getId(), job.getCurrentWave() + 1, job.getWaves().size() );
+            final String json = this.om.writeValueAsString( wave );
+            this.metrics.timeZooKeeper( "verifyAssignment",
+                                        () -> ReassignPartitionsCommand$.MODULE$.verifyAssignment( this.zkUtils,
+                                                                                                   this.adminClientOption,
+                                                                                                   json ) );
+        }
+    }
+
+    /**
+     * Runs on the scheduler thread.
+     *
+     * @param json  the reassignment as written to ZooKeeper.
+     * @param jobId our job, or null if not known to be ours.
+     */
+    private void rememberInFlight( final String json, final String jobId )
+    {
+        if( json == null )
+        {
+            return;
+        }
+        if( this.inFlightTopics == null )
+        {
+            this.inFlightTopics  = new TreeMap<>();
+            this.inFlightSinceMs = System.currentTimeMillis();
+        }
+        // The controller removes partitions from the node as they complete, so keep everything seen.
+        JavaConverters.mapAsJavaMapConverter( ZkUtils$.MODULE$.parsePartitionReassignmentData( json ) )
+                      .asJava()
+                      .keySet()
+                      .forEach( tap -> this.inFlightTopics.computeIfAbsent( tap.topic(), t -> new TreeSet<>() )
+                                                          .add( tap.partition() ) );
+        if( jobId != null )
+        {
+            this.inFlightJobId = jobId;
+        }
+    }
+
+    /**
+     * The reassignment has left ZooKeeper: clear the throttles it may have set and record it.
+     */
+    private void completeInFlight()
+    {
+        final List< Integer > brokerIds = new ArrayList<>();
+        JavaConverters.seqAsJavaListConverter( this.zkUtils.getAllBrokersInCluster() )
+                      .asJava()
+                      .forEach( broker -> brokerIds.add( broker.id() ) );
+
+        int cleared = 0;
+        try
+        {
+            cleared = ReplicationThrottles.clear( this.zkUtils, brokerIds, this.inFlightTopics.keySet() );
+        }
+        catch( Exception e )
+        {
+            log.error( "Could not remove the replication throttles of a completed reassignment.", e );
+        }
+
+        final ReassignmentCompletion completion
+            = new ReassignmentCompletion( this.inFlightJobId,
+                                          new TreeSet<>( this.inFlightTopics.keySet() ),
+                                          this.inFlightTopics.values().stream().mapToInt( Set::size ).sum(),
+                                          this.inFlightSinceMs,
+                                          System.currentTimeMillis(),
+                                          cleared );
+        log.info( "Reassignment completed: {}", completion );
+
+        this.completions.addFirst( completion );
+        while( this.completions.size() > MAX_COMPLETIONS )
+        {
+            this.completions.removeLast();
+        }
+
+        this.inFlightTopics = null;
+        this.inFlightJobId  = null;
+    }
+
+    /**
+     * The job goes on without it, losing the history is better than holding up the reassignment.
+     */
+    private void saveSnapshot( final AssignmentSnapshot.Kind kind,
+                               final ReassignmentJob job,
+                               final TopicPartitionAssignment assignment )
+    {
+        try
+        {
+            this.history.record( kind, job.getId(), job.getDescription(), assignment );
+        }
+        catch( UncheckedIOException uioe )
+        {
+            log.error( "Could not save the {} snapshot of reassignment job {}.", kind, job.getId(), uioe );
+        }
+    }
+
+    /**
+     * @return the assignment of the topics as ZooKeeper has it, replicas in preferred order.
+     */
+    private TopicPartitionAssignment zkAssignment( final Collection< String > topics )
+    {
+        final TopicPartitionAssignment assignment = new TopicPartitionAssignment();
+        JavaConverters.mapAsJavaMapConverter( this.zkUtils.getReplicaAssignmentForTopics(
+                          JavaConverters.asScalaBufferConverter( new ArrayList<>( topics ) ).asScala() ) )
+                      .asJava()
+                      .forEach( ( tap, replicas ) -> assignment.add( tap.topic(),
+                                                                      tap.partition(),
+                                                                      JavaConverters.seqAsJavaListConverter( replicas )
+                                                                                    .asJava()
+                                                                                    .stream()
+                                                                                    .map( Integer.class::cast )
+                                                                                    .collect( Collectors.toList() ) ) );
+        return assignment;
+    }
+
+    private void completeJob( final ReassignmentJob job, final ReassignmentJob.State state, final String error )
+    {
+        job.setState( state );
+        job.setError( error );
+        job.setFinishedAtMs( System.currentTimeMillis() );
+        log.info( "Reassignment job {} {}.", job.getId(), state );
+
+        this.active = null;
+        try
+        {
+            saveSnapshot( AssignmentSnapshot.Kind.AFTER, job, zkAssignment( job.getPlan().getTopics() ) );
+        }
+        catch( Exception e )
+        {
+            log.error( "Could not read the layout reassignment job {} left behind.", job.getId(), e );
+        }
+        try
+        {
+            this.jobStore.finished( job );
+        }
+        catch( UncheckedIOException uioe )
+        {
+            // The job would run again after a restart, only to find nothing left to change.
+            log.error( "Could not record the end of reassignment job {}.", job.getId(), uioe );
+        }
+        this.finished.addFirst( job );
+        while( this.finished.size() > MAX_FINISHED_JOBS )
+        {
+            this.finished.removeLast();
+        }
+        this.metadataCache.invalidate();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * @file ReassignmentSimulation.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/5/18 9:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * ReassignmentSimulation is what the {@link ReassignmentSimulator} expects a plan to take: how long each
+ * wave runs and how hard each broker is driven.
+ */
+@Getter
+@AllArgsConstructor
+@ToString( exclude = { "waves", "brokers" } )
+public class ReassignmentSimulation
+{
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class WaveEstimate
+    {
+        /**
+         * 1-based, for display.
+         */
+        private final int wave;
+
+        private final int partitions;
+
+        private final long bytes;
+
+        /**
+         * From the start of the job.
+         */
+        private final double startSeconds;
+
+        private final double seconds;
+
+        public String getDuration()
+        {
+            return duration( this.seconds );
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class BrokerTraffic
+    {
+        private final int brokerId;
+
+        private final long bytesIn;
+
+        private final long bytesOut;
+
+        private final long peakInBytesPerSec;
+
+        private final long peakOutBytesPerSec;
+    }
+
+    private final int partitionCount;
+
+    private final long totalBytes;
+
+    /**
+     * New replicas of partitions with no known size, counted as taking no time.
+     */
+    private final int unsizedReplicas;
+
+    /**
+     * Bytes/sec, negative for none.
+     */
+    private final long throttleBytesPerSec;
+
+    private final double seconds;
+
+    private final List< WaveEstimate > waves;
+
+    /**
+     * Brokers that send or receive anything, by id.
+     */
+    private final List< BrokerTraffic > brokers;
+
+    public String getDuration()
+    {
+        return duration( this.seconds );
+    }
+
+    /**
+     * @return e.g. 2h 05m 09s, rounded up to the second.
+     */
+    public static String duration( final double seconds )
+    {
+        final long total = (long) Math.ceil( seconds );
+        if( total < 60 )
+        {
+            return total + "s";
+        }
+        if( total < 3600 )
+        {
+            return String.format( "%dm %02ds", total / 60, total % 60 );
+        }
+        return String.format( "%dh %02dm %02ds", total / 3600, total / 60 % 60, total % 60 );
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * @file ReassignmentSimulator.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/5/18 9:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+/**
+ * ReassignmentSimulator estimates how long a plan takes to execute, without a cluster.
+ *
+ * The plan is split into the waves the {@link ReassignmentScheduler} would run. Within a wave every new
+ * replica fetches its partition from the current leader, taken to be the first current replica. Each broker
+ * has an inbound and an outbound limit: its bandwidth, and the throttle if there is one, since Kafka's
+ * follower and leader throttles cap all of a broker's throttled replication traffic. The rates are
+ * shared out max-min fairly: every fetch gets an equal share of the tighter of its two brokers, and
+ * what a fetch can't use is left to the others. The rates are worked out again each time a fetch finishes.
+ * A wave ends with its last fetch, and the next one starts a scheduler poll later.
+ *
+ * It is an estimate. Fetches are taken to run at the rate they are allowed, from the start, and producers
+ * writing to the partitions while they move are not counted. The adaptive throttle is modelled by its
+ * starting value.
+ */
+public final class ReassignmentSimulator
+{
+    private ReassignmentSimulator()
+    {
+    }
+
+    /**
+     * What each broker has to replicate with, bytes/sec.
+     */
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class Limits
+    {
+        /**
+         * Bytes/sec, negative for none.
+         */
+        private final long throttleBytesPerSec;
+
+        /**
+         * Each way, for brokers without their own.
+         */
+        private final long bandwidthBytesPerSec;
+
+        /**
+         * Each way, by broker id.
+         */
+        private final Map< Integer, Long > brokerBandwidthBytesPerSec;
+
+        double capacity( final int brokerId )
+        {
+            final long bandwidth = this.brokerBandwidthBytesPerSec.getOrDefault( brokerId, this.bandwidthBytesPerSec );
+            return this.throttleBytesPerSec < 0 ? bandwidth : Math.min( bandwidth, this.throttleBytesPerSec );
+        }
+    }
+
+    /**
+     * One new replica fetching its partition from the leader.
+     */
+    private static final class Fetch
+    {
+        private final int source;
+
+        private final int destination;
+
+        private double remaining;
+
+        private double rate;
+
+        private boolean fixed;
+
+        private Fetch( final int source, final int destination, final long bytes )
+        {
+            this.source      = source;
+            this.destination = destination;
+            this.remaining   = bytes;
+        }
+    }
+
+    /**
+     * @param plan                 the changes to make.
+     * @param current              the current assignment of the plan's partitions.
+     * @param sizes                partition sizes; partitions without one are taken to be empty, and counted.
+     * @param limits               throttle and broker bandwidth.
+     * @param maxPartitionsPerWave most partitions per wave.
+     * @param maxBytesPerWave      most bytes to copy per wave.
+     * @param waveGapSeconds       between one wave finishing and the next starting.
+     * @return the estimate.
+     */
+    public static ReassignmentSimulation simulate( final TopicPartitionAssignment plan,
+                                                   final TopicPartitionAssignment current,
+                                                   final ReplicaSizes sizes,
+                                                   final Limits limits,
+                                                   final int maxPartitionsPerWave,
+                                                   final long maxBytesPerWave,
+                                                   final double waveGapSeconds )
+    {
+        Assert.isTrue( limits.getBandwidthBytesPerSec() > 0, "Brokers need some bandwidth." );
+        Assert.isTrue( limits.getThrottleBytesPerSec() != 0, "A throttle of 0 stops replication altogether." );
+        limits.getBrokerBandwidthBytesPerSec()
+              .forEach( ( brokerId, bandwidth ) -> Assert.isTrue( bandwidth > 0, "Broker " + brokerId + " needs some bandwidth." ) );
+
+        final Map< Integer, long[] > bytes = new TreeMap<>();
+        final Map< Integer, double[] > peaks = new TreeMap<>();
+        final List< ReassignmentSimulation.WaveEstimate > estimates = new ArrayList<>();
+        final int[] unsized = { 0 };
+        long   totalBytes = 0;
+        double seconds    = 0;
+
+        final List< TopicPartitionAssignment > waves
+            = ReassignmentWaves.split( plan, current, sizes, maxPartitionsPerWave, maxBytesPerWave );
+        for( int w = 0; w < waves.size(); w++ )
+        {
+            final List< Fetch > fetches = new ArrayList<>();
+            final long[] waveBytes = { 0 };
+            waves.get( w ).forEach( ( topic, partition, replicas ) -> {
+                final int[] before = current.getReplicas( topic, partition );
+                final long  size   = sizes.partitionSize( topic, partition );
+                if( before == null || before.length == 0 )
+                {
+                    return;
+                }
+                // No broker reported the partition, as opposed to it being empty.
+                final boolean known = Arrays.stream( before ).anyMatch( b -> sizes.replicaSize( topic, partition, b ) >= 0 );
+                for( int brokerId : replicas )
+                {
+                    if( !TopicPartitionAssignment.hasReplica( before, brokerId ) )
+                    {
+                        if( !known )
+                        {
+                            unsized[ 0 ]++;
+                        }
+                        if( size <= 0 )
+                        {
+                            continue;
+                        }
+                        fetches.add( new Fetch( before[ 0 ], brokerId, size ) );
+                        bytes.computeIfAbsent( before[ 0 ], b -> new long[ 2 ] )[ 1 ] += size;
+                        bytes.computeIfAbsent( brokerId, b -> new long[ 2 ] )[ 0 ] += size;
+                        waveBytes[ 0 ] += size;
+                    }
+                }
+            } );
+
+            if( w > 0 )
+            {
+                seconds += waveGapSeconds;
+            }
+            final double waveSeconds = run( fetches, limits, peaks );
+            estimates.add( new ReassignmentSimulation.WaveEstimate( w + 1,
+                                                                     waves.get( w ).getPartitionCount(),
+                                                                     waveBytes[ 0 ],
+                                                                     seconds,
+                                                                     waveSeconds ) );
+            seconds    += waveSeconds;
+            totalBytes += waveBytes[ 0 ];
+        }
+
+        final List< ReassignmentSimulation.BrokerTraffic > brokers = new ArrayList<>();
+        bytes.forEach( ( brokerId, inOut ) -> {
+            final double[] peak = peaks.getOrDefault( brokerId, new double[ 2 ] );
+            brokers.add( new ReassignmentSimulation.BrokerTraffic( brokerId,
+                                                                   inOut[ 0 ],
+                                                                   inOut[ 1 ],
+                                                                   Math.round( peak[ 0 ] ),
+                                                                   Math.round( peak[ 1 ] ) ) );
+        } );
+
+        return new ReassignmentSimulation( plan.getPartitionCount(),
+                                           totalBytes,
+                                           unsized[ 0 ],
+                                           limits.getThrottleBytesPerSec(),
+                                           seconds,
+                                           estimates,
+                                           brokers );
+    }
+
+    /**
+     * Runs one wave to the end.
+     *
+     * @param peaks broker id to the highest { inbound, outbound } rate seen, updated.
+     * @return how long the wave took, seconds.
+     */
+    private static double run( final List< Fetch > fetches, final Limits limits, final Map< Integer, double[] > peaks )
+    {
+        double seconds = 0;
+        final List< Fetch > running = new ArrayList<>( fetches );
+        while( !running.isEmpty() )
+        {
+            share( running, limits );
+
+            final Map< Integer, double[] > rates = new HashMap<>();
+            double step = Double.MAX_VALUE;
+            for( Fetch fetch : running )
+            {
+                rates.computeIfAbsent( fetch.destination, b -> new double[ 2 ] )[ 0 ] += fetch.rate;
+                rates.computeIfAbsent( fetch.source, b -> new double[ 2 ] )[ 1 ] += fetch.rate;
+                if( fetch.rate > 0 )
+                {
+                    step = Math.min( step, fetch.remaining / fetch.rate );
+                }
+            }
+            if( step == Double.MAX_VALUE )
+            {
+                throw new IllegalStateException( "Simulated fetches stopped making progress." );
+            }
+            rates.forEach( ( brokerId, rate ) -> {
+                final double[] peak = peaks.computeIfAbsent( brokerId, b -> new double[ 2 ] );
+                peak[ 0 ] = Math.max( peak[ 0 ], rate[ 0 ] );
+                peak[ 1 ] = Math.max( peak[ 1 ], rate[ 1 ] );
+            } );
+
+            seconds += step;
+            final double done = step;
+            running.removeIf( fetch -> {
+                fetch.remaining -= fetch.rate * done;
+                // Within a byte is done, rounding would otherwise leave slivers behind.
+                return fetch.remaining < 1;
+            } );
+        }
+        return seconds;
+    }
+
+    /**
+     * Max-min fair rates: repeatedly finds the broker direction with the smallest share per fetch left,
+     * gives its fetches that share and takes it off the other brokers they use.
+     */
+    private static void share( final List< Fetch > running, final Limits limits )
+    {
+        // Broker id to the { inbound, outbound } capacity not yet given out, and unfixed fetches using it.
+        final Map< Integer, double[] > left  = new HashMap<>();
+        final Map< Integer, int[] >    users = new HashMap<>();
+        for( Fetch fetch : running )
+        {
+            fetch.fixed = false;
+            left.computeIfAbsent( fetch.destination, b -> new double[]{ limits.capacity( b ), limits.capacity( b ) } );
+            left.computeIfAbsent( fetch.source, b -> new double[]{ limits.capacity( b ), limits.capacity( b ) } );
+            users.computeIfAbsent( fetch.destination, b -> new int[ 2 ] )[ 0 ]++;
+            users.computeIfAbsent( fetch.source, b -> new int[ 2 ] )[ 1 ]++;
+        }
+
+        int unfixed = running.size();
+        while( unfixed > 0 )
+        {
+            int    bottleneck = -1;
+            int    direction  = -1;
+            double share      = Double.MAX_VALUE;
+            for( Map.Entry< Integer, int[] > entry : users.entrySet() )
+            {
+                for( int d = 0; d < 2; d++ )
+                {
+                    final int count = entry.getValue()[ d ];
+                    if( count > 0 && left.get( entry.getKey() )[ d ] / count < share )
+                    {
+                        share      = left.get( entry.getKey() )[ d ] / count;
+                        bottleneck = entry.getKey();
+                        direction  = d;
+                    }
+                }
+            }
+
+            for( Fetch fetch : running )
+            {
+                if( !fetch.fixed && ( direction == 0 ? fetch.destination : fetch.source ) == bottleneck )
+                {
+                    fetch.rate  = Math.max( share, 0 );
+                    fetch.fixed = true;
+                    unfixed--;
+                    left.get( fetch.destination )[ 0 ] -= fetch.rate;
+                    left.get( fetch.source )[ 1 ] -= fetch.rate;
+                    users.get( fetch.destination )[ 0 ]--;
+                    users.get( fetch.source )[ 1 ]--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * @file ReassignmentThrottleController.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/19/18 1:30 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import kafka.utils.ZkUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ReassignmentThrottleController closes the loop on the replication throttle of jobs
+ * submitted with an adaptive throttle.
+ *
+ * Every interval it gathers the signals for {@link AdaptiveThrottle}:
+ * <ul>
+ *     <li>the replication rate measured by the {@link ReassignmentProgressTracker},</li>
+ *     <li>the under replicated partitions outside the running wave, from the {@link ClusterMetadataCache},</li>
+ *     <li>the round trip of a describeCluster request, a stand-in for broker request latency
+ *         (the 1.0 AdminClient has no metrics API).</li>
+ * </ul>
+ * and writes the new rate to the leader and follower throttles of the brokers in the wave.
+ */
+@Component
+@Slf4j
+public class ReassignmentThrottleController
+{
+    private final ZkUtils zkUtils;
+
+    private final AdminClient adminClient;
+
+    private final ReassignmentScheduler reassignmentScheduler;
+
+    private final ReassignmentProgressTracker progressTracker;
+
+    private final ClusterMetadataCache metadataCache;
+
+    private final KafkaManagerMetrics metrics;
+
+    private final AdaptiveThrottle throttle;
+
+    private final long adjustIntervalMs;
+
+    private final long timeoutMs;
+
+    private final ScheduledExecutorService adjuster
+        = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "reassignment-throttle" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+    @Autowired
+    public ReassignmentThrottleController( final ZkUtils zkUtils,
+                                           final AdminClient adminClient,
+                                           final ReassignmentScheduler reassignmentScheduler,
+                                           final ReassignmentProgressTracker progressTracker,
+                                           final ClusterMetadataCache metadataCache,
+                                           final KafkaManagerMetrics metrics,
+                                           @Value( "${kafka-manager.reassignment.throttle.adjust-interval-ms:15000}" ) final long adjustIntervalMs,
+                                           @Value( "${kafka-manager.reassignment.throttle.min-bytes-per-sec:1048576}" ) final long minBytesPerSec,
+                                           @Value( "${kafka-manager.reassignment.throttle.max-bytes-per-sec:104857600}" ) final long maxBytesPerSec,
+                                           @Value( "${kafka-manager.reassignment.throttle.increase-bytes-per-sec:5242880}" ) final long increaseBytesPerSec,
+                                           @Value( "${kafka-manager.reassignment.throttle.decrease-factor:0.5}" ) final double decreaseFactor,
+                                           @Value( "${kafka-manager.reassignment.throttle.max-latency-ms:1000}" ) final long maxLatencyMs,
+                                           @Value( "${kafka-manager.reassignment.throttle.max-under-replicated:0}" ) final int maxUnderReplicated,
+                                           @Value( "${kafka-manager.metadata.timeout-ms:25000}" ) final long timeoutMs )
+    {
+        this.zkUtils               = zkUtils;
+        this.adminClient           = adminClient;
+        this.reassignmentScheduler = reassignmentScheduler;
+        this.progressTracker       = progressTracker;
+        this.metadataCache         = metadataCache;
+        this.metrics               = metrics;
+        this.adjustIntervalMs      = adjustIntervalMs;
+        this.timeoutMs             = timeoutMs;
+        this.throttle              = new AdaptiveThrottle( minBytesPerSec,
+                                                           maxBytesPerSec,
+                                                           increaseBytesPerSec,
+                                                           decreaseFactor,
+                                                           maxLatencyMs,
+                                                           maxUnderReplicated );
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        this.adjuster.scheduleWithFixedDelay( this::adjust, this.adjustIntervalMs, this.adjustIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        this.adjuster.shutdownNow();
+    }
+
+    /**
+     * @param requestedBytesPerSec the operator's throttle, negative for none.
+     * @return where an adaptive job starts: the requested throttle within the bounds, else the floor.
+     */
+    public long startingThrottle( final long requestedBytesPerSec )
+    {
+        return requestedBytesPerSec < 0 ? this.throttle.getMinBytesPerSec() : this.throttle.clamp( requestedBytesPerSec );
+    }
+
+    private void adjust()
+    {
+        try
+        {
+            final ReassignmentJob job = this.reassignmentScheduler.getActiveJob();
+            if( job == null || !job.isAdaptiveThrottle() || job.getCurrentWavePlan() == null )
+            {
+                return;
+            }
+            final ReassignmentProgress progress = this.progressTracker.getProgress( job.getId() );
+            if( progress == null || progress.getWave() != job.getCurrentWave() + 1 )
+            {
+                // No measurement of this wave yet.
+                return;
+            }
+
+            final long latencyMs       = probeLatencyMs();
+            final int  underReplicated = underReplicatedOutside( this.metadataCache.get(), job.getCurrentWavePlan() );
+            final long current         = job.getCurrentThrottleBytesPerSec();
+
+            final AdaptiveThrottle.Decision decision
+                = this.throttle.decide( current, progress.getThroughputBytesPerSec(), underReplicated, latencyMs );
+            final long next = this.throttle.apply( decision, current );
+
+            log.debug( "Job {} throttle {}: {} -> {} bytes/s (observed {} bytes/s, {} under replicated, {} ms latency).",
+                       job.getId(), decision, current, next, progress.getThroughputBytesPerSec(), underReplicated, latencyMs );
+
+            if( next != current )
+            {
+                ReplicationThrottles.setRate( this.zkUtils, job.getCurrentWaveBrokers(), next );
+                job.setCurrentThrottleBytesPerSec( next );
+                log.info( "Job {}: replication throttle {} to {} bytes/s.", job.getId(), decision, next );
+            }
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch( Exception e )
+        {
+            log.warn( "Could not adjust the replication throttle.", AdminFutures.unwrap( e ) );
+        }
+    }
+
+    /**
+     * @return how long a describeCluster takes, the deadline if it doesn't answer in time.
+     */
+    private long probeLatencyMs() throws InterruptedException
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            this.metrics.timeAdmin( "describeCluster",
+                                    AdminFutures.toCompletable( this.adminClient.describeCluster().nodes(),
+                                                                this.timeoutMs,
+                                                                "describeCluster" ) ).get();
+        }
+        catch( ExecutionException ee )
+        {
+            return this.timeoutMs;
+        }
+        return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+    }
+
+    /**
+     * @return the under replicated partitions of the cluster, without the wave's own partitions
+     *         which are expected to be under replicated until their new replicas catch up.
+     */
+    static int underReplicatedOutside( final ClusterMetadataSnapshot snapshot, final TopicPartitionAssignment wave )
+    {
+        int count = 0;
+        for( TopicDescription description : snapshot.getTopicDescriptions().values() )
+        {
+            for( TopicPartitionInfo tpi : description.partitions() )
+            {
+                if( tpi.isr().size() < tpi.replicas().size() && !wave.contains( description.name(), tpi.partition() ) )
+                {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
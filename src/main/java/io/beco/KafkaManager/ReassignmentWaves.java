@@ -0,0 +1,87 @@
+/**
+ * @file ReassignmentWaves.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/14/18 11:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+/**
+ * ReassignmentWaves splits a large plan into waves that are executed one after the other.
+ *
+ * Each wave holds at most maxPartitions partitions and, unless a single partition is larger on its own,
+ * at most maxBytes of replica data to copy. Partitions are taken largest first, so the big moves
+ * run together and a wave isn't held up by one large partition among many small ones.
+ */
+public final class ReassignmentWaves
+{
+    private ReassignmentWaves()
+    {
+    }
+
+    @AllArgsConstructor
+    private static final class Move
+    {
+        private final String         topic;
+        private final int            partition;
+        private final int[]          replicas;
+        private final long           bytes;
+    }
+
+    /**
+     * @param plan          the changes to make.
+     * @param current       the current assignment, used to work out which replicas are new.
+     * @param sizes         replica sizes, {@link ReplicaSizes#EMPTY} to split on partition count alone.
+     * @param maxPartitions max partitions per wave.
+     * @param maxBytes      max bytes to copy per wave.
+     * @return the waves in execution order, empty if the plan is empty.
+     */
+    public static List< TopicPartitionAssignment > split( final TopicPartitionAssignment plan,
+                                                          final TopicPartitionAssignment current,
+                                                          final ReplicaSizes sizes,
+                                                          final int maxPartitions,
+                                                          final long maxBytes )
+    {
+        Assert.isTrue( maxPartitions > 0, "Waves must allow at least one partition." );
+
+        final List< Move > moves = new ArrayList<>( plan.getPartitionCount() );
+        plan.forEach( ( topic, partition, replicas ) -> {
+            final int[] before = current.getReplicas( topic, partition );
+            moves.add( new Move( topic, partition, replicas, sizes.bytesToMove( topic, partition, replicas, before ) ) );
+        } );
+
+        moves.sort( Comparator.comparingLong( ( Move m ) -> m.bytes ).reversed()
+                              .thenComparing( m -> m.topic )
+                              .thenComparingInt( m -> m.partition ) );
+
+        final List< TopicPartitionAssignment > waves = new ArrayList<>();
+        TopicPartitionAssignment wave = null;
+        int  wavePartitions = 0;
+        long waveBytes      = 0;
+        for( Move move : moves )
+        {
+            if( wave == null || wavePartitions >= maxPartitions || waveBytes + move.bytes > maxBytes )
+            {
+                wave = new TopicPartitionAssignment();
+                waves.add( wave );
+                wavePartitions = 0;
+                waveBytes      = 0;
+            }
+            wave.add( move.topic, move.partition, move.replicas );
+            wavePartitions++;
+            waveBytes += move.bytes;
+        }
+        return waves;
+    }
+}
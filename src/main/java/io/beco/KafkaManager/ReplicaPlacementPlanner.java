@@ -0,0 +1,858 @@
+/**
+ * @file ReplicaPlacementPlanner.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/12/18 9:40 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * ReplicaPlacementPlanner computes a new assignment for a target replication factor
+ * over a set of eligible brokers, moving as few replicas as it can.
+ *
+ * The rules, in order:
+ * <ol>
+ *     <li>Replicas on brokers that are not eligible are dropped.</li>
+ *     <li>Existing replicas on eligible brokers are kept, in their current order.
+ *         If there are more than the target, the ones on the most loaded brokers are dropped.</li>
+ *     <li>Missing replicas go to the least loaded eligible broker (per topic first, then cluster wide).</li>
+ *     <li>Added replicas are moved from heavier to lighter brokers until the counts are even;
+ *         optionally existing replicas are too.</li>
+ *     <li>The preferred leader (first replica) is moved only where needed to even out leader counts.</li>
+ * </ol>
+ *
+ * Given the {@link ReplicaSizes}, partitions are no longer all equal: the bytes on every broker
+ * (including those of topics not being planned) are tracked next to the counts, where existing replicas
+ * have to move the smallest ones go first, and replicas of the same topic are swapped between the fullest
+ * and emptiest broker to even out disk usage without changing any count.
+ *
+ * Everything is done with int arrays indexed by broker. The rules that place and drop replicas are one
+ * pass each, O(partitions * replicationFactor * brokers). Evening out what is left is iterative: the spread
+ * pass runs at most {@link #MAX_SPREAD_PASSES} times. Chain shifts share one table of the replica each broker
+ * could hand to each other broker; it is built in one O(partitions * replicationFactor * brokers) pass, patched
+ * in O(brokers) per replica moved, and rebuilt only when it has no chain left, at most
+ * {@link #MAX_SPREAD_PASSES} times, so each chain costs an O(brokers^2) search. Each byte swap is an
+ * O(partitions * replicationFactor) scan. Chains and swaps are capped at brokers * {@link #MAX_SPREAD_PASSES}
+ * each, so the worst case is O(partitions * replicationFactor * brokers + brokers^3); in practice the loops
+ * stop after a few passes, as soon as the counts (and bytes) are even.
+ */
+public class ReplicaPlacementPlanner
+{
+    /**
+     * Pass as the target replication factor to keep each partition's current replica count.
+     */
+    public static final int KEEP_REPLICATION_FACTOR = -1;
+
+    private static final int MAX_SPREAD_PASSES = 4;
+
+    private final int[] brokers;
+
+    private final Map< Integer, Integer > brokerIndex = new HashMap<>();
+
+    /**
+     * Also move existing replicas so every broker ends up with an even share,
+     * otherwise only replicas that have to move (ineligible broker, RF change) do.
+     */
+    @Getter
+    @Setter
+    private boolean balanceReplicas = false;
+
+    /**
+     * Reorder replica lists so each broker is the preferred leader for an even share of partitions.
+     */
+    @Getter
+    @Setter
+    private boolean balanceLeaders = true;
+
+    /**
+     * The size of every replica, {@link ReplicaSizes#EMPTY} to treat all partitions as equal.
+     */
+    @Getter
+    @Setter
+    private ReplicaSizes replicaSizes = ReplicaSizes.EMPTY;
+
+    // Working state, sized by broker count.
+    private final long[] byteCount;
+    private final int[] replicaCount;
+    private final int[] leaderCount;
+    private final int[] topicReplicaCount;
+    private final int[] topicLeaderCount;
+
+    public ReplicaPlacementPlanner( final Collection< Integer > eligibleBrokers )
+    {
+        Assert.notEmpty( eligibleBrokers, "At least one eligible broker is required." );
+
+        this.brokers = eligibleBrokers.stream().distinct().sorted().mapToInt( Integer::intValue ).toArray();
+        for( int i = 0; i < this.brokers.length; ++i )
+        {
+            this.brokerIndex.put( this.brokers[ i ], i );
+        }
+
+        this.byteCount         = new long[ this.brokers.length ];
+        this.replicaCount      = new int[ this.brokers.length ];
+        this.leaderCount       = new int[ this.brokers.length ];
+        this.topicReplicaCount = new int[ this.brokers.length ];
+        this.topicLeaderCount  = new int[ this.brokers.length ];
+    }
+
+    /**
+     * @param current                 the current assignment of every partition to plan for.
+     * @param targetReplicationFactor the replication factor to plan for, or {@link #KEEP_REPLICATION_FACTOR}.
+     * @return only the partitions whose replica list changes, ready for execution.
+     */
+    public TopicPartitionAssignment plan( final TopicPartitionAssignment current,
+                                          final int targetReplicationFactor )
+    {
+        return TopicPartitionAssignment.findAssignmentChanges( planTarget( current, targetReplicationFactor ), current );
+    }
+
+    /**
+     * @param current                 the current assignment of every partition to plan for.
+     * @param targetReplicationFactor the replication factor to plan for, or {@link #KEEP_REPLICATION_FACTOR}.
+     * @return the complete new assignment, including partitions that don't change.
+     */
+    public TopicPartitionAssignment planTarget( final TopicPartitionAssignment current,
+                                                final int targetReplicationFactor )
+    {
+        Assert.isTrue( targetReplicationFactor == KEEP_REPLICATION_FACTOR || targetReplicationFactor >= 1,
+                       "Replication factor " + targetReplicationFactor + " must be at least 1." );
+        Assert.isTrue( targetReplicationFactor <= this.brokers.length,
+                       "Replication factor " + targetReplicationFactor + " exceeds the "
+                       + this.brokers.length + " eligible brokers." );
+
+        Arrays.fill( this.replicaCount, 0 );
+        Arrays.fill( this.leaderCount, 0 );
+        countOtherBytes( current );
+
+        final List< TopicLayout > layouts = new ArrayList<>();
+        for( String topic : current.getTopics() )
+        {
+            layouts.add( toLayout( current, topic ) );
+        }
+        // Deterministic plans regardless of map ordering.
+        layouts.sort( Comparator.comparing( l -> l.topic ) );
+
+        int totalPartitions = 0;
+        for( TopicLayout layout : layouts )
+        {
+            keepEligible( layout, targetReplicationFactor );
+            totalPartitions += layout.partitions.length;
+        }
+
+        for( TopicLayout layout : layouts )
+        {
+            addMissing( layout, targetReplicationFactor );
+        }
+
+        // Greedy placement can leave a broker one or two over its share. Replicas we just added
+        // can be relocated for free, existing ones only when asked to.
+        for( int pass = 0; pass < MAX_SPREAD_PASSES; ++pass )
+        {
+            int moved = 0;
+            for( TopicLayout layout : layouts )
+            {
+                moved += spread( layout, !this.balanceReplicas );
+            }
+            if( moved == 0 )
+            {
+                break;
+            }
+        }
+        final ChainWitnesses witnesses = new ChainWitnesses( this.brokers.length );
+        int builds = 0;
+        for( int chain = 0; chain < this.brokers.length * MAX_SPREAD_PASSES && !isReplicaCountEven(); ++chain )
+        {
+            if( shiftAlongChain( layouts, witnesses ) )
+            {
+                continue;
+            }
+            // No chain in a table patched since it was built may just mean it missed one: build it anew, once more.
+            if( witnesses.fresh || builds == MAX_SPREAD_PASSES )
+            {
+                break;
+            }
+            witnesses.build( layouts, !this.balanceReplicas );
+            builds++;
+        }
+        if( this.replicaSizes != ReplicaSizes.EMPTY )
+        {
+            for( int swap = 0; swap < this.brokers.length * MAX_SPREAD_PASSES; ++swap )
+            {
+                if( !swapTowardsEvenBytes( layouts, !this.balanceReplicas ) )
+                {
+                    break;
+                }
+            }
+        }
+
+        if( this.balanceLeaders )
+        {
+            final int leaderCeiling = ( totalPartitions + this.brokers.length - 1 ) / this.brokers.length;
+            for( TopicLayout layout : layouts )
+            {
+                balanceLeaders( layout, leaderCeiling );
+            }
+        }
+
+        final TopicPartitionAssignment target = new TopicPartitionAssignment();
+        for( TopicLayout layout : layouts )
+        {
+            for( int p = 0; p < layout.partitions.length; ++p )
+            {
+                final int[] replicas = layout.replicas[ p ];
+                final List< Integer > ids = new ArrayList<>( replicas.length );
+                for( int b : replicas )
+                {
+                    ids.add( this.brokers[ b ] );
+                }
+                target.add( layout.topic, layout.partitions[ p ], ids );
+            }
+        }
+        return target;
+    }
+
+    /**
+     * The per topic working copy, replica lists hold broker <b>indexes</b>, not ids.
+     */
+    private static final class TopicLayout
+    {
+        private final String  topic;
+        private final int[]   partitions;
+        private final int[][] replicas;
+
+        /**
+         * Bytes a replica of each partition holds, all 0 without replica sizes.
+         */
+        private final long[] sizes;
+
+        /**
+         * Partition indexes, smallest partition first.
+         */
+        private int[] bySize;
+
+        /**
+         * Replica count each partition had before planning.
+         */
+        private final int[] originalSize;
+
+        /**
+         * Replicas [0, keptSize) already exist, the rest were added by the planner.
+         */
+        private final int[] keptSize;
+
+        private TopicLayout( final String topic, final int size )
+        {
+            this.topic        = topic;
+            this.partitions   = new int[ size ];
+            this.replicas     = new int[ size ][];
+            this.sizes        = new long[ size ];
+            this.originalSize = new int[ size ];
+            this.keptSize     = new int[ size ];
+        }
+    }
+
+    private TopicLayout toLayout( final TopicPartitionAssignment current, final String topic )
+    {
+        final int[] sortedPartitions = current.getPartitions( topic );
+        Arrays.sort( sortedPartitions );
+
+        final TopicLayout layout = new TopicLayout( topic, sortedPartitions.length );
+        for( int p = 0; p < sortedPartitions.length; ++p )
+        {
+            final int[] ids = current.getReplicas( topic, sortedPartitions[ p ] );
+            final int[] indexes = new int[ ids.length ];
+            int n = 0;
+            for( int id : ids )
+            {
+                final Integer idx = this.brokerIndex.get( id );
+                // Replicas on ineligible brokers are dropped right here.
+                if( idx != null )
+                {
+                    indexes[ n++ ] = idx;
+                }
+            }
+            layout.partitions[ p ]   = sortedPartitions[ p ];
+            layout.replicas[ p ]     = Arrays.copyOf( indexes, n );
+            layout.sizes[ p ]        = this.replicaSizes.partitionSize( topic, sortedPartitions[ p ] );
+            layout.originalSize[ p ] = ids.length;
+        }
+        layout.bySize = IntStream.range( 0, sortedPartitions.length )
+                                 .boxed()
+                                 .sorted( Comparator.comparingLong( p -> layout.sizes[ p ] ) )
+                                 .mapToInt( Integer::intValue )
+                                 .toArray();
+        return layout;
+    }
+
+    /**
+     * Starts the byte counts from what each broker holds of the partitions that are not being planned.
+     */
+    private void countOtherBytes( final TopicPartitionAssignment current )
+    {
+        Arrays.fill( this.byteCount, 0L );
+        if( this.replicaSizes == ReplicaSizes.EMPTY )
+        {
+            return;
+        }
+
+        this.replicaSizes.bytesPerBroker().forEach( ( id, bytes ) -> {
+            final Integer idx = this.brokerIndex.get( id );
+            if( idx != null )
+            {
+                this.byteCount[ idx ] += bytes;
+            }
+        } );
+        current.forEach( ( topic, partition, replicas ) -> {
+            for( int id : replicas )
+            {
+                final Integer idx = this.brokerIndex.get( id );
+                if( idx != null )
+                {
+                    this.byteCount[ idx ] -= Math.max( 0L, this.replicaSizes.replicaSize( topic, partition, id ) );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Counts the kept replicas and trims partitions that have more than the target.
+     */
+    private void keepEligible( final TopicLayout layout, final int targetReplicationFactor )
+    {
+        for( int p = 0; p < layout.partitions.length; ++p )
+        {
+            for( int b : layout.replicas[ p ] )
+            {
+                this.replicaCount[ b ]++;
+                this.byteCount[ b ] += layout.sizes[ p ];
+            }
+        }
+
+        for( int p = 0; p < layout.partitions.length; ++p )
+        {
+            final int target = targetFor( layout, p, targetReplicationFactor );
+            int[] replicas = layout.replicas[ p ];
+            while( replicas.length > target )
+            {
+                // Drop from the most loaded broker, but never the first (leader) if we can help it.
+                int drop = replicas.length - 1;
+                for( int i = replicas.length - 1; i > 0; --i )
+                {
+                    if( this.replicaCount[ replicas[ i ] ] > this.replicaCount[ replicas[ drop ] ] )
+                    {
+                        drop = i;
+                    }
+                }
+                this.replicaCount[ replicas[ drop ] ]--;
+                this.byteCount[ replicas[ drop ] ] -= layout.sizes[ p ];
+                replicas = remove( replicas, drop );
+            }
+            layout.replicas[ p ] = replicas;
+            layout.keptSize[ p ] = replicas.length;
+        }
+    }
+
+    private void addMissing( final TopicLayout layout, final int targetReplicationFactor )
+    {
+        countTopic( layout );
+
+        for( int p = 0; p < layout.partitions.length; ++p )
+        {
+            final int target = targetFor( layout, p, targetReplicationFactor );
+            int[] replicas = layout.replicas[ p ];
+            while( replicas.length < target )
+            {
+                final int b = leastLoaded( replicas, this.topicReplicaCount, this.replicaCount );
+                replicas = Arrays.copyOf( replicas, replicas.length + 1 );
+                replicas[ replicas.length - 1 ] = b;
+                this.replicaCount[ b ]++;
+                this.topicReplicaCount[ b ]++;
+                this.byteCount[ b ] += layout.sizes[ p ];
+            }
+            layout.replicas[ p ] = replicas;
+        }
+    }
+
+    /**
+     * Moves replicas from a broker onto the least loaded broker whenever that broker has at least two fewer.
+     * Every move strictly evens out the counts, so no moves are made that don't help.
+     * Partitions are visited smallest first, so existing replicas that have to move are the cheapest ones.
+     *
+     * @param onlyAdded only relocate replicas the planner added, never existing ones.
+     * @return the number of replicas moved.
+     */
+    private int spread( final TopicLayout layout, final boolean onlyAdded )
+    {
+        countTopic( layout );
+
+        int moved = 0;
+        for( int p : layout.bySize )
+        {
+            final int[] replicas = layout.replicas[ p ];
+            for( int i = onlyAdded ? layout.keptSize[ p ] : 0; i < replicas.length; ++i )
+            {
+                final int from = replicas[ i ];
+                final int to   = leastLoaded( replicas, this.replicaCount, this.topicReplicaCount );
+                if( to < 0 || this.replicaCount[ to ] + 1 >= this.replicaCount[ from ] )
+                {
+                    continue;
+                }
+                replicas[ i ] = to;
+                this.replicaCount[ from ]--;
+                this.replicaCount[ to ]++;
+                this.topicReplicaCount[ from ]--;
+                this.topicReplicaCount[ to ]++;
+                this.byteCount[ from ] -= layout.sizes[ p ];
+                this.byteCount[ to ]   += layout.sizes[ p ];
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    private boolean isReplicaCountEven()
+    {
+        int max = Integer.MIN_VALUE;
+        int min = Integer.MAX_VALUE;
+        for( int count : this.replicaCount )
+        {
+            max = Math.max( max, count );
+            min = Math.min( min, count );
+        }
+        return max - min < 2;
+    }
+
+    /**
+     * When no single move helps (every lighter broker already holds a replica of the partitions on the
+     * heaviest one), finds a chain heaviest -> b1 -> ... -> light broker where each hop moves one replica,
+     * so only the two ends change count. Breadth first, so the chain and the number of moves is the shortest.
+     * The hops come from the witnesses, which are patched for every replica moved.
+     *
+     * @return true if a chain was applied, false if the witnesses have none.
+     */
+    private boolean shiftAlongChain( final List< TopicLayout > layouts, final ChainWitnesses witnesses )
+    {
+        int heaviest = 0;
+        for( int b = 1; b < this.brokers.length; ++b )
+        {
+            heaviest = this.replicaCount[ b ] > this.replicaCount[ heaviest ] ? b : heaviest;
+        }
+
+        final int n = this.brokers.length;
+        final int[] previous = new int[ n ];
+        Arrays.fill( previous, -1 );
+        previous[ heaviest ] = heaviest;
+        final Deque< Integer > queue = new ArrayDeque<>();
+        queue.add( heaviest );
+        int end = -1;
+        while( !queue.isEmpty() && end < 0 )
+        {
+            final int x = queue.poll();
+            for( int y = 0; y < n; ++y )
+            {
+                if( previous[ y ] >= 0 || witnesses.witness[ x ][ y ] < 0 )
+                {
+                    continue;
+                }
+                previous[ y ] = x;
+                if( this.replicaCount[ y ] + 2 <= this.replicaCount[ heaviest ] )
+                {
+                    end = y;
+                    break;
+                }
+                queue.add( y );
+            }
+        }
+        if( end < 0 )
+        {
+            return false;
+        }
+
+        // Apply from the light end back, each hop is checked against the moves already made.
+        for( int y = end; y != heaviest; y = previous[ y ] )
+        {
+            final int  x = previous[ y ];
+            final long w = witnesses.witness[ x ][ y ];
+            final int[] replicas = layouts.get( ( int ) ( w >>> 40 ) ).replicas[ ( int ) ( ( w >>> 8 ) & 0xFFFFFFFFL ) ];
+            final int   i        = ( int ) ( w & 0xFF );
+            if( replicas[ i ] != x || contains( replicas, y ) )
+            {
+                witnesses.fresh = false;
+                return false;
+            }
+            replicas[ i ] = y;
+            this.replicaCount[ x ]--;
+            this.replicaCount[ y ]++;
+            this.byteCount[ x ] -= sizeOf( layouts, w );
+            this.byteCount[ y ] += sizeOf( layouts, w );
+            witnesses.moved( layouts, w, x, y );
+        }
+        return true;
+    }
+
+    /**
+     * witness[ x ][ y ] = a movable replica on x in a partition that does not hold y, the smallest one as of
+     * the last build, or -1. Encoded as ( layout << 40 ) | ( partition << 8 ) | slot.
+     */
+    private static final class ChainWitnesses
+    {
+        private final long[][] witness;
+
+        private final long[][] witnessSize;
+
+        /**
+         * The brokers holding the current partition, set and cleared per partition instead of searched per cell.
+         */
+        private final boolean[] holds;
+
+        /**
+         * Built and nothing moved since, so a chain missing from it is missing from the layout too.
+         */
+        private boolean fresh = false;
+
+        private ChainWitnesses( final int n )
+        {
+            this.witness     = new long[ n ][ n ];
+            this.witnessSize = new long[ n ][ n ];
+            this.holds       = new boolean[ n ];
+            for( long[] row : this.witness )
+            {
+                Arrays.fill( row, -1L );
+            }
+        }
+
+        /**
+         * One pass over the movable replicas, O(partitions * replicationFactor * brokers).
+         */
+        private void build( final List< TopicLayout > layouts, final boolean onlyAdded )
+        {
+            final int n = this.holds.length;
+            for( long[] row : this.witness )
+            {
+                Arrays.fill( row, -1L );
+            }
+            for( int l = 0; l < layouts.size(); ++l )
+            {
+                final TopicLayout layout = layouts.get( l );
+                for( int p = 0; p < layout.partitions.length; ++p )
+                {
+                    final int[] replicas = layout.replicas[ p ];
+                    final int   first    = onlyAdded ? layout.keptSize[ p ] : 0;
+                    if( first >= replicas.length )
+                    {
+                        continue;
+                    }
+                    for( int b : replicas )
+                    {
+                        this.holds[ b ] = true;
+                    }
+                    final long size = layout.sizes[ p ];
+                    for( int i = first; i < replicas.length; ++i )
+                    {
+                        final long[] row     = this.witness[ replicas[ i ] ];
+                        final long[] rowSize = this.witnessSize[ replicas[ i ] ];
+                        for( int y = 0; y < n; ++y )
+                        {
+                            if( !this.holds[ y ] && ( row[ y ] < 0 || size < rowSize[ y ] ) )
+                            {
+                                row[ y ]     = ( ( long ) l << 40 ) | ( ( long ) p << 8 ) | i;
+                                rowSize[ y ] = size;
+                            }
+                        }
+                    }
+                    for( int b : replicas )
+                    {
+                        this.holds[ b ] = false;
+                    }
+                }
+            }
+            this.fresh = true;
+        }
+
+        /**
+         * The replica w moved from x to y: x no longer has it to give, its partition now holds y,
+         * and y can give it to any broker the partition does not hold. O(brokers * replicationFactor).
+         */
+        private void moved( final List< TopicLayout > layouts, final long w, final int x, final int y )
+        {
+            final int     n         = this.holds.length;
+            final long    partition = w >>> 8;
+            final int[]   replicas  = layouts.get( ( int ) ( w >>> 40 ) ).replicas[ ( int ) ( partition & 0xFFFFFFFFL ) ];
+            final long    size      = sizeOf( layouts, w );
+            for( int b = 0; b < n; ++b )
+            {
+                if( this.witness[ x ][ b ] >= 0 && this.witness[ x ][ b ] >>> 8 == partition )
+                {
+                    this.witness[ x ][ b ] = -1L;
+                }
+                if( this.witness[ b ][ y ] >= 0 && this.witness[ b ][ y ] >>> 8 == partition )
+                {
+                    this.witness[ b ][ y ] = -1L;
+                }
+                if( !contains( replicas, b ) && ( this.witness[ y ][ b ] < 0 || size < this.witnessSize[ y ][ b ] ) )
+                {
+                    this.witness[ y ][ b ]     = w;
+                    this.witnessSize[ y ][ b ] = size;
+                }
+            }
+            this.fresh = false;
+        }
+    }
+
+    private static long sizeOf( final List< TopicLayout > layouts, final long witness )
+    {
+        return layouts.get( ( int ) ( witness >>> 40 ) ).sizes[ ( int ) ( ( witness >>> 8 ) & 0xFFFFFFFFL ) ];
+    }
+
+    /**
+     * Swaps a replica on the fullest broker (by bytes) with a smaller replica of the same topic on the emptiest
+     * one, so no replica or leader count changes. Of the swaps that narrow the gap, the one that narrows it most
+     * is taken; when existing replicas are moved, only if it closes at least 1% of the gap, since both replicas
+     * have to be copied.
+     *
+     * @return true if a swap was applied.
+     */
+    private boolean swapTowardsEvenBytes( final List< TopicLayout > layouts, final boolean onlyAdded )
+    {
+        int fullest  = 0;
+        int emptiest = 0;
+        for( int b = 1; b < this.brokers.length; ++b )
+        {
+            fullest  = this.byteCount[ b ] > this.byteCount[ fullest ] ? b : fullest;
+            emptiest = this.byteCount[ b ] < this.byteCount[ emptiest ] ? b : emptiest;
+        }
+        final long gap = this.byteCount[ fullest ] - this.byteCount[ emptiest ];
+        if( gap <= 0 )
+        {
+            return false;
+        }
+
+        TopicLayout bestLayout = null;
+        int         bestFrom   = -1;
+        int         bestTo     = -1;
+        long        bestDelta  = 0;
+        for( TopicLayout layout : layouts )
+        {
+            // Candidates on the emptiest broker, by size, that could take a replica from the fullest.
+            final List< Integer > onEmptiest = new ArrayList<>();
+            for( int p : layout.bySize )
+            {
+                if( movableOn( layout, p, emptiest, onlyAdded ) && !contains( layout.replicas[ p ], fullest ) )
+                {
+                    onEmptiest.add( p );
+                }
+            }
+            if( onEmptiest.isEmpty() )
+            {
+                continue;
+            }
+
+            int lo = 0;
+            for( int p : layout.bySize )
+            {
+                if( !movableOn( layout, p, fullest, onlyAdded ) || contains( layout.replicas[ p ], emptiest ) )
+                {
+                    continue;
+                }
+                // Sizes ascend, so the smaller partition closest to half the gap below p moves the right way.
+                final long want = layout.sizes[ p ] - gap / 2;
+                while( lo + 1 < onEmptiest.size() && layout.sizes[ onEmptiest.get( lo + 1 ) ] <= want )
+                {
+                    lo++;
+                }
+                for( int k = lo; k <= lo + 1 && k < onEmptiest.size(); ++k )
+                {
+                    final long delta = layout.sizes[ p ] - layout.sizes[ onEmptiest.get( k ) ];
+                    if( delta > 0 && delta < gap
+                        && Math.min( delta, gap - delta ) > Math.min( bestDelta, gap - bestDelta ) )
+                    {
+                        bestLayout = layout;
+                        bestFrom   = p;
+                        bestTo     = onEmptiest.get( k );
+                        bestDelta  = delta;
+                    }
+                }
+            }
+        }
+
+        if( bestLayout == null || !onlyAdded && Math.min( bestDelta, gap - bestDelta ) * 100 < gap )
+        {
+            return false;
+        }
+
+        replace( bestLayout.replicas[ bestFrom ], fullest, emptiest );
+        replace( bestLayout.replicas[ bestTo ], emptiest, fullest );
+        this.byteCount[ fullest ]  -= bestDelta;
+        this.byteCount[ emptiest ] += bestDelta;
+        return true;
+    }
+
+    private static boolean movableOn( final TopicLayout layout, final int p, final int b, final boolean onlyAdded )
+    {
+        final int[] replicas = layout.replicas[ p ];
+        for( int i = onlyAdded ? layout.keptSize[ p ] : 0; i < replicas.length; ++i )
+        {
+            if( replicas[ i ] == b )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void replace( final int[] replicas, final int from, final int to )
+    {
+        for( int i = 0; i < replicas.length; ++i )
+        {
+            if( replicas[ i ] == from )
+            {
+                replicas[ i ] = to;
+                return;
+            }
+        }
+    }
+
+    private void balanceLeaders( final TopicLayout layout, final int ceiling )
+    {
+        Arrays.fill( this.topicLeaderCount, 0 );
+        for( int[] replicas : layout.replicas )
+        {
+            if( replicas.length > 0 )
+            {
+                this.leaderCount[ replicas[ 0 ] ]++;
+                this.topicLeaderCount[ replicas[ 0 ] ]++;
+            }
+        }
+
+        final int topicCeiling = ( layout.partitions.length + this.brokers.length - 1 ) / this.brokers.length;
+
+        for( int[] replicas : layout.replicas )
+        {
+            if( replicas.length < 2 )
+            {
+                continue;
+            }
+            final int leader = replicas[ 0 ];
+            if( this.leaderCount[ leader ] <= ceiling && this.topicLeaderCount[ leader ] <= topicCeiling )
+            {
+                continue;
+            }
+
+            int best = 0;
+            for( int i = 1; i < replicas.length; ++i )
+            {
+                if( compareLoad( replicas[ i ], replicas[ best ], this.topicLeaderCount, this.leaderCount ) < 0 )
+                {
+                    best = i;
+                }
+            }
+            if( best == 0
+                || this.leaderCount[ replicas[ best ] ] + 1 > this.leaderCount[ leader ]
+                   && this.topicLeaderCount[ replicas[ best ] ] + 1 > this.topicLeaderCount[ leader ] )
+            {
+                // Moving leadership would not make anything more even.
+                continue;
+            }
+
+            // Promote, keeping the rest of the list in order.
+            final int newLeader = replicas[ best ];
+            System.arraycopy( replicas, 0, replicas, 1, best );
+            replicas[ 0 ] = newLeader;
+
+            this.leaderCount[ leader ]--;
+            this.topicLeaderCount[ leader ]--;
+            this.leaderCount[ newLeader ]++;
+            this.topicLeaderCount[ newLeader ]++;
+        }
+    }
+
+    private int targetFor( final TopicLayout layout, final int p, final int targetReplicationFactor )
+    {
+        if( targetReplicationFactor == KEEP_REPLICATION_FACTOR )
+        {
+            return Math.min( layout.originalSize[ p ], this.brokers.length );
+        }
+        return targetReplicationFactor;
+    }
+
+    private void countTopic( final TopicLayout layout )
+    {
+        Arrays.fill( this.topicReplicaCount, 0 );
+        for( int[] replicas : layout.replicas )
+        {
+            for( int b : replicas )
+            {
+                this.topicReplicaCount[ b ]++;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the least loaded broker not in exclude, or -1 if every broker is excluded.
+     */
+    private int leastLoaded( final int[] exclude, final int[] primary, final int[] secondary )
+    {
+        int best = -1;
+        for( int b = 0; b < this.brokers.length; ++b )
+        {
+            if( contains( exclude, b ) )
+            {
+                continue;
+            }
+            if( best < 0 || compareLoad( b, best, primary, secondary ) < 0 )
+            {
+                best = b;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Orders by the primary count, then the secondary, then bytes held.
+     */
+    private int compareLoad( final int a, final int b, final int[] primary, final int[] secondary )
+    {
+        if( primary[ a ] != primary[ b ] )
+        {
+            return Integer.compare( primary[ a ], primary[ b ] );
+        }
+        if( secondary[ a ] != secondary[ b ] )
+        {
+            return Integer.compare( secondary[ a ], secondary[ b ] );
+        }
+        return Long.compare( this.byteCount[ a ], this.byteCount[ b ] );
+    }
+
+    private static boolean contains( final int[] values, final int v )
+    {
+        for( int x : values )
+        {
+            if( x == v )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] remove( final int[] values, final int index )
+    {
+        final int[] out = new int[ values.length - 1 ];
+        System.arraycopy( values, 0, out, 0, index );
+        System.arraycopy( values, index + 1, out, index, values.length - index - 1 );
+        return out;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * @file ReplicaSizes.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/14/18 10:05 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.Getter;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionReplica;
+import org.apache.kafka.common.protocol.Errors;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ReplicaSizes is a point-in-time record of the on-disk size of every replica,
+ * as reported by the brokers through the AdminClient describeLogDirs API.
+ *
+ * The size of a partition is taken to be the size of its largest replica (normally the leader),
+ * that is what a new replica has to copy.
+ */
+public class ReplicaSizes
+{
+    public static final ReplicaSizes EMPTY = new ReplicaSizes( Collections.emptyMap(), 0L );
+
+    private final Map< TopicPartitionReplica, Long > replicaSizes;
+
+    private final Map< TopicPartition, Long > partitionSizes = new HashMap<>();
+
+    /**
+     * Wall clock time (ms) the sizes were sampled.
+     */
+    @Getter
+    private final long sampledAtMs;
+
+    public ReplicaSizes( final Map< TopicPartitionReplica, Long > replicaSizes, final long sampledAtMs )
+    {
+        this.replicaSizes = replicaSizes;
+        this.sampledAtMs  = sampledAtMs;
+
+        replicaSizes.forEach( ( replica, size ) -> this.partitionSizes.merge( new TopicPartition( replica.topic(),
+                                                                                                   replica.partition() ),
+                                                                               size,
+                                                                               Math::max ) );
+    }
+
+    /**
+     * Asks every broker for the size of the replicas in its log directories.
+     *
+     * @param adminClient the client.
+     * @param brokerIds   the brokers to ask.
+     * @param timeoutMs   per call deadline.
+     */
+    public static CompletableFuture< ReplicaSizes > fetch( final AdminClient adminClient,
+                                                           final Collection< Integer > brokerIds,
+                                                           final long timeoutMs )
+    {
+        return AdminFutures.toCompletable( adminClient.describeLogDirs( brokerIds ).all(), timeoutMs, "describeLogDirs" )
+                           .thenApply( byBroker -> {
+                               final Map< TopicPartitionReplica, Long > sizes = new HashMap<>();
+                               byBroker.forEach( ( brokerId, logDirs ) -> logDirs.forEach( ( dir, logDirInfo ) -> {
+                                   if( logDirInfo.error != Errors.NONE )
+                                   {
+                                       // Offline log dir, nothing useful to report.
+                                       return;
+                                   }
+                                   logDirInfo.replicaInfos.forEach( ( tp, replicaInfo ) -> {
+                                       if( !replicaInfo.isFuture )
+                                       {
+                                           sizes.merge( new TopicPartitionReplica( tp.topic(), tp.partition(), brokerId ),
+                                                        replicaInfo.size,
+                                                        Long::sum );
+                                       }
+                                   } );
+                               } ) );
+                               return new ReplicaSizes( sizes, System.currentTimeMillis() );
+                           } );
+    }
+
+    /**
+     * @return the size of the largest replica of the partition, 0 if unknown.
+     */
+    public long partitionSize( final String topic, final int partition )
+    {
+        return this.partitionSizes.getOrDefault( new TopicPartition( topic, partition ), 0L );
+    }
+
+    /**
+     * @return the size of the replica on the broker, or -1 if the broker has no replica of the partition.
+     */
+    public long replicaSize( final String topic, final int partition, final int brokerId )
+    {
+        return this.replicaSizes.getOrDefault( new TopicPartitionReplica( topic, partition, brokerId ), -1L );
+    }
+
+    /**
+     * @param current the replicas now, null if unknown.
+     * @return bytes that have to be copied to create the replicas the plan adds.
+     */
+    public long bytesToMove( final String topic,
+                             final int partition,
+                             final int[] planned,
+                             final int[] current )
+    {
+        int added = 0;
+        for( int brokerId : planned )
+        {
+            if( !TopicPartitionAssignment.hasReplica( current, brokerId ) )
+            {
+                added++;
+            }
+        }
+        return added * partitionSize( topic, partition );
+    }
+
+    /**
+     * @return total bytes held per broker.
+     */
+    public Map< Integer, Long > bytesPerBroker()
+    {
+        final Map< Integer, Long > perBroker = new TreeMap<>();
+        this.replicaSizes.forEach( ( replica, size ) -> perBroker.merge( replica.brokerId(), size, Long::sum ) );
+        return perBroker;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * @file ReplicationThrottles.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/21/18 9:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import kafka.admin.AdminUtils$;
+import kafka.log.LogConfig$;
+import kafka.server.ConfigType$;
+import kafka.server.DynamicConfig;
+import kafka.utils.ZkUtils;
+import scala.collection.JavaConverters;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * ReplicationThrottles reads and writes the dynamic configs behind a reassignment throttle:
+ * the leader/follower rates on the brokers and the lists of throttled replicas on the topics.
+ *
+ * Each change keeps the rest of the entity's config, the way the reassign command does it.
+ */
+public final class ReplicationThrottles
+{
+    private ReplicationThrottles()
+    {
+    }
+
+    /**
+     * Sets both the leader and follower throttle rate of the brokers.
+     */
+    public static void setRate( final ZkUtils zkUtils, final Collection< Integer > brokerIds, final long bytesPerSec )
+    {
+        for( Integer brokerId : brokerIds )
+        {
+            final Properties configs = brokerConfig( zkUtils, brokerId );
+            configs.put( DynamicConfig.Broker$.MODULE$.LeaderReplicationThrottledRateProp(), Long.toString( bytesPerSec ) );
+            configs.put( DynamicConfig.Broker$.MODULE$.FollowerReplicationThrottledRateProp(), Long.toString( bytesPerSec ) );
+            changeBrokerConfig( zkUtils, brokerId, configs );
+        }
+    }
+
+    /**
+     * Removes the throttle rates from the brokers and the throttled replica lists from the topics.
+     * Entities without a throttle are not written.
+     *
+     * @return the number of broker and topic configs changed.
+     */
+    public static int clear( final ZkUtils zkUtils, final Collection< Integer > brokerIds, final Collection< String > topics )
+    {
+        int changed = 0;
+        for( Integer brokerId : brokerIds )
+        {
+            final Properties configs = brokerConfig( zkUtils, brokerId );
+            final boolean leader   = configs.remove( DynamicConfig.Broker$.MODULE$.LeaderReplicationThrottledRateProp() ) != null;
+            final boolean follower = configs.remove( DynamicConfig.Broker$.MODULE$.FollowerReplicationThrottledRateProp() ) != null;
+            if( leader || follower )
+            {
+                changeBrokerConfig( zkUtils, brokerId, configs );
+                changed++;
+            }
+        }
+        for( String topic : topics )
+        {
+            final Properties configs = AdminUtils$.MODULE$.fetchEntityConfig( zkUtils, ConfigType$.MODULE$.Topic(), topic );
+            final boolean leader   = configs.remove( LogConfig$.MODULE$.LeaderReplicationThrottledReplicasProp() ) != null;
+            final boolean follower = configs.remove( LogConfig$.MODULE$.FollowerReplicationThrottledReplicasProp() ) != null;
+            if( leader || follower )
+            {
+                AdminUtils$.MODULE$.changeTopicConfig( zkUtils, topic, configs );
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static Properties brokerConfig( final ZkUtils zkUtils, final int brokerId )
+    {
+        return AdminUtils$.MODULE$.fetchEntityConfig( zkUtils, ConfigType$.MODULE$.Broker(), Integer.toString( brokerId ) );
+    }
+
+    private static void changeBrokerConfig( final ZkUtils zkUtils, final int brokerId, final Properties configs )
+    {
+        final List< Object > broker = Collections.singletonList( brokerId );
+        AdminUtils$.MODULE$.changeBrokerConfig( zkUtils, JavaConverters.asScalaBufferConverter( broker ).asScala(), configs );
+    }
+}
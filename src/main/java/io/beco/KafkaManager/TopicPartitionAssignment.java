@@ -12,14 +12,20 @@
 
 package io.beco.KafkaManager;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import lombok.AllArgsConstructor;
 import lombok.Data;
-import lombok.Getter;
-import lombok.ToString;
 import org.springframework.util.Assert;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -28,9 +34,14 @@ import java.util.*;
  * {@link kafka.admin.ReassignPartitionsCommand} tool.
  *
  * You can also refer to https://kafka.apache.org/documentation/#basic_ops_partitionassignment
+ *
+ * Cluster wide plans hold every partition of the cluster, so the storage is primitive:
+ * each topic name is held once, and per topic the partition ids, and the ordered replica
+ * lists in one shared pool, are int arrays. Replica order is kept, the first replica is the
+ * preferred leader. Topics and partitions iterate in the order they were first added.
  */
-@Getter
-@ToString
+@JsonSerialize( using = TopicPartitionAssignment.JsonWriter.class )
+@JsonDeserialize( using = TopicPartitionAssignment.JsonReader.class )
 public class TopicPartitionAssignment
 {
     @AllArgsConstructor
@@ -42,13 +53,31 @@ public class TopicPartitionAssignment
         private Set< Integer > replicas;
     }
 
-    private final int version = 1;
+    /**
+     * Receives one partition at a time from {@link #forEach}.
+     */
+    @FunctionalInterface
+    public interface PartitionConsumer
+    {
+        /**
+         * @param replicas the broker ids in order, a copy the consumer may keep.
+         */
+        void accept( String topic, int partition, int[] replicas );
+    }
+
+    private static final int VERSION = 1;
 
     /**
-     * A multi-dimensional map of topics -> partitions -> [ replica id set ]
+     * Topic name to its table, in the order topics were first added.
      */
-    @JsonIgnore
-    private final Map< String, Map< Integer, Set< Integer > > > topicPartAssignments = new HashMap<>();
+    private final Map< String, TopicTable > topics = new LinkedHashMap<>();
+
+    private int partitionCount = 0;
+
+    public int getVersion()
+    {
+        return VERSION;
+    }
 
     /**
      * Adds a set of broker ids to the set of brokers.
@@ -59,22 +88,54 @@ public class TopicPartitionAssignment
     public void add( final String topic, int partition, Collection< Integer > brokerIds )
     {
         Assert.notNull( topic, "Topic may not be null" );
-        Assert.notNull( topic, "Broker Ids may not be null." );
+        Assert.notNull( brokerIds, "Broker Ids may not be null." );
+
+        final TopicTable table = table( topic );
+        final int        slot  = slotFor( table, partition );
+        for( Integer brokerId : brokerIds )
+        {
+            table.appendReplica( slot, brokerId );
+        }
+    }
+
+    /**
+     * Adds broker ids in order, e.g. as returned by {@link #getReplicas}.
+     * @param topic
+     * @param partition
+     * @param brokerIds
+     */
+    public void add( final String topic, int partition, int[] brokerIds )
+    {
+        Assert.notNull( topic, "Topic may not be null" );
+        Assert.notNull( brokerIds, "Broker Ids may not be null." );
 
-        Map< Integer, Set< Integer > > partAssignments = this.topicPartAssignments.get( topic );
-        if( partAssignments == null )
+        final TopicTable table = table( topic );
+        final int        slot  = slotFor( table, partition );
+        for( int brokerId : brokerIds )
         {
-            partAssignments = new HashMap<>();
-            this.topicPartAssignments.put( topic, partAssignments );
+            table.appendReplica( slot, brokerId );
         }
+    }
 
-        Set< Integer > replicas = partAssignments.get( partition );
-        if ( replicas == null )
+    /**
+     * Adds a partition with its broker ids exactly as given, repeats included, e.g. as read from a plan someone
+     * wrote; {@link PlanValidator} reports the repeats instead of them being dropped here.
+     * @param topic
+     * @param partition not in here yet.
+     * @param brokerIds
+     */
+    public void addVerbatim( final String topic, int partition, int[] brokerIds )
+    {
+        Assert.notNull( topic, "Topic may not be null" );
+        Assert.notNull( brokerIds, "Broker Ids may not be null." );
+        Assert.isTrue( !contains( topic, partition ), () -> "Partition " + topic + "-" + partition + " was already added." );
+
+        final TopicTable table = table( topic );
+        final int        slot  = slotFor( table, partition );
+        for( int brokerId : brokerIds )
         {
-            replicas = new HashSet<>();
-            partAssignments.put( partition, replicas );
+            table.pushReplica( slot, brokerId );
         }
-        replicas.addAll( brokerIds );
     }
 
     /**
@@ -87,71 +148,640 @@ public class TopicPartitionAssignment
     {
         Assert.notNull( topic, "Topic may not be null" );
 
-        Map< Integer, Set< Integer > > partAssignments = this.topicPartAssignments.get( topic );
-        if( partAssignments == null )
+        final TopicTable table = table( topic );
+        table.appendReplica( slotFor( table, partition ), brokerId );
+    }
+
+    /**
+     * Set the partition assignments for a topic, <b>overwriting</b> whatever is there already.
+     * @param topic
+     * @param partMap
+     */
+    public void set( final String topic,
+                     final Map< Integer, Set< Integer > > partMap )
+    {
+        final TopicTable previous = this.topics.remove( topic );
+        if( previous != null )
         {
-            partAssignments = new HashMap<>();
-            this.topicPartAssignments.put( topic, partAssignments );
+            this.partitionCount -= previous.size;
         }
+        partMap.forEach( ( partition, replicas ) -> add( topic, partition, replicas ) );
+    }
+
+    /**
+     * @return the topics, in the order they were added.
+     */
+    public Set< String > getTopics()
+    {
+        return Collections.unmodifiableSet( this.topics.keySet() );
+    }
+
+    /**
+     * @return the number of partitions across all topics.
+     */
+    public int getPartitionCount()
+    {
+        return this.partitionCount;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.partitionCount == 0;
+    }
+
+    /**
+     * @return the topic's partition ids in the order they were added, empty if the topic isn't in here.
+     */
+    public int[] getPartitions( final String topic )
+    {
+        final TopicTable table = this.topics.get( topic );
+        return table == null ? new int[ 0 ] : Arrays.copyOf( table.partitions, table.size );
+    }
+
+    /**
+     * @return every broker holding a replica of any partition in here.
+     */
+    public SortedSet< Integer > getBrokerIds()
+    {
+        final SortedSet< Integer > brokerIds = new TreeSet<>();
+        forEach( ( topic, partition, replicas ) -> Arrays.stream( replicas ).forEach( brokerIds::add ) );
+        return brokerIds;
+    }
+
+    public boolean contains( final String topic, final int partition )
+    {
+        final TopicTable table = this.topics.get( topic );
+        return table != null && table.slot( partition ) >= 0;
+    }
 
-        Set< Integer > replicas = partAssignments.get( partition );
-        if ( replicas == null )
+    /**
+     * @return a copy of the partition's replicas in order, or null if the partition isn't in here.
+     */
+    public int[] getReplicas( final String topic, final int partition )
+    {
+        final TopicTable table = this.topics.get( topic );
+        final int slot = table == null ? -1 : table.slot( partition );
+        return slot < 0 ? null : table.replicas( slot );
+    }
+
+    /**
+     * Visits every partition, topic by topic.
+     */
+    public void forEach( final PartitionConsumer consumer )
+    {
+        for( TopicTable table : this.topics.values() )
         {
-            replicas = new HashSet<>();
-            partAssignments.put( partition, replicas );
+            for( int slot = 0; slot < table.size; ++slot )
+            {
+                consumer.accept( table.name, table.partitions[ slot ], table.replicas( slot ) );
+            }
         }
-        replicas.add( brokerId );
     }
 
-    @JsonProperty( "partitions" )
     public List< TopicPartReplSet > generateTopicAssignments()
     {
-        final List< TopicPartReplSet > partitions = new LinkedList<>();
-
-        this.topicPartAssignments.forEach( ( topic, topicPartAssignments ) -> {
-            topicPartAssignments.forEach( ( partition, replicas ) -> {
-                partitions.add( new TopicPartReplSet( topic, partition, replicas ) );
-            });
-        });
-
+        final List< TopicPartReplSet > partitions = new ArrayList<>( this.partitionCount );
+        forEach( ( topic, partition, replicas ) -> partitions.add( new TopicPartReplSet( topic, partition, toSet( replicas ) ) ) );
         return partitions;
     }
 
     /**
-     * Finds only the changed broker assignments for all the partitions on the topic.
+     * A multi-dimensional map of topics -> partitions -> [ replica id set ], replica sets in order.
+     *
+     * This is a copy built on every call, at a few hundred bytes per partition;
+     * prefer {@link #forEach}, {@link #getReplicas} and {@link #contains} for large assignments.
+     */
+    public Map< String, Map< Integer, Set< Integer > > > getTopicPartAssignments()
+    {
+        final Map< String, Map< Integer, Set< Integer > > > result = new LinkedHashMap<>();
+        forEach( ( topic, partition, replicas ) -> result.computeIfAbsent( topic, t -> new LinkedHashMap<>() )
+                                                         .put( partition, toSet( replicas ) ) );
+        return result;
+    }
+
+    /**
+     * Finds only the partitions whose replica set differs between the requested and the current assignment.
      *
-     * For simplicity we only work with a <b>single</b> topic.
+     * Order matters, a partition with the same replicas but a different first replica
+     * changes its preferred leader and is reported as changed.
+     * Partitions that are requested with exactly the replicas they already have are left out,
+     * so the plan handed to the controller only contains real moves.
+     * Topics that don't exist in the current assignment are ignored.
      *
-     * @param requested
-     * @param current
-     * @return
+     * @param requested the desired assignment, may be a subset of the partitions.
+     * @param current   the assignment as it is on the cluster now.
+     * @return the subset of requested that actually changes something.
      */
     public static TopicPartitionAssignment findAssignmentChanges( final TopicPartitionAssignment requested,
                                                                   final TopicPartitionAssignment current )
     {
         final TopicPartitionAssignment changed = new TopicPartitionAssignment();
 
-        final Map< String, Map< Integer, Set< Integer > > > topicPartMap = current.getTopicPartAssignments();
+        for( TopicTable table : requested.topics.values() )
+        {
+            final TopicTable currentTable = current.topics.get( table.name );
+            if( currentTable == null )
+            {
+                continue;
+            }
+            for( int slot = 0; slot < table.size; ++slot )
+            {
+                final int currentSlot = currentTable.slot( table.partitions[ slot ] );
+                if( currentSlot < 0 || !table.sameReplicas( slot, currentTable, currentSlot ) )
+                {
+                    changed.copyPartition( table, slot );
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Reorders the requested replicas so that the ones already assigned keep their current order
+     * (and so the current preferred leader), with newly added replicas after them.
+     *
+     * Use this for requests that carry membership only, e.g. the partition matrix form.
+     *
+     * @param requested the desired replica membership.
+     * @param current   the assignment as it is on the cluster now.
+     * @return a new assignment with the same membership as requested.
+     */
+    public static TopicPartitionAssignment keepCurrentReplicaOrder( final TopicPartitionAssignment requested,
+                                                                    final TopicPartitionAssignment current )
+    {
+        final TopicPartitionAssignment ordered = new TopicPartitionAssignment();
+
+        requested.forEach( ( topic, partition, replicas ) -> {
+            final TopicTable table = ordered.table( topic );
+            final int        slot  = ordered.slotFor( table, partition );
 
-        requested.getTopicPartAssignments().forEach( ( topic, partAssignments ) -> {
-            final Map< Integer, Set< Integer > > partMap = topicPartMap.get( topic );
-            if( partMap != null )
+            final int[] before = current.getReplicas( topic, partition );
+            if( before != null )
             {
-                changed.set( topic, partAssignments );
+                for( int brokerId : before )
+                {
+                    if( hasReplica( replicas, brokerId ) )
+                    {
+                        table.appendReplica( slot, brokerId );
+                    }
+                }
+            }
+            for( int brokerId : replicas )
+            {
+                table.appendReplica( slot, brokerId );
             }
         } );
 
-        return changed;
+        return ordered;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TopicPartitionAssignment(version=" + VERSION
+               + ", topics=" + this.topics.size()
+               + ", partitions=" + this.partitionCount + ")";
+    }
+
+    private TopicTable table( final String topic )
+    {
+        return this.topics.computeIfAbsent( topic, TopicTable::new );
     }
 
     /**
-     * Set the partition assignments for a topic, <b>overwriting</b> whatever is there already.
-     * @param topic
-     * @param partMap
+     * @return the slot of the partition, added if needed.
      */
-    public void set( final String topic,
-                     final Map< Integer, Set< Integer > > partMap )
+    private int slotFor( final TopicTable table, final int partition )
+    {
+        final int slot = table.slot( partition );
+        if( slot >= 0 )
+        {
+            return slot;
+        }
+        this.partitionCount++;
+        return table.addPartition( partition );
+    }
+
+    private void copyPartition( final TopicTable from, final int fromSlot )
+    {
+        final TopicTable table = table( from.name );
+        final int        slot  = slotFor( table, from.partitions[ fromSlot ] );
+        final int        off   = from.offsets[ fromSlot ];
+        for( int i = 0; i < from.counts[ fromSlot ]; ++i )
+        {
+            table.pushReplica( slot, from.pool[ off + i ] );
+        }
+    }
+
+    private static Set< Integer > toSet( final int[] replicas )
+    {
+        final Set< Integer > set = new LinkedHashSet<>( replicas.length * 2 );
+        for( int brokerId : replicas )
+        {
+            set.add( brokerId );
+        }
+        return set;
+    }
+
+    /**
+     * @param replicas as returned by {@link #getReplicas}, may be null.
+     */
+    static boolean hasReplica( final int[] replicas, final int brokerId )
+    {
+        if( replicas != null )
+        {
+            for( int replica : replicas )
+            {
+                if( replica == brokerId )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The partitions of one topic.
+     *
+     * Slot i holds partition partitions[i], whose replicas are pool[offsets[i], offsets[i] + counts[i]).
+     * Growing a replica list that isn't at the end of the pool moves it to the end; the hole is
+     * reclaimed once holes make up half the pool.
+     *
+     * Partition ids are normally added as 0, 1, 2 ... in which case the slot is the partition id;
+     * the hash index is only built once that stops being true.
+     */
+    private static final class TopicTable
+    {
+        private static final int INITIAL_CAPACITY = 4;
+
+        private final String name;
+
+        private int size = 0;
+
+        private int[] partitions = new int[ INITIAL_CAPACITY ];
+
+        private int[] offsets = new int[ INITIAL_CAPACITY ];
+
+        private int[] counts = new int[ INITIAL_CAPACITY ];
+
+        private int[] pool = new int[ INITIAL_CAPACITY * 3 ];
+
+        private int poolSize = 0;
+
+        /**
+         * Pool entries no longer referenced by any slot.
+         */
+        private int garbage = 0;
+
+        /**
+         * Open addressing, partition id to slot + 1, 0 is empty. Null while dense.
+         */
+        private int[] index;
+
+        private TopicTable( final String name )
+        {
+            this.name = name;
+        }
+
+        private int slot( final int partition )
+        {
+            if( this.index == null )
+            {
+                return partition >= 0 && partition < this.size ? partition : -1;
+            }
+            final int mask = this.index.length - 1;
+            for( int h = hash( partition ) & mask; ; h = ( h + 1 ) & mask )
+            {
+                final int entry = this.index[ h ];
+                if( entry == 0 )
+                {
+                    return -1;
+                }
+                if( this.partitions[ entry - 1 ] == partition )
+                {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private int addPartition( final int partition )
+        {
+            if( this.size == this.partitions.length )
+            {
+                final int capacity = this.size * 2;
+                this.partitions = Arrays.copyOf( this.partitions, capacity );
+                this.offsets    = Arrays.copyOf( this.offsets, capacity );
+                this.counts     = Arrays.copyOf( this.counts, capacity );
+            }
+            final int slot = this.size++;
+            this.partitions[ slot ] = partition;
+            this.offsets[ slot ]    = this.poolSize;
+            this.counts[ slot ]     = 0;
+
+            if( this.index != null )
+            {
+                indexSlot( slot );
+            }
+            else if( partition != slot )
+            {
+                rebuildIndex();
+            }
+            return slot;
+        }
+
+        private void indexSlot( final int slot )
+        {
+            if( this.size * 2 > this.index.length )
+            {
+                rebuildIndex();
+                return;
+            }
+            final int mask = this.index.length - 1;
+            int h = hash( this.partitions[ slot ] ) & mask;
+            while( this.index[ h ] != 0 )
+            {
+                h = ( h + 1 ) & mask;
+            }
+            this.index[ h ] = slot + 1;
+        }
+
+        private void rebuildIndex()
+        {
+            int capacity = INITIAL_CAPACITY * 2;
+            while( capacity < this.size * 4 )
+            {
+                capacity <<= 1;
+            }
+            this.index = new int[ capacity ];
+            final int mask = capacity - 1;
+            for( int slot = 0; slot < this.size; ++slot )
+            {
+                int h = hash( this.partitions[ slot ] ) & mask;
+                while( this.index[ h ] != 0 )
+                {
+                    h = ( h + 1 ) & mask;
+                }
+                this.index[ h ] = slot + 1;
+            }
+        }
+
+        private void appendReplica( final int slot, final int brokerId )
+        {
+            final int off   = this.offsets[ slot ];
+            final int count = this.counts[ slot ];
+            for( int i = off; i < off + count; ++i )
+            {
+                if( this.pool[ i ] == brokerId )
+                {
+                    return;
+                }
+            }
+            pushReplica( slot, brokerId );
+        }
+
+        /**
+         * Appends the broker to the partition's list whether it is there already or not.
+         */
+        private void pushReplica( final int slot, final int brokerId )
+        {
+            final int off   = this.offsets[ slot ];
+            final int count = this.counts[ slot ];
+            if( off + count != this.poolSize )
+            {
+                // Not the last list in the pool, move it to the end.
+                ensurePool( count + 1 );
+                System.arraycopy( this.pool, off, this.pool, this.poolSize, count );
+                this.offsets[ slot ] = this.poolSize;
+                this.poolSize       += count;
+                this.garbage        += count;
+            }
+            else
+            {
+                ensurePool( 1 );
+            }
+            this.pool[ this.poolSize++ ] = brokerId;
+            this.counts[ slot ]++;
+
+            if( this.garbage > INITIAL_CAPACITY * 16 && this.garbage * 2 > this.poolSize )
+            {
+                compact();
+            }
+        }
+
+        private void ensurePool( final int extra )
+        {
+            if( this.poolSize + extra > this.pool.length )
+            {
+                this.pool = Arrays.copyOf( this.pool, Math.max( this.pool.length * 2, this.poolSize + extra ) );
+            }
+        }
+
+        private void compact()
+        {
+            final int[] compacted = new int[ Math.max( INITIAL_CAPACITY, ( this.poolSize - this.garbage ) * 2 ) ];
+            int next = 0;
+            for( int slot = 0; slot < this.size; ++slot )
+            {
+                System.arraycopy( this.pool, this.offsets[ slot ], compacted, next, this.counts[ slot ] );
+                this.offsets[ slot ] = next;
+                next += this.counts[ slot ];
+            }
+            this.pool     = compacted;
+            this.poolSize = next;
+            this.garbage  = 0;
+        }
+
+        private int[] replicas( final int slot )
+        {
+            final int off = this.offsets[ slot ];
+            return Arrays.copyOfRange( this.pool, off, off + this.counts[ slot ] );
+        }
+
+        private boolean sameReplicas( final int slot, final TopicTable other, final int otherSlot )
+        {
+            final int count = this.counts[ slot ];
+            if( count != other.counts[ otherSlot ] )
+            {
+                return false;
+            }
+            final int off      = this.offsets[ slot ];
+            final int otherOff = other.offsets[ otherSlot ];
+            for( int i = 0; i < count; ++i )
+            {
+                if( this.pool[ off + i ] != other.pool[ otherOff + i ] )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash( final int partition )
+        {
+            final int h = partition * 0x9E3779B9;
+            return h ^ ( h >>> 16 );
+        }
+    }
+
+    /**
+     * Writes the reassignment JSON straight from the arrays, without a TopicPartReplSet per partition.
+     */
+    static class JsonWriter extends StdSerializer< TopicPartitionAssignment >
     {
-        this.topicPartAssignments.put( topic, partMap );
+        private static final long serialVersionUID = 1L;
+
+        JsonWriter()
+        {
+            super( TopicPartitionAssignment.class );
+        }
+
+        @Override
+        public void serialize( final TopicPartitionAssignment tpa,
+                               final JsonGenerator gen,
+                               final SerializerProvider provider ) throws IOException
+        {
+            gen.writeStartObject();
+            gen.writeNumberField( "version", VERSION );
+            gen.writeArrayFieldStart( "partitions" );
+            for( TopicTable table : tpa.topics.values() )
+            {
+                for( int slot = 0; slot < table.size; ++slot )
+                {
+                    gen.writeStartObject();
+                    gen.writeStringField( "topic", table.name );
+                    gen.writeNumberField( "partition", table.partitions[ slot ] );
+                    gen.writeArrayFieldStart( "replicas" );
+                    final int off = table.offsets[ slot ];
+                    for( int i = off; i < off + table.counts[ slot ]; ++i )
+                    {
+                        gen.writeNumber( table.pool[ i ] );
+                    }
+                    gen.writeEndArray();
+                    gen.writeEndObject();
+                }
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Reads the reassignment JSON token by token, straight into the arrays.
+     *
+     * Accepts what kafka-reassign-partitions.sh produces and consumes; fields this tool
+     * doesn't use, e.g. "log_dirs", are skipped.
+     */
+    static class JsonReader extends StdDeserializer< TopicPartitionAssignment >
+    {
+        private static final long serialVersionUID = 1L;
+
+        JsonReader()
+        {
+            super( TopicPartitionAssignment.class );
+        }
+
+        @Override
+        public TopicPartitionAssignment deserialize( final JsonParser p,
+                                                     final DeserializationContext ctxt ) throws IOException
+        {
+            final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+
+            expect( p, p.currentToken(), JsonToken.START_OBJECT, ctxt );
+            while( p.nextToken() == JsonToken.FIELD_NAME )
+            {
+                final String field = p.getCurrentName();
+                final JsonToken value = p.nextToken();
+                if( "version".equals( field ) )
+                {
+                    if( p.getValueAsInt( -1 ) != VERSION )
+                    {
+                        ctxt.reportInputMismatch( this, "Unsupported reassignment version: %s", p.getText() );
+                    }
+                }
+                else if( "partitions".equals( field ) )
+                {
+                    expect( p, value, JsonToken.START_ARRAY, ctxt );
+                    while( p.nextToken() != JsonToken.END_ARRAY )
+                    {
+                        readPartition( p, ctxt, tpa );
+                    }
+                }
+                else
+                {
+                    p.skipChildren();
+                }
+            }
+            return tpa;
+        }
+
+        private void readPartition( final JsonParser p,
+                                    final DeserializationContext ctxt,
+                                    final TopicPartitionAssignment tpa ) throws IOException
+        {
+            expect( p, p.currentToken(), JsonToken.START_OBJECT, ctxt );
+
+            String topic     = null;
+            int    partition = -1;
+            int[]  replicas  = null;
+            int    count     = 0;
+            while( p.nextToken() == JsonToken.FIELD_NAME )
+            {
+                final String field = p.getCurrentName();
+                final JsonToken value = p.nextToken();
+                if( "topic".equals( field ) )
+                {
+                    topic = p.getValueAsString();
+                }
+                else if( "partition".equals( field ) )
+                {
+                    expect( p, value, JsonToken.VALUE_NUMBER_INT, ctxt );
+                    partition = p.getIntValue();
+                }
+                else if( "replicas".equals( field ) )
+                {
+                    expect( p, value, JsonToken.START_ARRAY, ctxt );
+                    replicas = new int[ 8 ];
+                    while( p.nextToken() != JsonToken.END_ARRAY )
+                    {
+                        expect( p, p.currentToken(), JsonToken.VALUE_NUMBER_INT, ctxt );
+                        if( count == replicas.length )
+                        {
+                            replicas = Arrays.copyOf( replicas, count * 2 );
+                        }
+                        replicas[ count++ ] = p.getIntValue();
+                    }
+                }
+                else
+                {
+                    p.skipChildren();
+                }
+            }
+
+            if( topic == null || partition < 0 || replicas == null || count == 0 )
+            {
+                ctxt.reportInputMismatch( this, "Each partition needs a topic, a partition and at least one replica, at %s",
+                                          p.getCurrentLocation() );
+            }
+            // A partition's second entry would have to be merged into the first, the plan would not be the one written.
+            if( tpa.contains( topic, partition ) )
+            {
+                ctxt.reportInputMismatch( this, "Partition %s-%d is listed twice, at %s", topic, partition, p.getCurrentLocation() );
+            }
+            // Repeated replicas are kept for the PlanValidator to report along with everything else.
+            tpa.addVerbatim( topic, partition, Arrays.copyOf( replicas, count ) );
+        }
+
+        private void expect( final JsonParser p,
+                             final JsonToken actual,
+                             final JsonToken expected,
+                             final DeserializationContext ctxt ) throws IOException
+        {
+            if( actual != expected )
+            {
+                ctxt.reportInputMismatch( this, "Expected %s but found %s at %s", expected, actual, p.getCurrentLocation() );
+            }
+        }
     }
 }
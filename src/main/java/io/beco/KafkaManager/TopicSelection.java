@@ -0,0 +1,75 @@
+/**
+ * @file TopicSelection.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/27/18 10:15 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * TopicSelection picks the topics of a multi-topic job, by name and/or by regular expression.
+ */
+public final class TopicSelection
+{
+    private TopicSelection()
+    {
+    }
+
+    /**
+     * @param available    the topics of the cluster.
+     * @param topicList    topic names separated by commas or whitespace, may be blank.
+     * @param topicPattern a regular expression the whole topic name has to match, may be blank.
+     * @return the union of both, sorted.
+     * @throws IllegalArgumentException for a listed topic the cluster doesn't have, or an invalid pattern.
+     */
+    public static SortedSet< String > select( final Collection< String > available,
+                                              final String topicList,
+                                              final String topicPattern )
+    {
+        final SortedSet< String > selected = new TreeSet<>();
+
+        if( topicList != null && !topicList.trim().isEmpty() )
+        {
+            final SortedSet< String > unknown = new TreeSet<>();
+            for( String topic : topicList.trim().split( "[,\\s]+" ) )
+            {
+                ( available.contains( topic ) ? selected : unknown ).add( topic );
+            }
+            Assert.isTrue( unknown.isEmpty(), "Unknown topics: " + unknown );
+        }
+
+        if( topicPattern != null && !topicPattern.trim().isEmpty() )
+        {
+            final Pattern pattern;
+            try
+            {
+                pattern = Pattern.compile( topicPattern.trim() );
+            }
+            catch( PatternSyntaxException pse )
+            {
+                throw new IllegalArgumentException( "Invalid topic pattern: " + pse.getMessage(), pse );
+            }
+            for( String topic : available )
+            {
+                if( pattern.matcher( topic ).matches() )
+                {
+                    selected.add( topic );
+                }
+            }
+        }
+
+        return selected;
+    }
+}
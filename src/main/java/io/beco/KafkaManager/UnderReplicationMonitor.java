@@ -0,0 +1,514 @@
+/**
+ * @file UnderReplicationMonitor.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/3/18 9:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * UnderReplicationMonitor follows the in-sync replicas of every partition on every metadata refresh,
+ * and keeps what is under replicated right now: per topic, per broker (replicas that have fallen out of sync)
+ * and the partitions themselves, most at risk first.
+ *
+ * The counts are kept up to date by difference: each partition's last replicas and ISR are kept, and only
+ * a partition that changed is taken out of the counts and put back in, so a refresh of a healthy cluster
+ * is a comparison per partition and nothing more. ISR shrinks and expands are recorded as they are seen.
+ */
+@Component
+@Slf4j
+public class UnderReplicationMonitor
+{
+    private static final int MAX_ISR_CHANGES = 200;
+
+    private static final int[] NONE = new int[ 0 ];
+
+    /**
+     * A partition with fewer replicas in sync than it has.
+     */
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class UnderReplicatedPartition
+    {
+        private final String topic;
+
+        private final int partition;
+
+        /**
+         * -1 if the partition has no leader.
+         */
+        private final int leader;
+
+        private final int[] replicas;
+
+        private final int[] isr;
+
+        /**
+         * When the partition was first seen under replicated, by this monitor.
+         */
+        private final long sinceMs;
+
+        /**
+         * @return whether losing one more replica takes the partition offline, or it already is.
+         */
+        public boolean isAtRisk()
+        {
+            return this.isr.length <= 1;
+        }
+
+        public int[] getOutOfSync()
+        {
+            return Arrays.stream( this.replicas ).filter( r -> !TopicPartitionAssignment.hasReplica( this.isr, r ) ).toArray();
+        }
+    }
+
+    /**
+     * A change to the ISR of a partition, between two refreshes.
+     */
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class IsrChange
+    {
+        private final String topic;
+
+        private final int partition;
+
+        private final long seenAtMs;
+
+        private final int[] isrBefore;
+
+        private final int[] isrAfter;
+
+        public boolean isShrink()
+        {
+            return this.isrAfter.length < this.isrBefore.length;
+        }
+    }
+
+    /**
+     * The counts as of a refresh.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Summary
+    {
+        private final long asOfMs;
+
+        private final int underReplicated;
+
+        private final int atRisk;
+
+        private final int offline;
+
+        /**
+         * Under replicated partitions per topic, topics without any left out.
+         */
+        private final SortedMap< String, Integer > topics;
+
+        /**
+         * Out of sync replicas per broker, brokers without any left out.
+         */
+        private final SortedMap< Integer, Integer > brokers;
+    }
+
+    /**
+     * The last seen replicas and ISR of one partition.
+     */
+    private static final class PartitionState
+    {
+        private int[] replicas;
+
+        private int[] isr;
+
+        private int leader;
+    }
+
+    private final ClusterMetadataCache metadataCache;
+
+    private final ExecutorService updater = Executors.newSingleThreadExecutor( r -> {
+        final Thread t = new Thread( r, "under-replication-monitor" );
+        t.setDaemon( true );
+        return t;
+    } );
+
+    /**
+     * Topic to its partitions' state, indexed by partition id; only touched by update().
+     */
+    private final Map< String, PartitionState[] > partitions = new HashMap<>();
+
+    private final Map< TopicPartition, UnderReplicatedPartition > underReplicated = new HashMap<>();
+
+    private final Map< String, Integer > topicCounts = new HashMap<>();
+
+    private final Map< Integer, Integer > brokerCounts = new HashMap<>();
+
+    private final Deque< IsrChange > isrChanges = new ArrayDeque<>();
+
+    private final List< Consumer< Summary > > updateListeners = new CopyOnWriteArrayList<>();
+
+    private volatile int atRiskCount;
+
+    private volatile int offlineCount;
+
+    private volatile long asOfMs;
+
+    @Autowired
+    public UnderReplicationMonitor( final ClusterMetadataCache metadataCache )
+    {
+        this.metadataCache = metadataCache;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        this.metadataCache.addRefreshListener( this::updateAsync );
+        // The first refresh may have been published before we got here.
+        this.metadataCache.getAsync().thenAccept( this::updateAsync );
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        this.updater.shutdownNow();
+    }
+
+    /**
+     * @param listener called on the monitor's thread with the counts after every update that changed them.
+     */
+    public void addUpdateListener( final Consumer< Summary > listener )
+    {
+        this.updateListeners.add( listener );
+    }
+
+    /**
+     * Hands the snapshot to the monitor's own thread, a pass over every partition doesn't belong on the
+     * metadata cache's.
+     */
+    private void updateAsync( final ClusterMetadataSnapshot snapshot )
+    {
+        try
+        {
+            this.updater.execute( () -> update( snapshot ) );
+        }
+        catch( RejectedExecutionException e )
+        {
+            log.debug( "Under replication monitor is stopping, skipping the refresh from {}.", snapshot.getFetchedAtMs() );
+        }
+    }
+
+    /**
+     * Brings the counts up to date with the snapshot, touching only the partitions that changed.
+     *
+     * The comparison with every partition's last state is done without the lock, the states are only
+     * touched by the one thread running updates; the lock is held while the changes are applied, so readers
+     * wait for the partitions that changed and not for the pass over the cluster.
+     */
+    void update( final ClusterMetadataSnapshot snapshot )
+    {
+        if( snapshot.getFetchedAtMs() <= this.asOfMs )
+        {
+            // Already seen, the listener and the first get can both deliver it.
+            return;
+        }
+        final long nowMs = snapshot.getFetchedAtMs();
+        final List< Change > changes = new ArrayList<>();
+
+        final Iterator< Map.Entry< String, PartitionState[] > > gone = this.partitions.entrySet().iterator();
+        while( gone.hasNext() )
+        {
+            final Map.Entry< String, PartitionState[] > topic = gone.next();
+            if( !snapshot.containsTopic( topic.getKey() ) )
+            {
+                for( int p = 0; p < topic.getValue().length; p++ )
+                {
+                    changes.add( new Change( topic.getKey(), p, topic.getValue(), null, false ) );
+                }
+                gone.remove();
+            }
+        }
+
+        for( TopicDescription description : snapshot.getTopicDescriptions().values() )
+        {
+            final String  topic = description.name();
+            final boolean known = this.partitions.containsKey( topic );
+            PartitionState[] states = this.partitions.getOrDefault( topic, new PartitionState[ 0 ] );
+            for( TopicPartitionInfo tpi : description.partitions() )
+            {
+                if( tpi.partition() >= states.length )
+                {
+                    states = Arrays.copyOf( states, Math.max( tpi.partition() + 1, description.partitions().size() ) );
+                }
+                final PartitionState state = states[ tpi.partition() ];
+                if( state == null
+                    || state.leader != ( tpi.leader() == null ? -1 : tpi.leader().id() )
+                    || !sameIds( tpi.replicas(), state.replicas )
+                    || !sameIds( tpi.isr(), state.isr ) )
+                {
+                    changes.add( new Change( topic, tpi.partition(), states, tpi, known ) );
+                }
+            }
+            this.partitions.put( topic, states );
+        }
+
+        int changed = 0;
+        synchronized( this )
+        {
+            for( Change change : changes )
+            {
+                changed += replace( change.topic, change.partition, change.states, change.tpi, change.known, nowMs );
+            }
+            this.asOfMs = nowMs;
+        }
+        if( changed > 0 )
+        {
+            log.debug( "Replication status: {} partitions changed, {} under replicated, {} at risk, {} offline.",
+                       changed, getUnderReplicatedCount(), this.atRiskCount, this.offlineCount );
+            notifyListeners( getSummary() );
+        }
+    }
+
+    private void notifyListeners( final Summary summary )
+    {
+        for( Consumer< Summary > listener : this.updateListeners )
+        {
+            try
+            {
+                listener.accept( summary );
+            }
+            catch( RuntimeException e )
+            {
+                log.warn( "Under replication listener failed.", e );
+            }
+        }
+    }
+
+    /**
+     * A partition found changed by an update, applied under the lock.
+     */
+    @AllArgsConstructor
+    private static final class Change
+    {
+        private final String topic;
+
+        private final int partition;
+
+        private final PartitionState[] states;
+
+        /**
+         * The new state, null if the partition is gone.
+         */
+        private final TopicPartitionInfo tpi;
+
+        private final boolean known;
+    }
+
+    /**
+     * Takes the partition's last state out of the counts and puts the new one in.
+     *
+     * @param tpi   the new state, null if the partition is gone.
+     * @param known whether the topic was seen before, ISR changes of new topics aren't changes.
+     * @return 1 if there was a change, 0 if there was neither an old nor a new state.
+     */
+    private int replace( final String topic,
+                         final int partition,
+                         final PartitionState[] states,
+                         final TopicPartitionInfo tpi,
+                         final boolean known,
+                         final long nowMs )
+    {
+        final PartitionState before = states[ partition ];
+        if( before == null && tpi == null )
+        {
+            return 0;
+        }
+        count( topic, before, -1 );
+
+        final PartitionState after;
+        if( tpi == null )
+        {
+            after = null;
+        }
+        else
+        {
+            after          = new PartitionState();
+            after.replicas = ids( tpi.replicas() );
+            after.isr      = tpi.isr().size() == tpi.replicas().size() && after.replicas.length > 0 ? after.replicas : ids( tpi.isr() );
+            after.leader   = tpi.leader() == null ? -1 : tpi.leader().id();
+        }
+        states[ partition ] = after;
+        count( topic, after, 1 );
+
+        final TopicPartition key = new TopicPartition( topic, partition );
+        if( after != null && after.isr.length < after.replicas.length )
+        {
+            final UnderReplicatedPartition previous = this.underReplicated.get( key );
+            this.underReplicated.put( key, new UnderReplicatedPartition( topic,
+                                                                         partition,
+                                                                         after.leader,
+                                                                         after.replicas,
+                                                                         after.isr,
+                                                                         previous == null ? nowMs : previous.getSinceMs() ) );
+        }
+        else
+        {
+            this.underReplicated.remove( key );
+        }
+
+        if( known && before != null && after != null && !Arrays.equals( sorted( before.isr ), sorted( after.isr ) ) )
+        {
+            this.isrChanges.addFirst( new IsrChange( topic, partition, nowMs, before.isr, after.isr ) );
+            while( this.isrChanges.size() > MAX_ISR_CHANGES )
+            {
+                this.isrChanges.removeLast();
+            }
+        }
+        return 1;
+    }
+
+    private void count( final String topic, final PartitionState state, final int delta )
+    {
+        if( state == null || state.isr.length >= state.replicas.length )
+        {
+            return;
+        }
+        this.topicCounts.merge( topic, delta, ( a, b ) -> a + b == 0 ? null : a + b );
+        for( int replica : state.replicas )
+        {
+            if( !TopicPartitionAssignment.hasReplica( state.isr, replica ) )
+            {
+                this.brokerCounts.merge( replica, delta, ( a, b ) -> a + b == 0 ? null : a + b );
+            }
+        }
+        if( state.isr.length <= 1 )
+        {
+            this.atRiskCount += delta;
+        }
+        if( state.leader < 0 )
+        {
+            this.offlineCount += delta;
+        }
+    }
+
+    private static boolean sameIds( final List< Node > nodes, final int[] ids )
+    {
+        if( nodes.size() != ids.length )
+        {
+            return false;
+        }
+        for( int i = 0; i < ids.length; i++ )
+        {
+            if( nodes.get( i ).id() != ids[ i ] )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] ids( final List< Node > nodes )
+    {
+        return nodes.isEmpty() ? NONE : nodes.stream().mapToInt( Node::id ).toArray();
+    }
+
+    private static int[] sorted( final int[] ids )
+    {
+        final int[] copy = ids.clone();
+        Arrays.sort( copy );
+        return copy;
+    }
+
+    public synchronized Summary getSummary()
+    {
+        return new Summary( this.asOfMs,
+                            this.underReplicated.size(),
+                            this.atRiskCount,
+                            this.offlineCount,
+                            new TreeMap<>( this.topicCounts ),
+                            new TreeMap<>( this.brokerCounts ) );
+    }
+
+    /**
+     * @param topic  only partitions of the topic, null for all.
+     * @param broker only partitions with a replica out of sync on the broker, null for all.
+     * @return the under replicated partitions, fewest replicas in sync first, then longest under replicated.
+     */
+    public synchronized List< UnderReplicatedPartition > getUnderReplicated( final String topic, final Integer broker )
+    {
+        final List< UnderReplicatedPartition > list = new ArrayList<>();
+        for( UnderReplicatedPartition urp : this.underReplicated.values() )
+        {
+            if( ( topic == null || topic.equals( urp.getTopic() ) )
+                && ( broker == null || TopicPartitionAssignment.hasReplica( urp.getReplicas(), broker )
+                                       && !TopicPartitionAssignment.hasReplica( urp.getIsr(), broker ) ) )
+            {
+                list.add( urp );
+            }
+        }
+        list.sort( Comparator.comparingInt( ( UnderReplicatedPartition urp ) -> urp.getIsr().length )
+                             .thenComparingLong( UnderReplicatedPartition::getSinceMs )
+                             .thenComparing( UnderReplicatedPartition::getTopic )
+                             .thenComparingInt( UnderReplicatedPartition::getPartition ) );
+        return list;
+    }
+
+    /**
+     * @return the most recent ISR shrinks and expands, newest first.
+     */
+    public synchronized List< IsrChange > getIsrChanges()
+    {
+        return new ArrayList<>( this.isrChanges );
+    }
+
+    public synchronized int getUnderReplicatedCount()
+    {
+        return this.underReplicated.size();
+    }
+
+    public synchronized int getUnderReplicatedCount( final String topic )
+    {
+        return this.topicCounts.getOrDefault( topic, 0 );
+    }
+
+    public int getAtRiskCount()
+    {
+        return this.atRiskCount;
+    }
+
+    public int getOfflineCount()
+    {
+        return this.offlineCount;
+    }
+
+    public synchronized int getOutOfSyncReplicas( final int brokerId )
+    {
+        return this.brokerCounts.getOrDefault( brokerId, 0 );
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Loads the partition to broker matrix of the topic page a page of rows at a time, from the JSON
+ * served by KafkaTopicController#partitionMatrix, so large topics don't have to be rendered in full.
+ * The loaded rows are then kept up to date from the topic's Server-Sent Events stream.
+ *
+ * Each row is [ partition, leader, [ replicas ], [ out of sync replicas ], [ planned replicas ] or null ].
+ */
+(function()
+{
+    'use strict';
+
+    var table  = document.getElementById( 'partition-matrix' );
+    var status = document.getElementById( 'partition-matrix-status' );
+    var more   = document.getElementById( 'partition-matrix-more' );
+    var filter = document.getElementById( 'partition-matrix-filter' );
+    var live   = document.getElementById( 'partition-matrix-live' );
+    var moving = document.getElementById( 'partition-matrix-progress' );
+
+    var brokers    = null;
+    var loaded     = 0;
+    // Bumped on every reload, so a page that arrives late is dropped rather than appended.
+    var generation = 0;
+
+    function query()
+    {
+        var params = [ 'offset=' + loaded ];
+        if( filter.elements[ 'broker' ].value !== '' )
+        {
+            params.push( 'broker=' + encodeURIComponent( filter.elements[ 'broker' ].value ) );
+        }
+        if( filter.elements[ 'underReplicated' ].checked )
+        {
+            params.push( 'underReplicated=true' );
+        }
+        if( filter.elements[ 'changed' ].checked )
+        {
+            params.push( 'changed=true' );
+        }
+        return table.getAttribute( 'data-url' ) + '?' + params.join( '&' );
+    }
+
+    function cell( row, tag, text )
+    {
+        var td = document.createElement( tag );
+        td.textContent = text;
+        row.appendChild( td );
+        return td;
+    }
+
+    function header()
+    {
+        table.tHead.innerHTML = '';
+        var tr = table.tHead.insertRow();
+        [ 'Partition', 'Leader', 'Preferred Leader', 'Replicas', 'Out of Sync', 'Planned' ].forEach( function( name )
+        {
+            cell( tr, 'th', name );
+        } );
+        brokers.forEach( function( broker )
+        {
+            cell( tr, 'th', 'Broker ' + broker );
+        } );
+    }
+
+    function addRow( row )
+    {
+        var tr = table.tBodies[ 0 ].insertRow();
+        tr.setAttribute( 'data-partition', row[ 0 ] );
+        cell( tr, 'td', row[ 0 ] );
+        cell( tr, 'td', '' );
+        cell( tr, 'td', '' );
+        cell( tr, 'td', '' );
+        cell( tr, 'td', '' );
+        cell( tr, 'td', row[ 4 ] ? row[ 4 ].join( ', ' ) : '' );
+        brokers.forEach( function( broker )
+        {
+            var box = document.createElement( 'input' );
+            box.type  = 'checkbox';
+            box.name  = 'partitionAssignment-' + row[ 0 ] + ',' + broker;
+            box.value = row[ 0 ] + ',' + broker;
+            cell( tr, 'td', '' ).appendChild( box );
+        } );
+        update( tr, row );
+    }
+
+    /*
+     * Sets the leader, replica and out of sync cells, and the boxes the operator hasn't changed.
+     * Returns whether anything was different.
+     */
+    function update( tr, row )
+    {
+        var replicas = row[ 2 ];
+        var before   = tr.cells[ 1 ].textContent + '|' + tr.cells[ 3 ].textContent + '|' + tr.cells[ 4 ].textContent;
+        tr.cells[ 1 ].textContent = row[ 1 ] < 0 ? 'none' : row[ 1 ];
+        tr.cells[ 2 ].textContent = replicas.length > 0 ? replicas[ 0 ] : '';
+        tr.cells[ 3 ].textContent = replicas.join( ', ' );
+        tr.cells[ 4 ].textContent = row[ 3 ].join( ', ' );
+        brokers.forEach( function( broker, i )
+        {
+            var box       = tr.cells[ 6 + i ].firstChild;
+            var untouched = box.checked === box.defaultChecked;
+            box.defaultChecked = replicas.indexOf( broker ) >= 0;
+            if( untouched )
+            {
+                box.checked = box.defaultChecked;
+            }
+        } );
+        return before !== tr.cells[ 1 ].textContent + '|' + tr.cells[ 3 ].textContent + '|' + tr.cells[ 4 ].textContent;
+    }
+
+    function load()
+    {
+        var current = generation;
+        more.disabled = true;
+        fetch( query(), { credentials: 'same-origin' } )
+            .then( function( response )
+            {
+                if( !response.ok )
+                {
+                    throw new Error( response.status + ' ' + response.statusText );
+                }
+                return response.json();
+            } )
+            .then( function( matrix )
+            {
+                if( current !== generation )
+                {
+                    return;
+                }
+                if( brokers === null )
+                {
+                    brokers = matrix.brokers;
+                    header();
+                }
+                matrix.rows.forEach( addRow );
+                loaded += matrix.rows.length;
+
+                status.textContent = 'Showing ' + loaded + ' of ' + matrix.matching + ' matching partitions ('
+                                     + matrix.partitionCount + ' in the topic).';
+                more.style.display = loaded < matrix.matching ? '' : 'none';
+                more.disabled      = false;
+            } )
+            .catch( function( e )
+            {
+                status.textContent = 'Could not load the partitions: ' + e.message;
+                more.disabled      = false;
+            } );
+    }
+
+    function reload()
+    {
+        generation++;
+        brokers = null;
+        loaded  = 0;
+        table.tBodies[ 0 ].innerHTML = '';
+        load();
+    }
+
+    function listen()
+    {
+        if( !window.EventSource )
+        {
+            return;
+        }
+        var events = new EventSource( table.getAttribute( 'data-events-url' ) );
+        events.addEventListener( 'partitions', function( e )
+        {
+            var changed = 0;
+            JSON.parse( e.data ).forEach( function( row )
+            {
+                // Partitions that aren't loaded, or no longer pass the filter, are left to the next reload.
+                var tr = table.tBodies[ 0 ].querySelector( 'tr[data-partition="' + row[ 0 ] + '"]' );
+                if( tr !== null && brokers !== null && update( tr, row ) )
+                {
+                    changed++;
+                }
+            } );
+            if( changed > 0 )
+            {
+                live.textContent = changed + ' partitions changed at ' + new Date().toLocaleTimeString() + '.';
+            }
+        } );
+        events.addEventListener( 'progress', function( e )
+        {
+            var progress = JSON.parse( e.data );
+            var copied   = progress.partitions.filter( function( p )
+            {
+                return p.copiedBytes >= p.targetBytes;
+            } ).length;
+            moving.textContent = 'Job ' + progress.jobId + ', wave ' + progress.wave + ' of ' + progress.waveCount + ': '
+                                 + copied + ' of the ' + progress.partitions.length + ' partitions moving in this topic are copied.';
+        } );
+        events.addEventListener( 'error', function()
+        {
+            // The browser reconnects by itself.
+            live.textContent = 'Live updates interrupted, reconnecting...';
+        } );
+    }
+
+    filter.addEventListener( 'change', reload );
+    filter.addEventListener( 'submit', function( e )
+    {
+        e.preventDefault();
+        reload();
+    } );
+    more.addEventListener( 'click', load );
+
+    load();
+    listen();
+})();
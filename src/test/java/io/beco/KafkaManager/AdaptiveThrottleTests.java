@@ -0,0 +1,61 @@
+/**
+ * @file AdaptiveThrottleTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/19/18 4:00 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * AdaptiveThrottleTests is a class that tests the logic in {@link AdaptiveThrottle}.
+ */
+@RunWith( JUnit4.class )
+public class AdaptiveThrottleTests
+{
+    private final AdaptiveThrottle throttle = new AdaptiveThrottle( 100, 1000, 50, 0.5, 500, 0 );
+
+    @Test
+    public void testIncreaseWhenSaturated()
+    {
+        final AdaptiveThrottle.Decision decision = this.throttle.decide( 400, 390, 0, 10 );
+        Assert.assertEquals( AdaptiveThrottle.Decision.INCREASE, decision );
+        Assert.assertEquals( 450, this.throttle.apply( decision, 400 ) );
+        // Never above the ceiling.
+        Assert.assertEquals( 1000, this.throttle.apply( decision, 980 ) );
+    }
+
+    @Test
+    public void testHoldWhenNotUsingTheThrottle()
+    {
+        final AdaptiveThrottle.Decision decision = this.throttle.decide( 400, 100, 0, 10 );
+        Assert.assertEquals( AdaptiveThrottle.Decision.HOLD, decision );
+        Assert.assertEquals( 400, this.throttle.apply( decision, 400 ) );
+    }
+
+    @Test
+    public void testDecreaseOnUnhealthyCluster()
+    {
+        Assert.assertEquals( AdaptiveThrottle.Decision.DECREASE, this.throttle.decide( 400, 400, 1, 10 ) );
+        Assert.assertEquals( AdaptiveThrottle.Decision.DECREASE, this.throttle.decide( 400, 400, 0, 501 ) );
+        Assert.assertEquals( 200, this.throttle.apply( AdaptiveThrottle.Decision.DECREASE, 400 ) );
+        // Never below the floor.
+        Assert.assertEquals( 100, this.throttle.apply( AdaptiveThrottle.Decision.DECREASE, 150 ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidBounds()
+    {
+        new AdaptiveThrottle( 100, 50, 10, 0.5, 500, 0 );
+    }
+}
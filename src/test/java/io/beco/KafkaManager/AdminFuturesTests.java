@@ -0,0 +1,75 @@
+/**
+ * @file AdminFuturesTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/7/18 5:30 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * AdminFuturesTests is a class that tests the KafkaFuture bridging in {@link AdminFutures}.
+ */
+@RunWith( JUnit4.class )
+public class AdminFuturesTests
+{
+    @Test
+    public void testSuccessIsPropagated() throws Exception
+    {
+        final KafkaFutureImpl< String > kf = new KafkaFutureImpl<>();
+        final CompletableFuture< String > cf = AdminFutures.toCompletable( kf, 5000, "test" );
+        Assert.assertFalse( cf.isDone() );
+        kf.complete( "done" );
+        Assert.assertEquals( "done", cf.get( 1, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception
+    {
+        final KafkaFutureImpl< String > kf = new KafkaFutureImpl<>();
+        final CompletableFuture< String > cf = AdminFutures.toCompletable( kf, 5000, "test" );
+        kf.completeExceptionally( new UnknownTopicOrPartitionException( "nope" ) );
+        try
+        {
+            cf.get( 1, TimeUnit.SECONDS );
+            Assert.fail( "Expected failure." );
+        }
+        catch( ExecutionException ee )
+        {
+            Assert.assertTrue( ee.getCause() instanceof UnknownTopicOrPartitionException );
+        }
+    }
+
+    @Test
+    public void testDeadline() throws Exception
+    {
+        final KafkaFutureImpl< String > kf = new KafkaFutureImpl<>();
+        final CompletableFuture< String > cf = AdminFutures.toCompletable( kf, 100, "test" );
+        try
+        {
+            cf.get( 2, TimeUnit.SECONDS );
+            Assert.fail( "Expected deadline to fire." );
+        }
+        catch( ExecutionException ee )
+        {
+            Assert.assertTrue( ee.getCause() instanceof TimeoutException );
+        }
+    }
+}
@@ -23,7 +23,26 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses(
     {
         KafkaManagerApplicationTests.class,
-        TopicPartitionAssignmentTests.class
+        TopicPartitionAssignmentTests.class,
+        AdminFuturesTests.class,
+        ReplicaPlacementPlannerTests.class,
+        ReassignmentWavesTests.class,
+        ReassignmentProgressTests.class,
+        AdaptiveThrottleTests.class,
+        KafkaManagerMetricsTests.class,
+        TopicSelectionTests.class,
+        BrokerDrainMonitorTests.class,
+        ReassignmentJobStoreTests.class,
+        ReassignmentSchedulerTests.class,
+        AssignmentHistoryTests.class,
+        PreferredLeaderElectorTests.class,
+        PartitionMatrixTests.class,
+        UnderReplicationMonitorTests.class,
+        LiveUpdateBroadcasterTests.class,
+        ReassignmentSimulatorTests.class,
+        PlanValidatorTests.class,
+        RackSpreadPlannerTests.class,
+        ClusterMetadataCacheTests.class
     } )
 public class AllTests
 {
@@ -0,0 +1,166 @@
+/**
+ * @file AssignmentHistoryTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/29/18 4:10 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * AssignmentHistoryTests is a class that tests the logic in {@link AssignmentHistory}.
+ */
+@Slf4j
+@RunWith( JUnit4.class )
+public class AssignmentHistoryTests
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static TopicPartitionAssignment layout( final String topic, final int partitions, final int shift )
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int p = 0; p < partitions; ++p )
+        {
+            tpa.add( topic, p, new int[]{ ( p + shift ) % 6, ( p + shift + 1 ) % 6, ( p + shift + 2 ) % 6 } );
+        }
+        return tpa;
+    }
+
+    @Test
+    public void testRecordAndReload() throws Exception
+    {
+        final File dir = this.folder.newFolder();
+        final AssignmentHistory history = new AssignmentHistory( dir.getPath(), 100 );
+
+        final AssignmentSnapshot before
+            = history.record( AssignmentSnapshot.Kind.BEFORE, "job1", "orders", layout( "orders", 12, 0 ) );
+        final AssignmentSnapshot after
+            = history.record( AssignmentSnapshot.Kind.AFTER, "job1", "orders", layout( "orders", 12, 1 ) );
+        history.record( AssignmentSnapshot.Kind.MANUAL, null, "payments", layout( "payments", 4, 0 ) );
+        Assert.assertTrue( after.getId() > before.getId() );
+
+        final AssignmentHistory reloaded = new AssignmentHistory( dir.getPath(), 100 );
+        reloaded.load();
+
+        final List< AssignmentSnapshot > orders = reloaded.list( "orders", 0, 0 );
+        Assert.assertEquals( 2, orders.size() );
+        Assert.assertEquals( after.getId(), orders.get( 0 ).getId() );
+        Assert.assertEquals( 3, reloaded.list( null, 0, 0 ).size() );
+        Assert.assertEquals( 0, reloaded.list( null, System.currentTimeMillis() + 1000, 0 ).size() );
+        Assert.assertEquals( 0, reloaded.list( null, 0, before.getTakenAtMs() - 1 ).size() );
+
+        final TopicPartitionAssignment saved = reloaded.getAssignment( before.getId() ).get();
+        Assert.assertEquals( 12, saved.getPartitionCount() );
+        Assert.assertArrayEquals( new int[]{ 5, 0, 1 }, saved.getReplicas( "orders", 5 ) );
+        Assert.assertFalse( reloaded.getAssignment( 42L ).isPresent() );
+
+        // Every partition moved between the two.
+        final TopicPartitionAssignment diff
+            = TopicPartitionAssignment.findAssignmentChanges( reloaded.getAssignment( after.getId() ).get(), saved );
+        Assert.assertEquals( 12, diff.getPartitionCount() );
+    }
+
+    @Test
+    public void testRollbackPlan()
+    {
+        final TopicPartitionAssignment snapshot = layout( "orders", 6, 0 );
+        final TopicPartitionAssignment current  = new TopicPartitionAssignment();
+        snapshot.forEach( ( topic, partition, replicas ) -> current.add( topic,
+                                                                       partition,
+                                                                       partition == 2 ? new int[]{ 4, 5, 0 } : replicas ) );
+
+        final TopicPartitionAssignment plan = AssignmentHistory.rollbackPlan( snapshot, current );
+        Assert.assertEquals( 1, plan.getPartitionCount() );
+        Assert.assertArrayEquals( new int[]{ 2, 3, 4 }, plan.getReplicas( "orders", 2 ) );
+
+        // A topic deleted since is left alone.
+        Assert.assertTrue( AssignmentHistory.rollbackPlan( layout( "gone", 3, 0 ), current ).isEmpty() );
+    }
+
+    @Test
+    public void testOldestSnapshotsAreDropped() throws Exception
+    {
+        final File dir = this.folder.newFolder();
+        final AssignmentHistory history = new AssignmentHistory( dir.getPath(), 3 );
+        final AssignmentSnapshot first = history.record( AssignmentSnapshot.Kind.MANUAL, null, "0", layout( "orders", 2, 0 ) );
+        for( int i = 1; i < 5; ++i )
+        {
+            history.record( AssignmentSnapshot.Kind.MANUAL, null, String.valueOf( i ), layout( "orders", 2, i ) );
+        }
+
+        Assert.assertEquals( 3, history.list( null, 0, 0 ).size() );
+        Assert.assertFalse( history.getAssignment( first.getId() ).isPresent() );
+        // Index plus three snapshots.
+        Assert.assertEquals( 4, dir.list().length );
+
+        final AssignmentHistory reloaded = new AssignmentHistory( dir.getPath(), 3 );
+        reloaded.load();
+        Assert.assertEquals( "4", reloaded.list( null, 0, 0 ).get( 0 ).getDescription() );
+    }
+
+    @Test
+    public void testChangingAnAssignmentLeavesTheSnapshotAlone() throws Exception
+    {
+        final AssignmentHistory history = new AssignmentHistory( this.folder.newFolder().getPath(), 100 );
+        final AssignmentSnapshot snapshot = history.record( AssignmentSnapshot.Kind.MANUAL, null, "orders", layout( "orders", 4, 0 ) );
+
+        // Once as read from disk, once from the cache.
+        for( int i = 0; i < 2; ++i )
+        {
+            final TopicPartitionAssignment read = history.getAssignment( snapshot.getId() ).get();
+            Assert.assertArrayEquals( new int[]{ 1, 2, 3 }, read.getReplicas( "orders", 1 ) );
+            read.add( "orders", 1, 5 );
+            read.add( "payments", 0, 1 );
+        }
+
+        final TopicPartitionAssignment again = history.getAssignment( snapshot.getId() ).get();
+        Assert.assertArrayEquals( new int[]{ 1, 2, 3 }, again.getReplicas( "orders", 1 ) );
+        Assert.assertFalse( again.contains( "payments", 0 ) );
+    }
+
+    /**
+     * 50k partitions, the size a snapshot of a large cluster takes on disk and how long it takes to read back.
+     */
+    @Test
+    public void testLargeSnapshotIsCompact() throws Exception
+    {
+        final File dir = this.folder.newFolder();
+        final AssignmentHistory history = new AssignmentHistory( dir.getPath(), 100 );
+        final TopicPartitionAssignment large = new TopicPartitionAssignment();
+        for( int t = 0; t < 100; ++t )
+        {
+            layout( "large.topic." + t, 500, t ).forEach( large::add );
+        }
+
+        final AssignmentSnapshot snapshot = history.record( AssignmentSnapshot.Kind.MANUAL, null, "large", large );
+        final long bytes = Files.size( dir.toPath().resolve( snapshot.getId() + ".bin.gz" ) );
+
+        final AssignmentHistory reloaded = new AssignmentHistory( dir.getPath(), 100 );
+        reloaded.load();
+        final long start = System.nanoTime();
+        final TopicPartitionAssignment read = reloaded.getAssignment( snapshot.getId() ).get();
+        final long elapsedMs = ( System.nanoTime() - start ) / 1_000_000;
+        log.info( "50000 partitions in {} bytes, read back in {} ms.", bytes, elapsedMs );
+
+        Assert.assertTrue( TopicPartitionAssignment.findAssignmentChanges( read, large ).isEmpty() );
+        Assert.assertTrue( "Snapshot took " + bytes + " bytes", bytes < 50_000 * 2 );
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * @file BrokerDrainMonitorTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/28/18 11:40 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+
+/**
+ * BrokerDrainMonitorTests is a class that tests the logic in {@link BrokerDrainMonitor}.
+ */
+@RunWith( JUnit4.class )
+public class BrokerDrainMonitorTests
+{
+    private static final List< Integer > brokers = Arrays.asList( 1, 2, 3, 4 );
+
+    private static TopicPartitionAssignment current()
+    {
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2 } );
+        current.add( "orders", 1, new int[]{ 2, 3 } );
+        current.add( "orders", 2, new int[]{ 3, 1 } );
+        current.add( "payments", 0, new int[]{ 4, 3 } );
+        return current;
+    }
+
+    @Test
+    public void testPlanMovesOnlyTheBrokersPartitions()
+    {
+        final TopicPartitionAssignment current = current();
+        final TopicPartitionAssignment plan = BrokerDrainMonitor.plan( current, 1, brokers, ReplicaSizes.EMPTY );
+
+        Assert.assertEquals( 2, plan.getPartitionCount() );
+        Assert.assertTrue( plan.contains( "orders", 0 ) );
+        Assert.assertTrue( plan.contains( "orders", 2 ) );
+        plan.forEach( ( topic, partition, replicas ) -> {
+            Assert.assertEquals( 2, replicas.length );
+            Assert.assertFalse( TopicPartitionAssignment.hasReplica( replicas, 1 ) );
+        } );
+        // The surviving replica stays where it was.
+        Assert.assertTrue( TopicPartitionAssignment.hasReplica( plan.getReplicas( "orders", 0 ), 2 ) );
+        Assert.assertTrue( TopicPartitionAssignment.hasReplica( plan.getReplicas( "orders", 2 ), 3 ) );
+    }
+
+    @Test
+    public void testPlanLeavesDownBrokersAlone()
+    {
+        // Broker 5 is down, it still holds replicas.
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 5, 2 } );
+        current.add( "orders", 1, new int[]{ 5, 2 } );
+        current.add( "orders", 2, new int[]{ 2, 3 } );
+        final TopicPartitionAssignment plan = BrokerDrainMonitor.plan( current, 1, brokers, ReplicaSizes.EMPTY );
+
+        Assert.assertEquals( 1, plan.getPartitionCount() );
+        final int[] replicas = plan.getReplicas( "orders", 0 );
+        Assert.assertEquals( 3, replicas.length );
+        // The next live replica leads, the one on broker 5 keeps its place.
+        Assert.assertEquals( 2, replicas[ 0 ] );
+        Assert.assertEquals( 5, replicas[ 1 ] );
+        Assert.assertTrue( replicas[ 2 ] == 3 || replicas[ 2 ] == 4 );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testPlanRejectsReplicationFactorOfEveryBroker()
+    {
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2 } );
+        current.add( "orders", 1, new int[]{ 2, 1 } );
+        BrokerDrainMonitor.plan( current, 1, Arrays.asList( 1, 2 ), ReplicaSizes.EMPTY );
+    }
+
+    @Test
+    public void testUpdateMarksDrained()
+    {
+        final BrokerDrainMonitor monitor = new BrokerDrainMonitor( null );
+        final BrokerDrain drain = monitor.track( 1, new ReassignmentJob( "Drain of broker 1", current(), -1 ) );
+
+        Assert.assertEquals( -1, drain.getReplicas() );
+        monitor.update( snapshot( new int[]{ 2, 1 }, new int[]{ 2, 3 } ) );
+        Assert.assertEquals( 1, drain.getReplicas() );
+        Assert.assertEquals( 0, drain.getLeaders() );
+        Assert.assertFalse( drain.isDrained() );
+
+        monitor.update( snapshot( new int[]{ 2, 3 }, new int[]{ 3, 2 } ) );
+        Assert.assertEquals( 0, drain.getReplicas() );
+        Assert.assertTrue( drain.isDrained() );
+    }
+
+    @Test
+    public void testTrackReplacesEarlierDrain()
+    {
+        final BrokerDrainMonitor monitor = new BrokerDrainMonitor( null );
+        monitor.track( 1, new ReassignmentJob( "first", current(), -1 ) );
+        monitor.track( 2, new ReassignmentJob( "other", current(), -1 ) );
+        final BrokerDrain again = monitor.track( 1, new ReassignmentJob( "second", current(), -1 ) );
+
+        Assert.assertEquals( 2, monitor.getDrains().size() );
+        Assert.assertSame( again, monitor.getDrains().get( 0 ) );
+    }
+
+    /**
+     * @return a snapshot of one topic, one partition per replica list, led by its first replica.
+     */
+    private static ClusterMetadataSnapshot snapshot( final int[]... partitions )
+    {
+        final List< TopicPartitionInfo > infos = new ArrayList<>();
+        for( int p = 0; p < partitions.length; p++ )
+        {
+            final List< Node > replicas = new ArrayList<>();
+            for( int id : partitions[ p ] )
+            {
+                replicas.add( new Node( id, "broker" + id, 9092 ) );
+            }
+            infos.add( new TopicPartitionInfo( p, replicas.get( 0 ), replicas, replicas ) );
+        }
+        final Map< String, TopicDescription > descriptions
+            = Collections.singletonMap( "orders", new TopicDescription( "orders", false, infos ) );
+        return new ClusterMetadataSnapshot( "cluster",
+                                            null,
+                                            ClusterMetadataSnapshot.sortNodes( Collections.emptyList() ),
+                                            Collections.emptyMap(),
+                                            descriptions,
+                                            System.currentTimeMillis() );
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * @file ClusterMetadataCacheTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/10/18 9:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.admin.*;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+/**
+ * ClusterMetadataCacheTests is a class that tests the single flight fetches and invalidation of
+ * {@link ClusterMetadataCache}, against an AdminClient whose list topics calls complete when the test says so.
+ */
+@RunWith( JUnit4.class )
+public class ClusterMetadataCacheTests
+{
+    private static final Node broker = new Node( 1, "broker1", 9092 );
+
+    private final AdminClient adminClient = mock( AdminClient.class );
+
+    /**
+     * One per listTopics call, in order; completed by the test.
+     */
+    private final List< KafkaFutureImpl< Map< String, TopicListing > > > listings = new ArrayList<>();
+
+    /**
+     * The topics the cluster has, as describeTopics sees them.
+     */
+    private final Set< String > topics = new HashSet<>();
+
+    private final List< Collection< String > > described = new ArrayList<>();
+
+    private ClusterMetadataCache cache;
+
+    private static < T > KafkaFuture< T > done( final T value )
+    {
+        final KafkaFutureImpl< T > future = new KafkaFutureImpl<>();
+        future.complete( value );
+        return future;
+    }
+
+    private static TopicDescription description( final String topic )
+    {
+        return new TopicDescription( topic, false, Collections.singletonList(
+            new TopicPartitionInfo( 0, broker, Collections.singletonList( broker ), Collections.singletonList( broker ) ) ) );
+    }
+
+    @Before
+    @SuppressWarnings( "unchecked" )
+    public void setUp()
+    {
+        final DescribeClusterResult cluster = mock( DescribeClusterResult.class );
+        when( cluster.clusterId() ).thenAnswer( i -> done( "cluster" ) );
+        when( cluster.controller() ).thenAnswer( i -> done( broker ) );
+        when( cluster.nodes() ).thenAnswer( i -> done( Collections.singletonList( broker ) ) );
+        when( this.adminClient.describeCluster() ).thenReturn( cluster );
+
+        when( this.adminClient.listTopics() ).thenAnswer( i -> {
+            final KafkaFutureImpl< Map< String, TopicListing > > future = new KafkaFutureImpl<>();
+            this.listings.add( future );
+            final ListTopicsResult result = mock( ListTopicsResult.class );
+            when( result.namesToListings() ).thenReturn( future );
+            return result;
+        } );
+
+        when( this.adminClient.describeTopics( anyCollection() ) ).thenAnswer( i -> {
+            final Collection< String > names = new ArrayList<>( ( Collection< String > ) i.getArgument( 0 ) );
+            this.described.add( names );
+            final KafkaFutureImpl< Map< String, TopicDescription > > future = new KafkaFutureImpl<>();
+            final Optional< String > unknown = names.stream().filter( name -> !this.topics.contains( name ) ).findFirst();
+            if( unknown.isPresent() )
+            {
+                future.completeExceptionally( new UnknownTopicOrPartitionException( unknown.get() ) );
+            }
+            else
+            {
+                final Map< String, TopicDescription > descriptions = new HashMap<>();
+                names.forEach( name -> descriptions.put( name, description( name ) ) );
+                future.complete( descriptions );
+            }
+            final DescribeTopicsResult result = mock( DescribeTopicsResult.class );
+            when( result.all() ).thenReturn( future );
+            return result;
+        } );
+
+        this.cache = new ClusterMetadataCache( this.adminClient,
+                                               new KafkaManagerMetrics( new SimpleMeterRegistry() ),
+                                               60000,
+                                               60000,
+                                               5000,
+                                               500 );
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.cache.stop();
+    }
+
+    /**
+     * Completes the nth listTopics call with the topics the cluster has now.
+     */
+    private void list( final int call )
+    {
+        final Map< String, TopicListing > names = new TreeMap<>();
+        this.topics.forEach( topic -> names.put( topic, new TopicListing( topic, false ) ) );
+        this.listings.get( call ).complete( names );
+    }
+
+    private static ClusterMetadataSnapshot await( final CompletableFuture< ClusterMetadataSnapshot > future ) throws Exception
+    {
+        return future.get( 5, TimeUnit.SECONDS );
+    }
+
+    @Test
+    public void testConcurrentReadersShareOneFetch() throws Exception
+    {
+        this.topics.add( "orders" );
+
+        final CompletableFuture< ClusterMetadataSnapshot > first  = this.cache.getAsync();
+        final CompletableFuture< ClusterMetadataSnapshot > second = this.cache.getAsync();
+        Assert.assertSame( first, second );
+        Assert.assertEquals( 1, this.listings.size() );
+
+        // Callers' stages run on the cache's thread, not on the admin client's.
+        final CompletableFuture< String > thread = first.thenApply( snapshot -> Thread.currentThread().getName() );
+
+        list( 0 );
+        Assert.assertTrue( await( first ).containsTopic( "orders" ) );
+        Assert.assertEquals( "metadata-cache-refresh", thread.get( 5, TimeUnit.SECONDS ) );
+        Assert.assertSame( await( first ), await( this.cache.getAsync() ) );
+        Assert.assertEquals( 1, this.listings.size() );
+    }
+
+    @Test
+    public void testInvalidateDuringFetchPublishesOnlyTheLaterFetch() throws Exception
+    {
+        final CompletableFuture< ClusterMetadataSnapshot > before = this.cache.getAsync();
+        this.topics.add( "orders" );
+        this.cache.invalidate();
+        Assert.assertEquals( 2, this.listings.size() );
+
+        // The first fetch read the layout from before the invalidate: its callers get it, nobody else does.
+        list( 0 );
+        Assert.assertTrue( await( before ).containsTopic( "orders" ) );
+        final CompletableFuture< ClusterMetadataSnapshot > after = this.cache.getAsync();
+        Assert.assertFalse( after.isDone() );
+        Assert.assertEquals( 2, this.listings.size() );
+
+        this.topics.add( "payments" );
+        list( 1 );
+        Assert.assertTrue( await( after ).containsTopic( "payments" ) );
+        Assert.assertSame( await( after ), await( this.cache.getAsync() ) );
+    }
+
+    @Test
+    public void testUnknownTopicIsDescribedOnItsOwn() throws Exception
+    {
+        this.topics.add( "orders" );
+        final CompletableFuture< ClusterMetadataSnapshot > first = this.cache.getAsync();
+        list( 0 );
+        await( first );
+        this.described.clear();
+
+        this.topics.add( "payments" );
+        final ClusterMetadataSnapshot withTopic = await( this.cache.getWithTopicAsync( "payments" ) );
+        Assert.assertTrue( withTopic.containsTopic( "payments" ) );
+        Assert.assertTrue( withTopic.containsTopic( "orders" ) );
+        Assert.assertTrue( withTopic.getTopicNames().contains( "payments" ) );
+
+        Assert.assertFalse( await( this.cache.getWithTopicAsync( "nope" ) ).containsTopic( "nope" ) );
+
+        // No refresh of the whole cluster for either.
+        Assert.assertEquals( 1, this.listings.size() );
+        Assert.assertEquals( Arrays.asList( Collections.singletonList( "payments" ), Collections.singletonList( "nope" ) ),
+                             this.described );
+    }
+}
@@ -33,7 +33,8 @@ import java.util.Set;
                 topics = { "test.topics.1", "test.topics.2" }, // the test embedded kafka does one partition-replica per broker.
                 brokerProperties = { "default.replication.factor=1" } )
 @SpringBootTest( webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
-                 classes = { KafkaManagerApplication.class, TestConfiguration.class } )
+                 classes = { KafkaManagerApplication.class, TestConfiguration.class },
+                 properties = { "kafka-manager.reassignment.job-store=", "kafka-manager.history.directory=" } )
 public class KafkaManagerApplicationTests
 {
 
@@ -77,7 +78,7 @@ public class KafkaManagerApplicationTests
             ;
 
         final MvcResult result
-            = mMockMvc.perform( builder )
+            = mMockMvc.perform( MockMvcRequestBuilders.asyncDispatch( startAsync( builder ) ) )
                       .andDo( MockMvcResultHandlers.print() )
                       .andExpect( MockMvcResultMatchers.status().isOk() )
                       .andExpect( MockMvcResultMatchers.content().contentTypeCompatibleWith( MediaType.TEXT_HTML ) )
@@ -92,6 +93,7 @@ public class KafkaManagerApplicationTests
         Assert.assertTrue( "Must contain test cluster id",     model.containsKey( "clusterId" ) );
         Assert.assertTrue( "Must contain test nodes",          model.containsKey( "nodes" ) );
         Assert.assertTrue( "Must contain test controller",     model.containsKey( "controller" ) );
+        Assert.assertTrue( "Must contain metadata age",        model.containsKey( "metadataAgeSeconds" ) );
         final Set< String > topicNames = ( Set< String > ) model.get( "topicNames" );
         Assert.assertTrue( "Must contain test topics", topicNames.contains( TEST_TOPIC_1 ) );
         Assert.assertTrue( "Must contain test topics", topicNames.contains( TEST_TOPIC_2 ) );
@@ -110,7 +112,7 @@ public class KafkaManagerApplicationTests
             ;
 
         final MvcResult result
-            = mMockMvc.perform( builder )
+            = mMockMvc.perform( MockMvcRequestBuilders.asyncDispatch( startAsync( builder ) ) )
                       .andDo( MockMvcResultHandlers.print() )
                       .andExpect( MockMvcResultMatchers.status().isOk() )
                       .andExpect( MockMvcResultMatchers.content().contentTypeCompatibleWith( MediaType.TEXT_HTML ) )
@@ -143,7 +145,7 @@ public class KafkaManagerApplicationTests
             ;
 
         final MvcResult result
-            = mMockMvc.perform( builder )
+            = mMockMvc.perform( MockMvcRequestBuilders.asyncDispatch( startAsync( builder ) ) )
                       .andDo( MockMvcResultHandlers.print() )
                       .andExpect( MockMvcResultMatchers.status().isOk() )
                       .andExpect( MockMvcResultMatchers.content().contentTypeCompatibleWith( MediaType.TEXT_HTML ) )
@@ -157,5 +159,13 @@ public class KafkaManagerApplicationTests
         Assert.assertEquals( model.get( "topicName" ), TEST_TOPIC_1 );
     }
 
-
+    /**
+     * The handlers return futures, so the first dispatch only starts the async request.
+     */
+    private MvcResult startAsync( final MockHttpServletRequestBuilder builder ) throws Exception
+    {
+        return mMockMvc.perform( builder )
+                       .andExpect( MockMvcResultMatchers.request().asyncStarted() )
+                       .andReturn();
+    }
 }
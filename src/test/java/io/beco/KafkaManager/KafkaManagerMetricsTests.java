@@ -0,0 +1,73 @@
+/**
+ * @file KafkaManagerMetricsTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/23/18 2:15 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * KafkaManagerMetricsTests is a class that tests the logic in {@link KafkaManagerMetrics}.
+ */
+@RunWith( JUnit4.class )
+public class KafkaManagerMetricsTests
+{
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final KafkaManagerMetrics metrics = new KafkaManagerMetrics( this.registry );
+
+    @Test
+    public void testAdminTimedOnCompletion()
+    {
+        final CompletableFuture< String > future = new CompletableFuture<>();
+        Assert.assertSame( future, this.metrics.timeAdmin( "describeTopics", future ) );
+        Assert.assertNull( find( KafkaManagerMetrics.ADMIN_REQUESTS, "describeTopics", "success" ) );
+
+        future.complete( "done" );
+        Assert.assertEquals( 1, find( KafkaManagerMetrics.ADMIN_REQUESTS, "describeTopics", "success" ).count() );
+
+        final CompletableFuture< String > failed = new CompletableFuture<>();
+        this.metrics.timeAdmin( "describeTopics", failed );
+        failed.completeExceptionally( new IllegalStateException() );
+        Assert.assertEquals( 1, find( KafkaManagerMetrics.ADMIN_REQUESTS, "describeTopics", "failure" ).count() );
+    }
+
+    @Test
+    public void testZooKeeperTimedEvenWhenThrowing()
+    {
+        Assert.assertEquals( "ok", this.metrics.timeZooKeeper( "verifyAssignment", () -> "ok" ) );
+        try
+        {
+            this.metrics.timeZooKeeper( "executeAssignment", () -> {
+                throw new IllegalStateException( "no zk" );
+            } );
+            Assert.fail( "Expected the exception to propagate." );
+        }
+        catch( IllegalStateException expected )
+        {
+            // expected
+        }
+        Assert.assertEquals( 1, find( KafkaManagerMetrics.ZOOKEEPER_COMMANDS, "verifyAssignment", "success" ).count() );
+        Assert.assertEquals( 1, find( KafkaManagerMetrics.ZOOKEEPER_COMMANDS, "executeAssignment", "failure" ).count() );
+    }
+
+    private Timer find( final String name, final String operation, final String outcome )
+    {
+        return this.registry.find( name ).tags( "operation", operation, "outcome", outcome ).timer();
+    }
+}
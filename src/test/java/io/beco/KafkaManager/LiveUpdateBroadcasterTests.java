@@ -0,0 +1,87 @@
+/**
+ * @file LiveUpdateBroadcasterTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/4/18 1:30 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * LiveUpdateBroadcasterTests is a class that tests the logic in {@link LiveUpdateBroadcaster}.
+ */
+@RunWith( JUnit4.class )
+public class LiveUpdateBroadcasterTests
+{
+    private static final Node one   = new Node( 1, "broker1", 9092 );
+    private static final Node two   = new Node( 2, "broker2", 9092 );
+    private static final Node three = new Node( 3, "broker3", 9092 );
+
+    private static TopicDescription topic( final TopicPartitionInfo... infos )
+    {
+        return new TopicDescription( "orders", false, Arrays.asList( infos ) );
+    }
+
+    private static TopicPartitionInfo healthy( final int partition )
+    {
+        return new TopicPartitionInfo( partition, one, Arrays.asList( one, two ), Arrays.asList( one, two ) );
+    }
+
+    private static List< Integer > partitions( final List< PartitionMatrix.Row > rows )
+    {
+        return rows.stream().map( PartitionMatrix.Row::getPartition ).collect( Collectors.toList() );
+    }
+
+    @Test
+    public void testChangedRows()
+    {
+        final Map< Integer, PartitionMatrix.Row > last = new TreeMap<>();
+        Assert.assertEquals( Arrays.asList( 0, 1, 2 ),
+                             partitions( LiveUpdateBroadcaster.changedRows( last, topic( healthy( 2 ), healthy( 0 ), healthy( 1 ) ) ) ) );
+        Assert.assertTrue( LiveUpdateBroadcaster.changedRows( last, topic( healthy( 0 ), healthy( 1 ), healthy( 2 ) ) ).isEmpty() );
+
+        // Partition 1 loses broker 2 from its ISR, partition 2 is moved to broker 3 and led by it.
+        final List< PartitionMatrix.Row > changed = LiveUpdateBroadcaster.changedRows(
+            last,
+            topic( healthy( 0 ),
+                   new TopicPartitionInfo( 1, one, Arrays.asList( one, two ), Collections.singletonList( one ) ),
+                   new TopicPartitionInfo( 2, three, Arrays.asList( three, one ), Arrays.asList( three, one ) ) ) );
+
+        Assert.assertEquals( Arrays.asList( 1, 2 ), partitions( changed ) );
+        Assert.assertArrayEquals( new int[]{ 2 }, changed.get( 0 ).getOutOfSync() );
+        Assert.assertEquals( 3, changed.get( 1 ).getLeader() );
+        Assert.assertArrayEquals( new int[]{ 3, 1 }, last.get( 2 ).getReplicas() );
+        Assert.assertNull( changed.get( 1 ).getPlanned() );
+    }
+
+    @Test
+    public void testJobUpdateWithoutProgress()
+    {
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        plan.add( "orders", 0, new int[]{ 1, 2 } );
+        final ReassignmentJob job = new ReassignmentJob( "move orders", plan, -1 );
+
+        final LiveUpdateBroadcaster.JobUpdate update = LiveUpdateBroadcaster.JobUpdate.of( job, null );
+
+        Assert.assertEquals( job.getId(), update.getId() );
+        Assert.assertEquals( ReassignmentJob.State.QUEUED, update.getState() );
+        Assert.assertEquals( 0, update.getWave() );
+        Assert.assertNull( update.getPercentComplete() );
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * @file PartitionMatrixTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/2/18 11:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * PartitionMatrixTests is a class that tests the logic in {@link PartitionMatrix}.
+ */
+@RunWith( JUnit4.class )
+public class PartitionMatrixTests
+{
+    private static final List< Node > nodes = Arrays.asList( node( 1 ), node( 2 ), node( 3 ) );
+
+    private static Node node( final int id )
+    {
+        return new Node( id, "broker" + id, 9092 );
+    }
+
+    /**
+     * Ten partitions on brokers 1-3, listed out of order. Partition 7 has a replica on broker 4,
+     * which is down and out of sync.
+     */
+    private static TopicDescription description()
+    {
+        final List< TopicPartitionInfo > infos = new ArrayList<>();
+        for( int p = 9; p >= 0; p-- )
+        {
+            final List< Node > replicas = Arrays.asList( node( 1 + p % 3 ), p == 7 ? node( 4 ) : node( 1 + ( p + 1 ) % 3 ) );
+            final List< Node > isr      = p == 7 ? replicas.subList( 0, 1 ) : replicas;
+            infos.add( new TopicPartitionInfo( p, replicas.get( 0 ), replicas, isr ) );
+        }
+        return new TopicDescription( "orders", false, infos );
+    }
+
+    private static List< Integer > partitions( final PartitionMatrix matrix )
+    {
+        return matrix.getRows().stream().map( PartitionMatrix.Row::getPartition ).collect( Collectors.toList() );
+    }
+
+    @Test
+    public void testPages()
+    {
+        final PartitionMatrix matrix = PartitionMatrix.of( description(), nodes, null, new PartitionMatrix.Filter(), 4, 4 );
+
+        Assert.assertEquals( 10, matrix.getPartitionCount() );
+        Assert.assertEquals( 10, matrix.getMatching() );
+        Assert.assertEquals( Arrays.asList( 4, 5, 6, 7 ), partitions( matrix ) );
+        Assert.assertEquals( Arrays.asList( 1, 2, 3, 4 ), matrix.getBrokers() );
+
+        final PartitionMatrix last = PartitionMatrix.of( description(), nodes, null, new PartitionMatrix.Filter(), 8, 4 );
+        Assert.assertEquals( Arrays.asList( 8, 9 ), partitions( last ) );
+    }
+
+    @Test
+    public void testFilters()
+    {
+        final PartitionMatrix.Filter onBroker = new PartitionMatrix.Filter();
+        onBroker.setBroker( 1 );
+        final PartitionMatrix byBroker = PartitionMatrix.of( description(), nodes, null, onBroker, 0, 100 );
+        Assert.assertEquals( Arrays.asList( 0, 2, 3, 5, 6, 8, 9 ), partitions( byBroker ) );
+        Assert.assertEquals( 7, byBroker.getMatching() );
+
+        final PartitionMatrix.Filter underReplicated = new PartitionMatrix.Filter();
+        underReplicated.setUnderReplicated( true );
+        final PartitionMatrix urp = PartitionMatrix.of( description(), nodes, null, underReplicated, 0, 100 );
+        Assert.assertEquals( Collections.singletonList( 7 ), partitions( urp ) );
+        Assert.assertArrayEquals( new int[]{ 4 }, urp.getRows().get( 0 ).getOutOfSync() );
+
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        plan.add( "orders", 3, new int[]{ 2, 3 } );
+        plan.add( "payments", 3, new int[]{ 2, 3 } );
+        final PartitionMatrix.Filter changed = new PartitionMatrix.Filter();
+        changed.setChanged( true );
+        final PartitionMatrix planned = PartitionMatrix.of( description(), nodes, plan, changed, 0, 100 );
+        Assert.assertEquals( Collections.singletonList( 3 ), partitions( planned ) );
+        Assert.assertArrayEquals( new int[]{ 2, 3 }, planned.getRows().get( 0 ).getPlanned() );
+
+        Assert.assertEquals( 0, PartitionMatrix.of( description(), nodes, null, changed, 0, 100 ).getMatching() );
+    }
+
+    @Test
+    public void testLimitIsCapped()
+    {
+        final List< TopicPartitionInfo > infos = new ArrayList<>();
+        for( int p = 0; p < PartitionMatrix.MAX_LIMIT + 10; p++ )
+        {
+            infos.add( new TopicPartitionInfo( p, nodes.get( 0 ), nodes, nodes ) );
+        }
+        final PartitionMatrix matrix = PartitionMatrix.of( new TopicDescription( "big", false, infos ),
+                                                           nodes,
+                                                           null,
+                                                           new PartitionMatrix.Filter(),
+                                                           0,
+                                                           Integer.MAX_VALUE );
+
+        Assert.assertEquals( PartitionMatrix.MAX_LIMIT, matrix.getRows().size() );
+        Assert.assertEquals( PartitionMatrix.MAX_LIMIT + 10, matrix.getMatching() );
+    }
+
+    @Test
+    public void testRowsAreArrays() throws Exception
+    {
+        final PartitionMatrix.Filter underReplicated = new PartitionMatrix.Filter();
+        underReplicated.setUnderReplicated( true );
+        final PartitionMatrix matrix = PartitionMatrix.of( description(), nodes, null, underReplicated, 0, 100 );
+
+        Assert.assertEquals( "{\"topic\":\"orders\",\"brokers\":[1,2,3,4],\"partitionCount\":10,\"matching\":1,\"offset\":0,"
+                             + "\"rows\":[[7,2,[2,4],[4],null]]}",
+                             new ObjectMapper().writeValueAsString( matrix ) );
+    }
+}
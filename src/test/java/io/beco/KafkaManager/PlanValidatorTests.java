@@ -0,0 +1,151 @@
+/**
+ * @file PlanValidatorTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/6/18 11:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * PlanValidatorTests is a class that tests the logic in {@link PlanValidator}.
+ */
+@Slf4j
+@RunWith( JUnit4.class )
+public class PlanValidatorTests
+{
+    /**
+     * Brokers 1 and 2 in rack a, 3 and 4 in rack b.
+     */
+    private static final List< Node > nodes = Arrays.asList( new Node( 1, "broker1", 9092, "a" ),
+                                                             new Node( 2, "broker2", 9092, "a" ),
+                                                             new Node( 3, "broker3", 9092, "b" ),
+                                                             new Node( 4, "broker4", 9092, "b" ) );
+
+    private static TopicDescription topic( final String name, final int partitions )
+    {
+        final List< TopicPartitionInfo > infos = new ArrayList<>();
+        for( int p = 0; p < partitions; p++ )
+        {
+            infos.add( new TopicPartitionInfo( p, nodes.get( 0 ), nodes.subList( 0, 3 ), nodes.subList( 0, 3 ) ) );
+        }
+        return new TopicDescription( name, false, infos );
+    }
+
+    private static ClusterMetadataSnapshot snapshot( final List< Node > nodes, final TopicDescription... topics )
+    {
+        final Map< String, TopicDescription > descriptions = new HashMap<>();
+        Arrays.stream( topics ).forEach( t -> descriptions.put( t.name(), t ) );
+        return new ClusterMetadataSnapshot( "cluster",
+                                            nodes.get( 0 ),
+                                            ClusterMetadataSnapshot.sortNodes( nodes ),
+                                            Collections.emptyMap(),
+                                            descriptions,
+                                            0 );
+    }
+
+    private static List< PlanValidator.Kind > kinds( final List< PlanValidator.Violation > violations )
+    {
+        return violations.stream().map( PlanValidator.Violation::getKind ).collect( Collectors.toList() );
+    }
+
+    @Test
+    public void testValidPlan()
+    {
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        plan.add( "orders", 0, new int[]{ 1, 3 } );
+        plan.add( "orders", 1, new int[]{ 4, 2, 3 } );
+        plan.add( "payments", 0, new int[]{ 2 } );
+
+        Assert.assertTrue( PlanValidator.validate( plan, snapshot( nodes, topic( "orders", 2 ), topic( "payments", 1 ) ) ).isEmpty() );
+    }
+
+    @Test
+    public void testViolations()
+    {
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        plan.add( "orders", 0, new int[]{ 1, 7 } );
+        plan.add( "orders", 1, new int[ 0 ] );
+        plan.add( "orders", 2, new int[]{ 3, 1 } );
+        plan.add( "missing", 0, new int[]{ 1 } );
+        plan.add( "missing", 1, new int[]{ 2 } );
+        plan.add( "payments", 0, new int[]{ 1, 2, 3, 4, 5 } );
+        plan.add( "payments", 1, new int[]{ 1, 2 } );
+        plan.addVerbatim( "payments", 2, new int[]{ 2, 3, 2 } );
+
+        final List< PlanValidator.Violation > violations
+            = PlanValidator.validate( plan, snapshot( nodes, topic( "orders", 2 ), topic( "payments", 3 ) ) );
+
+        Assert.assertEquals( Arrays.asList( PlanValidator.Kind.UNKNOWN_BROKER,
+                                            PlanValidator.Kind.EMPTY_REPLICAS,
+                                            PlanValidator.Kind.UNKNOWN_PARTITION,
+                                            PlanValidator.Kind.UNKNOWN_TOPIC,
+                                            PlanValidator.Kind.REPLICATION_FACTOR,
+                                            PlanValidator.Kind.UNKNOWN_BROKER,
+                                            PlanValidator.Kind.SINGLE_RACK,
+                                            PlanValidator.Kind.DUPLICATE_REPLICA ),
+                             kinds( violations ) );
+        Assert.assertEquals( "Broker 7 is not a live broker.", violations.get( 0 ).getMessage() );
+        Assert.assertEquals( -1, violations.get( 3 ).getPartition() );
+        Assert.assertEquals( "payments", violations.get( 6 ).getTopic() );
+        Assert.assertEquals( 1, violations.get( 6 ).getPartition() );
+        Assert.assertEquals( "Broker 2 is listed more than once.", violations.get( 7 ).getMessage() );
+        Assert.assertArrayEquals( new int[]{ 2, 3, 2 }, violations.get( 7 ).getReplicas() );
+        Assert.assertTrue( PlanValidator.describe( violations ).startsWith( "8 problems: orders-0 Broker 7" ) );
+    }
+
+    @Test
+    public void testRacksOnlyCountWithMoreThanOne()
+    {
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        plan.add( "orders", 0, new int[]{ 1, 2 } );
+
+        final List< Node > noRacks = nodes.stream().map( n -> new Node( n.id(), n.host(), n.port() ) ).collect( Collectors.toList() );
+        Assert.assertTrue( PlanValidator.validate( plan, snapshot( noRacks, topic( "orders", 1 ) ) ).isEmpty() );
+        Assert.assertEquals( Collections.singletonList( PlanValidator.Kind.SINGLE_RACK ),
+                             kinds( PlanValidator.validate( plan, snapshot( nodes, topic( "orders", 1 ) ) ) ) );
+    }
+
+    @Test
+    public void testLargePlan()
+    {
+        final TopicDescription[] topics = new TopicDescription[ 100 ];
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        for( int t = 0; t < topics.length; t++ )
+        {
+            topics[ t ] = topic( "topic-" + t, 1000 );
+            for( int p = 0; p < 1000; p++ )
+            {
+                plan.add( topics[ t ].name(), p, t == 42 && p == 7
+                                                 ? new int[]{ 1, 2 }
+                                                 : new int[]{ 1 + p % 4, 1 + ( p + 1 ) % 4, 1 + ( p + 2 ) % 4 } );
+            }
+        }
+        final ClusterMetadataSnapshot snapshot = snapshot( nodes, topics );
+
+        final long startNs = System.nanoTime();
+        final List< PlanValidator.Violation > violations = PlanValidator.validate( plan, snapshot );
+        final long tookMs = ( System.nanoTime() - startNs ) / 1_000_000;
+        log.info( "Validated a plan of 100000 partitions in {} ms.", tookMs );
+
+        Assert.assertEquals( 1, violations.size() );
+        Assert.assertEquals( 7, violations.get( 0 ).getPartition() );
+    }
+}
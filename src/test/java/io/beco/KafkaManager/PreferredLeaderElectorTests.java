@@ -0,0 +1,158 @@
+/**
+ * @file PreferredLeaderElectorTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/30/18 11:30 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+
+/**
+ * PreferredLeaderElectorTests is a class that tests the logic in {@link PreferredLeaderElector}.
+ */
+@Slf4j
+@RunWith( JUnit4.class )
+public class PreferredLeaderElectorTests
+{
+    @Test
+    public void testPlanEvensOutPreferredLeaders()
+    {
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        for( int p = 0; p < 30; p++ )
+        {
+            current.add( "orders", p, new int[]{ 1, 2, 3 } );
+        }
+
+        final TopicPartitionAssignment plan = PreferredLeaderElector.plan( current, Arrays.asList( 1, 2, 3 ) );
+
+        Assert.assertEquals( 20, plan.getPartitionCount() );
+        final Map< Integer, Integer > counts = PreferredLeaderElector.countPreferredLeaders( current, plan );
+        Assert.assertEquals( Integer.valueOf( 10 ), counts.get( 1 ) );
+        Assert.assertEquals( Integer.valueOf( 10 ), counts.get( 2 ) );
+        Assert.assertEquals( Integer.valueOf( 10 ), counts.get( 3 ) );
+        plan.forEach( ( topic, partition, replicas ) -> {
+            // Same replicas, the new leader first and the others in their old order.
+            Assert.assertEquals( 3, replicas.length );
+            final int[] rest = Arrays.stream( new int[]{ 1, 2, 3 } ).filter( r -> r != replicas[ 0 ] ).toArray();
+            Assert.assertArrayEquals( rest, Arrays.copyOfRange( replicas, 1, 3 ) );
+        } );
+    }
+
+    @Test
+    public void testPlanFollowsChains()
+    {
+        // Broker 1 can only hand over to 2, which can only hand over to 3; no single move evens them out.
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2 } );
+        current.add( "orders", 1, new int[]{ 1, 2 } );
+        current.add( "orders", 2, new int[]{ 2, 3 } );
+
+        final TopicPartitionAssignment plan = PreferredLeaderElector.plan( current, Arrays.asList( 1, 2, 3 ) );
+
+        Assert.assertEquals( 2, plan.getPartitionCount() );
+        Assert.assertArrayEquals( new int[]{ 3, 2 }, plan.getReplicas( "orders", 2 ) );
+        final Map< Integer, Integer > counts = PreferredLeaderElector.countPreferredLeaders( current, plan );
+        Assert.assertEquals( Arrays.asList( 1, 1, 1 ), new ArrayList<>( counts.values() ) );
+    }
+
+    @Test
+    public void testPlanMovesPreferredLeaderOffDeadBroker()
+    {
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 9, 1, 2 } );
+        current.add( "orders", 1, new int[]{ 2, 1 } );
+
+        final TopicPartitionAssignment plan = PreferredLeaderElector.plan( current, Arrays.asList( 1, 2 ) );
+
+        Assert.assertEquals( 1, plan.getPartitionCount() );
+        Assert.assertArrayEquals( new int[]{ 1, 9, 2 }, plan.getReplicas( "orders", 0 ) );
+    }
+
+    @Test
+    public void testPlanLeavesEvenLeadershipAlone()
+    {
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2 } );
+        current.add( "orders", 1, new int[]{ 2, 1 } );
+        current.add( "payments", 0, new int[]{ 1, 2 } );
+
+        Assert.assertTrue( PreferredLeaderElector.plan( current, Arrays.asList( 1, 2 ) ).isEmpty() );
+    }
+
+    @Test
+    public void testPlanLargeCluster()
+    {
+        // Most partitions prefer one of the first five brokers, as after a rolling restart of a badly placed cluster.
+        final Random random = new Random( 42 );
+        final List< Integer > brokers = new ArrayList<>();
+        for( int b = 0; b < 30; b++ )
+        {
+            brokers.add( b );
+        }
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        for( int t = 0; t < 100; t++ )
+        {
+            for( int p = 0; p < 1000; p++ )
+            {
+                final int leader = random.nextInt( 5 );
+                final List< Integer > others = new ArrayList<>( brokers );
+                others.remove( Integer.valueOf( leader ) );
+                Collections.shuffle( others, random );
+                current.add( "topic-" + t, p, new int[]{ leader, others.get( 0 ), others.get( 1 ) } );
+            }
+        }
+
+        final long startNs = System.nanoTime();
+        final TopicPartitionAssignment plan = PreferredLeaderElector.plan( current, brokers );
+        final long tookMs = ( System.nanoTime() - startNs ) / 1_000_000;
+        log.info( "Planned preferred leaders of 100000 partitions on 30 brokers in {} ms.", tookMs );
+
+        final Collection< Integer > counts = PreferredLeaderElector.countPreferredLeaders( current, plan ).values();
+        Assert.assertEquals( 30, counts.size() );
+        Assert.assertTrue( Collections.max( counts ) - Collections.min( counts ) <= 1 );
+    }
+
+    @Test
+    public void testSnapshotLeadership()
+    {
+        final Node one   = new Node( 1, "broker1", 9092 );
+        final Node two   = new Node( 2, "broker2", 9092 );
+        final Node three = new Node( 3, "broker3", 9092 );
+        final List< TopicPartitionInfo > infos = Arrays.asList(
+            new TopicPartitionInfo( 0, one, Arrays.asList( one, two ), Arrays.asList( one, two ) ),
+            // Led by its second replica, after broker 2 restarted.
+            new TopicPartitionInfo( 1, one, Arrays.asList( two, one ), Arrays.asList( one, two ) ) );
+        final ClusterMetadataSnapshot snapshot
+            = new ClusterMetadataSnapshot( "cluster",
+                                           one,
+                                           ClusterMetadataSnapshot.sortNodes( Arrays.asList( one, two, three ) ),
+                                           Collections.emptyMap(),
+                                           Collections.singletonMap( "orders", new TopicDescription( "orders", false, infos ) ),
+                                           System.currentTimeMillis() );
+
+        final List< BrokerLeadership > leadership = snapshot.getLeadership();
+        Assert.assertEquals( 3, leadership.size() );
+        Assert.assertEquals( 2, leadership.get( 0 ).getLeaders() );
+        Assert.assertEquals( 1, leadership.get( 0 ).getPreferredLeaders() );
+        Assert.assertEquals( 0, leadership.get( 1 ).getLeaders() );
+        Assert.assertEquals( 1, leadership.get( 1 ).getPreferredLeaders() );
+        Assert.assertEquals( 0, leadership.get( 2 ).getReplicas() );
+        Assert.assertEquals( 1, snapshot.countNonPreferredLeaders() );
+    }
+}
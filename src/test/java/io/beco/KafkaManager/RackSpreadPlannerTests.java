@@ -0,0 +1,178 @@
+/**
+ * @file RackSpreadPlannerTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/9/18 1:00 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.Node;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+
+/**
+ * RackSpreadPlannerTests is a class that tests the logic in {@link RackSpreadPlanner}.
+ */
+@Slf4j
+@RunWith( JUnit4.class )
+public class RackSpreadPlannerTests
+{
+    /**
+     * @param racks the rack of each broker, brokers are numbered from 1.
+     */
+    private static List< Node > brokers( final String... racks )
+    {
+        final List< Node > nodes = new ArrayList<>();
+        for( int b = 0; b < racks.length; b++ )
+        {
+            nodes.add( new Node( b + 1, "broker" + ( b + 1 ), 9092, racks[ b ] ) );
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the current assignment with the plan applied.
+     */
+    private static TopicPartitionAssignment apply( final TopicPartitionAssignment current, final TopicPartitionAssignment plan )
+    {
+        final TopicPartitionAssignment after = new TopicPartitionAssignment();
+        current.forEach( ( topic, partition, replicas ) -> {
+            final int[] planned = plan.getReplicas( topic, partition );
+            after.add( topic, partition, planned == null ? replicas : planned );
+        } );
+        return after;
+    }
+
+    @Test
+    public void testFewestMoves()
+    {
+        final List< Node > nodes = brokers( "a", "a", "b", "b", "c", "c" );
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2, 3 } );
+        current.add( "orders", 1, new int[]{ 1, 3 } );
+        current.add( "orders", 2, new int[]{ 6, 4, 2 } );
+        Assert.assertEquals( 1, RackSpreadPlanner.countUnspread( current, nodes ) );
+
+        final TopicPartitionAssignment plan = RackSpreadPlanner.plan( current, nodes );
+
+        // Only the follower on rack a moves, to the emptier of the brokers on rack c, in its place.
+        Assert.assertEquals( 1, plan.getPartitionCount() );
+        Assert.assertArrayEquals( new int[]{ 1, 5, 3 }, plan.getReplicas( "orders", 0 ) );
+        Assert.assertEquals( 0, RackSpreadPlanner.countUnspread( apply( current, plan ), nodes ) );
+    }
+
+    @Test
+    public void testLeadersStayAndLoadIsEven()
+    {
+        final List< Node > nodes = brokers( "a", "a", "b", "b" );
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        for( int p = 0; p < 10; p++ )
+        {
+            current.add( "orders", p, p % 2 == 0 ? new int[]{ 1, 2 } : new int[]{ 2, 1 } );
+        }
+
+        final TopicPartitionAssignment plan = RackSpreadPlanner.plan( current, nodes );
+
+        Assert.assertEquals( 10, plan.getPartitionCount() );
+        final int[] leaders  = new int[ 5 ];
+        final int[] replicas = new int[ 5 ];
+        plan.forEach( ( topic, partition, planned ) -> {
+            leaders[ planned[ 0 ] ]++;
+            Arrays.stream( planned ).forEach( b -> replicas[ b ]++ );
+        } );
+        Assert.assertEquals( 5, leaders[ 1 ] );
+        Assert.assertEquals( 5, leaders[ 2 ] );
+        Assert.assertEquals( 5, replicas[ 1 ] );
+        Assert.assertEquals( 5, replicas[ 2 ] );
+        Assert.assertEquals( 5, replicas[ 3 ] );
+        Assert.assertEquals( 5, replicas[ 4 ] );
+    }
+
+    @Test
+    public void testMoreReplicasThanRacks()
+    {
+        final List< Node > nodes = brokers( "a", "a", "a", "b", "b" );
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2, 3, 4 } );
+        current.add( "orders", 1, new int[]{ 1, 2, 4 } );
+
+        final TopicPartitionAssignment plan = RackSpreadPlanner.plan( current, nodes );
+
+        Assert.assertEquals( 1, plan.getPartitionCount() );
+        final int[] replicas = plan.getReplicas( "orders", 0 );
+        Assert.assertEquals( 1, replicas[ 0 ] );
+        Assert.assertEquals( 2, Arrays.stream( replicas ).filter( b -> b >= 4 ).count() );
+    }
+
+    @Test
+    public void testPartitionsOnDownBrokersStay()
+    {
+        final List< Node > nodes = brokers( "a", "a", "b" );
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2, 7 } );
+
+        Assert.assertTrue( RackSpreadPlanner.plan( current, nodes ).isEmpty() );
+    }
+
+    @Test
+    public void testBrokersWithoutRacks()
+    {
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "orders", 0, new int[]{ 1, 2 } );
+
+        Assert.assertEquals( 0, RackSpreadPlanner.countUnspread( current, brokers( "a", null ) ) );
+        Assert.assertEquals( 0, RackSpreadPlanner.countUnspread( current, brokers( "a", "a" ) ) );
+        try
+        {
+            RackSpreadPlanner.plan( current, brokers( "a", null ) );
+            Assert.fail( "A broker without a rack must be rejected." );
+        }
+        catch( IllegalArgumentException e )
+        {
+            Assert.assertTrue( e.getMessage().contains( "[2]" ) );
+        }
+    }
+
+    @Test
+    public void testLargeCluster()
+    {
+        final List< Node > nodes = brokers( "a", "a", "a", "a", "b", "b", "b", "b", "c", "c", "c", "c" );
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        final Random random = new Random( 25 );
+        for( int t = 0; t < 100; t++ )
+        {
+            for( int p = 0; p < 1000; p++ )
+            {
+                final int first = random.nextInt( 12 );
+                current.add( "topic-" + t, p, new int[]{ 1 + first, 1 + ( first + 1 ) % 12, 1 + ( first + 5 ) % 12 } );
+            }
+        }
+        final int unspread = RackSpreadPlanner.countUnspread( current, nodes );
+
+        final long startNs = System.nanoTime();
+        final TopicPartitionAssignment plan = RackSpreadPlanner.plan( current, nodes );
+        final long tookMs = ( System.nanoTime() - startNs ) / 1_000_000;
+        log.info( "Planned the rack spread of 100000 partitions in {} ms.", tookMs );
+
+        Assert.assertTrue( unspread > 0 );
+        Assert.assertEquals( unspread, plan.getPartitionCount() );
+        final TopicPartitionAssignment after = apply( current, plan );
+        Assert.assertEquals( 0, RackSpreadPlanner.countUnspread( after, nodes ) );
+
+        final int[] replicas = new int[ 13 ];
+        after.forEach( ( topic, partition, planned ) -> Arrays.stream( planned ).forEach( b -> replicas[ b ]++ ) );
+        final IntSummaryStatistics load = Arrays.stream( replicas, 1, 13 ).summaryStatistics();
+        Assert.assertTrue( "Replicas per broker " + load, load.getMax() - load.getMin() <= load.getAverage() * 0.05 );
+    }
+}
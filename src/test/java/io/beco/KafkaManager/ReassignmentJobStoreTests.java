@@ -0,0 +1,122 @@
+/**
+ * @file ReassignmentJobStoreTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/29/18 11:20 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * ReassignmentJobStoreTests is a class that tests the logic in {@link ReassignmentJobStore}.
+ */
+@RunWith( JUnit4.class )
+public class ReassignmentJobStoreTests
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static TopicPartitionAssignment plan()
+    {
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        plan.add( "orders", 0, new int[]{ 1, 2 } );
+        plan.add( "orders", 1, new int[]{ 2, 3 } );
+        return plan;
+    }
+
+    @Test
+    public void testJobsSurviveARestart() throws Exception
+    {
+        final File file = new File( this.folder.getRoot(), "jobs.jsonl" );
+
+        final ReassignmentJobStore store = new ReassignmentJobStore( file.getPath() );
+        Assert.assertTrue( store.load().isEmpty() );
+
+        final ReassignmentJob done    = new ReassignmentJob( "done", plan(), 1024 );
+        final ReassignmentJob running = new ReassignmentJob( "running", plan(), -1, true, 10 );
+        final ReassignmentJob queued  = new ReassignmentJob( "queued", plan(), -1 );
+        store.submitted( done );
+        store.submitted( running );
+        store.submitted( queued );
+        done.setStartedAtMs( 1000L );
+        store.started( done );
+        done.setState( ReassignmentJob.State.FAILED );
+        done.setError( "boom" );
+        done.setFinishedAtMs( 2000L );
+        store.finished( done );
+        running.setStartedAtMs( 3000L );
+        store.started( running );
+        store.closeWriter();
+
+        // A crash in the middle of a write.
+        Files.write( file.toPath(), "{\"type\":\"FINI".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+
+        final List< ReassignmentJob > jobs = new ReassignmentJobStore( file.getPath() ).load();
+        Assert.assertEquals( 3, jobs.size() );
+
+        Assert.assertEquals( done.getId(), jobs.get( 0 ).getId() );
+        Assert.assertEquals( ReassignmentJob.State.FAILED, jobs.get( 0 ).getState() );
+        Assert.assertEquals( "boom", jobs.get( 0 ).getError() );
+        Assert.assertEquals( 1024, jobs.get( 0 ).getThrottleBytesPerSec() );
+
+        Assert.assertEquals( ReassignmentJob.State.RUNNING, jobs.get( 1 ).getState() );
+        Assert.assertTrue( jobs.get( 1 ).isAdaptiveThrottle() );
+        Assert.assertEquals( 10, jobs.get( 1 ).getMaxPartitionsPerWave() );
+        Assert.assertArrayEquals( new int[]{ 2, 3 }, jobs.get( 1 ).getPlan().getReplicas( "orders", 1 ) );
+
+        Assert.assertEquals( ReassignmentJob.State.QUEUED, jobs.get( 2 ).getState() );
+        Assert.assertEquals( queued.getSubmittedAtMs(), jobs.get( 2 ).getSubmittedAtMs() );
+
+        // Loading compacted the file, the broken line is gone.
+        Assert.assertEquals( 6, Files.readAllLines( file.toPath() ).size() );
+    }
+
+    @Test
+    public void testOldFinishedJobsAreDropped()
+    {
+        final File file = new File( this.folder.getRoot(), "jobs.jsonl" );
+        final ReassignmentJobStore store = new ReassignmentJobStore( file.getPath() );
+        for( int i = 0; i < ReassignmentScheduler.MAX_FINISHED_JOBS + 5; ++i )
+        {
+            final ReassignmentJob job = new ReassignmentJob( "job " + i, plan(), -1 );
+            store.submitted( job );
+            job.setState( ReassignmentJob.State.COMPLETED );
+            job.setFinishedAtMs( System.currentTimeMillis() );
+            store.finished( job );
+        }
+        store.submitted( new ReassignmentJob( "still queued", plan(), -1 ) );
+        store.closeWriter();
+
+        final List< ReassignmentJob > jobs = new ReassignmentJobStore( file.getPath() ).load();
+        Assert.assertEquals( ReassignmentScheduler.MAX_FINISHED_JOBS + 1, jobs.size() );
+        Assert.assertEquals( "job 5", jobs.get( 0 ).getDescription() );
+        Assert.assertEquals( "still queued", jobs.get( jobs.size() - 1 ).getDescription() );
+    }
+
+    @Test
+    public void testBlankPathKeepsNothing()
+    {
+        final ReassignmentJobStore store = new ReassignmentJobStore( " " );
+        store.submitted( new ReassignmentJob( "in memory", plan(), -1 ) );
+        Assert.assertFalse( store.isDurable() );
+        Assert.assertTrue( store.load().isEmpty() );
+    }
+}
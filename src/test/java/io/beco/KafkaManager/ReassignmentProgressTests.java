@@ -0,0 +1,138 @@
+/**
+ * @file ReassignmentProgressTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/16/18 2:30 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.common.TopicPartitionReplica;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+
+/**
+ * ReassignmentProgressTests is a class that tests the logic in {@link ReassignmentProgress}.
+ */
+@RunWith( JUnit4.class )
+public class ReassignmentProgressTests
+{
+    private static final String topic1 = "testTopic1";
+
+    @Test
+    public void testBytesCopiedAndEta()
+    {
+        // Two partitions of 1000 bytes on broker 1, each gaining a replica on broker 2.
+        final ReassignmentJob job = startedJob( 2, 2000 );
+
+        final ReassignmentProgress first = ReassignmentProgress.of( job, sizes( 0L, 1000, 1000, 0, 0 ), 0, null );
+        Assert.assertEquals( 2000, first.getTotalBytes() );
+        Assert.assertEquals( 0, first.getCopiedBytes() );
+        Assert.assertEquals( 0, first.getThroughputBytesPerSec() );
+        Assert.assertEquals( -1, first.getEtaSeconds() );
+        Assert.assertEquals( Arrays.asList( 2 ), first.getPartitions().get( 0 ).getAddedBrokers() );
+
+        // 10 s later 1000 bytes have arrived.
+        final ReassignmentProgress second = ReassignmentProgress.of( job, sizes( 10000L, 1000, 1000, 1000, 0 ), 0, first );
+        Assert.assertEquals( 1000, second.getCopiedBytes() );
+        Assert.assertEquals( 100, second.getThroughputBytesPerSec() );
+        Assert.assertEquals( 10, second.getEtaSeconds() );
+        Assert.assertEquals( 50, second.getPercentComplete() );
+        Assert.assertTrue( second.getPartitions().get( 0 ).isDone() );
+        Assert.assertFalse( second.getPartitions().get( 1 ).isDone() );
+
+        final ReassignmentProgress done = ReassignmentProgress.of( job, sizes( 15000L, 1000, 1000, 1000, 1000 ), 0, second );
+        Assert.assertEquals( 0, done.getEtaSeconds() );
+        Assert.assertEquals( 100, done.getPercentComplete() );
+    }
+
+    @Test
+    public void testEarlierWavesCount()
+    {
+        // This wave is half the job, the other half has already been copied.
+        final ReassignmentJob job = startedJob( 2, 4000 );
+
+        final ReassignmentProgress progress = ReassignmentProgress.of( job, sizes( 0L, 1000, 1000, 500, 500 ), 2000, null );
+        Assert.assertEquals( 4000, progress.getTotalBytes() );
+        Assert.assertEquals( 3000, progress.getCopiedBytes() );
+        Assert.assertEquals( 1000, progress.getWaveCopiedBytes() );
+        Assert.assertEquals( 2000, progress.getWaveTargetBytes() );
+        Assert.assertEquals( 1, progress.getWave() );
+    }
+
+    @Test
+    public void testFinishedWavesCopiedBytes()
+    {
+        // One partition per wave, each gaining a replica on broker 2.
+        final ReassignmentJob job = startedJob( 2, 0 );
+        final List< TopicPartitionAssignment > waves = new ArrayList<>();
+        for( int p = 0; p < 2; ++p )
+        {
+            final TopicPartitionAssignment wave = new TopicPartitionAssignment();
+            wave.add( topic1, p, Arrays.asList( 1, 2 ) );
+            waves.add( wave );
+        }
+
+        final ReplicaSizes sizes = sizes( 0L, 1000, 800, 1000, 800 );
+        Assert.assertEquals( 0, ReassignmentProgress.copiedBytes( Collections.emptyList(), job.getStartingAssignment(), sizes ) );
+        Assert.assertEquals( 1000, ReassignmentProgress.copiedBytes( waves.subList( 0, 1 ), job.getStartingAssignment(), sizes ) );
+        Assert.assertEquals( 1800, ReassignmentProgress.copiedBytes( waves, job.getStartingAssignment(), sizes ) );
+    }
+
+    @Test
+    public void testNotStarted()
+    {
+        final ReassignmentJob job = new ReassignmentJob( "test", plan( 1 ), 0L );
+        final ReassignmentProgress progress = ReassignmentProgress.of( job, ReplicaSizes.EMPTY, 0, null );
+        Assert.assertTrue( progress.getPartitions().isEmpty() );
+        Assert.assertEquals( 0, progress.getTotalBytes() );
+    }
+
+    private static ReassignmentJob startedJob( final int partitions, final long estimatedBytes )
+    {
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        for( int p = 0; p < partitions; ++p )
+        {
+            current.add( topic1, p, 1 );
+        }
+
+        final ReassignmentJob job = new ReassignmentJob( "test", plan( partitions ), 0L );
+        job.setStartingAssignment( current );
+        job.setWaves( Collections.singletonList( job.getPlan() ) );
+        job.setCurrentWave( 0 );
+        job.setEstimatedBytes( estimatedBytes );
+        return job;
+    }
+
+    private static TopicPartitionAssignment plan( final int partitions )
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int p = 0; p < partitions; ++p )
+        {
+            tpa.add( topic1, p, Arrays.asList( 1, 2 ) );
+        }
+        return tpa;
+    }
+
+    /**
+     * @param sizes broker 1 partition 0, broker 1 partition 1, broker 2 partition 0, broker 2 partition 1.
+     */
+    private static ReplicaSizes sizes( final long sampledAtMs, final long... sizes )
+    {
+        final Map< TopicPartitionReplica, Long > map = new HashMap<>();
+        map.put( new TopicPartitionReplica( topic1, 0, 1 ), sizes[ 0 ] );
+        map.put( new TopicPartitionReplica( topic1, 1, 1 ), sizes[ 1 ] );
+        map.put( new TopicPartitionReplica( topic1, 0, 2 ), sizes[ 2 ] );
+        map.put( new TopicPartitionReplica( topic1, 1, 2 ), sizes[ 3 ] );
+        return new ReplicaSizes( map, sampledAtMs );
+    }
+}
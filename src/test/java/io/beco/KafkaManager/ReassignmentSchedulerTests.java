@@ -0,0 +1,452 @@
+/**
+ * @file ReassignmentSchedulerTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/12/18 2:00 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kafka.admin.AdminUtils$;
+import kafka.common.TopicAndPartition;
+import kafka.log.LogConfig$;
+import kafka.server.ConfigType$;
+import kafka.server.DynamicConfig;
+import kafka.utils.ZkUtils;
+import kafka.utils.ZkUtils$;
+import kafka.zk.EmbeddedZookeeper;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.DescribeLogDirsResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.admin.TopicListing;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
+import org.apache.kafka.common.requests.DescribeLogDirsResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import scala.collection.JavaConverters;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+/**
+ * ReassignmentSchedulerTests is a class that tests how {@link ReassignmentScheduler} runs jobs, against an
+ * embedded ZooKeeper standing in for the cluster. The tests play the controller: they move the replicas of
+ * whatever is in the reassign node and delete it, and the metadata cache answers from the same layout.
+ */
+@RunWith( JUnit4.class )
+public class ReassignmentSchedulerTests
+{
+    private static final List< Integer > BROKERS = Arrays.asList( 1, 2, 3, 4 );
+
+    private static final long TIMEOUT_MS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedZookeeper zookeeper;
+
+    private ZkUtils zkUtils;
+
+    private final AdminClient adminClient = mock( AdminClient.class );
+
+    private final ClusterMetadataCache metadataCache = mock( ClusterMetadataCache.class );
+
+    /**
+     * The layout the cluster has, kept in step with ZooKeeper.
+     */
+    private final Map< String, SortedMap< Integer, List< Integer > > > layout = new TreeMap<>();
+
+    private File jobsFile;
+
+    private ReassignmentJobStore jobStore;
+
+    private AssignmentHistory history;
+
+    private ReassignmentScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.zookeeper = new EmbeddedZookeeper();
+        this.zkUtils   = ZkUtils.apply( "127.0.0.1:" + this.zookeeper.port(), 10000, 10000, false );
+        this.zkUtils.setupCommonPaths();
+        for( int id : BROKERS )
+        {
+            this.zkUtils.updatePersistentPath( ZkUtils.BrokerIdsPath() + "/" + id,
+                                               "{\"version\":4,\"host\":\"broker" + id + "\",\"port\":9092,\"jmx_port\":-1,"
+                                               + "\"timestamp\":\"0\",\"endpoints\":[\"PLAINTEXT://broker" + id + ":9092\"],"
+                                               + "\"listener_security_protocol_map\":{\"PLAINTEXT\":\"PLAINTEXT\"}}",
+                                               this.zkUtils.defaultAcls( ZkUtils.BrokerIdsPath() ) );
+        }
+
+        // No replica sizes, waves are split by partition count only.
+        when( this.adminClient.describeLogDirs( anyCollection() ) ).thenAnswer( i -> {
+            final KafkaFutureImpl< Map< Integer, Map< String, DescribeLogDirsResponse.LogDirInfo > > > future = new KafkaFutureImpl<>();
+            future.completeExceptionally( new UnsupportedVersionException( "describeLogDirs" ) );
+            final DescribeLogDirsResult result = mock( DescribeLogDirsResult.class );
+            when( result.all() ).thenReturn( future );
+            return result;
+        } );
+        when( this.metadataCache.get() ).thenAnswer( i -> snapshot() );
+
+        this.jobsFile = new File( this.folder.getRoot(), "jobs.jsonl" );
+        this.jobStore = new ReassignmentJobStore( this.jobsFile.getPath() );
+        this.history  = new AssignmentHistory( this.folder.newFolder( "history" ).getPath(), 100 );
+    }
+
+    @After
+    public void tearDown()
+    {
+        if( this.scheduler != null )
+        {
+            this.scheduler.stop();
+        }
+        this.jobStore.closeWriter();
+        this.zkUtils.close();
+        this.zookeeper.shutdown();
+    }
+
+    private ReassignmentScheduler startScheduler()
+    {
+        this.scheduler = new ReassignmentScheduler( this.zkUtils,
+                                                    this.adminClient,
+                                                    this.metadataCache,
+                                                    new KafkaManagerMetrics( new SimpleMeterRegistry() ),
+                                                    this.jobStore,
+                                                    this.history,
+                                                    new ObjectMapper(),
+                                                    50,
+                                                    Long.MAX_VALUE,
+                                                    200,
+                                                    5000 );
+        this.scheduler.start();
+        return this.scheduler;
+    }
+
+    /**
+     * Adds the topic to the layout and to ZooKeeper, every partition on the same replicas.
+     */
+    private void createTopic( final String topic, final int partitions, final int... replicas )
+    {
+        IntStream.range( 0, partitions ).forEach( p -> setReplicas( topic, p, replicas ) );
+        writeTopic( topic );
+    }
+
+    private void setReplicas( final String topic, final int partition, final int... replicas )
+    {
+        this.layout.computeIfAbsent( topic, t -> new TreeMap<>() )
+                   .put( partition, Arrays.stream( replicas ).boxed().collect( Collectors.toList() ) );
+    }
+
+    private void writeTopic( final String topic )
+    {
+        final String partitions
+            = this.layout.get( topic ).entrySet().stream()
+                         .map( e -> "\"" + e.getKey() + "\":" + e.getValue().toString().replace( " ", "" ) )
+                         .collect( Collectors.joining( "," ) );
+        this.zkUtils.updatePersistentPath( ZkUtils.getTopicPath( topic ),
+                                           "{\"version\":1,\"partitions\":{" + partitions + "}}",
+                                           this.zkUtils.defaultAcls( ZkUtils.getTopicPath( topic ) ) );
+    }
+
+    private ClusterMetadataSnapshot snapshot()
+    {
+        final List< Node > nodes = BROKERS.stream().map( id -> new Node( id, "broker" + id, 9092 ) ).collect( Collectors.toList() );
+        final Map< String, TopicListing > listings = new TreeMap<>();
+        final Map< String, TopicDescription > descriptions = new HashMap<>();
+        for( String topic : this.layout.keySet() )
+        {
+            final List< TopicPartitionInfo > partitions = new ArrayList<>();
+            this.layout.get( topic ).forEach( ( p, ids ) -> {
+                final List< Node > replicas = ids.stream().map( id -> nodes.get( id - 1 ) ).collect( Collectors.toList() );
+                partitions.add( new TopicPartitionInfo( p, replicas.get( 0 ), replicas, replicas ) );
+            } );
+            listings.put( topic, new TopicListing( topic, false ) );
+            descriptions.put( topic, new TopicDescription( topic, false, partitions ) );
+        }
+        return new ClusterMetadataSnapshot( "cluster",
+                                            nodes.get( 0 ),
+                                            ClusterMetadataSnapshot.sortNodes( nodes ),
+                                            listings,
+                                            descriptions,
+                                            System.currentTimeMillis() );
+    }
+
+    /**
+     * @return the reassignment in ZooKeeper, empty if there is none.
+     */
+    private Map< TopicAndPartition, List< Integer > > reassigning()
+    {
+        final Map< TopicAndPartition, List< Integer > > reassigning = new TreeMap<>(
+            Comparator.comparing( TopicAndPartition::topic ).thenComparingInt( TopicAndPartition::partition ) );
+        if( this.zkUtils.pathExists( ZkUtils.ReassignPartitionsPath() ) )
+        {
+            final String json = this.zkUtils.readData( ZkUtils.ReassignPartitionsPath() )._1();
+            JavaConverters.mapAsJavaMapConverter( ZkUtils$.MODULE$.parsePartitionReassignmentData( json ) )
+                          .asJava()
+                          .forEach( ( tap, replicas ) -> reassigning.put( tap, JavaConverters.seqAsJavaListConverter( replicas )
+                                                                                             .asJava()
+                                                                                             .stream()
+                                                                                             .map( Integer.class::cast )
+                                                                                             .collect( Collectors.toList() ) ) );
+        }
+        return reassigning;
+    }
+
+    /**
+     * Does what the controller would: moves the replicas and deletes the reassign node.
+     *
+     * @return the partitions that were reassigned.
+     */
+    private Set< TopicAndPartition > completeReassignment()
+    {
+        final Map< TopicAndPartition, List< Integer > > reassigning = reassigning();
+        Assert.assertFalse( "Nothing is being reassigned", reassigning.isEmpty() );
+        reassigning.forEach( ( tap, replicas ) -> setReplicas( tap.topic(),
+                                                               tap.partition(),
+                                                               replicas.stream().mapToInt( Integer::intValue ).toArray() ) );
+        reassigning.keySet().stream().map( TopicAndPartition::topic ).distinct().forEach( this::writeTopic );
+        this.zkUtils.deletePath( ZkUtils.ReassignPartitionsPath() );
+        return reassigning.keySet();
+    }
+
+    private static void await( final String what, final BooleanSupplier condition ) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while( !condition.getAsBoolean() )
+        {
+            Assert.assertTrue( "Timed out waiting for " + what, System.currentTimeMillis() < deadline );
+            Thread.sleep( 20 );
+        }
+    }
+
+    /**
+     * Waits until the job has been moved to the finished jobs, the last thing done as it ends.
+     */
+    private void awaitFinished( final ReassignmentJob job ) throws InterruptedException
+    {
+        await( "job " + job.getDescription() + " to finish",
+               () -> job.isFinished() && this.scheduler.getActiveJob() != job && this.scheduler.getJobs().contains( job ) );
+    }
+
+    /**
+     * @return the brokers and topics that have a replication throttle set.
+     */
+    private Set< String > throttled()
+    {
+        final Set< String > throttled = new TreeSet<>();
+        for( int id : BROKERS )
+        {
+            final Properties configs = AdminUtils$.MODULE$.fetchEntityConfig( this.zkUtils, ConfigType$.MODULE$.Broker(), Integer.toString( id ) );
+            if( configs.containsKey( DynamicConfig.Broker$.MODULE$.LeaderReplicationThrottledRateProp() )
+                || configs.containsKey( DynamicConfig.Broker$.MODULE$.FollowerReplicationThrottledRateProp() ) )
+            {
+                throttled.add( "broker " + id );
+            }
+        }
+        for( String topic : this.layout.keySet() )
+        {
+            final Properties configs = AdminUtils$.MODULE$.fetchEntityConfig( this.zkUtils, ConfigType$.MODULE$.Topic(), topic );
+            if( configs.containsKey( LogConfig$.MODULE$.LeaderReplicationThrottledReplicasProp() )
+                || configs.containsKey( LogConfig$.MODULE$.FollowerReplicationThrottledReplicasProp() ) )
+            {
+                throttled.add( topic );
+            }
+        }
+        return throttled;
+    }
+
+    private static TopicPartitionAssignment move( final String topic, final int partitions, final int... replicas )
+    {
+        final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+        IntStream.range( 0, partitions ).forEach( p -> plan.add( topic, p, replicas ) );
+        return plan;
+    }
+
+    @Test
+    public void testWavesRunOneAfterAnother() throws Exception
+    {
+        createTopic( "orders", 4, 1, 2 );
+        createTopic( "payments", 1, 1, 2 );
+        startScheduler();
+
+        final ReassignmentJob job  = this.scheduler.submit( "orders", move( "orders", 4, 3, 4 ), -1, false, 2 );
+        final ReassignmentJob next = this.scheduler.submit( "payments", move( "payments", 1, 3, 4 ), -1 );
+        await( "the first wave", () -> !reassigning().isEmpty() );
+
+        Assert.assertEquals( ReassignmentJob.State.RUNNING, job.getState() );
+        Assert.assertEquals( 2, job.getWaves().size() );
+        Assert.assertEquals( 0, job.getCurrentWave() );
+        Assert.assertEquals( ReassignmentJob.State.QUEUED, next.getState() );
+        final Set< TopicAndPartition > first = completeReassignment();
+        Assert.assertEquals( 2, first.size() );
+
+        await( "the second wave", () -> job.getCurrentWave() == 1 && !reassigning().isEmpty() );
+        final Set< TopicAndPartition > second = completeReassignment();
+        Assert.assertEquals( 2, second.size() );
+        Assert.assertTrue( Collections.disjoint( first, second ) );
+
+        // The next job only starts once the last wave of this one has left ZooKeeper.
+        await( "the next job", () -> next.getState() == ReassignmentJob.State.RUNNING && !reassigning().isEmpty() );
+        Assert.assertEquals( ReassignmentJob.State.COMPLETED, job.getState() );
+        Assert.assertNull( job.getError() );
+        Assert.assertEquals( Collections.singleton( "payments" ),
+                             reassigning().keySet().stream().map( TopicAndPartition::topic ).collect( Collectors.toSet() ) );
+        completeReassignment();
+        awaitFinished( next );
+        Assert.assertEquals( ReassignmentJob.State.COMPLETED, next.getState() );
+
+        Assert.assertEquals( Arrays.asList( next, job ), this.scheduler.getJobs() );
+        Assert.assertNull( this.scheduler.getActiveJob() );
+    }
+
+    @Test
+    public void testCompletedJobIsRecorded() throws Exception
+    {
+        createTopic( "orders", 2, 1, 2 );
+        startScheduler();
+
+        final ReassignmentJob job = this.scheduler.submit( "orders", move( "orders", 2, 3, 4 ), -1 );
+        await( "the wave", () -> !reassigning().isEmpty() );
+        completeReassignment();
+        awaitFinished( job );
+        Assert.assertEquals( ReassignmentJob.State.COMPLETED, job.getState() );
+
+        Assert.assertTrue( job.getFinishedAtMs() >= job.getStartedAtMs() );
+        Assert.assertArrayEquals( new int[]{ 1, 2 }, job.getStartingAssignment().getReplicas( "orders", 0 ) );
+
+        // Before and after, the after one read back from ZooKeeper.
+        final List< AssignmentSnapshot > snapshots = this.history.list( "orders", 0, 0 );
+        Assert.assertEquals( Arrays.asList( AssignmentSnapshot.Kind.AFTER, AssignmentSnapshot.Kind.BEFORE ),
+                             snapshots.stream().map( AssignmentSnapshot::getKind ).collect( Collectors.toList() ) );
+        final TopicPartitionAssignment after = this.history.getAssignment( snapshots.get( 0 ).getId() ).get();
+        Assert.assertArrayEquals( new int[]{ 3, 4 }, after.getReplicas( "orders", 0 ) );
+        Assert.assertArrayEquals( new int[]{ 3, 4 }, after.getReplicas( "orders", 1 ) );
+
+        // A restart finds it finished, not running.
+        this.jobStore.closeWriter();
+        final List< ReassignmentJob > stored = new ReassignmentJobStore( this.jobsFile.getPath() ).load();
+        Assert.assertEquals( 1, stored.size() );
+        Assert.assertEquals( ReassignmentJob.State.COMPLETED, stored.get( 0 ).getState() );
+    }
+
+    @Test
+    public void testRunningJobResumesWithWhatIsLeft() throws Exception
+    {
+        createTopic( "orders", 4, 1, 2 );
+
+        // Stopped after the partitions 0 and 1 had moved.
+        final ReassignmentJob stopped = new ReassignmentJob( "orders", move( "orders", 4, 3, 4 ), -1 );
+        this.jobStore.submitted( stopped );
+        stopped.setStartedAtMs( System.currentTimeMillis() );
+        this.jobStore.started( stopped );
+        this.jobStore.closeWriter();
+        setReplicas( "orders", 0, 3, 4 );
+        setReplicas( "orders", 1, 3, 4 );
+        writeTopic( "orders" );
+
+        startScheduler();
+        await( "the resumed wave", () -> !reassigning().isEmpty() );
+
+        final ReassignmentJob job = this.scheduler.getActiveJob();
+        Assert.assertEquals( stopped.getId(), job.getId() );
+        Assert.assertEquals( ReassignmentJob.State.RUNNING, job.getState() );
+        Assert.assertEquals( 1, job.getWaves().size() );
+        Assert.assertEquals( 2, job.getWaves().get( 0 ).getPartitionCount() );
+        Assert.assertEquals( new HashSet<>( Arrays.asList( new TopicAndPartition( "orders", 2 ),
+                                                           new TopicAndPartition( "orders", 3 ) ) ),
+                             completeReassignment() );
+        awaitFinished( job );
+        Assert.assertEquals( ReassignmentJob.State.COMPLETED, job.getState() );
+    }
+
+    @Test
+    public void testJobThatCannotStartFails() throws Exception
+    {
+        createTopic( "orders", 2, 1, 2 );
+        startScheduler();
+
+        // Broker 9 is not in the cluster.
+        final ReassignmentJob bad  = this.scheduler.submit( "bad", move( "orders", 2, 3, 9 ), -1 );
+        final ReassignmentJob next = this.scheduler.submit( "orders", move( "orders", 2, 3, 4 ), -1 );
+        await( "the next job", () -> !reassigning().isEmpty() );
+
+        Assert.assertEquals( ReassignmentJob.State.FAILED, bad.getState() );
+        Assert.assertTrue( bad.getError(), bad.getError().contains( "Plan rejected" ) );
+        Assert.assertEquals( ReassignmentJob.State.RUNNING, next.getState() );
+        Assert.assertEquals( Arrays.asList( 3, 4 ), reassigning().get( new TopicAndPartition( "orders", 0 ) ) );
+    }
+
+    @Test
+    public void testCompletedWaveClearsItsThrottles() throws Exception
+    {
+        createTopic( "orders", 2, 1, 2 );
+        startScheduler();
+
+        final ReassignmentJob job = this.scheduler.submit( "orders", move( "orders", 2, 3, 4 ), 1024 );
+        await( "the wave", () -> !reassigning().isEmpty() );
+        Assert.assertEquals( new TreeSet<>( Arrays.asList( "broker 1", "broker 2", "broker 3", "broker 4", "orders" ) ),
+                             throttled() );
+
+        completeReassignment();
+        awaitFinished( job );
+        Assert.assertEquals( Collections.emptySet(), throttled() );
+
+        final ReassignmentCompletion completion = this.scheduler.getCompletions().get( 0 );
+        Assert.assertEquals( job.getId(), completion.getJobId() );
+        Assert.assertEquals( Collections.singleton( "orders" ), completion.getTopics() );
+        Assert.assertEquals( 2, completion.getPartitionCount() );
+        Assert.assertEquals( 5, completion.getThrottlesCleared() );
+    }
+
+    @Test
+    public void testReassignmentStartedElsewhereIsRecorded() throws Exception
+    {
+        createTopic( "orders", 2, 1, 2 );
+        createTopic( "payments", 1, 1, 2 );
+
+        // Another tool's reassignment, throttled, running before the scheduler starts.
+        ReplicationThrottles.setRate( this.zkUtils, Arrays.asList( 1, 3 ), 1000 );
+        final Properties topicConfigs = new Properties();
+        topicConfigs.put( LogConfig$.MODULE$.LeaderReplicationThrottledReplicasProp(), "0:1" );
+        topicConfigs.put( LogConfig$.MODULE$.FollowerReplicationThrottledReplicasProp(), "0:3" );
+        AdminUtils$.MODULE$.changeTopicConfig( this.zkUtils, "orders", topicConfigs );
+        this.zkUtils.createPersistentPath( ZkUtils.ReassignPartitionsPath(),
+                                           "{\"version\":1,\"partitions\":[{\"topic\":\"orders\",\"partition\":0,\"replicas\":[3,2]}]}",
+                                           this.zkUtils.defaultAcls( ZkUtils.ReassignPartitionsPath() ) );
+        startScheduler();
+
+        completeReassignment();
+        await( "the completion", () -> !this.scheduler.getCompletions().isEmpty() );
+        Assert.assertEquals( Collections.emptySet(), throttled() );
+
+        final ReassignmentCompletion completion = this.scheduler.getCompletions().get( 0 );
+        Assert.assertNull( completion.getJobId() );
+        Assert.assertEquals( Collections.singleton( "orders" ), completion.getTopics() );
+        Assert.assertEquals( 1, completion.getPartitionCount() );
+        Assert.assertEquals( 3, completion.getThrottlesCleared() );
+        Assert.assertTrue( this.scheduler.getJobs().isEmpty() );
+    }
+}
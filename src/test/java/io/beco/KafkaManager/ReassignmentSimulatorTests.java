@@ -0,0 +1,161 @@
+/**
+ * @file ReassignmentSimulatorTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/5/18 11:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.common.TopicPartitionReplica;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+
+/**
+ * ReassignmentSimulatorTests is a class that tests the logic in {@link ReassignmentSimulator}.
+ */
+@RunWith( JUnit4.class )
+public class ReassignmentSimulatorTests
+{
+    private static final long MiB = 1024 * 1024;
+
+    private static final double DELTA = 0.001;
+
+    private final TopicPartitionAssignment current = new TopicPartitionAssignment();
+
+    private final TopicPartitionAssignment plan = new TopicPartitionAssignment();
+
+    private final Map< TopicPartitionReplica, Long > sizes = new HashMap<>();
+
+    /**
+     * Moves the partition, of the given size in MiB, from its only replica to the other broker.
+     *
+     * @param mib negative if the broker didn't report the partition.
+     */
+    private void move( final int partition, final int from, final int to, final long mib )
+    {
+        this.current.add( "orders", partition, new int[]{ from } );
+        this.plan.add( "orders", partition, new int[]{ from, to } );
+        if( mib >= 0 )
+        {
+            this.sizes.put( new TopicPartitionReplica( "orders", partition, from ), mib * MiB );
+        }
+    }
+
+    private ReassignmentSimulation simulate( final long throttleMiBps,
+                                             final Map< Integer, Long > brokerMiBps,
+                                             final int maxPartitionsPerWave,
+                                             final double waveGapSeconds )
+    {
+        final Map< Integer, Long > brokerBandwidth = new HashMap<>();
+        brokerMiBps.forEach( ( brokerId, mib ) -> brokerBandwidth.put( brokerId, mib * MiB ) );
+        final ReassignmentSimulator.Limits limits
+            = new ReassignmentSimulator.Limits( throttleMiBps < 0 ? -1 : throttleMiBps * MiB, 100 * MiB, brokerBandwidth );
+
+        return ReassignmentSimulator.simulate( this.plan,
+                                               this.current,
+                                               new ReplicaSizes( this.sizes, 0 ),
+                                               limits,
+                                               maxPartitionsPerWave,
+                                               Long.MAX_VALUE,
+                                               waveGapSeconds );
+    }
+
+    private static ReassignmentSimulation.BrokerTraffic broker( final ReassignmentSimulation simulation, final int brokerId )
+    {
+        return simulation.getBrokers()
+                         .stream()
+                         .filter( broker -> broker.getBrokerId() == brokerId )
+                         .findFirst()
+                         .orElseThrow( AssertionError::new );
+    }
+
+    @Test
+    public void testBottleneckBroker()
+    {
+        move( 0, 1, 3, 100 );
+        move( 1, 2, 3, 100 );
+
+        // Both copies go into broker 3 and get half of it each.
+        final ReassignmentSimulation simulation = simulate( -1, Collections.emptyMap(), 10, 0 );
+        Assert.assertEquals( 2.0, simulation.getSeconds(), DELTA );
+        Assert.assertEquals( 200 * MiB, simulation.getTotalBytes() );
+        Assert.assertEquals( 100 * MiB, broker( simulation, 3 ).getPeakInBytesPerSec() );
+        Assert.assertEquals( 200 * MiB, broker( simulation, 3 ).getBytesIn() );
+        Assert.assertEquals( 50 * MiB, broker( simulation, 1 ).getPeakOutBytesPerSec() );
+        Assert.assertEquals( 0, broker( simulation, 1 ).getBytesIn() );
+
+        Assert.assertEquals( 1.0, simulate( -1, Collections.singletonMap( 3, 200L ), 10, 0 ).getSeconds(), DELTA );
+    }
+
+    @Test
+    public void testThrottle()
+    {
+        move( 0, 1, 2, 100 );
+
+        Assert.assertEquals( 10.0, simulate( 10, Collections.emptyMap(), 10, 0 ).getSeconds(), DELTA );
+        // A throttle above the bandwidth doesn't speed anything up.
+        Assert.assertEquals( 1.0, simulate( 1000, Collections.emptyMap(), 10, 0 ).getSeconds(), DELTA );
+        Assert.assertEquals( 2.0, simulate( 1000, Collections.singletonMap( 1, 50L ), 10, 0 ).getSeconds(), DELTA );
+    }
+
+    @Test
+    public void testMaxMinFairShares()
+    {
+        move( 0, 1, 3, 100 );
+        move( 1, 2, 3, 100 );
+        move( 2, 2, 4, 100 );
+
+        // Broker 3 limits the first two copies to 50 MiB/s, the third gets the rest of broker 2 up to broker 4's 100,
+        // and finishes after a second; the other two need another.
+        final ReassignmentSimulation simulation = simulate( -1, Collections.singletonMap( 2, 200L ), 10, 0 );
+        Assert.assertEquals( 2.0, simulation.getSeconds(), DELTA );
+        Assert.assertEquals( 150 * MiB, broker( simulation, 2 ).getPeakOutBytesPerSec() );
+        Assert.assertEquals( 100 * MiB, broker( simulation, 4 ).getPeakInBytesPerSec() );
+    }
+
+    @Test
+    public void testWaves()
+    {
+        move( 0, 1, 2, 100 );
+        move( 1, 1, 2, 100 );
+        move( 2, 1, 2, 100 );
+
+        final ReassignmentSimulation simulation = simulate( -1, Collections.emptyMap(), 1, 2 );
+        Assert.assertEquals( 3, simulation.getWaves().size() );
+        Assert.assertEquals( 7.0, simulation.getSeconds(), DELTA );
+        Assert.assertEquals( 6.0, simulation.getWaves().get( 2 ).getStartSeconds(), DELTA );
+        Assert.assertEquals( 1.0, simulation.getWaves().get( 2 ).getSeconds(), DELTA );
+        Assert.assertEquals( "7s", simulation.getDuration() );
+    }
+
+    @Test
+    public void testUnsizedReplicas()
+    {
+        move( 0, 1, 2, 100 );
+        move( 1, 1, 2, -1 );
+        move( 2, 1, 2, 0 );
+
+        final ReassignmentSimulation simulation = simulate( -1, Collections.emptyMap(), 10, 0 );
+        Assert.assertEquals( 1, simulation.getUnsizedReplicas() );
+        Assert.assertEquals( 3, simulation.getPartitionCount() );
+        Assert.assertEquals( 1.0, simulation.getSeconds(), DELTA );
+    }
+
+    @Test
+    public void testDuration()
+    {
+        Assert.assertEquals( "0s", ReassignmentSimulation.duration( 0 ) );
+        Assert.assertEquals( "2m 01s", ReassignmentSimulation.duration( 120.2 ) );
+        Assert.assertEquals( "2h 05m 09s", ReassignmentSimulation.duration( 7509 ) );
+    }
+}
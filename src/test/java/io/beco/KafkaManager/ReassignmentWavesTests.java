@@ -0,0 +1,108 @@
+/**
+ * @file ReassignmentWavesTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/14/18 4:20 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.apache.kafka.common.TopicPartitionReplica;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+
+/**
+ * ReassignmentWavesTests is a class that tests the logic in {@link ReassignmentWaves}.
+ */
+@RunWith( JUnit4.class )
+public class ReassignmentWavesTests
+{
+    private static final String topic1 = "testTopic1";
+
+    @Test
+    public void testSplitByPartitionCount()
+    {
+        final List< TopicPartitionAssignment > waves
+            = ReassignmentWaves.split( plan( 10 ), current( 10 ), ReplicaSizes.EMPTY, 3, Long.MAX_VALUE );
+        Assert.assertEquals( 4, waves.size() );
+        Assert.assertEquals( 10, waves.stream().mapToInt( w -> w.generateTopicAssignments().size() ).sum() );
+        Assert.assertEquals( 1, waves.get( 3 ).generateTopicAssignments().size() );
+    }
+
+    @Test
+    public void testSplitByBytes()
+    {
+        // Partition p is p * 100 bytes, every move adds one replica.
+        final Map< TopicPartitionReplica, Long > sizes = new HashMap<>();
+        for( int p = 0; p < 10; ++p )
+        {
+            sizes.put( new TopicPartitionReplica( topic1, p, 1 ), p * 100L );
+        }
+        final ReplicaSizes replicaSizes = new ReplicaSizes( sizes, 0L );
+
+        final List< TopicPartitionAssignment > waves
+            = ReassignmentWaves.split( plan( 10 ), current( 10 ), replicaSizes, 100, 1000 );
+
+        long total = 0;
+        for( TopicPartitionAssignment wave : waves )
+        {
+            long waveBytes = 0;
+            for( TopicPartitionAssignment.TopicPartReplSet move : wave.generateTopicAssignments() )
+            {
+                waveBytes += replicaSizes.partitionSize( move.getTopic(), move.getPartition() );
+            }
+            Assert.assertTrue( "Wave over the byte cap: " + waveBytes, waveBytes <= 1000 );
+            total += waveBytes;
+        }
+        Assert.assertEquals( 4500, total );
+        // Largest first.
+        Assert.assertTrue( waves.get( 0 ).getTopicPartAssignments().get( topic1 ).containsKey( 9 ) );
+    }
+
+    @Test
+    public void testOversizedPartitionGetsItsOwnWave()
+    {
+        final Map< TopicPartitionReplica, Long > sizes = new HashMap<>();
+        sizes.put( new TopicPartitionReplica( topic1, 0, 1 ), 5000L );
+        final List< TopicPartitionAssignment > waves
+            = ReassignmentWaves.split( plan( 3 ), current( 3 ), new ReplicaSizes( sizes, 0L ), 100, 1000 );
+        Assert.assertEquals( 2, waves.size() );
+        Assert.assertEquals( 1, waves.get( 0 ).generateTopicAssignments().size() );
+    }
+
+    @Test
+    public void testEmptyPlan()
+    {
+        Assert.assertTrue( ReassignmentWaves.split( new TopicPartitionAssignment(), current( 3 ),
+                                                    ReplicaSizes.EMPTY, 10, 10 ).isEmpty() );
+    }
+
+    private static TopicPartitionAssignment current( final int partitions )
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int p = 0; p < partitions; ++p )
+        {
+            tpa.add( topic1, p, 1 );
+        }
+        return tpa;
+    }
+
+    private static TopicPartitionAssignment plan( final int partitions )
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int p = 0; p < partitions; ++p )
+        {
+            tpa.add( topic1, p, Arrays.asList( 1, 2 ) );
+        }
+        return tpa;
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * @file ReplicaPlacementPlannerTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/12/18 2:15 PM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartitionReplica;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+import java.util.function.IntToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * ReplicaPlacementPlannerTests is a class that tests the logic in {@link ReplicaPlacementPlanner}.
+ */
+@Slf4j
+@RunWith( JUnit4.class )
+public class ReplicaPlacementPlannerTests
+{
+    private static final String topic1 = "testTopic1";
+
+    private static final List< Integer > brokers = Arrays.asList( 1, 2, 3, 4 );
+
+    @Test
+    public void testIncreaseKeepsExistingReplicas()
+    {
+        final TopicPartitionAssignment current = rf1( topic1, 8, brokers );
+        final TopicPartitionAssignment target  = new ReplicaPlacementPlanner( brokers ).planTarget( current, 3 );
+
+        current.getTopicPartAssignments().get( topic1 ).forEach( ( partition, replicas ) -> {
+            final Set< Integer > planned = target.getTopicPartAssignments().get( topic1 ).get( partition );
+            Assert.assertEquals( 3, planned.size() );
+            Assert.assertTrue( "Existing replica must be kept", planned.containsAll( replicas ) );
+        } );
+
+        // 24 replicas over 4 brokers, 8 partitions over 4 leaders.
+        Assert.assertEquals( Arrays.asList( 6, 6, 6, 6 ), replicaCounts( target, brokers ) );
+        Assert.assertEquals( Arrays.asList( 2, 2, 2, 2 ), leaderCounts( target, brokers ) );
+    }
+
+    @Test
+    public void testPlanOnlyContainsChanges()
+    {
+        final TopicPartitionAssignment current = rf1( topic1, 8, brokers );
+        final TopicPartitionAssignment plan    = new ReplicaPlacementPlanner( brokers ).plan( current, 1 );
+        Assert.assertTrue( "Nothing to do at the same replication factor", plan.getTopicPartAssignments().isEmpty() );
+    }
+
+    @Test
+    public void testIneligibleBrokerIsDrained()
+    {
+        final TopicPartitionAssignment current = new ReplicaPlacementPlanner( brokers ).planTarget( rf1( topic1, 8, brokers ), 2 );
+        final List< Integer > remaining = Arrays.asList( 1, 2, 3 );
+        final TopicPartitionAssignment target
+            = new ReplicaPlacementPlanner( remaining ).planTarget( current, ReplicaPlacementPlanner.KEEP_REPLICATION_FACTOR );
+
+        target.getTopicPartAssignments().get( topic1 ).forEach( ( partition, replicas ) -> {
+            Assert.assertEquals( 2, replicas.size() );
+            Assert.assertFalse( replicas.contains( 4 ) );
+            final Set< Integer > before = new HashSet<>( current.getTopicPartAssignments().get( topic1 ).get( partition ) );
+            before.remove( 4 );
+            Assert.assertTrue( "Replicas on remaining brokers must be kept", replicas.containsAll( before ) );
+        } );
+        Assert.assertEquals( 16, replicaCounts( target, remaining ).stream().mapToInt( Integer::intValue ).sum() );
+
+        // Allowed to move replicas that are already on the remaining brokers, the counts even out.
+        final ReplicaPlacementPlanner balancing = new ReplicaPlacementPlanner( remaining );
+        balancing.setBalanceReplicas( true );
+        final List< Integer > counts
+            = replicaCounts( balancing.planTarget( current, ReplicaPlacementPlanner.KEEP_REPLICATION_FACTOR ), remaining );
+        Assert.assertTrue( counts.toString(), Collections.max( counts ) - Collections.min( counts ) <= 1 );
+    }
+
+    @Test
+    public void testDecreaseReplicationFactor()
+    {
+        final TopicPartitionAssignment current = new ReplicaPlacementPlanner( brokers ).planTarget( rf1( topic1, 8, brokers ), 3 );
+        final TopicPartitionAssignment target  = new ReplicaPlacementPlanner( brokers ).planTarget( current, 2 );
+
+        target.getTopicPartAssignments().get( topic1 ).forEach( ( partition, replicas ) -> {
+            Assert.assertEquals( 2, replicas.size() );
+            Assert.assertTrue( current.getTopicPartAssignments().get( topic1 ).get( partition ).containsAll( replicas ) );
+        } );
+        Assert.assertEquals( Arrays.asList( 4, 4, 4, 4 ), replicaCounts( target, brokers ) );
+    }
+
+    @Test
+    public void testBalanceReplicasAfterAddingBrokers()
+    {
+        final List< Integer > oldBrokers = Arrays.asList( 1, 2 );
+        final TopicPartitionAssignment current = new ReplicaPlacementPlanner( oldBrokers ).planTarget( rf1( topic1, 8, oldBrokers ), 2 );
+
+        final ReplicaPlacementPlanner planner = new ReplicaPlacementPlanner( brokers );
+        planner.setBalanceReplicas( true );
+        final TopicPartitionAssignment plan = planner.plan( current, 2 );
+
+        final TopicPartitionAssignment target = planner.planTarget( current, 2 );
+        Assert.assertEquals( Arrays.asList( 4, 4, 4, 4 ), replicaCounts( target, brokers ) );
+
+        // Exactly 8 replicas have to move to fill brokers 3 and 4, and no partition moves both replicas.
+        final AssignmentChangeSummary summary = AssignmentChangeSummary.of( plan, current );
+        Assert.assertEquals( 8, summary.getTotalReplicasAdded() );
+        Assert.assertEquals( 8, summary.getTotalReplicasRemoved() );
+    }
+
+    /**
+     * Going to RF 2 with one huge partition per broker on brokers 1 and 2: counting replicas alone
+     * piles the copies up unevenly, with sizes every broker ends up with close to the same bytes.
+     */
+    @Test
+    public void testSizedPlanEvensOutBytes()
+    {
+        final TopicPartitionAssignment current = rf1( topic1, 16, brokers );
+        final ReplicaSizes sizes = sizes( current, p -> p < 2 ? 1000L : 10L );
+
+        final ReplicaPlacementPlanner counting = new ReplicaPlacementPlanner( brokers );
+        final ReplicaPlacementPlanner sized    = new ReplicaPlacementPlanner( brokers );
+        sized.setReplicaSizes( sizes );
+
+        final List< Long > countingBytes = byteCounts( counting.planTarget( current, 2 ), sizes, brokers );
+        final List< Long > sizedBytes    = byteCounts( sized.planTarget( current, 2 ), sizes, brokers );
+        log.info( "Bytes per broker counting replicas {}, by size {}.", countingBytes, sizedBytes );
+
+        Assert.assertTrue( spread( sizedBytes ) < spread( countingBytes ) );
+        Assert.assertTrue( sizedBytes.toString(), spread( sizedBytes ) <= 1000L );
+        // Replica counts stay even.
+        Assert.assertEquals( Arrays.asList( 8, 8, 8, 8 ), replicaCounts( sized.planTarget( current, 2 ), brokers ) );
+    }
+
+    /**
+     * Filling new brokers moves the same number of replicas either way, with sizes they are the small ones.
+     */
+    @Test
+    public void testSizedBalanceMovesFewerBytes()
+    {
+        final List< Integer > oldBrokers = Arrays.asList( 1, 2 );
+        final TopicPartitionAssignment current = rf1( topic1, 16, oldBrokers );
+        final ReplicaSizes sizes = sizes( current, p -> p % 3 == 0 ? 500L : 5L );
+
+        final ReplicaPlacementPlanner counting = new ReplicaPlacementPlanner( brokers );
+        counting.setBalanceReplicas( true );
+        final ReplicaPlacementPlanner sized = new ReplicaPlacementPlanner( brokers );
+        sized.setBalanceReplicas( true );
+        sized.setReplicaSizes( sizes );
+
+        final AssignmentChangeSummary countingSummary
+            = AssignmentChangeSummary.of( counting.plan( current, 1 ), current, sizes );
+        final AssignmentChangeSummary sizedSummary
+            = AssignmentChangeSummary.of( sized.plan( current, 1 ), current, sizes );
+        log.info( "Bytes moved counting replicas {}, by size {}.",
+                  countingSummary.getTotalBytesAdded(), sizedSummary.getTotalBytesAdded() );
+
+        Assert.assertEquals( Arrays.asList( 4, 4, 4, 4 ), replicaCounts( sized.planTarget( current, 1 ), brokers ) );
+        Assert.assertTrue( sizedSummary.getTotalBytesAdded() < countingSummary.getTotalBytesAdded() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testReplicationFactorAboveBrokerCount()
+    {
+        new ReplicaPlacementPlanner( brokers ).planTarget( rf1( topic1, 8, brokers ), 5 );
+    }
+
+    @Test
+    public void testReplicationFactorBelowOne()
+    {
+        for( int target : new int[]{ 0, -2 } )
+        {
+            try
+            {
+                new ReplicaPlacementPlanner( brokers ).planTarget( rf1( topic1, 8, brokers ), target );
+                Assert.fail( "Replication factor " + target + " must be rejected." );
+            }
+            catch( IllegalArgumentException e )
+            {
+                Assert.assertTrue( e.getMessage().contains( "at least 1" ) );
+            }
+        }
+    }
+
+    /**
+     * 100k partitions over 200 topics going from RF 1 to RF 3 on 30 brokers. The time is only logged,
+     * ReplicaPlacementPlannerBenchmark measures it.
+     */
+    @Test
+    public void testPlanScale()
+    {
+        final List< Integer > manyBrokers = IntStream.range( 0, 30 ).boxed().collect( Collectors.toList() );
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        for( int t = 0; t < 200; ++t )
+        {
+            final TopicPartitionAssignment topic = rf1( "scale.topic." + t, 500, manyBrokers );
+            topic.getTopicPartAssignments().forEach( current::set );
+        }
+
+        final ReplicaPlacementPlanner planner = new ReplicaPlacementPlanner( manyBrokers );
+        // Warm up the JIT once, then time.
+        planner.planTarget( current, 3 );
+        final long start = System.nanoTime();
+        final TopicPartitionAssignment target = planner.planTarget( current, 3 );
+        final long elapsedMs = ( System.nanoTime() - start ) / 1_000_000;
+        log.info( "Planned 100000 partitions in {} ms.", elapsedMs );
+
+        Assert.assertEquals( 300_000, replicaCounts( target, manyBrokers ).stream().mapToInt( Integer::intValue ).sum() );
+        Assert.assertEquals( 10_000, ( int ) Collections.max( replicaCounts( target, manyBrokers ) ) );
+    }
+
+    private static ReplicaSizes sizes( final TopicPartitionAssignment tpa, final IntToLongFunction sizeOfPartition )
+    {
+        final Map< TopicPartitionReplica, Long > sizes = new HashMap<>();
+        tpa.forEach( ( topic, partition, replicas ) -> {
+            for( int brokerId : replicas )
+            {
+                sizes.put( new TopicPartitionReplica( topic, partition, brokerId ), sizeOfPartition.applyAsLong( partition ) );
+            }
+        } );
+        return new ReplicaSizes( sizes, System.currentTimeMillis() );
+    }
+
+    private static List< Long > byteCounts( final TopicPartitionAssignment tpa,
+                                            final ReplicaSizes sizes,
+                                            final List< Integer > brokers )
+    {
+        final Map< Integer, Long > counts = new HashMap<>();
+        tpa.forEach( ( topic, partition, replicas ) -> {
+            for( int brokerId : replicas )
+            {
+                counts.merge( brokerId, sizes.partitionSize( topic, partition ), Long::sum );
+            }
+        } );
+        return brokers.stream().map( b -> counts.getOrDefault( b, 0L ) ).collect( Collectors.toList() );
+    }
+
+    private static long spread( final List< Long > values )
+    {
+        return Collections.max( values ) - Collections.min( values );
+    }
+
+    private static TopicPartitionAssignment rf1( final String topic, final int partitions, final List< Integer > brokers )
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int p = 0; p < partitions; ++p )
+        {
+            tpa.add( topic, p, brokers.get( p % brokers.size() ) );
+        }
+        return tpa;
+    }
+
+    private static List< Integer > replicaCounts( final TopicPartitionAssignment tpa, final List< Integer > brokers )
+    {
+        final Map< Integer, Integer > counts = new HashMap<>();
+        tpa.getTopicPartAssignments().values().forEach( parts -> parts.values().forEach(
+            replicas -> replicas.forEach( b -> counts.merge( b, 1, Integer::sum ) ) ) );
+        return brokers.stream().map( b -> counts.getOrDefault( b, 0 ) ).collect( Collectors.toList() );
+    }
+
+    private static List< Integer > leaderCounts( final TopicPartitionAssignment tpa, final List< Integer > brokers )
+    {
+        final Map< Integer, Integer > counts = new HashMap<>();
+        tpa.getTopicPartAssignments().values().forEach( parts -> parts.values().forEach(
+            replicas -> counts.merge( replicas.iterator().next(), 1, Integer::sum ) ) );
+        return brokers.stream().map( b -> counts.getOrDefault( b, 0 ) ).collect( Collectors.toList() );
+    }
+}
@@ -12,16 +12,24 @@
 
 package io.beco.KafkaManager;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartitionReplica;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
-import java.util.List;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
 
 /**
  * TopicPartitionAssignmentTests is a class that tests the logic in {@link TopicPartitionAssignment}.
  */
+@Slf4j
 @RunWith( JUnit4.class )
 public class TopicPartitionAssignmentTests
 {
@@ -54,6 +62,312 @@ public class TopicPartitionAssignmentTests
         Assert.assertEquals( 3, changes.getTopicPartAssignments().get( topic2 ).get( 2 ).size() );
     }
 
+    @Test
+    public void testUnchangedPartitionsAreLeftOut()
+    {
+        final TopicPartitionAssignment requested = new TopicPartitionAssignment();
+        requested.add( topic1, 1, 1 ); // same as current
+        requested.add( topic1, 1, 2 );
+        requested.add( topic1, 2, 2 ); // drops broker 1, adds broker 3
+        requested.add( topic1, 2, 3 );
+
+        final TopicPartitionAssignment changes =
+            TopicPartitionAssignment.findAssignmentChanges( requested, testSet1() );
+        Assert.assertEquals( 1, changes.getTopicPartAssignments().get( topic1 ).size() );
+        Assert.assertFalse( changes.getTopicPartAssignments().get( topic1 ).containsKey( 1 ) );
+        Assert.assertEquals( 1, changes.generateTopicAssignments().size() );
+
+        final AssignmentChangeSummary summary = AssignmentChangeSummary.of( changes, testSet1() );
+        Assert.assertEquals( 1, summary.getPartitionsChanged() );
+        Assert.assertEquals( Integer.valueOf( 1 ), summary.getReplicasAdded().get( 3 ) );
+        Assert.assertEquals( Integer.valueOf( 1 ), summary.getReplicasRemoved().get( 1 ) );
+        Assert.assertFalse( summary.getReplicasAdded().containsKey( 2 ) );
+        Assert.assertFalse( summary.getReplicasRemoved().containsKey( 2 ) );
+    }
+
+    @Test
+    public void testSummaryCountsBytesToCopy()
+    {
+        // RF 2 -> 3: partition 1 gets a replica on broker 3, partition 2 on broker 4.
+        final TopicPartitionAssignment requested = new TopicPartitionAssignment();
+        requested.add( topic1, 1, Arrays.asList( 1, 2, 3 ) );
+        requested.add( topic1, 2, Arrays.asList( 1, 2, 4 ) );
+
+        final Map< TopicPartitionReplica, Long > replicaSizes = new HashMap<>();
+        replicaSizes.put( new TopicPartitionReplica( topic1, 1, 1 ), 1000L );
+        replicaSizes.put( new TopicPartitionReplica( topic1, 1, 2 ), 900L ); // lagging follower
+        replicaSizes.put( new TopicPartitionReplica( topic1, 2, 1 ), 50L );
+
+        final TopicPartitionAssignment changes = TopicPartitionAssignment.findAssignmentChanges( requested, testSet1() );
+        final AssignmentChangeSummary summary
+            = AssignmentChangeSummary.of( changes, testSet1(), new ReplicaSizes( replicaSizes, 1L ) );
+        Assert.assertTrue( summary.isBytesKnown() );
+        Assert.assertEquals( Long.valueOf( 1000L ), summary.getBytesAdded().get( 3 ) );
+        Assert.assertEquals( Long.valueOf( 50L ), summary.getBytesAdded().get( 4 ) );
+        Assert.assertEquals( 1050L, summary.getTotalBytesAdded() );
+        Assert.assertEquals( 2, summary.getTotalReplicasAdded() );
+
+        Assert.assertFalse( AssignmentChangeSummary.of( changes, testSet1() ).isBytesKnown() );
+    }
+
+    @Test
+    public void testNoChanges()
+    {
+        final TopicPartitionAssignment changes =
+            TopicPartitionAssignment.findAssignmentChanges( testSet1(), testSet1() );
+        Assert.assertTrue( changes.getTopicPartAssignments().isEmpty() );
+        Assert.assertEquals( 0, AssignmentChangeSummary.of( changes, testSet1() ).getPartitionsChanged() );
+    }
+
+    @Test
+    public void testReplicaOrderSurvivesInterleavedAdds()
+    {
+        // Adding to every partition in turn moves each replica list to the end of the pool,
+        // enough times to force compaction.
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int replica = 0; replica < 5; ++replica )
+        {
+            for( int p = 999; p >= 0; --p )
+            {
+                tpa.add( topic1, p, ( p + replica ) % 7 );
+            }
+        }
+        tpa.add( topic1, 10, 10 % 7 ); // duplicate, ignored
+
+        Assert.assertEquals( 1000, tpa.getPartitionCount() );
+        for( int p = 0; p < 1000; ++p )
+        {
+            final int[] replicas = tpa.getReplicas( topic1, p );
+            Assert.assertEquals( 5, replicas.length );
+            for( int replica = 0; replica < 5; ++replica )
+            {
+                Assert.assertEquals( ( p + replica ) % 7, replicas[ replica ] );
+            }
+        }
+        Assert.assertNull( tpa.getReplicas( topic1, 1000 ) );
+        Assert.assertNull( tpa.getReplicas( topic2, 0 ) );
+        Assert.assertEquals( Arrays.asList( 0, 1, 2, 3, 4 ),
+                             new ArrayList<>( tpa.getTopicPartAssignments().get( topic1 ).get( 0 ) ) );
+    }
+
+    @Test
+    public void testLeaderChangeIsAChange()
+    {
+        final TopicPartitionAssignment requested = new TopicPartitionAssignment();
+        requested.add( topic1, 1, Arrays.asList( 2, 1 ) );
+
+        final TopicPartitionAssignment changes =
+            TopicPartitionAssignment.findAssignmentChanges( requested, testSet1() );
+        Assert.assertArrayEquals( new int[]{ 2, 1 }, changes.getReplicas( topic1, 1 ) );
+
+        final TopicPartitionAssignment ordered =
+            TopicPartitionAssignment.keepCurrentReplicaOrder( requested, testSet1() );
+        Assert.assertArrayEquals( new int[]{ 1, 2 }, ordered.getReplicas( topic1, 1 ) );
+    }
+
+    @Test
+    public void testSetReplacesTopic()
+    {
+        final TopicPartitionAssignment tpa = testSet1();
+        final Map< Integer, Set< Integer > > parts = new HashMap<>();
+        parts.put( 7, new LinkedHashSet<>( Arrays.asList( 3, 4 ) ) );
+        tpa.set( topic1, parts );
+
+        Assert.assertEquals( 3, tpa.getPartitionCount() );
+        Assert.assertFalse( tpa.contains( topic1, 1 ) );
+        Assert.assertArrayEquals( new int[]{ 7 }, tpa.getPartitions( topic1 ) );
+        Assert.assertArrayEquals( new int[]{ 3, 4 }, tpa.getReplicas( topic1, 7 ) );
+    }
+
+    @Test
+    public void testJson() throws Exception
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        tpa.add( topic1, 0, Arrays.asList( 2, 1 ) );
+        tpa.add( topic2, 3, 1 );
+
+        Assert.assertEquals( "{\"version\":1,\"partitions\":["
+                             + "{\"topic\":\"testTopic1\",\"partition\":0,\"replicas\":[2,1]},"
+                             + "{\"topic\":\"testTopic2\",\"partition\":3,\"replicas\":[1]}]}",
+                             new ObjectMapper().writeValueAsString( tpa ) );
+    }
+
+    @Test
+    public void testReadJson() throws Exception
+    {
+        // As produced by kafka-reassign-partitions.sh --generate, log_dirs is not used here.
+        final String json = "{\"version\":1,\"partitions\":["
+                            + "{\"topic\":\"testTopic1\",\"partition\":4,\"replicas\":[3,1,2],\"log_dirs\":[\"any\",\"any\",\"any\"]},"
+                            + "{\"partition\":0,\"replicas\":[2],\"topic\":\"testTopic2\"}]}";
+
+        final ObjectMapper om = new ObjectMapper();
+        final TopicPartitionAssignment tpa = om.readValue( json, TopicPartitionAssignment.class );
+        Assert.assertEquals( 2, tpa.getPartitionCount() );
+        Assert.assertArrayEquals( new int[]{ 3, 1, 2 }, tpa.getReplicas( topic1, 4 ) );
+        Assert.assertArrayEquals( new int[]{ 2 }, tpa.getReplicas( topic2, 0 ) );
+
+        final TopicPartitionAssignment roundTrip
+            = om.readValue( om.writeValueAsString( testSet1() ), TopicPartitionAssignment.class );
+        Assert.assertTrue( TopicPartitionAssignment.findAssignmentChanges( roundTrip, testSet1() ).isEmpty() );
+        Assert.assertEquals( testSet1().getPartitionCount(), roundTrip.getPartitionCount() );
+    }
+
+    @Test
+    public void testReadJsonRejectsBadPlans()
+    {
+        final ObjectMapper om = new ObjectMapper();
+        for( String json : Arrays.asList( "{\"version\":2,\"partitions\":[]}",
+                                          "{\"partitions\":[{\"topic\":\"testTopic1\",\"replicas\":[1]}]}",
+                                          "{\"partitions\":[{\"topic\":\"testTopic1\",\"partition\":0,\"replicas\":[]}]}",
+                                          "{\"partitions\":[{\"topic\":\"testTopic1\",\"partition\":0,\"replicas\":[\"a\"]}]}",
+                                          "[]" ) )
+        {
+            try
+            {
+                om.readValue( json, TopicPartitionAssignment.class );
+                Assert.fail( "Should have rejected " + json );
+            }
+            catch( IOException expected )
+            {
+                // good
+            }
+        }
+    }
+
+    /**
+     * add() merges a repeated partition and drops a repeated broker, a plan read that way is not the one written.
+     */
+    @Test
+    public void testReadJsonRepeats() throws Exception
+    {
+        final ObjectMapper om = new ObjectMapper();
+        final String json = "{\"partitions\":[{\"topic\":\"testTopic1\",\"partition\":0,\"replicas\":[1,2]},"
+                            + "{\"topic\":\"testTopic1\",\"partition\":0,\"replicas\":[3]}]}";
+        try
+        {
+            om.readValue( json, TopicPartitionAssignment.class );
+            Assert.fail( "Should have rejected " + json );
+        }
+        catch( IOException expected )
+        {
+            Assert.assertTrue( expected.getMessage(), expected.getMessage().contains( "listed twice" ) );
+        }
+
+        // Repeated replicas are read as written, for the PlanValidator to report.
+        final TopicPartitionAssignment read
+            = om.readValue( "{\"partitions\":[{\"topic\":\"testTopic1\",\"partition\":0,\"replicas\":[1,2,1]}]}",
+                            TopicPartitionAssignment.class );
+        Assert.assertArrayEquals( new int[]{ 1, 2, 1 }, read.getReplicas( "testTopic1", 0 ) );
+        final TopicPartitionAssignment current = new TopicPartitionAssignment();
+        current.add( "testTopic1", 0, new int[]{ 1, 2 } );
+        Assert.assertArrayEquals( new int[]{ 1, 2, 1 },
+                                  TopicPartitionAssignment.findAssignmentChanges( read, current ).getReplicas( "testTopic1", 0 ) );
+    }
+
+    /**
+     * 100k partitions at RF 3, in the order a cluster snapshot adds them: the primitive tables should stay
+     * within a small multiple of the 24 bytes of ints each partition needs, where boxed sets took ~314 bytes.
+     */
+    @Test
+    public void testRetainedSize() throws Exception
+    {
+        final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
+        for( int t = 0; t < 2000; ++t )
+        {
+            for( int p = 0; p < 50; ++p )
+            {
+                tpa.add( "topic-" + t, p, new int[]{ p % 12, ( p + 1 ) % 12, ( p + 2 ) % 12 } );
+            }
+        }
+
+        final long perPartition = retainedBytes( tpa ) / tpa.getPartitionCount();
+        log.info( "TopicPartitionAssignment retains {} bytes per partition.", perPartition );
+        Assert.assertTrue( perPartition + " bytes per partition", perPartition < 64 );
+    }
+
+    /**
+     * Walks the object graph and adds up the shallow sizes, as laid out by a 64 bit JVM with compressed
+     * references: 12 byte object headers, 16 byte array headers, 4 byte references, 8 byte alignment.
+     */
+    private static long retainedBytes( final Object root ) throws IllegalAccessException
+    {
+        final Set< Object > seen = Collections.newSetFromMap( new IdentityHashMap<>() );
+        final Deque< Object > pending = new ArrayDeque<>();
+        pending.push( root );
+        long bytes = 0;
+        while( !pending.isEmpty() )
+        {
+            final Object o = pending.pop();
+            if( o instanceof Class || !seen.add( o ) )
+            {
+                continue;
+            }
+            final Class< ? > type = o.getClass();
+            if( type.isArray() )
+            {
+                final Class< ? > component = type.getComponentType();
+                final int length = Array.getLength( o );
+                bytes += align( 16L + (long)length * sizeOf( component ) );
+                if( !component.isPrimitive() )
+                {
+                    for( Object element : (Object[])o )
+                    {
+                        if( element != null )
+                        {
+                            pending.push( element );
+                        }
+                    }
+                }
+                continue;
+            }
+            long shell = 12;
+            for( Class< ? > c = type; c != null; c = c.getSuperclass() )
+            {
+                for( Field field : c.getDeclaredFields() )
+                {
+                    if( Modifier.isStatic( field.getModifiers() ) )
+                    {
+                        continue;
+                    }
+                    shell += sizeOf( field.getType() );
+                    if( !field.getType().isPrimitive() )
+                    {
+                        field.setAccessible( true );
+                        final Object value = field.get( o );
+                        if( value != null )
+                        {
+                            pending.push( value );
+                        }
+                    }
+                }
+            }
+            bytes += align( shell );
+        }
+        return bytes;
+    }
+
+    private static long sizeOf( final Class< ? > type )
+    {
+        if( type == long.class || type == double.class )
+        {
+            return 8;
+        }
+        if( type == short.class || type == char.class )
+        {
+            return 2;
+        }
+        if( type == byte.class || type == boolean.class )
+        {
+            return 1;
+        }
+        return 4;
+    }
+
+    private static long align( final long bytes )
+    {
+        return ( bytes + 7 ) & ~7L;
+    }
+
     private TopicPartitionAssignment testSet1()
     {
         final TopicPartitionAssignment tpa = new TopicPartitionAssignment();
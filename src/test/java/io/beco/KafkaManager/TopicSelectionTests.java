@@ -0,0 +1,55 @@
+/**
+ * @file TopicSelectionTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 3/27/18 11:40 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TopicSelectionTests is a class that tests the logic in {@link TopicSelection}.
+ */
+@RunWith( JUnit4.class )
+public class TopicSelectionTests
+{
+    private static final List< String > topics = Arrays.asList( "orders", "orders-dlq", "payments", "audit.events" );
+
+    @Test
+    public void testListAndPattern()
+    {
+        Assert.assertEquals( Arrays.asList( "orders", "payments" ),
+                             Arrays.asList( TopicSelection.select( topics, " payments,\norders ", null ).toArray() ) );
+        // The pattern has to match the whole name.
+        Assert.assertEquals( Arrays.asList( "orders-dlq" ),
+                             Arrays.asList( TopicSelection.select( topics, "", ".*-dlq" ).toArray() ) );
+        Assert.assertTrue( TopicSelection.select( topics, null, "order" ).isEmpty() );
+        Assert.assertEquals( Arrays.asList( "audit.events", "orders", "orders-dlq" ),
+                             Arrays.asList( TopicSelection.select( topics, "audit.events", "orders.*" ).toArray() ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testUnknownTopic()
+    {
+        TopicSelection.select( topics, "orders missing", null );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidPattern()
+    {
+        TopicSelection.select( topics, null, "orders[" );
+    }
+}
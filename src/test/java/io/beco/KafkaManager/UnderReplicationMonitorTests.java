@@ -0,0 +1,211 @@
+/**
+ * @file UnderReplicationMonitorTests.java
+ * <p>
+ * Copyright (C) 2018 by Beco Inc. All Rights Reserved.
+ * See included LICENSE file with this for terms of use.
+ * <p>
+ * Any use, compilation, or distribution of this source code constitutes consent to the
+ * terms and conditions in the license file.
+ * @date 4/3/18 11:00 AM
+ * @author jzampieron
+ */
+
+package io.beco.KafkaManager;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * UnderReplicationMonitorTests is a class that tests the logic in {@link UnderReplicationMonitor}.
+ */
+@Slf4j
+@RunWith( JUnit4.class )
+public class UnderReplicationMonitorTests
+{
+    private static final List< Node > nodes = Arrays.asList( node( 1 ), node( 2 ), node( 3 ) );
+
+    private static Node node( final int id )
+    {
+        return new Node( id, "broker" + id, 9092 );
+    }
+
+    private static List< Node > nodes( final int... ids )
+    {
+        final List< Node > list = new ArrayList<>();
+        Arrays.stream( ids ).forEach( id -> list.add( node( id ) ) );
+        return list;
+    }
+
+    /**
+     * @param isrs the ISR of each partition in order, every partition is replicated on brokers 1-3.
+     */
+    private static TopicDescription topic( final String name, final int[]... isrs )
+    {
+        final List< TopicPartitionInfo > infos = new ArrayList<>();
+        for( int p = 0; p < isrs.length; p++ )
+        {
+            final List< Node > isr = nodes( isrs[ p ] );
+            infos.add( new TopicPartitionInfo( p, isr.isEmpty() ? null : isr.get( 0 ), nodes, isr ) );
+        }
+        return new TopicDescription( name, false, infos );
+    }
+
+    private static ClusterMetadataSnapshot snapshot( final long fetchedAtMs, final TopicDescription... topics )
+    {
+        final Map< String, TopicDescription > descriptions = new HashMap<>();
+        Arrays.stream( topics ).forEach( t -> descriptions.put( t.name(), t ) );
+        return new ClusterMetadataSnapshot( "cluster",
+                                            nodes.get( 0 ),
+                                            ClusterMetadataSnapshot.sortNodes( nodes ),
+                                            Collections.emptyMap(),
+                                            descriptions,
+                                            fetchedAtMs );
+    }
+
+    private static final int[] ALL = { 1, 2, 3 };
+
+    @Test
+    public void testShrinkAndExpand()
+    {
+        final UnderReplicationMonitor monitor = new UnderReplicationMonitor( null );
+        monitor.update( snapshot( 1000, topic( "orders", ALL, ALL, ALL ) ) );
+        Assert.assertEquals( 0, monitor.getUnderReplicatedCount() );
+        Assert.assertTrue( monitor.getIsrChanges().isEmpty() );
+
+        monitor.update( snapshot( 2000, topic( "orders", ALL, new int[]{ 1, 2 }, new int[]{ 1 } ) ) );
+        final UnderReplicationMonitor.Summary summary = monitor.getSummary();
+        Assert.assertEquals( 2, summary.getUnderReplicated() );
+        Assert.assertEquals( 1, summary.getAtRisk() );
+        Assert.assertEquals( 0, summary.getOffline() );
+        Assert.assertEquals( Collections.singletonMap( "orders", 2 ), summary.getTopics() );
+        Assert.assertEquals( Integer.valueOf( 1 ), summary.getBrokers().get( 2 ) );
+        Assert.assertEquals( Integer.valueOf( 2 ), summary.getBrokers().get( 3 ) );
+        Assert.assertEquals( 2, monitor.getOutOfSyncReplicas( 3 ) );
+
+        final List< UnderReplicationMonitor.UnderReplicatedPartition > urps = monitor.getUnderReplicated( null, null );
+        Assert.assertEquals( 2, urps.get( 0 ).getPartition() );
+        Assert.assertTrue( urps.get( 0 ).isAtRisk() );
+        Assert.assertArrayEquals( new int[]{ 2, 3 }, urps.get( 0 ).getOutOfSync() );
+        Assert.assertEquals( 1, urps.get( 1 ).getPartition() );
+        Assert.assertEquals( 2000, urps.get( 1 ).getSinceMs() );
+        Assert.assertEquals( 1, monitor.getUnderReplicated( null, 2 ).size() );
+
+        final List< UnderReplicationMonitor.IsrChange > changes = monitor.getIsrChanges();
+        Assert.assertEquals( 2, changes.size() );
+        Assert.assertTrue( changes.stream().allMatch( UnderReplicationMonitor.IsrChange::isShrink ) );
+
+        monitor.update( snapshot( 3000, topic( "orders", ALL, ALL, new int[]{ 1, 3 } ) ) );
+        Assert.assertEquals( 1, monitor.getUnderReplicatedCount() );
+        Assert.assertEquals( 0, monitor.getAtRiskCount() );
+        Assert.assertEquals( Collections.singletonMap( 2, 1 ), monitor.getSummary().getBrokers() );
+        // Still under replicated since it was first seen so.
+        Assert.assertEquals( 2000, monitor.getUnderReplicated( "orders", null ).get( 0 ).getSinceMs() );
+        Assert.assertEquals( 4, monitor.getIsrChanges().size() );
+        Assert.assertFalse( monitor.getIsrChanges().get( 0 ).isShrink() );
+    }
+
+    @Test
+    public void testUnchangedRefreshKeepsState()
+    {
+        final UnderReplicationMonitor monitor = new UnderReplicationMonitor( null );
+        monitor.update( snapshot( 1000, topic( "orders", new int[]{ 1, 2 } ) ) );
+        monitor.update( snapshot( 2000, topic( "orders", new int[]{ 1, 2 } ) ) );
+        // The same snapshot delivered twice is only counted once.
+        monitor.update( snapshot( 2000, topic( "orders", new int[]{ 1, 2 } ) ) );
+
+        Assert.assertEquals( 1, monitor.getUnderReplicatedCount() );
+        Assert.assertEquals( 1000, monitor.getUnderReplicated( null, null ).get( 0 ).getSinceMs() );
+        Assert.assertEquals( Collections.singletonMap( "orders", 1 ), monitor.getSummary().getTopics() );
+        Assert.assertTrue( monitor.getIsrChanges().isEmpty() );
+    }
+
+    @Test
+    public void testNewAndDeletedTopics()
+    {
+        final UnderReplicationMonitor monitor = new UnderReplicationMonitor( null );
+        monitor.update( snapshot( 1000, topic( "orders", ALL ) ) );
+        monitor.update( snapshot( 2000, topic( "orders", ALL ), topic( "payments", new int[ 0 ], new int[]{ 3 } ) ) );
+
+        Assert.assertEquals( 2, monitor.getUnderReplicatedCount() );
+        Assert.assertEquals( 2, monitor.getAtRiskCount() );
+        Assert.assertEquals( 1, monitor.getOfflineCount() );
+        Assert.assertEquals( -1, monitor.getUnderReplicated( null, null ).get( 0 ).getLeader() );
+        // A topic seen for the first time has no ISR to have changed from.
+        Assert.assertTrue( monitor.getIsrChanges().isEmpty() );
+
+        monitor.update( snapshot( 3000, topic( "orders", ALL ) ) );
+        Assert.assertEquals( 0, monitor.getUnderReplicatedCount() );
+        Assert.assertEquals( 0, monitor.getAtRiskCount() );
+        Assert.assertEquals( 0, monitor.getOfflineCount() );
+        Assert.assertTrue( monitor.getSummary().getTopics().isEmpty() );
+        Assert.assertTrue( monitor.getSummary().getBrokers().isEmpty() );
+    }
+
+    @Test
+    public void testLargeCluster()
+    {
+        final int[][] healthy = new int[ 1000 ][];
+        Arrays.fill( healthy, ALL );
+        final TopicDescription[] topics = new TopicDescription[ 100 ];
+        for( int t = 0; t < topics.length; t++ )
+        {
+            topics[ t ] = topic( "topic-" + t, healthy );
+        }
+        final UnderReplicationMonitor monitor = new UnderReplicationMonitor( null );
+        monitor.update( snapshot( 1000, topics ) );
+
+        final int[][] broken = healthy.clone();
+        broken[ 7 ] = new int[]{ 1 };
+        topics[ 42 ] = topic( "topic-42", broken );
+        final long startNs = System.nanoTime();
+        monitor.update( snapshot( 2000, topics ) );
+        final long tookMs = ( System.nanoTime() - startNs ) / 1_000_000;
+        log.info( "Updated the replication status of 100000 partitions in {} ms.", tookMs );
+
+        Assert.assertEquals( 1, monitor.getUnderReplicatedCount() );
+        Assert.assertEquals( Collections.singletonMap( "topic-42", 1 ), monitor.getSummary().getTopics() );
+    }
+
+    @Test
+    public void testTopicGaugesFollowUpdates()
+    {
+        final ClusterMetadataCache metadataCache = mock( ClusterMetadataCache.class );
+        when( metadataCache.getAsync() ).thenReturn( new CompletableFuture<>() );
+        final UnderReplicationMonitor monitor  = new UnderReplicationMonitor( metadataCache );
+        final MeterRegistry           registry = new SimpleMeterRegistry();
+        new ClusterGauges( registry,
+                           metadataCache,
+                           mock( ReassignmentScheduler.class ),
+                           mock( ReassignmentProgressTracker.class ),
+                           monitor,
+                           mock( LiveUpdateBroadcaster.class ) ).register();
+
+        // Registered by the update that finds the topic under replicated, not by a later refresh.
+        monitor.update( snapshot( 1000, topic( "orders", ALL, new int[]{ 1, 2 } ), topic( "payments", ALL ) ) );
+        final Gauge orders = registry.find( "kafka.manager.topic.partitions.under.replicated" ).tags( "topic", "orders" ).gauge();
+        Assert.assertNotNull( orders );
+        Assert.assertEquals( 1, orders.value(), 0 );
+        Assert.assertNull( registry.find( "kafka.manager.topic.partitions.under.replicated" ).tags( "topic", "payments" ).gauge() );
+
+        monitor.update( snapshot( 2000, topic( "orders", ALL, ALL ), topic( "payments", ALL ) ) );
+        Assert.assertTrue( Double.isNaN( orders.value() ) );
+
+        monitor.update( snapshot( 3000, topic( "orders", new int[]{ 1 }, ALL ), topic( "payments", ALL ) ) );
+        Assert.assertEquals( 1, orders.value(), 0 );
+    }
+}